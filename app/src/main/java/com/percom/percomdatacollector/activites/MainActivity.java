@@ -4,30 +4,43 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
-import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
-import android.hardware.SensorManager;
 import android.os.IBinder;
-import android.os.PowerManager;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
+import android.os.Handler;
 import android.view.View;
+import android.widget.ArrayAdapter;
 import android.widget.Button;
+import android.widget.CheckBox;
 import android.widget.CompoundButton;
 import android.widget.RadioButton;
+import android.widget.RadioGroup;
+import android.widget.Spinner;
 import android.widget.TextView;
 import android.widget.Toast;
 import android.widget.ToggleButton;
 
-import com.percom.percomdatacollector.Files.ArffFile;
 import com.percom.percomdatacollector.R;
-import com.percom.percomdatacollector.controller.FileHandler;
+import com.percom.percomdatacollector.capture.OverflowPolicy;
+import com.percom.percomdatacollector.capture.RecordingMode;
+import com.percom.percomdatacollector.capture.SensorRegistry;
+import com.percom.percomdatacollector.capture.SensorTypes;
+import com.percom.percomdatacollector.display.SensorValueDisplay;
+import com.percom.percomdatacollector.features.MovementFeatureSchema;
+import com.percom.percomdatacollector.metrics.LatencyHistogram;
+import com.percom.percomdatacollector.metrics.PipelineMetrics;
 import com.percom.percomdatacollector.services.FileService;
+import com.percom.percomdatacollector.services.RecordingStatusListener;
+import com.percom.percomdatacollector.storage.ExportHandle;
+import com.percom.percomdatacollector.storage.ExportListener;
+import com.percom.percomdatacollector.storage.SessionCatalog;
+import com.percom.percomdatacollector.storage.SessionInfo;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
 
 /**
  * This activity is responsible for collecting sensor data with the acceleraometers. The sensor
@@ -36,21 +49,41 @@ import java.io.IOException;
  *
  * @author Tristan Rust
  */
-public class MainActivity extends AppCompatActivity implements SensorEventListener {
+public class MainActivity extends AppCompatActivity {
 
-    // The filename
-    private static final String FILE_NAME = "acc-data,walking,jogging,sport.arff";
+    // Captures of older versions which held all recordings, they become sessions of the catalog
+    private static final String FILE_NAME = "acc-gyr-features,walking,jogging,sport";
+    private static final String RAW_FILE_NAME = "acc-gyr-raw,walking,jogging,sport";
+
+    // ARFF file of the first version, imported as a session with the name of the file
+    private static final String LEGACY_ARFF_NAME = "acc-data,walking,jogging,sport";
+    private static final String LEGACY_ARFF_FILE = LEGACY_ARFF_NAME + ".arff";
+
+    // Behaviour of the queue under load until another one is selected
+    private static final OverflowPolicy DEFAULT_OVERFLOW_POLICY = OverflowPolicy.DROP_NEWEST;
+
+    // Decimal places of the sensor values shown in the UI
+    private static final int DISPLAY_DECIMALS = 5;
+
+    // Maximum number of updates per second of the shown sensor values
+    private static final int DISPLAY_REFRESH_RATE_HZ = 10;
+
+    // Time between two updates of the shown metrics (1 s)
+    private static final long METRICS_REFRESH_MILLIS = 1000;
 
     // TextViews
     private static TextView txtvAccData = null;
     private static TextView txtvGyrData = null;
     private static TextView txtvButtonTitle = null;
+    private static TextView txtvMetrics = null;
 
     // Button
     private static Button cmdExportToSdCard = null;
     private static Button cmdDeleteFile = null;
+    private static Button cmdDumpMetrics = null;
 
     // RadioButtons
+    private static RadioGroup rdbContext = null;
     private static RadioButton rdbWalking = null;
     private static RadioButton rdbJogging = null;
     private static RadioButton rdbSport   = null;
@@ -58,21 +91,36 @@ public class MainActivity extends AppCompatActivity implements SensorEventListen
     // Toggle Button
     private static ToggleButton tbRecord = null;
 
+    // Spinner with the overflow policies
+    private static Spinner spnOverflowPolicy = null;
+
+    // CheckBox to record the raw samples instead of the features
+    private static CheckBox cbRawSamples = null;
+
     // FileService is needed in order to create, read, save and export files
-    private static FileService fileService = null;
+    private static volatile FileService fileService = null;
+
+    // Updates the shown metrics while the activity is visible
+    private final Handler metricsHandler = new Handler();
+    private final Runnable metricsRefresh = new Runnable() {
+        @Override
+        public void run() {
+            showMetrics();
+            metricsHandler.postDelayed(this, METRICS_REFRESH_MILLIS);
+        }
+    };
 
-    // SensorManager in order to get the acc.
-    private static SensorManager sensorManager = null;
+    // Running export, null if none was started
+    private ExportHandle exportHandle = null;
 
-    // Accelerometer
-    private static Sensor accelerometer = null;
+    // Sensors with a live display, accelerometer and gyroscope
+    private static final SensorRegistry DISPLAYED_SENSORS = SensorRegistry.DEFAULT;
 
-    // Gyroscope
-    private static Sensor gyroscope = null;
+    // Show the latest sensor values once per frame, one per stream of DISPLAYED_SENSORS
+    private final SensorValueDisplay[] displays = new SensorValueDisplay[DISPLAYED_SENSORS.size()];
 
-    // Power Manager
-    PowerManager powerManager = null;
-    PowerManager.WakeLock wakeLock = null;
+    // Shows the state of the recording which runs in the FileService
+    private final RecordingStatusListener recordingStatus = new RecordingStatus();
 
     /**
      * ServiceConnection to the FileService which creates a lose connection to the FileService.
@@ -93,19 +141,22 @@ public class MainActivity extends AppCompatActivity implements SensorEventListen
             fileService = binder.getFileService(); // Load the file from device
 
             try {
-                // Load the content from the .arff file
-                // FileHandler.getInstance().setCurrentArffFile(fileService.loadFileFromDevice(fileService.openFileInput(FILE_NAME)));
-                // FileHandler.getInstance().getCurrentArffFile().setStrFileName(FILE_NAME, false);
+                // Captures of older versions are listed with the sessions
+                fileService.adoptCapture(FILE_NAME, RecordingMode.FEATURES);
+                fileService.adoptCapture(RAW_FILE_NAME, RecordingMode.RAW_SAMPLES);
+                // The file of the first version is converted in the background
+                fileService.importArffFile(LEGACY_ARFF_FILE, LEGACY_ARFF_NAME, new ImportProgressListener());
+            } catch (IOException e) {
+                Toast.makeText(MainActivity.this, "Datei konnte nicht geprüft werden.", Toast.LENGTH_SHORT).show();
+            }
 
-                // Check if an ArffFile exists
-                fileService.openFileInput(FILE_NAME);
-                FileHandler.getInstance().setCurrentArffFile(new ArffFile(FILE_NAME, ""));
+            showSessionSummary();
 
-                txtvButtonTitle.setText(fileSizeToMBString(getFileService().calcFileSize(FILE_NAME)));
-            } catch (FileNotFoundException e) {
-                // Create a new file if no file was found
-                addArffFile();
+            // A recording started before a rotation or in the background keeps running
+            if (fileService.isRecording()) {
+                cbRawSamples.setChecked(fileService.getRecordingMode() == RecordingMode.RAW_SAMPLES);
             }
+            fileService.setRecordingStatusListener(recordingStatus);
         }
 
         @Override
@@ -124,42 +175,38 @@ public class MainActivity extends AppCompatActivity implements SensorEventListen
         // Widgets
         initializeWidgets();
 
-        // SensorManager
-        sensorManager = (SensorManager) getSystemService(SENSOR_SERVICE);
-
-        // Accelerometer
-        accelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
-
-        // Gyroscope
-        gyroscope = sensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE);
-
-        // Power Manager
-        powerManager = (PowerManager) getSystemService(POWER_SERVICE);
-        wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "PerComWakelockTag");
-
+        // Live sensor values
+        displays[DISPLAYED_SENSORS.getStream(SensorTypes.ACCELEROMETER)] =
+                new SensorValueDisplay(txtvAccData, DISPLAY_DECIMALS, DISPLAY_REFRESH_RATE_HZ);
+        displays[DISPLAYED_SENSORS.getStream(SensorTypes.GYROSCOPE)] =
+                new SensorValueDisplay(txtvGyrData, DISPLAY_DECIMALS, DISPLAY_REFRESH_RATE_HZ);
 
         // listener
         tbRecord.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
             @Override
             public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
-                if (isChecked) {
-                    // The toggle is enabled
-                    // start sensor recording
-                    registerAccelerometer(sensorManager);
-                    registerGyroscope(sensorManager);
+                if (getFileService() == null) return;
 
-                    // WakeLock let's the service running with screen off
-                    wakeLock.acquire();
-                } else {
-                    // stop sensor recording
-                    unregisterAccelerometer(sensorManager);
-
-                    // Releases the claim to the CPU and battery waste
-                    wakeLock.release();
+                if (isChecked && !getFileService().isRecording()) {
+                    // The toggle is enabled
+                    // start the recording in the service
+                    startCapture();
+                } else if (!isChecked && getFileService().isRecording()) {
+                    // stop sensor recording, the writer is stopped when the sensors delivered
+                    // their batched samples
+                    getFileService().stopRecording();
                 }
             }
         });
 
+        rdbContext.setOnCheckedChangeListener(new RadioGroup.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(RadioGroup group, int checkedId) {
+                // The new movement type labels the following samples
+                if (getFileService() != null) getFileService().setMovementType(getMovementType());
+            }
+        });
+
         cmdExportToSdCard.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
@@ -170,12 +217,25 @@ public class MainActivity extends AppCompatActivity implements SensorEventListen
         cmdDeleteFile.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                // Deletes the old file
-                deleteFile(FILE_NAME);
-                // Show the new file size in the UI
-                txtvButtonTitle.setText("Dateigröße: " + getFileService().calcFileSize(FILE_NAME));
-                // Creates a new one with the attributes
-                addArffFile();
+                if (getFileService() != null) {
+                    // Stops the recording, the capture session must not write into a deleted file
+                    getFileService().finishRecording();
+                    tbRecord.setChecked(false);
+
+                    // Deletes the sessions, the segments are removed in the background
+                    getFileService().deleteSessions(SessionCatalog.ALL);
+                    // Show the remaining sessions in the UI
+                    showSessionSummary();
+                } else {
+                    Toast.makeText(MainActivity.this, "Delete FAILED (fileService is null)!", Toast.LENGTH_SHORT).show();
+                }
+            }
+        });
+
+        cmdDumpMetrics.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                dumpMetrics();
             }
         });
     }
@@ -185,24 +245,44 @@ public class MainActivity extends AppCompatActivity implements SensorEventListen
         txtvAccData = (TextView) findViewById(R.id.txtvAccData);
         txtvGyrData = (TextView) findViewById(R.id.txtvGyrData);
         txtvButtonTitle = (TextView) findViewById(R.id.txtvButtonTitle);
+        txtvMetrics = (TextView) findViewById(R.id.txtvMetrics);
 
         // Button
         cmdExportToSdCard = (Button) findViewById(R.id.cmdExportToSdCard);
         cmdDeleteFile = (Button) findViewById(R.id.cmdDeleteFile);
+        cmdDumpMetrics = (Button) findViewById(R.id.cmdDumpMetrics);
 
         // RadioButtons
+        rdbContext = (RadioGroup) findViewById(R.id.rdbContext);
         rdbWalking = (RadioButton) findViewById(R.id.rdbWalking);
         rdbJogging = (RadioButton) findViewById(R.id.rdbJogging);
         rdbSport   = (RadioButton) findViewById(R.id.rdbSport);
 
         // ToggleButton
         tbRecord = (ToggleButton) findViewById(R.id.tbRecord);
+
+        // Spinner, the entries have the order of OverflowPolicy.values()
+        spnOverflowPolicy = (Spinner) findViewById(R.id.spnOverflowPolicy);
+        ArrayAdapter<CharSequence> policyAdapter = ArrayAdapter.createFromResource(this,
+                R.array.arrOverflowPolicies, android.R.layout.simple_spinner_item);
+        policyAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        spnOverflowPolicy.setAdapter(policyAdapter);
+        spnOverflowPolicy.setSelection(DEFAULT_OVERFLOW_POLICY.ordinal());
+
+        // CheckBox
+        cbRawSamples = (CheckBox) findViewById(R.id.cbRawSamples);
     }
 
     /**
-     * This methode exports the current arff file to the SD-Card.
+     * This methode exports the oldest session which wasn't exported yet to the SD-Card. The
+     * export runs in the background, a second click cancels it.
      */
     private void exportToSdCard() {
+        if (exportHandle != null && !exportHandle.isDone()) {
+            exportHandle.cancel();
+            return;
+        }
+
         if (this.getFileService() != null) {
             // Use FileService for export
             try {
@@ -211,7 +291,17 @@ public class MainActivity extends AppCompatActivity implements SensorEventListen
                 // FileHandler.getInstance().getCurrentArffFile().setStrFileName(FILE_NAME, false);
                 // getFileService().exportAFileToSdCard(FileHandler.getInstance().getCurrentArffFile());
 
-                getFileService().exportAFileToSdCard(FILE_NAME);
+                SessionCatalog catalog = getFileService().getSessionCatalog();
+                List<SessionInfo> pending = catalog != null ? catalog.list(SessionCatalog.NOT_EXPORTED)
+                        : Collections.<SessionInfo>emptyList();
+
+                if (pending.isEmpty()) {
+                    Toast.makeText(this, "Alle Sitzungen wurden exportiert.", Toast.LENGTH_SHORT).show();
+                    return;
+                }
+
+                // The features of a raw session are computed while exporting
+                exportHandle = getFileService().exportSessionToSdCard(pending.get(0).getName(), new ExportProgressListener());
             } catch (IOException e) {
                 Toast.makeText(this, "Export to SD-Card FAILED!", Toast.LENGTH_SHORT).show();
             }
@@ -222,44 +312,64 @@ public class MainActivity extends AppCompatActivity implements SensorEventListen
     }
 
     /**
-     * Register the listener for events and initialize the accelerometor.
+     * Shows the progress of the export on the export button. All methods run on the main
+     * thread.
      */
-    public void registerAccelerometer(SensorManager sensorManager) {
-        accelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+    private class ExportProgressListener implements ExportListener {
 
-        // check if accelerometer is available
-        if (accelerometer != null) {
-            sensorManager.registerListener(this, accelerometer, SensorManager.SENSOR_DELAY_FASTEST);
-        } else {
-            // Error, do something here
+        @Override
+        public void onProgress(long bytesDone, long bytesTotal, double megabytesPerSecond) {
+            int percent = bytesTotal > 0 ? (int) (bytesDone * 100 / bytesTotal) : 0;
+
+            cmdExportToSdCard.setText(String.format(Locale.US, "Export: %d%% (%.1f MB/s) - Abbrechen", percent, megabytesPerSecond));
         }
-    }
 
-    /**
-     * Disables the sensor if not needed.
-     */
-    public void unregisterAccelerometer(SensorManager sensorManager) {
-        sensorManager.unregisterListener(this);
-    }
+        @Override
+        public void onFinished(long bytesWritten, double megabytesPerSecond) {
+            cmdExportToSdCard.setText(R.string.strExportToSdCard);
+            showSessionSummary();
+        }
 
-    /**
-     * Register the listener for events and initialize the gyrosceope.
-     */
-    public void registerGyroscope(SensorManager sensorManager) {
-        gyroscope = sensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE);
-        //check if gyroscope is available
-        if (gyroscope != null) {
-            sensorManager.registerListener(this, gyroscope, SensorManager.SENSOR_DELAY_FASTEST);
-        } else {
-            // Error do something here
+        @Override
+        public void onCancelled() {
+            cmdExportToSdCard.setText(R.string.strExportToSdCard);
+        }
+
+        @Override
+        public void onFailed(IOException e) {
+            cmdExportToSdCard.setText(R.string.strExportToSdCard);
+            Toast.makeText(MainActivity.this, "Export to SD-Card FAILED!", Toast.LENGTH_SHORT).show();
         }
     }
 
     /**
-     * Disables the sensor if not needed.
+     * Shows the progress of the import of the ARFF file of the first version instead of the
+     * session summary. All methods run on the main thread.
      */
-    public void unregisterGyrosceope(SensorManager sensorManager) {
-        sensorManager.unregisterListener(this);
+    private class ImportProgressListener implements ExportListener {
+
+        @Override
+        public void onProgress(long bytesDone, long bytesTotal, double megabytesPerSecond) {
+            int percent = bytesTotal > 0 ? (int) (bytesDone * 100 / bytesTotal) : 0;
+
+            txtvButtonTitle.setText(String.format(Locale.GERMANY, "Alte Aufnahme wird importiert: %d%%", percent));
+        }
+
+        @Override
+        public void onFinished(long bytesWritten, double megabytesPerSecond) {
+            showSessionSummary();
+        }
+
+        @Override
+        public void onCancelled() {
+            showSessionSummary();
+        }
+
+        @Override
+        public void onFailed(IOException e) {
+            showSessionSummary();
+            Toast.makeText(MainActivity.this, "Alte Aufnahme konnte nicht importiert werden.", Toast.LENGTH_SHORT).show();
+        }
     }
 
     @Override
@@ -272,6 +382,9 @@ public class MainActivity extends AppCompatActivity implements SensorEventListen
     @Override
     protected void onResume() {
         super.onResume();
+
+        for (SensorValueDisplay display : displays) display.start();
+        metricsHandler.post(metricsRefresh);
     }
 
     @Override
@@ -284,14 +397,15 @@ public class MainActivity extends AppCompatActivity implements SensorEventListen
     protected void onPause() {
         super.onPause();
 
+        for (SensorValueDisplay display : displays) display.stop();
+        metricsHandler.removeCallbacks(metricsRefresh);
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
 
-        // Only destroy the service when the activity was destroyed
-        unregisterAccelerometer(sensorManager);
+        // The service keeps running while it records, it stops itself when the recording ends
         unbindConnectioonAndKillfileService();
     }
 
@@ -305,8 +419,8 @@ public class MainActivity extends AppCompatActivity implements SensorEventListen
 
     private void unbindConnectioonAndKillfileService() {
         if (fileService != null) {
-            // stop service
-            fileService.stopSelf();
+            // 1. stop the status updates, the activity is gone
+            fileService.setRecordingStatusListener(null);
 
             // 2. remove binding
             unbindService(connection);
@@ -317,216 +431,143 @@ public class MainActivity extends AppCompatActivity implements SensorEventListen
     }
 
     /**
-     * Adds a predefined arff file.
+     * Shows the number, the size and the export state of the recorded sessions. Only the
+     * catalog is read, not the captures.
      */
-    private void addArffFile() {
-        String strInputFileName = FILE_NAME;
-        String strArffDef = "@relation detectSportType\n"
-                + "\n"
-                + "@attribute mean numeric\n"
-                + "@attribute stdDeviation numeric\n"
-                + "@attribute min numeric\n"
-                + "@attribute max numeric\n"
-                + "@attribute movementType {walking,jogging,sport}\n"
-                + "@attribute sensor {accelerometer,gyroscope}\n"
-                + "\n"
-                + "@data";
-
-        try {
-            // Generate the file
-            ArffFile arffFile = new ArffFile();
+    private void showSessionSummary() {
+        SessionCatalog catalog = getFileService() != null ? getFileService().getSessionCatalog() : null;
+        if (catalog == null) return;
 
-            // Set attributes
-            arffFile.setStrFileName(strInputFileName, false);
-            arffFile.setStrFileContent(strArffDef);
+        SessionCatalog.Summary summary = catalog.summarize(SessionCatalog.ALL);
 
-            // FileService
-            this.getFileService().saveAFile(arffFile, this.openFileOutput(arffFile.getStrFileName(), this.MODE_PRIVATE));
-
-            FileHandler.getInstance().setCurrentArffFile(arffFile);
-
-            Toast.makeText(this, "File created", Toast.LENGTH_SHORT).show();
-        } catch (Exception e) {
-            Toast.makeText(this, "File couldn't be created", Toast.LENGTH_SHORT).show();
-        }
+        txtvButtonTitle.setText(String.format(Locale.GERMANY, "%s, Sitzungen: %d (%d nicht exportiert)",
+                fileSizeToMBString(summary.getSizeBytes() / 1024), summary.getSessionCount(),
+                summary.getNotExportedCount()));
     }
 
+    /**
+     * Starts the recording in the FileService with the selected mode, overflow policy and
+     * movement type.
+     */
+    private void startCapture() {
+        // The policy is chosen per session
+        OverflowPolicy overflowPolicy = OverflowPolicy.values()[spnOverflowPolicy.getSelectedItemPosition()];
+        RecordingMode mode = getRecordingMode();
 
-    private void addNewRecord(float mean, float stdDeviation, float min, float max, String movementType, String sensor) {
         try {
-            if (this.getFileService() != null) {
-                ArffFile arffFile = FileHandler.getInstance().getCurrentArffFile();
-
-                String newRecord = "\n"
-                        + Float.toString(mean) + ","
-                        + Float.toString(stdDeviation) + ","
-                        + Float.toString(min) + ","
-                        + Float.toString(max) + ","
-                        + movementType + ","
-                        + sensor;
-
-                // String newContent = "";
-                // newContent = arffFile.getStrFileContent() + newRecord;
-                // arffFile.setStrFileContent(newContent);
-
-                // this.getFileService().deleteFile(FILE_NAME);
-                // this.getFileService().saveAFile(arffFile, this.openFileOutput(arffFile.getStrFileName(), this.MODE_APPEND));
-                this.getFileService().appendToFile(newRecord, this.openFileOutput(arffFile.getStrFileName(), this.MODE_APPEND));
-
-            } else {
-                Toast.makeText(MainActivity.this, "FileService is null!", Toast.LENGTH_SHORT).show();
-            }
-        } catch (Exception e) {
-            Toast.makeText(this, "Couldn't add the new record.", Toast.LENGTH_SHORT).show();
+            // Every recording is a new session
+            getFileService().startRecording(mode, overflowPolicy, getMovementType());
+        } catch (IOException e) {
+            Toast.makeText(this, "Couldn't start the recording.", Toast.LENGTH_SHORT).show();
+            tbRecord.setChecked(false);
         }
     }
 
     /**
-     * Accelerometer methode.
+     * Shows the counters and the 99th percentiles of the current or last recording.
      */
-    @Override
-    public void onAccuracyChanged(Sensor sensor, int accuracy) {
-        // Do nothing
+    private void showMetrics() {
+        PipelineMetrics m = getFileService() != null ? getFileService().getCaptureMetrics() : null;
+        if (m == null) return;
+
+        txtvMetrics.setText(String.format(Locale.GERMANY,
+                "Events: %d empfangen, %d geschrieben, %d verworfen%n"
+                        + "p99 Callback %s, Warteschlange %s, Sensor bis Writer %s%n"
+                        + "p99 Serialisierung %s, Schreiben %s, Flush %s",
+                m.getTotalReceived(), m.getTotalWritten(), m.getTotalDropped(),
+                formatP99(m.getCallback()), formatP99(m.getQueueWait()), formatP99(m.getEventToWriter()),
+                formatP99(m.getSerialization()), formatP99(m.getWrite()), formatP99(m.getFlush())));
     }
 
-    /**
-     * Accelerometer methode in order to get current sensor values.
-     */
-    @Override
-    public void onSensorChanged(SensorEvent event) {
-        Sensor sensorType = event.sensor;
-
-        // ACCELEROMETER
-        if (sensorType.getType() == Sensor.TYPE_ACCELEROMETER) {
-            // Accelerometer: Read the x, y, z values from the sensor event
-            float x = event.values[0];
-            float y = event.values[1];
-            float z = event.values[2];
+    private static String formatP99(LatencyHistogram histogram) {
+        long nanos = histogram.getPercentile(0.99);
 
-            // Accelerometer: Output
-            txtvAccData.setText(Float.toString(x) + ", " + Float.toString(y) + ", " + Float.toString(z));
-
-            // Accelerometer: Calc attributes
-            float mean = calcMean(x, y, z);
-            float stdDeviation = (float) calcStdDeviation(x, y, z);
-            float min = findMin(x, y, z);
-            float max = findMax(x, y, z);
+        if (nanos >= 1000000) return String.format(Locale.GERMANY, "%.1f ms", nanos / 1e6);
+        return String.format(Locale.GERMANY, "%d µs", nanos / 1000);
+    }
 
-            // Accelerometer: Write record into the .arff file
-            addNewRecord(mean, stdDeviation, min, max, getMovementType(), "accelerometer");
+    /**
+     * Writes the report of the current or last recording to the SD-Card.
+     */
+    private void dumpMetrics() {
+        PipelineMetrics captureMetrics = getFileService() != null ? getFileService().getCaptureMetrics() : null;
 
+        if (captureMetrics == null) {
+            Toast.makeText(this, "Keine Messwerte vorhanden.", Toast.LENGTH_SHORT).show();
+            return;
         }
 
-        // GYROSCOPE
-        if (sensorType.getType() == Sensor.TYPE_GYROSCOPE) {
-
-            // maximal allowable margin of error
-            float EPSILON = 0.000000001f;
-            // Read the X, Y, Z value from sensor
-            float axisX = event.values[0];
-            float axisY = event.values[1];
-            float axisZ = event.values[2];
-
-            // Gyroscope: Calculate the angular speed of the data
-            float omegaMagnitude = (float) Math.sqrt(axisX*axisX + axisY*axisY + axisZ*axisZ);;
-
-            // Normalize values of X, Y, Z axis
-            if (omegaMagnitude > EPSILON) {
-                axisX /= omegaMagnitude;
-                axisY /= omegaMagnitude;
-                axisZ /= omegaMagnitude;
-            }
-
-            // Gyroscope: Delete the last few numbers, because the size is to big for the UI
-            String strAxisX = Float.toString(axisX);
-            String strAxisY = Float.toString(axisY);
-            String strAxisZ = Float.toString(axisZ);
-
-            // Deletes the last a specified number
-            int numberOfLetters = 3;
-
-            strAxisX = strAxisX.substring(0, strAxisX.length()-numberOfLetters);
-            strAxisY = strAxisY.substring(0, strAxisY.length()-numberOfLetters);
-            strAxisZ = strAxisZ.substring(0, strAxisZ.length()-numberOfLetters);
-
-            // Gyroscope: Output
-            txtvGyrData.setText(strAxisX + ", " + strAxisY + ", " + strAxisZ);
-
-            // Gyroscope: Calc attributes
-            float mean = calcMean(axisX, axisY, axisZ);
-            float stdDeviation = (float) calcStdDeviation(axisX, axisY, axisZ);
-            float min = findMin(axisX, axisY, axisZ);
-            float max = findMax(axisX, axisY, axisZ);
-
-            // Gyroscope: Write record into the .arff file
-            addNewRecord(mean, stdDeviation, min, max, getMovementType(), "gyroscope");
-
+        try {
+            File reportFile = getFileService().dumpMetrics(captureMetrics);
+            Toast.makeText(this, "Messwerte gespeichert: " + reportFile.getName(), Toast.LENGTH_SHORT).show();
+        } catch (IOException e) {
+            Toast.makeText(this, "Messwerte konnten nicht gespeichert werden.", Toast.LENGTH_SHORT).show();
         }
-
-        // FileSize
-        txtvButtonTitle.setText(fileSizeToMBString(getFileService().calcFileSize(FILE_NAME)));
-
     }
 
-    private String getMovementType() {
-        String strContext = "";
-
-        if (rdbWalking.isChecked()) strContext = "walking";
-        else if (rdbJogging.isChecked()) strContext = "jogging";
-        else if (rdbSport.isChecked()) strContext = "sport";
+    /**
+     * Shows the state, the file size and the latest sensor values of the recording in the
+     * FileService.
+     */
+    private class RecordingStatus implements RecordingStatusListener {
 
-        return strContext;
-    }
+        @Override
+        public void onRecordingStateChanged(boolean recording) {
+            tbRecord.setChecked(recording);
 
-    private float findMax(float x, float y, float z) {
-        float max = 0;
+            // The mode can't change during a recording
+            cbRawSamples.setEnabled(!recording);
 
-        if (x>y) {
-            max = x;
-            if (x<z)
-                max = z;
-        } else {
-            max = y;
-            if (y<z)
-                max = z;
+            if (!recording) showSessionSummary();
         }
 
-        return max;
-    }
+        @Override
+        public void onCaptureSizeChanged(long sizeBytes) {
+            txtvButtonTitle.setText(fileSizeToMBString(sizeBytes / 1024));
+        }
 
-    private float findMin(float x, float y, float z) {
-        float min = 0;
+        @Override
+        public void onSensorValues(int sensorType, float x, float y, float z) {
+            int stream = DISPLAYED_SENSORS.getStream(sensorType);
+            if (stream < 0) return;
+
+            if (DISPLAYED_SENSORS.getChannel(stream).isNormalized()) {
+                // maximal allowable margin of error
+                float EPSILON = 0.000000001f;
+
+                // Gyroscope: Calculate the angular speed of the data
+                float omegaMagnitude = (float) Math.sqrt(x*x + y*y + z*z);
+
+                // Normalize values of X, Y, Z axis
+                if (omegaMagnitude > EPSILON) {
+                    x /= omegaMagnitude;
+                    y /= omegaMagnitude;
+                    z /= omegaMagnitude;
+                }
+            }
 
-        if (x<y) {
-            min = x;
-            if (x>z)
-                min = z;
-        } else {
-            min = y;
-            if (y>z)
-                min = z;
+            // Output with the next frame, the precision of the gyroscope is limited because the size is to big for the UI
+            displays[stream].update(x, y, z);
         }
-
-        return min;
     }
-    private double calcStdDeviation(float x, float y, float z) {
-        double stdDeviation = 0;
-        double mean = 0;
-        double variance = 0;
 
-        mean = calcMean(x, y, z);
-        variance = (Math.pow((x-mean), 2) + Math.pow((y-mean), 2) + Math.pow((z-mean), 2)) / 3;
-        stdDeviation = Math.sqrt(variance);
-
-        return stdDeviation;
+    /**
+     * Returns the selected recording mode.
+     */
+    private RecordingMode getRecordingMode() {
+        return cbRawSamples.isChecked() ? RecordingMode.RAW_SAMPLES : RecordingMode.FEATURES;
     }
 
-    private float calcMean(float x, float y, float z) {
-        float mean = 0;
+    /**
+     * Returns the code of the selected movement type, see MovementFeatureSchema.MOVEMENT_TYPES.
+     */
+    private int getMovementType() {
+        int movementType = MovementFeatureSchema.MOVEMENT_WALKING;
 
-        mean = ((x + y + z) / 3);
+        if (rdbJogging.isChecked()) movementType = MovementFeatureSchema.MOVEMENT_JOGGING;
+        else if (rdbSport.isChecked()) movementType = MovementFeatureSchema.MOVEMENT_SPORT;
 
-        return mean;
+        return movementType;
     }
 
     /**
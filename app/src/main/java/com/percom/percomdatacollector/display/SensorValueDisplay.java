@@ -0,0 +1,112 @@
+package com.percom.percomdatacollector.display;
+
+import android.view.Choreographer;
+import android.widget.TextView;
+
+import com.percom.percomdatacollector.Files.DecimalFloatFormatter;
+
+/**
+ * Shows the latest "x, y, z" values of a sensor in a TextView. update() only stores the values
+ * in primitive fields, the TextView is updated at most once per frame by a Choreographer frame
+ * callback, optionally limited to a lower refresh rate. Values which are replaced before the
+ * next frame are never formatted.
+ *
+ * The display must be created, started and stopped on the UI thread. update() may be called
+ * by one other thread, a frame may then show values of two consecutive updates, which is fine
+ * for a live display.
+ */
+public class SensorValueDisplay implements Choreographer.FrameCallback {
+
+    // Refresh rate which updates the TextView on every frame
+    public static final int EVERY_FRAME = 0;
+
+    private final TextView textView;
+    private final Choreographer choreographer;
+
+    // Formats the values into a reused char array without creating Strings
+    private final DecimalFloatFormatter formatter;
+    private final char[] chars = new char[128];
+
+    // Minimum time between two updates of the TextView
+    private final long minIntervalNanos;
+    private long lastFrameNanos = 0;
+
+    // Latest values, version is incremented after every update
+    private volatile float x;
+    private volatile float y;
+    private volatile float z;
+    private volatile int version = 0;
+
+    // Version which is shown in the TextView
+    private int shownVersion = 0;
+
+    private boolean started = false;
+
+    /**
+     * Creates a display for a TextView.
+     *
+     * @param textView : TextView : Shows the values.
+     * @param decimals : int : Decimal places of the values.
+     * @param refreshRateHz : int : Maximum number of TextView updates per second or EVERY_FRAME.
+     */
+    public SensorValueDisplay(TextView textView, int decimals, int refreshRateHz) {
+        this.textView = textView;
+        this.choreographer = Choreographer.getInstance();
+        this.formatter = new DecimalFloatFormatter(decimals);
+        this.minIntervalNanos = refreshRateHz > 0 ? 1000000000L / refreshRateHz : 0;
+    }
+
+    /**
+     * Stores the latest values, they are shown with the next frame. Creates no objects.
+     */
+    public void update(float x, float y, float z) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        version++;
+    }
+
+    /**
+     * Starts updating the TextView. Should be called in onResume.
+     */
+    public void start() {
+        if (started) return;
+        started = true;
+
+        choreographer.postFrameCallback(this);
+    }
+
+    /**
+     * Stops updating the TextView. Should be called in onPause.
+     */
+    public void stop() {
+        if (!started) return;
+        started = false;
+
+        choreographer.removeFrameCallback(this);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!started) return;
+
+        int currentVersion = version;
+
+        if (currentVersion != shownVersion && frameTimeNanos - lastFrameNanos >= minIntervalNanos) {
+            shownVersion = currentVersion;
+            lastFrameNanos = frameTimeNanos;
+
+            int length = formatter.format(x, chars, 0);
+            chars[length++] = ',';
+            chars[length++] = ' ';
+            length = formatter.format(y, chars, length);
+            chars[length++] = ',';
+            chars[length++] = ' ';
+            length = formatter.format(z, chars, length);
+
+            textView.setText(chars, 0, length);
+        }
+
+        choreographer.postFrameCallback(this);
+    }
+}
@@ -0,0 +1,243 @@
+package com.percom.percomdatacollector.sensors;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener2;
+import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.percom.percomdatacollector.capture.SensorSampleListener;
+import com.percom.percomdatacollector.capture.SensorSource;
+import com.percom.percomdatacollector.metrics.PipelineMetrics;
+
+import java.io.IOException;
+
+/**
+ * SensorSource for the Android sensors. With a maximum report latency the sensors batch their
+ * events in the hardware FIFO and deliver them as a burst, so the CPU only wakes up once per
+ * burst instead of once per sample. A burst is handed to the listener as one block: the first
+ * event of a burst posts the end of the block to the handler, it runs after all events which
+ * were delivered together.
+ *
+ * stop() flushes the FIFOs first, so no batched sample gets lost. stopNow() ends the recording
+ * right away and drops the batched samples instead.
+ *
+ * start() and stop() can be called from any thread, the events and the stop sequence run on
+ * the thread of the handler.
+ */
+public class AndroidSensorSource implements SensorSource, SensorEventListener2 {
+
+    // Time stop() waits for the FIFO flush at least (1 s)
+    private static final long MIN_FLUSH_TIMEOUT_MILLIS = 1000;
+
+    private final SensorManager sensorManager;
+    private final int[] sensorTypes;
+    private final int samplingPeriodUs;
+    private final int maxReportLatencyUs;
+    private final Handler handler;
+
+    // Registered sensors
+    private Sensor[] sensors = new Sensor[0];
+
+    // Receiver of the samples, null when the source is stopped
+    private volatile SensorSampleListener listener = null;
+
+    // Measures the duration of the callbacks or null
+    private PipelineMetrics metrics = null;
+
+    // true while the end of a block is posted
+    private boolean blockPending = false;
+
+    // Sensors whose FIFO flush isn't complete yet
+    private int pendingFlushes = 0;
+
+    // Ends the current block after the burst
+    private final Runnable blockEnd = new Runnable() {
+        @Override
+        public void run() {
+            blockPending = false;
+
+            SensorSampleListener current = listener;
+            if (current != null) current.onBlockComplete();
+        }
+    };
+
+    // Runs stop() on the thread of the handler
+    private final Runnable stopRequest = new Runnable() {
+        @Override
+        public void run() {
+            stop();
+        }
+    };
+
+    // Unregisters the sensors without a flush after stopNow()
+    private final Runnable immediateStop = new Runnable() {
+        @Override
+        public void run() {
+            sensorManager.unregisterListener(AndroidSensorSource.this);
+            handler.removeCallbacks(flushTimeout);
+            handler.removeCallbacks(blockEnd);
+            blockPending = false;
+            pendingFlushes = 0;
+        }
+    };
+
+    // Unregisters the sensors if a flush doesn't complete
+    private final Runnable flushTimeout = new Runnable() {
+        @Override
+        public void run() {
+            finishStop();
+        }
+    };
+
+    /**
+     * Creates the source.
+     *
+     * @param sensorManager : SensorManager : The system service.
+     * @param sensorTypes : int[] : Sensor.TYPE_* of the sensors.
+     * @param samplingPeriodUs : int : Sampling period or SensorManager.SENSOR_DELAY_*.
+     * @param maxReportLatencyUs : int : Maximum time the events are batched, 0 to deliver
+     *                           every event immediately.
+     * @param handler : Handler : Handler of the thread which receives the events, null for the
+     *                main thread.
+     */
+    public AndroidSensorSource(SensorManager sensorManager, int[] sensorTypes, int samplingPeriodUs,
+                               int maxReportLatencyUs, Handler handler) {
+        this.sensorManager = sensorManager;
+        this.sensorTypes = sensorTypes.clone();
+        this.samplingPeriodUs = samplingPeriodUs;
+        this.maxReportLatencyUs = maxReportLatencyUs;
+        this.handler = handler != null ? handler : new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Sets the instrumentation. Must be called before the source is started.
+     *
+     * @param metrics : PipelineMetrics : Receives the duration of every callback, null for none.
+     */
+    public void setMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Registers the sensors. Sensors which aren't available on the device are skipped.
+     */
+    @Override
+    public void start(SensorSampleListener listener) throws IOException {
+        if (this.listener != null) throw new IOException("Sensor source already started");
+
+        int available = 0;
+        Sensor[] found = new Sensor[sensorTypes.length];
+
+        for (int type : sensorTypes) {
+            Sensor sensor = sensorManager.getDefaultSensor(type);
+            if (sensor != null) found[available++] = sensor;
+        }
+
+        if (available == 0) throw new IOException("No sensor available");
+
+        this.listener = listener;
+        this.sensors = new Sensor[available];
+        System.arraycopy(found, 0, sensors, 0, available);
+
+        for (Sensor sensor : sensors) {
+            sensorManager.registerListener(this, sensor, samplingPeriodUs, maxReportLatencyUs, handler);
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (Looper.myLooper() != handler.getLooper()) {
+            handler.post(stopRequest);
+            return;
+        }
+
+        if (listener == null) return;
+
+        if (maxReportLatencyUs > 0 && sensorManager.flush(this)) {
+            // Wait for the batched events, onFlushCompleted is called once per sensor
+            pendingFlushes = sensors.length;
+            handler.postDelayed(flushTimeout, Math.max(MIN_FLUSH_TIMEOUT_MILLIS, 2L * maxReportLatencyUs / 1000));
+        } else {
+            handler.post(flushTimeout);
+        }
+    }
+
+    /**
+     * Stops the source right away without flushing the FIFOs, the batched samples are lost and
+     * the listener isn't informed. No sample is delivered after the call, except by a callback
+     * which is already running. The sensors are unregistered on the thread of the handler. Can
+     * be called from any thread.
+     */
+    public void stopNow() {
+        listener = null;
+        handler.post(immediateStop);
+    }
+
+    @Override
+    public void onFlushCompleted(Sensor sensor) {
+        if (pendingFlushes > 0 && --pendingFlushes == 0) {
+            handler.removeCallbacks(flushTimeout);
+            finishStop();
+        }
+    }
+
+    private void finishStop() {
+        SensorSampleListener stoppedListener = listener;
+        if (stoppedListener == null) return;
+
+        sensorManager.unregisterListener(this);
+        handler.removeCallbacks(blockEnd);
+        pendingFlushes = 0;
+        listener = null;
+
+        if (blockPending) {
+            blockPending = false;
+            stoppedListener.onBlockComplete();
+        }
+
+        stoppedListener.onSourceStopped();
+    }
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        // Read once, stopNow() clears it from another thread
+        SensorSampleListener listener = this.listener;
+        if (listener == null) return;
+
+        long start = metrics != null ? System.nanoTime() : 0;
+
+        float[] values = event.values;
+
+        // Sensors like the barometer deliver a single value
+        if (values.length >= 3) {
+            listener.onSample(event.sensor.getType(), event.timestamp, values[0], values[1], values[2]);
+        } else {
+            listener.onSample(event.sensor.getType(), event.timestamp, values[0], 0f, 0f);
+        }
+
+        if (!blockPending) {
+            blockPending = true;
+            handler.post(blockEnd);
+        }
+
+        if (metrics != null) metrics.getCallback().record(System.nanoTime() - start);
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+        // Do nothing
+    }
+
+    /**
+     * Returns true if the hardware of a registered sensor batches events.
+     */
+    public boolean isBatching() {
+        for (Sensor sensor : sensors) {
+            if (sensor.getFifoMaxEventCount() > 0) return maxReportLatencyUs > 0;
+        }
+
+        return false;
+    }
+}
@@ -6,30 +6,85 @@ import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
+import android.hardware.SensorManager;
 import android.os.Binder;
+import android.os.Build;
 import android.os.Environment;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.Process;
+import android.os.SystemClock;
 import android.widget.Toast;
 
 import com.percom.percomdatacollector.Files.ArffFile;
+import com.percom.percomdatacollector.Files.ArffParseException;
+import com.percom.percomdatacollector.Files.ArffRecord;
+import com.percom.percomdatacollector.Files.ArffSchema;
+import com.percom.percomdatacollector.Files.ArffStreamReader;
+import com.percom.percomdatacollector.Files.BinaryCaptureFormat;
+import com.percom.percomdatacollector.Files.BinaryRecordEncoder;
+import com.percom.percomdatacollector.Files.ExportFormat;
 import com.percom.percomdatacollector.R;
 import com.percom.percomdatacollector.activites.MainActivity;
+import com.percom.percomdatacollector.batch.FeatureExportJob;
+import com.percom.percomdatacollector.capture.CaptureWriterThread;
+import com.percom.percomdatacollector.capture.MergedFeatureRecordConsumer;
+import com.percom.percomdatacollector.capture.OverflowPolicy;
+import com.percom.percomdatacollector.capture.RawSampleRecordConsumer;
+import com.percom.percomdatacollector.capture.RecordingDefaults;
+import com.percom.percomdatacollector.capture.RecordingMode;
+import com.percom.percomdatacollector.capture.SampleConsumer;
+import com.percom.percomdatacollector.capture.SampleQueueListener;
+import com.percom.percomdatacollector.capture.SampleRingBuffer;
+import com.percom.percomdatacollector.capture.SensorRegistry;
+import com.percom.percomdatacollector.capture.WriteErrorListener;
+import com.percom.percomdatacollector.features.MovementFeatureSchema;
+import com.percom.percomdatacollector.features.SpectralFeatureExtractor;
+import com.percom.percomdatacollector.metrics.PipelineMetrics;
+import com.percom.percomdatacollector.sensors.AndroidSensorSource;
+import com.percom.percomdatacollector.storage.CaptureExportJob;
+import com.percom.percomdatacollector.storage.CaptureSizeListener;
+import com.percom.percomdatacollector.storage.ChannelCopyJob;
+import com.percom.percomdatacollector.storage.DeleteFilesJob;
+import com.percom.percomdatacollector.storage.DropStatisticsSource;
+import com.percom.percomdatacollector.storage.ExportEngine;
+import com.percom.percomdatacollector.storage.ExportHandle;
+import com.percom.percomdatacollector.storage.ExportJob;
+import com.percom.percomdatacollector.storage.ExportListener;
+import com.percom.percomdatacollector.storage.FsyncPolicy;
+import com.percom.percomdatacollector.storage.RecordOutput;
+import com.percom.percomdatacollector.storage.SegmentedCaptureLog;
+import com.percom.percomdatacollector.storage.SessionCatalog;
+import com.percom.percomdatacollector.storage.SessionInfo;
 
-import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
 import java.io.OutputStreamWriter;
-import java.nio.channels.FileChannel;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
 
 /**
  * This service class saves and deletes ArffFiles from the local storage or exports them to
- * SD-Card.
+ * SD-Card. It also runs the recording: the sensors deliver their events on a dedicated
+ * HandlerThread, the samples are written by the capture writer thread and the service runs in
+ * the foreground while recording, so neither the main thread nor the lifecycle of an activity
+ * affect the capture. Activities only start and stop the recording and subscribe to its status
+ * with a RecordingStatusListener.
+ *
+ * Every recording is a session with its own capture. The sessions and their metadata are kept
+ * in a SessionCatalog, so they can be listed and summarized without touching the captures.
  *
  * @author Tristan Rust
  */
@@ -42,6 +97,71 @@ public class FileService extends Service {
     // Read in
     private BufferedReader in = null;
 
+    // Maximum size of a capture segment (1 MB)
+    public static final long CAPTURE_SEGMENT_SIZE = SegmentedCaptureLog.DEFAULT_SEGMENT_SIZE;
+
+    // Appended to the name of an ARFF file of the first version which couldn't be imported
+    public static final String INVALID_ARFF_SUFFIX = ".invalid";
+
+    // Directories with the segments of deleted captures start with it
+    private static final String DELETED_CAPTURE_PREFIX = "deleted-";
+
+    // Captures of recording sessions are named session-<start time>
+    public static final String SESSION_PREFIX = "session-";
+
+    // The features of a raw capture are exported to <capture name> + FEATURES_SUFFIX + ".arff"
+    private static final String FEATURES_SUFFIX = ".features";
+
+    // The writer thread is signaled after every burst, so it can sleep longer when batching
+    private static final long WRITER_IDLE_PARK_NANOS = RecordingDefaults.MAX_REPORT_LATENCY_US > 0
+            ? 100000000L : CaptureWriterThread.DEFAULT_IDLE_PARK_NANOS;
+
+    // The status listener is informed whenever the capture grew by this many bytes (16 KB)
+    private static final long CAPTURE_SIZE_GRANULARITY = 16 * 1024;
+
+    // Log of the current recording session, only used by the capture writer thread
+    private SegmentedCaptureLog captureLog = null;
+
+    // Size of the capture while no session is open, re-synced at open and seal
+    private volatile long captureFileSize = 0;
+
+    // Runs the exports in the background
+    private final ExportEngine exportEngine = new ExportEngine();
+    // Import of the ARFF file of the first version, null before it was started
+    private ExportHandle arffImport = null;
+    // Passes export events to the main thread
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Receives the sensor events, so the callbacks never run on the main thread
+    private HandlerThread sensorThread = null;
+    private Handler sensorHandler = null;
+
+    // Recording, only changed on the main thread, null while not recording
+    private AndroidSensorSource sensorSource = null;
+    private volatile RecordingSampleListener sampleListener = null;
+    private CaptureWriterThread captureWriter = null;
+
+    // Metrics of the current or last recording, null before the first recording
+    private volatile PipelineMetrics captureMetrics = null;
+
+    // What the current or last recording stores
+    private RecordingMode recordingMode = RecordingMode.FEATURES;
+
+    // Sensors of the current or last recording
+    private SensorRegistry recordedSensors = SensorRegistry.DEFAULT;
+
+    // Metadata of the recording sessions, null if the catalog couldn't be opened
+    private SessionCatalog sessionCatalog = null;
+
+    // Session of the current recording, null while not recording
+    private SessionInfo currentSession = null;
+
+    // Subscriber of the recording status or null
+    private volatile RecordingStatusListener statusListener = null;
+
+    // Keeps the CPU running while recording with the screen off
+    private PowerManager.WakeLock wakeLock = null;
+
     // Notification Manager
     private NotificationManager notificationManager;
     // Unique identification number for the notification
@@ -80,6 +200,32 @@ public class FileService extends Service {
 
         // Display a notification about starting.
         showNotification();
+
+        // Sensor thread and wake lock of the recording
+        sensorThread = new HandlerThread("SensorThread", Process.THREAD_PRIORITY_URGENT_DISPLAY);
+        sensorThread.start();
+        sensorHandler = new Handler(sensorThread.getLooper());
+
+        PowerManager powerManager = (PowerManager) getSystemService(POWER_SERVICE);
+        wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "PerComWakelockTag");
+
+        // Catalog of the recording sessions, sessions which were interrupted by a crash are closed
+        try {
+            sessionCatalog = new SessionCatalog(new File(getFilesDir(), SessionCatalog.FILE_NAME));
+            closeInterruptedSessions();
+        } catch (IOException e) {
+            Toast.makeText(this, "Sitzungsverzeichnis konnte nicht geladen werden.", Toast.LENGTH_SHORT).show();
+        }
+
+        // Finish deleting captures which were moved aside before the app was stopped
+        File[] files = getFilesDir().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory() && file.getName().startsWith(DELETED_CAPTURE_PREFIX)) {
+                    exportEngine.submit(new DeleteFilesJob(file), new QuietExportListener());
+                }
+            }
+        }
     }
 
     @Override
@@ -89,9 +235,16 @@ public class FileService extends Service {
 
     @Override
     public void onDestroy() {
+        // Seal a recording which is still running, e.g. when the system stops the service
+        finishRecording();
+        sensorThread.quit();
+
         // Cancel the persistent notification.
         notificationManager.cancel(NOTIFICATION);
 
+        // Stop running exports
+        exportEngine.shutdown();
+
         // Tell the user we stopped.
         Toast.makeText(this, R.string.local_service_stopped, Toast.LENGTH_SHORT).show();
     }
@@ -100,6 +253,15 @@ public class FileService extends Service {
      * Shows a notification in the status bar while this service is running.
      */
     private void showNotification() {
+        // Send the notification
+        notificationManager.notify(NOTIFICATION, buildNotification());
+    }
+
+    /**
+     * Creates the notification of the service, it's also used while the service runs in the
+     * foreground.
+     */
+    private Notification buildNotification() {
         // Message which should be shown
         CharSequence text = getText(R.string.local_service_started);
 
@@ -118,9 +280,465 @@ public class FileService extends Service {
                 .setContentIntent(contentIntent)  // The intent to send when the entry is clicked
                 .build();
 
-        // Send the notification
-        notificationManager.notify(NOTIFICATION, notification);
+        return notification;
+    }
+
+    /**
+     * Sets the subscriber of the recording status. It replaces the previous one and is informed
+     * right away about the current state.
+     *
+     * @param listener : RecordingStatusListener : The subscriber, null to unsubscribe.
+     */
+    public void setRecordingStatusListener(RecordingStatusListener listener) {
+        statusListener = listener;
+
+        if (listener != null) listener.onRecordingStateChanged(isRecording());
+    }
+
+    /**
+     * Starts recording the sensors into the capture of a new session, which is added to the
+     * session catalog. The service moves into the foreground and keeps running when the
+     * activity is closed, until the recording is stopped. Must be called on the main thread.
+     *
+     * @param mode : RecordingMode : Whether features or the raw samples are stored.
+     * @param overflowPolicy : OverflowPolicy : Behaviour of the sample queue under load.
+     * @param movementType : int : Code of the movement type of the first samples.
+     * @return String : Name of the session and its capture.
+     * @throws IOException : If the capture can't be created or no sensor is available.
+     */
+    public String startRecording(RecordingMode mode, OverflowPolicy overflowPolicy, int movementType) throws IOException {
+        // Finish a recording which still waits for its batched samples
+        finishRecording();
+
+        SessionCatalog catalog = getSessionCatalogOrThrow();
+        SensorRegistry sensors = getAvailableSensors();
+        ArffSchema schema = createCaptureSchema(mode, sensors);
+        long startMillis = System.currentTimeMillis();
+        String captureName = createSessionName(startMillis);
+
+        createCaptureFile(captureName, schema);
+        catalog.put(SessionInfo.started(captureName, mode, startMillis));
+        currentSession = catalog.get(captureName);
+
+        try {
+            startCapture(captureName, schema, sensors, mode, overflowPolicy, movementType);
+        } catch (IOException e) {
+            finishRecording();
+            throw e;
+        }
+
+        // Keep running in the foreground without a bound activity and with the screen off
+        startService(new Intent(this, FileService.class));
+        startForeground(NOTIFICATION, buildNotification());
+        wakeLock.acquire();
+
+        RecordingStatusListener listener = statusListener;
+        if (listener != null) listener.onRecordingStateChanged(true);
+
+        return captureName;
+    }
+
+    /**
+     * Returns the sensors of RecordingDefaults.SENSORS which are available on the device.
+     *
+     * @throws IOException : If none of them is available.
+     */
+    private SensorRegistry getAvailableSensors() throws IOException {
+        SensorManager sensorManager = (SensorManager) getSystemService(SENSOR_SERVICE);
+        int[] types = RecordingDefaults.SENSORS.getSensorTypes();
+        int[] available = new int[types.length];
+        int count = 0;
+
+        for (int type : types) {
+            if (sensorManager.getDefaultSensor(type) != null) available[count++] = type;
+        }
+
+        if (count == 0) throw new IOException("No sensor available");
+
+        return RecordingDefaults.SENSORS.retain(Arrays.copyOf(available, count));
+    }
+
+    /**
+     * Creates the schema of a capture: time and frequency features of all sensors or, for raw
+     * captures, the samples, whose features are computed with the same settings at export.
+     */
+    private static ArffSchema createCaptureSchema(RecordingMode mode, SensorRegistry sensors) {
+        if (mode == RecordingMode.RAW_SAMPLES) return MovementFeatureSchema.createRawSamples(sensors);
+
+        return MovementFeatureSchema.createMergedWithSpectrum(sensors,
+                SpectralFeatureExtractor.DEFAULT_BAND_EDGES_HZ.length - 1);
+    }
+
+    /**
+     * Opens the capture session and starts the writer thread and the sensors.
+     */
+    private void startCapture(String captureName, ArffSchema schema, SensorRegistry sensors, RecordingMode mode,
+                              OverflowPolicy overflowPolicy, int movementType) throws IOException {
+        // The sensor timestamps use the elapsed realtime clock
+        PipelineMetrics metrics = new PipelineMetrics(new PipelineMetrics.EventClock() {
+            @Override
+            public long nanoTime() {
+                return SystemClock.elapsedRealtimeNanos();
+            }
+        });
+        captureMetrics = metrics;
+        recordingMode = mode;
+        recordedSensors = sensors;
+
+        SampleRingBuffer sampleQueue = new SampleRingBuffer(RecordingDefaults.SAMPLE_QUEUE_CAPACITY, overflowPolicy,
+                metrics);
+        RecordOutput captureOutput = openCaptureSession(captureName, schema, RecordingDefaults.FSYNC_POLICY,
+                new StatusSizeListener(), CAPTURE_SIZE_GRANULARITY, sampleQueue);
+
+        WriteErrorListener writeErrorListener = new ToastWriteErrorListener();
+        SampleConsumer consumer;
+
+        if (mode == RecordingMode.RAW_SAMPLES) {
+            // Only copies the samples, the features are computed at export
+            RawSampleRecordConsumer rawConsumer = new RawSampleRecordConsumer(captureOutput, schema, sensors);
+            rawConsumer.setMetrics(metrics);
+            rawConsumer.setWriteErrorListener(writeErrorListener);
+            consumer = rawConsumer;
+        } else {
+            MergedFeatureRecordConsumer featureConsumer = new MergedFeatureRecordConsumer(captureOutput, schema,
+                    RecordingDefaults.RESAMPLING_TICK_NANOS, RecordingDefaults.MAX_SENSOR_LAG_NANOS,
+                    RecordingDefaults.WINDOW_LENGTH, RecordingDefaults.WINDOW_HOP,
+                    SpectralFeatureExtractor.DEFAULT_BAND_EDGES_HZ, sensors);
+            featureConsumer.setMetrics(metrics);
+            featureConsumer.setWriteErrorListener(writeErrorListener);
+            consumer = featureConsumer;
+        }
+
+        captureWriter = new CaptureWriterThread(sampleQueue, consumer, CaptureWriterThread.DEFAULT_BATCH_SIZE,
+                WRITER_IDLE_PARK_NANOS);
+        captureWriter.start();
+
+        // start the sensors after the writer, their events arrive on the sensor thread
+        sampleListener = new RecordingSampleListener(sampleQueue, captureWriter, metrics);
+        sampleListener.setLabel(movementType);
+        sensorSource = new AndroidSensorSource((SensorManager) getSystemService(SENSOR_SERVICE),
+                sensors.getSensorTypes(), SensorManager.SENSOR_DELAY_FASTEST, RecordingDefaults.MAX_REPORT_LATENCY_US,
+                sensorHandler);
+        sensorSource.setMetrics(metrics);
+        sensorSource.start(sampleListener);
+    }
+
+    /**
+     * Stops the sensors after they delivered the samples of their hardware FIFOs. The
+     * recording finishes in the background when the last samples were queued. Must be called
+     * on the main thread.
+     */
+    public void stopRecording() {
+        if (sensorSource != null) sensorSource.stop();
+    }
+
+    /**
+     * Stops the sensors right away, writes all queued samples, stops the writer thread and
+     * seals the capture. The sensors aren't flushed, samples which are still batched in the
+     * hardware FIFO are lost and no sample reaches the queue or the status listener afterwards.
+     * To keep them call stopRecording() instead. Must be called on the main thread.
+     */
+    public void finishRecording() {
+        if (currentSession == null) return;
+
+        sampleListener = null;
+        if (sensorSource != null) {
+            sensorSource.stopNow();
+            sensorSource = null;
+        }
+
+        if (captureWriter != null) {
+            captureWriter.shutdown();
+            captureWriter = null;
+        }
+
+        finishSession();
+
+        // Releases the claim to the CPU and battery waste
+        if (wakeLock.isHeld()) wakeLock.release();
+
+        // The service only keeps running while an activity is bound
+        stopForeground(false);
+        stopSelf();
+
+        RecordingStatusListener listener = statusListener;
+        if (listener != null) listener.onRecordingStateChanged(false);
+    }
+
+    /**
+     * Stores the end, the size and the counters of the current session in the catalog.
+     */
+    private void finishSession() {
+        String captureName = currentSession.getName();
+        PipelineMetrics metrics = captureMetrics;
+
+        long[] recordsPerLabel = new long[MovementFeatureSchema.MOVEMENT_TYPES.length];
+        int[] sensorTypes = recordedSensors.getSensorTypes();
+        Arrays.sort(sensorTypes);
+        long[] samplesPerSensor = new long[sensorTypes.length];
+
+        if (metrics != null) {
+            for (int label = 0; label < recordsPerLabel.length; label++) recordsPerLabel[label] = metrics.getRecords(label);
+            for (int i = 0; i < sensorTypes.length; i++) samplesPerSensor[i] = metrics.getWritten(sensorTypes[i]);
+        }
+
+        try {
+            sessionCatalog.put(currentSession.finished(System.currentTimeMillis(),
+                    SegmentedCaptureLog.calcSize(getFilesDir(), captureName), recordsPerLabel, sensorTypes,
+                    samplesPerSensor));
+        } catch (IOException e) {
+            Toast.makeText(this, "Sitzung konnte nicht gespeichert werden.", Toast.LENGTH_SHORT).show();
+        }
+
+        currentSession = null;
+    }
+
+    /**
+     * Closes the sessions which were still recording when the app was stopped, e.g. by a
+     * crash. A torn block is cut off their captures, their counters are unknown.
+     */
+    private void closeInterruptedSessions() throws IOException {
+        for (SessionInfo session : sessionCatalog.list()) {
+            if (!session.isOpen()) continue;
+
+            String captureName = session.getName();
+            SegmentedCaptureLog.recoverTail(getFilesDir(), captureName);
+
+            List<File> segments = SegmentedCaptureLog.listSegments(getFilesDir(), captureName);
+            long endMillis = segments.isEmpty() ? session.getStartMillis()
+                    : Math.max(session.getStartMillis(), segments.get(segments.size() - 1).lastModified());
+
+            sessionCatalog.put(session.finished(endMillis, SegmentedCaptureLog.calcSize(getFilesDir(), captureName),
+                    new long[0], new int[0], new long[0]));
+        }
+    }
+
+    /**
+     * Returns a session name with the start time which isn't used yet.
+     */
+    private String createSessionName(long startMillis) {
+        String name = SESSION_PREFIX + new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date(startMillis));
+        String unique = name;
+
+        for (int i = 2; sessionCatalog.get(unique) != null || captureExists(unique); i++) {
+            unique = name + "-" + i;
+        }
+
+        return unique;
+    }
+
+    private SessionCatalog getSessionCatalogOrThrow() throws IOException {
+        if (sessionCatalog == null) throw new IOException("Session catalog not available");
 
+        return sessionCatalog;
+    }
+
+    /**
+     * Returns the catalog of the recording sessions, null if it couldn't be opened.
+     */
+    public SessionCatalog getSessionCatalog() {
+        return sessionCatalog;
+    }
+
+    /**
+     * Adds a capture of an older version, which held all recordings, to the catalog as a
+     * finished session. A torn block is cut off first. Its time range is taken from the
+     * segment files, its counters are unknown. Nothing is done if the capture doesn't exist or
+     * is already in the catalog.
+     *
+     * @param captureName : String : Name of the capture in the app storage.
+     * @param mode : RecordingMode : What the capture stores.
+     * @return boolean : true if the capture was added.
+     * @throws IOException
+     */
+    public boolean adoptCapture(String captureName, RecordingMode mode) throws IOException {
+        SessionCatalog catalog = getSessionCatalogOrThrow();
+
+        if (catalog.get(captureName) != null || !captureExists(captureName)) return false;
+
+        SegmentedCaptureLog.recoverTail(getFilesDir(), captureName);
+
+        List<File> segments = SegmentedCaptureLog.listSegments(getFilesDir(), captureName);
+        long startMillis = segments.get(0).lastModified();
+        long endMillis = Math.max(startMillis, segments.get(segments.size() - 1).lastModified());
+
+        catalog.put(SessionInfo.started(captureName, mode, startMillis).finished(endMillis,
+                SegmentedCaptureLog.calcSize(getFilesDir(), captureName), new long[0], new int[0], new long[0]));
+
+        return true;
+    }
+
+    /**
+     * Converts an ARFF file of the first version, which appended every record as text, into a
+     * capture with the schema of its header and adds it to the catalog as a finished session.
+     * The file can be hundreds of MB, so it's converted in the background by the ExportEngine
+     * and the rows are streamed. The ARFF file is deleted afterwards. A file which isn't valid
+     * ARFF is renamed to fileName + INVALID_ARFF_SUFFIX, so it's kept but not imported again.
+     * Nothing is done if the file doesn't exist, the session is already in the catalog or
+     * the import is running.
+     *
+     * @param fileName : String : Name of the ARFF file in the app storage.
+     * @param captureName : String : Name of the new capture and session.
+     * @param listener : ExportListener : Receives the progress in bytes read and the result on
+     *                 the main thread.
+     * @return ExportHandle : Handle of the import or null if nothing is imported.
+     * @throws IOException : If a capture left over by an interrupted import can't be removed.
+     */
+    public ExportHandle importArffFile(String fileName, String captureName, ExportListener listener)
+            throws IOException {
+        SessionCatalog catalog = getSessionCatalogOrThrow();
+        File arffFile = new File(getFilesDir(), fileName);
+
+        if (arffImport != null && !arffImport.isDone()) return null;
+        if (catalog.get(captureName) != null || !arffFile.exists()) return null;
+
+        // Left over by an import which was interrupted
+        if (captureExists(captureName)) moveCaptureAside(captureName);
+
+        arffImport = exportEngine.submit(new ArffImportJob(arffFile, captureName, catalog),
+                new MainThreadExportListener(listener, "Datei wurde importiert", "Import abgebrochen"));
+
+        return arffImport;
+    }
+
+    /**
+     * Deletes the finished sessions accepted by the filter and their captures. The session
+     * which is recorded is kept.
+     *
+     * @param filter : SessionCatalog.Filter : Selects the sessions.
+     * @return int : Number of deleted sessions.
+     */
+    public int deleteSessions(SessionCatalog.Filter filter) {
+        if (sessionCatalog == null) return 0;
+
+        int deleted = 0;
+
+        for (SessionInfo session : sessionCatalog.list(filter)) {
+            if (currentSession != null && currentSession.getName().equals(session.getName())) continue;
+
+            try {
+                moveCaptureAside(session.getName());
+                sessionCatalog.remove(session.getName());
+                deleted++;
+            } catch (IOException e) {
+                Toast.makeText(this, "Sitzung konnte nicht gelöscht werden.", Toast.LENGTH_SHORT).show();
+                break;
+            }
+        }
+
+        Toast.makeText(this, deleted + " Sitzungen gelöscht.", Toast.LENGTH_SHORT).show();
+        return deleted;
+    }
+
+    /**
+     * Returns true while the sensors are recorded.
+     */
+    public boolean isRecording() {
+        return captureWriter != null;
+    }
+
+    /**
+     * Sets the movement type of the following samples. Can be called from any thread.
+     *
+     * @param movementType : int : Code of the movement type, see MovementFeatureSchema.
+     */
+    public void setMovementType(int movementType) {
+        RecordingSampleListener listener = sampleListener;
+        if (listener != null) listener.setLabel(movementType);
+    }
+
+    /**
+     * Returns what the current or last recording stores.
+     */
+    public RecordingMode getRecordingMode() {
+        return recordingMode;
+    }
+
+    /**
+     * Returns the metrics of the current or last recording, null before the first recording.
+     */
+    public PipelineMetrics getCaptureMetrics() {
+        return captureMetrics;
+    }
+
+    private void showToastOnMainThread(final String text) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Toast.makeText(FileService.this, text, Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
+    /**
+     * Queues the samples of the recording and passes them to the status listener. Called on
+     * the sensor thread, the samples of a hardware FIFO arrive as one block.
+     */
+    private class RecordingSampleListener extends SampleQueueListener {
+
+        RecordingSampleListener(SampleRingBuffer sampleQueue, CaptureWriterThread writer, PipelineMetrics metrics) {
+            super(sampleQueue, writer, metrics);
+        }
+
+        @Override
+        public void onSample(int sensorType, long timestamp, float x, float y, float z) {
+            // A callback which was running when finishRecording() stopped the sensors
+            if (sampleListener != this) return;
+
+            super.onSample(sensorType, timestamp, x, y, z);
+
+            RecordingStatusListener listener = statusListener;
+            if (listener != null) listener.onSensorValues(sensorType, x, y, z);
+        }
+
+        @Override
+        public void onSourceStopped() {
+            super.onSourceStopped();
+
+            // The batched samples are queued, write them and stop the writer on the main thread
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (sampleListener == RecordingSampleListener.this) finishRecording();
+                }
+            });
+        }
+    }
+
+    /**
+     * Passes the size of the capture to the status listener. Called on the writer thread, only
+     * when the capture grew by CAPTURE_SIZE_GRANULARITY.
+     */
+    private class StatusSizeListener implements CaptureSizeListener {
+
+        @Override
+        public void onSizeChanged(final long sizeBytes) {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    RecordingStatusListener listener = statusListener;
+                    if (listener != null) listener.onCaptureSizeChanged(sizeBytes);
+                }
+            });
+        }
+    }
+
+    /**
+     * Shows a Toast for the write errors of a capture session, only the first one of a session
+     * is shown.
+     */
+    private class ToastWriteErrorListener implements WriteErrorListener {
+
+        // Only changed on the writer thread
+        private boolean writeFailed = false;
+
+        @Override
+        public void onWriteError(IOException e) {
+            if (!writeFailed) {
+                writeFailed = true;
+                showToastOnMainThread("Couldn't add the new record.");
+            }
+        }
     }
 
     /**
@@ -165,11 +783,251 @@ public class FileService extends Service {
         if (fileOutputStream != null) fileOutputStream.close();
     }
 
+    /**
+     * Creates a new segmented capture whose first segment only contains the header of the
+     * schema.
+     *
+     * @param captureName : String : Name of the capture in the app storage.
+     * @param schema : ArffSchema : Schema of the records.
+     * @throws IOException : If the capture already exists.
+     */
+    public void createCaptureFile(String captureName, ArffSchema schema) throws IOException {
+        SegmentedCaptureLog.create(getFilesDir(), captureName, schema);
+        captureFileSize = SegmentedCaptureLog.calcSize(getFilesDir(), captureName);
+    }
+
+    /**
+     * Checks if a capture exists. A capture of an older version, which was stored in a single
+     * file, becomes the first segment of the capture.
+     *
+     * @param captureName : String : Name of the capture in the app storage.
+     * @return boolean : true if the capture has at least one segment.
+     */
+    public boolean captureExists(String captureName) {
+        File legacyFile = new File(getFilesDir(), captureName + BinaryCaptureFormat.FILE_TYPE);
+        List<File> segments = SegmentedCaptureLog.listSegments(getFilesDir(), captureName);
+
+        if (segments.isEmpty() && legacyFile.exists()) {
+            try {
+                SegmentedCaptureLog.adopt(legacyFile, getFilesDir(), captureName);
+            } catch (IOException e) {
+                return false;
+            }
+
+            return true;
+        }
+
+        return !segments.isEmpty();
+    }
+
+    /**
+     * Removes a group commit which was torn by a crash from the end of the capture and restores
+     * the size of the capture. Only the tail of the active segment is read, so it's fast for
+     * captures of any size. Nothing is done while a recording session is open.
+     *
+     * @param captureName : String : Name of the capture in the app storage.
+     * @return long : Number of bytes which were cut off.
+     * @throws IOException
+     */
+    public long recoverCapture(String captureName) throws IOException {
+        if (captureLog != null) return 0;
+
+        long removed = SegmentedCaptureLog.recoverTail(getFilesDir(), captureName);
+        captureFileSize = SegmentedCaptureLog.calcSize(getFilesDir(), captureName);
+
+        return removed;
+    }
+
+    /**
+     * Calculates the size of all segments of a capture.
+     *
+     * @param captureName : String : Name of the capture in the app storage.
+     * @return long : Capture size in KB.
+     */
+    public long calcCaptureSize(String captureName) {
+        return SegmentedCaptureLog.calcSize(getFilesDir(), captureName) / 1024; // KB
+    }
+
+    /**
+     * Deletes a capture. The segments are moved aside right away, so a new capture with the
+     * same name can be created immediately; they are deleted in the background.
+     *
+     * @param captureName : String : Name of the capture in the app storage.
+     * @return boolean : true if the segments were moved aside.
+     */
+    public boolean deleteCapture(String captureName) {
+        try {
+            moveCaptureAside(captureName);
+        } catch (IOException e) {
+            Toast.makeText(this, "Datei konnte nicht gelöscht werden.", Toast.LENGTH_SHORT).show();
+            return false;
+        }
+
+        Toast.makeText(this, "Datei wurde gelöscht.", Toast.LENGTH_SHORT).show();
+        return true;
+    }
+
+    /**
+     * Moves the segments of a capture aside and deletes them in the background.
+     */
+    private void moveCaptureAside(String captureName) throws IOException {
+        File trash = new File(getFilesDir(), DELETED_CAPTURE_PREFIX + System.nanoTime());
+
+        SegmentedCaptureLog.moveSegments(getFilesDir(), captureName, trash);
+
+        captureFileSize = 0;
+        exportEngine.submit(new DeleteFilesJob(trash), new QuietExportListener());
+    }
+
+    /**
+     * Opens a recording session. The active segment stays open until closeCaptureSession is
+     * called and all records are appended with group commits. A full segment is sealed and the
+     * next one is started, sealed segments can be exported while the recording continues.
+     *
+     * @param captureName : String : Name of the capture in the app storage, the records are
+     *                    appended.
+     * @param schema : ArffSchema : Schema of the records, must match the capture.
+     * @param fsyncPolicy : FsyncPolicy : When the data is forced to the device.
+     * @param sizeListener : CaptureSizeListener : Informed on the writer thread whenever the
+     *                     file grew by sizeGranularityBytes, may be null.
+     * @param sizeGranularityBytes : long : Granularity of the size events.
+     * @return RecordOutput : Appends to this session, closing it seals the session.
+     * @throws IOException : Also if the capture was recorded with another schema.
+     */
+    public RecordOutput openCaptureSession(String captureName, ArffSchema schema, FsyncPolicy fsyncPolicy,
+                                           CaptureSizeListener sizeListener, long sizeGranularityBytes) throws IOException {
+        return openCaptureSession(captureName, schema, fsyncPolicy, sizeListener, sizeGranularityBytes, null);
+    }
+
+    /**
+     * Opens a recording session which stores the samples lost under load in the headers of the
+     * segments.
+     *
+     * @param captureName : String : Name of the capture in the app storage, the records are
+     *                    appended.
+     * @param schema : ArffSchema : Schema of the records, must match the capture.
+     * @param fsyncPolicy : FsyncPolicy : When the data is forced to the device.
+     * @param sizeListener : CaptureSizeListener : Informed on the writer thread whenever the
+     *                     file grew by sizeGranularityBytes, may be null.
+     * @param sizeGranularityBytes : long : Granularity of the size events.
+     * @param dropStatistics : DropStatisticsSource : Counts the lost samples of the session,
+     *                       e.g. the sample queue, may be null.
+     * @return RecordOutput : Appends to this session, closing it seals the session.
+     * @throws IOException : Also if the capture was recorded with another schema.
+     */
+    public RecordOutput openCaptureSession(String captureName, ArffSchema schema, FsyncPolicy fsyncPolicy,
+                                           CaptureSizeListener sizeListener, long sizeGranularityBytes,
+                                           DropStatisticsSource dropStatistics) throws IOException {
+        // Seal a session which wasn't closed
+        closeCaptureSession();
+
+        SegmentedCaptureLog log = new SegmentedCaptureLog(getFilesDir(), captureName, fsyncPolicy, CAPTURE_SEGMENT_SIZE);
+
+        // Records of another schema or layout, e.g. a capture without run-length attributes,
+        // would make the capture unreadable
+        if (!Arrays.equals(BinaryCaptureFormat.encodeHeader(log.getSchema()), BinaryCaptureFormat.encodeHeader(schema))) {
+            log.close();
+            throw new IOException("Capture has a different schema: " + captureName);
+        }
+
+        try {
+            log.setDropStatisticsSource(dropStatistics);
+        } catch (IOException e) {
+            log.close();
+            throw e;
+        }
+
+        captureLog = log;
+        captureLog.setSizeListener(sizeListener, sizeGranularityBytes);
+        captureFileSize = captureLog.getSize();
+
+        return new CaptureSessionOutput();
+    }
+
+    /**
+     * Returns the size of the capture in bytes without accessing the file system. While a
+     * session is open the records which are not written yet are included.
+     */
+    public long getCaptureFileSize() {
+        SegmentedCaptureLog log = captureLog;
+
+        return log != null ? log.getSize() : captureFileSize;
+    }
+
+    /**
+     * Appends a record to the current recording session.
+     *
+     * @param record : CharSequence : ASCII record which should be appended.
+     * @throws IOException
+     */
+    public void appendToCaptureSession(CharSequence record) throws IOException {
+        if (captureLog == null) throw new IOException("No capture session opened");
+
+        captureLog.append(record);
+    }
+
+    /**
+     * Appends an encoded record to the current recording session.
+     *
+     * @param record : byte[] : Array with the record.
+     * @param offset : int : Index of the first byte.
+     * @param length : int : Number of bytes.
+     * @throws IOException
+     */
+    public void appendToCaptureSession(byte[] record, int offset, int length) throws IOException {
+        if (captureLog == null) throw new IOException("No capture session opened");
+
+        captureLog.append(record, offset, length);
+    }
+
+    /**
+     * Commits the buffered records of the current session if the time threshold has passed.
+     *
+     * @throws IOException
+     */
+    public void flushCaptureSession() throws IOException {
+        if (captureLog != null) captureLog.flushIfDue();
+    }
+
+    /**
+     * Flushes the remaining records and closes the active segment of the current recording
+     * session.
+     *
+     * @throws IOException
+     */
+    public void closeCaptureSession() throws IOException {
+        if (captureLog != null) {
+            SegmentedCaptureLog log = captureLog;
+
+            try {
+                log.close();
+            } finally {
+                captureFileSize = log.getSize();
+                captureLog = null;
+            }
+        }
+    }
+
+    /**
+     * Opens an ARFF file from the app storage for streaming. The header is available with
+     * readHeader(), the rows are read one by one with next(). The caller closes the reader.
+     *
+     * @param fileName : String : The fileName.
+     * @return ArffStreamReader : Reader positioned at the start of the file.
+     * @throws IOException
+     */
+    public ArffStreamReader openArffFile(String fileName) throws IOException {
+        return new ArffStreamReader(openFileInput(fileName));
+    }
+
     /**
      * Load the File from the device.
      *
      * @param fileInputStream : FileInputStream: Reads the file from the storage.
+     * @deprecated Reads the whole file into memory and fails on large files. Use openArffFile,
+     * which streams the file row by row.
      */
+    @Deprecated
     public ArffFile loadFileFromDevice(FileInputStream fileInputStream) {
         ArffFile arffFile = null;
 
@@ -242,61 +1100,393 @@ public class FileService extends Service {
      *
      * @param arffFile : ArffFile : ArffFile which should be saved.
      * @throws IOException
+     * @deprecated Builds the whole file as a String in memory. Use exportAFileToSdCard with an
+     * ExportFormat, which streams the capture into the RecordSink of the format.
      */
+    @Deprecated
     public void exportAFileToSdCard(ArffFile arffFile) throws IOException {
-        // State of the SD-Card
-        String strStatus        = Environment.getExternalStorageState();
-        String strAbsolutePath  = "";
+        // Export directory
+        File appDir = getExportDirectory();
 
-        // Device variable state
-        boolean canRead     = false;
-        boolean canWrite    = false;
+        // Create and save file
+        createAndSaveFile(appDir, arffFile);
 
-        // Check medium state
-        if (Environment.MEDIA_MOUNTED.equals(strStatus)) {
-            // Read/Write access
-            canRead = true;
-            canWrite = true;
-        } else if (Environment.MEDIA_MOUNTED_READ_ONLY.equals(strStatus)) {
-            // Read access
-            canRead = true;
-            canWrite = false;
-        } else {
-            // No access
-            canRead = false;
-            canWrite = false;
+        Toast.makeText(this, "Datei wurde exportiert", Toast.LENGTH_SHORT).show();
+    }
+
+    /**
+     * This overloaded method copies the file from the default directory to the SD-Card. The
+     * copy runs in the background with FileChannel.transferTo, so even files of several GB
+     * don't block the UI.
+     *
+     * @param fileName : String : The fileName.
+     * @param listener : ExportListener : Receives progress and result on the main thread.
+     * @return ExportHandle : Handle to cancel the export.
+     * @throws IOException : If the SD-Card isn't writable or the file doesn't exist.
+     */
+    public ExportHandle exportAFileToSdCard(String fileName, ExportListener listener) throws IOException {
+        File appDir = getExportDirectory();
+        File sourceFile = getExistingFile(fileName);
+
+        return exportEngine.submit(new ChannelCopyJob(sourceFile, new File(appDir, fileName)),
+                new MainThreadExportListener(listener));
+    }
+
+    /**
+     * This overloaded method converts a binary capture from the default directory to ARFF, CSV,
+     * a single binary file or compressed ARFF or CSV on the SD-Card. The segments are read once
+     * and streamed record by record into the RecordSink of the format in the background, so the
+     * size doesn't matter. It can run while recording, the active segment is exported up to
+     * its last written record.
+     *
+     * @param captureName : String : The name of the capture.
+     * @param format : ExportFormat : Format of the exported file.
+     * @param listener : ExportListener : Receives progress and result on the main thread.
+     * @return ExportHandle : Handle to cancel the export.
+     * @throws IOException : If the SD-Card isn't writable or the file doesn't exist.
+     */
+    public ExportHandle exportAFileToSdCard(String captureName, ExportFormat format, ExportListener listener) throws IOException {
+        File appDir = getExportDirectory();
+        List<File> segments = SegmentedCaptureLog.listSegments(getFilesDir(), captureName);
+        File newFile = new File(appDir, getExportFileName(captureName, format));
+
+        if (segments.isEmpty()) throw new FileNotFoundException(captureName);
+
+        return exportEngine.submit(new CaptureExportJob(segments, newFile, format),
+                new MainThreadExportListener(listener));
+    }
+
+    /**
+     * Exports a session as ARFF to the SD-Card, see exportSessionToSdCard(String, ExportFormat,
+     * ExportListener).
+     */
+    public ExportHandle exportSessionToSdCard(String sessionName, ExportListener listener) throws IOException {
+        return exportSessionToSdCard(sessionName, ExportFormat.ARFF, listener);
+    }
+
+    /**
+     * Exports a session to the SD-Card: the features of a FEATURES session, the features
+     * computed from a RAW_SAMPLES session. The session is marked as exported in the catalog
+     * when the export has finished.
+     *
+     * @param sessionName : String : Name of the session.
+     * @param format : ExportFormat : Format of the exported file.
+     * @param listener : ExportListener : Receives progress and result on the main thread.
+     * @return ExportHandle : Handle to cancel the export.
+     * @throws IOException : If the SD-Card isn't writable or the session doesn't exist.
+     */
+    public ExportHandle exportSessionToSdCard(String sessionName, ExportFormat format, ExportListener listener)
+            throws IOException {
+        SessionInfo session = getSessionCatalogOrThrow().get(sessionName);
+        if (session == null) throw new FileNotFoundException(sessionName);
+
+        ExportListener sessionListener = new SessionExportListener(sessionName, listener);
+
+        if (session.getMode() == RecordingMode.RAW_SAMPLES) {
+            return exportFeaturesToSdCard(sessionName, format, sessionListener);
         }
 
-        // Read/Write access
-        if ((canRead) && (canWrite)) {
-            // Find rood directory
-            File fileExternal = Environment.getExternalStorageDirectory();
+        return exportAFileToSdCard(sessionName, format, sessionListener);
+    }
 
-            // Define storage path
-            strAbsolutePath = fileExternal.getAbsolutePath() + File.separator + "android"  + File.separator + "data" + File.separator + "arffExport" + File.separator + "files";
+    /**
+     * Computes the features of a raw capture and exports them as ARFF to the SD-Card, see
+     * exportFeaturesToSdCard(String, ExportFormat, ExportListener).
+     */
+    public ExportHandle exportFeaturesToSdCard(String captureName, ExportListener listener) throws IOException {
+        return exportFeaturesToSdCard(captureName, ExportFormat.ARFF, listener);
+    }
 
-            // FileObject for the directory
-            File appDir = new File(strAbsolutePath);
+    /**
+     * Computes the features of a raw capture and exports them to the SD-Card, with the same
+     * resampling, window and bands as a FEATURES recording. The segments are replayed in the
+     * background, so the size doesn't matter. It can run while recording, the active segment
+     * is exported up to its last written record.
+     *
+     * @param captureName : String : The name of a raw capture.
+     * @param format : ExportFormat : Format of the exported file.
+     * @param listener : ExportListener : Receives progress and result on the main thread.
+     * @return ExportHandle : Handle to cancel the export.
+     * @throws IOException : If the SD-Card isn't writable or the file doesn't exist.
+     */
+    public ExportHandle exportFeaturesToSdCard(String captureName, ExportFormat format, ExportListener listener)
+            throws IOException {
+        File appDir = getExportDirectory();
+        List<File> segments = SegmentedCaptureLog.listSegments(getFilesDir(), captureName);
+        File newFile = new File(appDir, getExportFileName(captureName + FEATURES_SUFFIX, format));
+
+        if (segments.isEmpty()) throw new FileNotFoundException(captureName);
+
+        return exportEngine.submit(new FeatureExportJob(segments, newFile, format,
+                RecordingDefaults.RESAMPLING_TICK_NANOS, RecordingDefaults.MAX_SENSOR_LAG_NANOS,
+                RecordingDefaults.WINDOW_LENGTH, RecordingDefaults.WINDOW_HOP, SpectralFeatureExtractor.DEFAULT_BAND_EDGES_HZ),
+                new MainThreadExportListener(listener));
+    }
 
-            // Generate directories
-            appDir.mkdirs();
+    /**
+     * Writes the report of the capture pipeline metrics into a text file on the SD-Card. The
+     * name contains the time, so the reports of several runs or builds can be compared.
+     *
+     * @param metrics : PipelineMetrics : Metrics of a recording session.
+     * @return File : The written report.
+     * @throws IOException : If the SD-Card isn't writable.
+     */
+    public File dumpMetrics(PipelineMetrics metrics) throws IOException {
+        File reportFile = new File(getExportDirectory(), "capture-metrics-" + System.currentTimeMillis() + ".txt");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(reportFile), "UTF-8");
+
+        try {
+            writer.write("build " + Build.MODEL + " " + Build.VERSION.RELEASE + "\n");
+            metrics.writeReport(writer);
+        } finally {
+            writer.close();
+        }
+
+        return reportFile;
+    }
+
+    /**
+     * Returns a file of the app storage.
+     *
+     * @throws IOException : If the file doesn't exist.
+     */
+    private File getExistingFile(String fileName) throws IOException {
+        File file = new File(getFilesDir(), fileName);
+
+        if (!file.exists()) throw new FileNotFoundException(fileName);
+
+        return file;
+    }
+
+    /**
+     * Appends the records of the writer thread to the current recording session.
+     */
+    private class CaptureSessionOutput implements RecordOutput {
+
+        @Override
+        public void append(byte[] src, int offset, int length) throws IOException {
+            appendToCaptureSession(src, offset, length);
+        }
+
+        @Override
+        public void flushIfDue() throws IOException {
+            flushCaptureSession();
+        }
+
+        @Override
+        public void close() throws IOException {
+            closeCaptureSession();
+        }
+    }
+
+    /**
+     * Marks a session as exported when its export has finished. Called on the main thread.
+     */
+    private class SessionExportListener implements ExportListener {
+
+        private final String sessionName;
+        private final ExportListener listener;
+
+        SessionExportListener(String sessionName, ExportListener listener) {
+            this.sessionName = sessionName;
+            this.listener = listener;
+        }
+
+        @Override
+        public void onProgress(long bytesDone, long bytesTotal, double megabytesPerSecond) {
+            listener.onProgress(bytesDone, bytesTotal, megabytesPerSecond);
+        }
+
+        @Override
+        public void onFinished(long bytesWritten, double megabytesPerSecond) {
+            try {
+                sessionCatalog.markExported(sessionName, System.currentTimeMillis());
+            } catch (IOException e) {
+                Toast.makeText(FileService.this, "Sitzung konnte nicht gespeichert werden.", Toast.LENGTH_SHORT).show();
+            }
+
+            listener.onFinished(bytesWritten, megabytesPerSecond);
+        }
+
+        @Override
+        public void onCancelled() {
+            listener.onCancelled();
+        }
+
+        @Override
+        public void onFailed(IOException e) {
+            listener.onFailed(e);
+        }
+    }
+
+    /**
+     * Converts an ARFF file of the first version into a capture and adds it to the catalog,
+     * see importArffFile(). The progress is measured in bytes read.
+     */
+    private class ArffImportJob implements ExportJob {
+
+        private final File arffFile;
+        private final String captureName;
+        private final SessionCatalog catalog;
+
+        ArffImportJob(File arffFile, String captureName, SessionCatalog catalog) {
+            this.arffFile = arffFile;
+            this.captureName = captureName;
+            this.catalog = catalog;
+        }
+
+        @Override
+        public long run(ExportHandle handle) throws IOException {
+            long modifiedMillis = arffFile.lastModified();
+            handle.setTotalBytes(arffFile.length());
+
+            ArffStreamReader reader = new ArffStreamReader(new FileInputStream(arffFile));
+
+            try {
+                ArffSchema schema = reader.readHeader();
+                ArffRecord record = new ArffRecord(schema);
+                BinaryRecordEncoder encoder = new BinaryRecordEncoder(schema);
+
+                SegmentedCaptureLog.create(getFilesDir(), captureName, schema);
+                SegmentedCaptureLog log = new SegmentedCaptureLog(getFilesDir(), captureName,
+                        RecordingDefaults.FSYNC_POLICY, CAPTURE_SEGMENT_SIZE);
+
+                try {
+                    while (reader.next(record)) {
+                        encoder.encode(record);
+
+                        if (encoder.isSegmentStart()) log.append(encoder.getSegmentMarker(), 0, encoder.getLength());
+                        log.append(encoder.getBuffer(), 0, encoder.getLength());
+
+                        // The next start removes the incomplete capture and imports again
+                        if (handle.isCancelled()) return reader.getOffset();
+                        handle.reportProgress(reader.getOffset());
+                    }
+                } finally {
+                    log.close();
+                }
+            } catch (ArffParseException e) {
+                // Kept for a manual export, but not tried again at every start
+                if (!arffFile.renameTo(new File(arffFile.getPath() + INVALID_ARFF_SUFFIX))) {
+                    throw new IOException("Couldn't rename " + arffFile.getName(), e);
+                }
 
-            // Create and save file
-            createAndSaveFile(appDir, arffFile);
+                throw e;
+            } finally {
+                reader.close();
+            }
 
-            Toast.makeText(this, "Datei wurde exportiert", Toast.LENGTH_SHORT).show();
+            catalog.put(SessionInfo.started(captureName, RecordingMode.FEATURES, modifiedMillis).finished(
+                    modifiedMillis, SegmentedCaptureLog.calcSize(getFilesDir(), captureName),
+                    new long[0], new int[0], new long[0]));
+
+            long bytes = arffFile.length();
+            if (!arffFile.delete()) throw new IOException("Couldn't delete " + arffFile.getName());
+
+            return bytes;
         }
     }
 
     /**
-     * This overloaded method saves the ArffFile from the default directory to the SD-Card.
-     * A Buffered reader is used in order to copy large files over 16MB to prevent
-     * a OutOfMemory Ram error.
+     * Ignores the events of a background job, e.g. deleting the segments of a capture.
+     */
+    private static class QuietExportListener implements ExportListener {
+
+        @Override
+        public void onProgress(long bytesDone, long bytesTotal, double megabytesPerSecond) {}
+
+        @Override
+        public void onFinished(long bytesWritten, double megabytesPerSecond) {}
+
+        @Override
+        public void onCancelled() {}
+
+        @Override
+        public void onFailed(IOException e) {}
+    }
+
+    /**
+     * Passes the export events to the main thread and shows a Toast when the export is done.
+     */
+    private class MainThreadExportListener implements ExportListener {
+
+        private final ExportListener listener;
+
+        // Shown when the job finished or was cancelled
+        private final String finishedMessage;
+        private final String cancelledMessage;
+
+        MainThreadExportListener(ExportListener listener) {
+            this(listener, "Datei wurde exportiert", "Export abgebrochen");
+        }
+
+        MainThreadExportListener(ExportListener listener, String finishedMessage, String cancelledMessage) {
+            this.listener = listener;
+            this.finishedMessage = finishedMessage;
+            this.cancelledMessage = cancelledMessage;
+        }
+
+        @Override
+        public void onProgress(final long bytesDone, final long bytesTotal, final double megabytesPerSecond) {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onProgress(bytesDone, bytesTotal, megabytesPerSecond);
+                }
+            });
+        }
+
+        @Override
+        public void onFinished(final long bytesWritten, final double megabytesPerSecond) {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    Toast.makeText(FileService.this, finishedMessage, Toast.LENGTH_SHORT).show();
+                    listener.onFinished(bytesWritten, megabytesPerSecond);
+                }
+            });
+        }
+
+        @Override
+        public void onCancelled() {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    Toast.makeText(FileService.this, cancelledMessage, Toast.LENGTH_SHORT).show();
+                    listener.onCancelled();
+                }
+            });
+        }
+
+        @Override
+        public void onFailed(final IOException e) {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onFailed(e);
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns the name of the exported file: the capture name with the file type of the format.
+     */
+    private String getExportFileName(String fileName, ExportFormat format) {
+        if (fileName.endsWith(BinaryCaptureFormat.FILE_TYPE)) {
+            fileName = fileName.substring(0, fileName.length() - BinaryCaptureFormat.FILE_TYPE.length());
+        }
+
+        return fileName + format.getFileType();
+    }
+
+    /**
+     * Returns the export directory on the SD-Card and creates it if necessary.
      *
-     * @param fileName : String : The fileName.
-     * @throws IOException
+     * @return File : The directory.
+     * @throws IOException : If the SD-Card isn't writable.
      */
-    public void exportAFileToSdCard(String fileName) throws IOException {
+    private File getExportDirectory() throws IOException {
         // State of the SD-Card
         String strStatus        = Environment.getExternalStorageState();
         String strAbsolutePath  = "";
@@ -334,34 +1524,10 @@ public class FileService extends Service {
             // Generate directories
             appDir.mkdirs();
 
-            // Get the directory
-            File filesDir = getFilesDir();
-            File arffFile = new File(filesDir, fileName);
-
-            if (arffFile.exists()) {
-                // InputStream
-                InputStream  src = new FileInputStream(arffFile);
-
-                // OutputStream Buffered in order to prevent OutOffMemory RAM errors
-                File newFile = new File(appDir, fileName);
-                OutputStream dst = new BufferedOutputStream(new FileOutputStream(newFile), 1024);
-
-                byte[] buffer = new byte[1024];
-                int read;
-
-                while((read = src.read(buffer, 0, buffer.length)) > 0) {
-                    dst.write(buffer, 0, read);
-                }
-
-                src.close();
-                dst.flush();
-                dst.close();
-
-                Toast.makeText(this, "Datei wurde exportiert", Toast.LENGTH_SHORT).show();
-
-            }
-
+            return appDir;
         }
+
+        throw new IOException("SD-Card isn't writable");
     }
 
     /**
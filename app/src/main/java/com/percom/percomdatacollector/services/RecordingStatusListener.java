@@ -0,0 +1,35 @@
+package com.percom.percomdatacollector.services;
+
+/**
+ * Receives the status of the recording which runs in the FileService, e.g. to show it in an
+ * activity. All methods except onSensorValues are called on the main thread.
+ */
+public interface RecordingStatusListener {
+
+    /**
+     * Called when a recording was started or has finished, also when it stopped because of an
+     * error.
+     *
+     * @param recording : boolean : true while the sensors are recorded.
+     */
+    void onRecordingStateChanged(boolean recording);
+
+    /**
+     * Called when the capture grew by the configured granularity and when the session is
+     * opened or sealed.
+     *
+     * @param sizeBytes : long : Size of the capture including buffered records.
+     */
+    void onCaptureSizeChanged(long sizeBytes);
+
+    /**
+     * Called on the sensor thread for every sample, so it must return quickly and must not
+     * allocate, e.g. only store the values for the next frame.
+     *
+     * @param sensorType : int : Sensor.TYPE_* of the sample.
+     * @param x : float : First value.
+     * @param y : float : Second value.
+     * @param z : float : Third value.
+     */
+    void onSensorValues(int sensorType, float x, float y, float z);
+}
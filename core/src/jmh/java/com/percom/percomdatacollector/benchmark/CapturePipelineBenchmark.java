@@ -0,0 +1,86 @@
+package com.percom.percomdatacollector.benchmark;
+
+import com.percom.percomdatacollector.capture.FeatureRecordConsumer;
+import com.percom.percomdatacollector.capture.SampleRingBuffer;
+import com.percom.percomdatacollector.capture.SensorTypes;
+import com.percom.percomdatacollector.features.MovementFeatureSchema;
+import com.percom.percomdatacollector.features.SlidingWindowFeatureExtractor;
+import com.percom.percomdatacollector.storage.RecordOutput;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Sensor events per second of the capture path without the disk: the samples are queued in
+ * the SampleRingBuffer, drained in batches and turned into encoded feature records. One
+ * operation is one sensor event, so gc.alloc.rate.norm is the allocation per event.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+public class CapturePipelineBenchmark {
+
+    // Sensor events per invocation, the batch size of the writer thread
+    private static final int BATCH = 256;
+
+    private SyntheticSamples samples;
+    private SampleRingBuffer ringBuffer;
+    private FeatureRecordConsumer consumer;
+    private BlackholeOutput output;
+    private int next = 0;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        samples = new SyntheticSamples();
+        ringBuffer = new SampleRingBuffer(8192);
+        output = new BlackholeOutput(blackhole);
+        consumer = new FeatureRecordConsumer(output, MovementFeatureSchema.create(),
+                SlidingWindowFeatureExtractor.DEFAULT_WINDOW_LENGTH, SlidingWindowFeatureExtractor.DEFAULT_HOP);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void queueAndFeaturize() {
+        for (int i = 0; i < BATCH; i++) {
+            int s = next++ & SyntheticSamples.MASK;
+            int sensor = (s & 1) == 0 ? SensorTypes.ACCELEROMETER : SensorTypes.GYROSCOPE;
+
+            ringBuffer.offer(sensor, samples.timestamps[s], samples.x[s], samples.y[s], samples.z[s],
+                    MovementFeatureSchema.MOVEMENT_WALKING);
+        }
+
+        ringBuffer.drain(consumer, BATCH);
+        consumer.onBatchComplete();
+    }
+
+    /**
+     * Hands the records to the Blackhole instead of writing them.
+     */
+    static class BlackholeOutput implements RecordOutput {
+
+        private final Blackhole blackhole;
+
+        BlackholeOutput(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void append(byte[] src, int offset, int length) {
+            blackhole.consume(src);
+            blackhole.consume(length);
+        }
+
+        @Override
+        public void flushIfDue() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
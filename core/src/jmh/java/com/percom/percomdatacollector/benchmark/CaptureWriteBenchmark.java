@@ -0,0 +1,114 @@
+package com.percom.percomdatacollector.benchmark;
+
+import com.percom.percomdatacollector.Files.ArffSchema;
+import com.percom.percomdatacollector.Files.BinaryCaptureFormat;
+import com.percom.percomdatacollector.Files.BinaryRecordEncoder;
+import com.percom.percomdatacollector.features.MovementFeatureSchema;
+import com.percom.percomdatacollector.storage.CaptureFileWriter;
+import com.percom.percomdatacollector.storage.FsyncPolicy;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Write throughput of the capture file. One operation is one appended binary feature record,
+ * the appended bytes are reported as the secondary result bytes, in bytes/s. The file is
+ * started again whenever it reaches MAX_FILE_SIZE to keep the disk usage bounded. blockFramed
+ * shows the cost of the CRC-32C block framing.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+public class CaptureWriteBenchmark {
+
+    // Size at which the file is started again (64 MB)
+    private static final long MAX_FILE_SIZE = 64L * 1024 * 1024;
+
+    @Param({"NEVER", "ON_FLUSH"})
+    public FsyncPolicy fsyncPolicy;
+
+    @Param({"false", "true"})
+    public boolean blockFramed;
+
+    private File file;
+    private CaptureFileWriter writer;
+    private BinaryRecordEncoder encoder;
+    private SyntheticSamples samples;
+    private int next = 0;
+
+    /**
+     * Bytes appended to the writer, records and segment markers without the block framing.
+     */
+    @State(Scope.Thread)
+    @AuxCounters
+    public static class WrittenBytes {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        ArffSchema schema = MovementFeatureSchema.create();
+
+        samples = new SyntheticSamples();
+        encoder = new BinaryRecordEncoder(schema);
+        file = File.createTempFile("capture-benchmark", BinaryCaptureFormat.FILE_TYPE);
+
+        openFile();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        writer.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public void appendRecord(WrittenBytes written) throws IOException {
+        int s = next++ & SyntheticSamples.MASK;
+
+        encoder.beginRecord(samples.timestamps[s]);
+        for (int axis = 0; axis < MovementFeatureSchema.AXES.length; axis++) {
+            encoder.numeric(samples.x[s]);
+            encoder.numeric(samples.y[s]);
+            encoder.numeric(samples.z[s]);
+            encoder.numeric(samples.x[s] - samples.y[s]);
+        }
+        encoder.nominal(MovementFeatureSchema.MOVEMENT_SPORT);
+        encoder.nominal(MovementFeatureSchema.SENSOR_GYROSCOPE);
+
+        if (encoder.isSegmentStart()) {
+            writer.append(encoder.getSegmentMarker(), 0, encoder.getLength());
+            written.bytes += encoder.getLength();
+        }
+        writer.append(encoder.getBuffer(), 0, encoder.getLength());
+        written.bytes += encoder.getLength();
+        writer.flushIfDue();
+
+        if (writer.getSize() >= MAX_FILE_SIZE) {
+            writer.close();
+            openFile();
+        }
+    }
+
+    private void openFile() throws IOException {
+        if (file.exists() && !file.delete()) throw new IOException("Couldn't delete " + file);
+
+        writer = new CaptureFileWriter(file, fsyncPolicy, CaptureFileWriter.DEFAULT_BUFFER_SIZE,
+                CaptureFileWriter.DEFAULT_FLUSH_INTERVAL_MILLIS, blockFramed);
+    }
+}
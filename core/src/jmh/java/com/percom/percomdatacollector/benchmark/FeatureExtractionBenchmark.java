@@ -0,0 +1,101 @@
+package com.percom.percomdatacollector.benchmark;
+
+import com.percom.percomdatacollector.Files.ArffRecordEncoder;
+import com.percom.percomdatacollector.Files.ArffSchema;
+import com.percom.percomdatacollector.features.MovementFeatureSchema;
+import com.percom.percomdatacollector.features.SensorStatistics;
+import com.percom.percomdatacollector.features.SlidingWindowFeatureExtractor;
+import com.percom.percomdatacollector.features.SpectralFeatureExtractor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of the single steps of the capture path: adding one sample to the sliding window,
+ * computing the statistics of a whole window from scratch, the spectral features of a window
+ * and encoding one ARFF row.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+public class FeatureExtractionBenchmark {
+
+    private SyntheticSamples samples;
+    private SlidingWindowFeatureExtractor window;
+    private SpectralFeatureExtractor spectrum;
+    private ArffRecordEncoder encoder;
+    private int next = 0;
+
+    @Setup
+    public void setUp() {
+        samples = new SyntheticSamples();
+        window = new SlidingWindowFeatureExtractor();
+        spectrum = new SpectralFeatureExtractor(SlidingWindowFeatureExtractor.DEFAULT_WINDOW_LENGTH, 100f,
+                SpectralFeatureExtractor.DEFAULT_BAND_EDGES_HZ);
+
+        ArffSchema schema = MovementFeatureSchema.create();
+        encoder = new ArffRecordEncoder(ArffRecordEncoder.DEFAULT_DECIMALS, schema.getNominalValues());
+    }
+
+    /**
+     * One operation is one sample added to the sliding window.
+     */
+    @Benchmark
+    public boolean slidingWindowAdd() {
+        int s = next++ & SyntheticSamples.MASK;
+
+        return window.add(samples.timestamps[s], samples.x[s], samples.y[s], samples.z[s]);
+    }
+
+    /**
+     * One operation is mean, standard deviation, min and max of one axis over a window.
+     */
+    @Benchmark
+    public void windowStatistics(Blackhole blackhole) {
+        int length = SlidingWindowFeatureExtractor.DEFAULT_WINDOW_LENGTH;
+        int offset = (next++ & SyntheticSamples.MASK) % (SyntheticSamples.COUNT - length);
+
+        blackhole.consume(SensorStatistics.calcMean(samples.x, offset, length));
+        blackhole.consume(SensorStatistics.calcStdDeviation(samples.x, offset, length));
+        blackhole.consume(SensorStatistics.findMin(samples.x, offset, length));
+        blackhole.consume(SensorStatistics.findMax(samples.x, offset, length));
+    }
+
+    /**
+     * One operation is the FFT and the spectral features of one axis over a window. Must not
+     * allocate, gc.alloc.rate.norm should be 0.
+     */
+    @Benchmark
+    public float windowSpectrum() {
+        int length = SlidingWindowFeatureExtractor.DEFAULT_WINDOW_LENGTH;
+        int offset = (next++ & SyntheticSamples.MASK) % (SyntheticSamples.COUNT - length);
+
+        spectrum.compute(samples.x, offset, 0f);
+
+        return spectrum.getDominantFrequency() + spectrum.getEntropy();
+    }
+
+    /**
+     * One operation is one ARFF row of the detectSportType relation.
+     */
+    @Benchmark
+    public int encodeArffRow() {
+        int s = next++ & SyntheticSamples.MASK;
+
+        encoder.beginRecord();
+        for (int axis = 0; axis < MovementFeatureSchema.AXES.length; axis++) {
+            encoder.numeric(samples.x[s]);
+            encoder.numeric(samples.y[s]);
+            encoder.numeric(samples.z[s]);
+            encoder.numeric(samples.x[s] - samples.y[s]);
+        }
+        encoder.nominal(0, MovementFeatureSchema.MOVEMENT_JOGGING);
+        encoder.nominal(1, MovementFeatureSchema.SENSOR_ACCELEROMETER);
+
+        return encoder.getLength();
+    }
+}
@@ -0,0 +1,115 @@
+package com.percom.percomdatacollector.benchmark;
+
+import com.percom.percomdatacollector.Files.ArffSchema;
+import com.percom.percomdatacollector.Files.BinaryCaptureFormat;
+import com.percom.percomdatacollector.Files.BinaryRecordEncoder;
+import com.percom.percomdatacollector.batch.RefeaturizationEngine;
+import com.percom.percomdatacollector.features.MovementFeatureSchema;
+import com.percom.percomdatacollector.storage.CaptureFileWriter;
+import com.percom.percomdatacollector.storage.FsyncPolicy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to compute the features of a raw capture again with the RefeaturizationEngine. The
+ * capture holds RECORDS raw samples of both sensors, the parameter threads shows how the
+ * engine scales with the cores.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RefeaturizationBenchmark {
+
+    // Raw samples in the capture, about 22 MB
+    private static final int RECORDS = 1000000;
+
+    // Size of a chunk (1 MB)
+    private static final long CHUNK_SIZE = 1024 * 1024;
+
+    // Resampling clock of the capture (100 Hz) and window
+    private static final long TICK_NANOS = 10000000L;
+    private static final long MAX_LAG_NANOS = 100000000L;
+    private static final int WINDOW_LENGTH = 128;
+    private static final int HOP = 64;
+
+    @Param({"1", "2", "4"})
+    public int threads;
+
+    private File capture;
+    private ForkJoinPool pool;
+    private RefeaturizationEngine engine;
+
+    @Setup
+    public void setUp() throws IOException {
+        ArffSchema schema = MovementFeatureSchema.createRawSamples();
+        SyntheticSamples samples = new SyntheticSamples();
+        capture = File.createTempFile("refeaturization-benchmark", BinaryCaptureFormat.FILE_TYPE);
+
+        FileOutputStream header = new FileOutputStream(capture);
+        header.write(BinaryCaptureFormat.encodeHeader(schema));
+        header.close();
+
+        CaptureFileWriter writer = new CaptureFileWriter(capture, FsyncPolicy.NEVER, CaptureFileWriter.DEFAULT_BUFFER_SIZE,
+                CaptureFileWriter.DEFAULT_FLUSH_INTERVAL_MILLIS, true);
+        BinaryRecordEncoder encoder = new BinaryRecordEncoder(schema);
+
+        // Both sensors alternate, so every sensor samples with 100 Hz on the 5 ms clock
+        for (int i = 0; i < RECORDS; i++) {
+            int s = i & SyntheticSamples.MASK;
+
+            encoder.beginRecord(i * 5000000L);
+            encoder.numeric(samples.x[s]);
+            encoder.numeric(samples.y[s]);
+            encoder.numeric(samples.z[s]);
+            encoder.nominal((i & 1) == 0 ? MovementFeatureSchema.SENSOR_ACCELEROMETER : MovementFeatureSchema.SENSOR_GYROSCOPE);
+            encoder.nominal(MovementFeatureSchema.MOVEMENT_WALKING);
+            if (encoder.isSegmentStart()) writer.append(encoder.getSegmentMarker(), 0, encoder.getLength());
+            writer.append(encoder.getBuffer(), 0, encoder.getLength());
+        }
+
+        writer.close();
+
+        pool = new ForkJoinPool(threads);
+        engine = new RefeaturizationEngine(pool, TICK_NANOS, MAX_LAG_NANOS, WINDOW_LENGTH, HOP, CHUNK_SIZE);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+        capture.delete();
+    }
+
+    @Benchmark
+    public long refeaturize() throws IOException {
+        return engine.refeaturize(capture, new NullOutputStream());
+    }
+
+    /**
+     * Discards the ARFF file, only the computation is measured.
+     */
+    private static class NullOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.percom.percomdatacollector.benchmark;
+
+import java.util.Random;
+
+/**
+ * Reproducible sensor samples for the benchmarks. The values are generated with a fixed seed,
+ * every run sees the same data.
+ */
+final class SyntheticSamples {
+
+    // Number of generated samples, a power of two so the index can be masked
+    static final int COUNT = 4096;
+    static final int MASK = COUNT - 1;
+
+    // Seed of the generator
+    private static final long SEED = 42;
+
+    // Time between two samples at SENSOR_DELAY_FASTEST (5 ms)
+    private static final long SAMPLE_INTERVAL_NANOS = 5000000L;
+
+    final long[] timestamps = new long[COUNT];
+    final float[] x = new float[COUNT];
+    final float[] y = new float[COUNT];
+    final float[] z = new float[COUNT];
+
+    SyntheticSamples() {
+        Random random = new Random(SEED);
+
+        for (int i = 0; i < COUNT; i++) {
+            timestamps[i] = i * SAMPLE_INTERVAL_NANOS;
+
+            // Gravity on z plus noise, like a phone in a pocket
+            x[i] = (float) random.nextGaussian() * 2f;
+            y[i] = (float) random.nextGaussian() * 2f;
+            z[i] = 9.81f + (float) random.nextGaussian();
+        }
+    }
+}
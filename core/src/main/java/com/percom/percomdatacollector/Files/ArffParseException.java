@@ -0,0 +1,38 @@
+package com.percom.percomdatacollector.Files;
+
+import java.io.IOException;
+
+/**
+ * Thrown by the ArffStreamReader if the file doesn't follow the ARFF format. Line and column
+ * start at 1.
+ */
+public class ArffParseException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String reason;
+    private final long line;
+    private final int column;
+
+    public ArffParseException(String message, long line, int column) {
+        super("Line " + line + ", column " + column + ": " + message);
+        this.reason = message;
+        this.line = line;
+        this.column = column;
+    }
+
+    /**
+     * Returns the message without line and column.
+     */
+    public String getReason() {
+        return reason;
+    }
+
+    public long getLine() {
+        return line;
+    }
+
+    public int getColumn() {
+        return column;
+    }
+}
@@ -0,0 +1,59 @@
+package com.percom.percomdatacollector.Files;
+
+/**
+ * Reusable holder for the values of one record. The numeric and the nominal values are kept in
+ * primitive arrays in the order of their column index in the ArffSchema.
+ */
+public class ArffRecord {
+
+    // Timestamp of the record in nanoseconds, 0 if unknown
+    private long timestamp = 0;
+
+    // Values of the numeric attributes
+    private final float[] numeric;
+
+    // Codes of the nominal attributes
+    private final int[] nominal;
+
+    /**
+     * Creates a record with room for the attributes of the schema.
+     *
+     * @param schema : ArffSchema : Schema of the records.
+     */
+    public ArffRecord(ArffSchema schema) {
+        this.numeric = new float[schema.getNumericCount()];
+        this.nominal = new int[schema.getNominalCount()];
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public float getNumeric(int column) {
+        return numeric[column];
+    }
+
+    public void setNumeric(int column, float value) {
+        numeric[column] = value;
+    }
+
+    public int getNominal(int column) {
+        return nominal[column];
+    }
+
+    public void setNominal(int column, int code) {
+        nominal[column] = code;
+    }
+
+    public int getNumericCount() {
+        return numeric.length;
+    }
+
+    public int getNominalCount() {
+        return nominal.length;
+    }
+}
@@ -0,0 +1,160 @@
+package com.percom.percomdatacollector.Files;
+
+import java.nio.charset.Charset;
+
+/**
+ * Encodes ARFF data rows directly into a reusable byte buffer. Numeric values are written
+ * with a DecimalFloatFormatter, nominal values are encoded to bytes once when the encoder is
+ * created and only copied afterwards. Encoding a record therefore creates no objects.
+ *
+ * Usage: beginRecord(), one numeric() or nominal() call per attribute in header order, then
+ * write getBuffer() from 0 to getLength(). Every record starts with a line break, because the
+ * header ends with "@data" without one.
+ *
+ * An instance is not thread safe.
+ */
+public class ArffRecordEncoder {
+
+    // Default number of decimal places
+    public static final int DEFAULT_DECIMALS = 6;
+
+    // Nominal values are plain ASCII in ARFF
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    // Space a single numeric value needs at most
+    private static final int MAX_NUMERIC_LENGTH = 32;
+
+    // Formatter for the numeric attributes
+    private final DecimalFloatFormatter formatter;
+
+    // Encoded nominal values: [attribute][code] -> bytes
+    private final byte[][][] nominalValues;
+
+    // Schema for encode(ArffRecord), null if created without one
+    private final ArffSchema schema;
+
+    // Record buffer, grows only if a record doesn't fit
+    private byte[] buffer = new byte[256];
+    private int length = 0;
+    private boolean firstAttribute = true;
+
+    /**
+     * Creates an encoder.
+     *
+     * @param decimals : int : Number of decimal places of the numeric attributes.
+     * @param nominalAttributes : String[][] : Values of every nominal attribute, the index of a
+     *                          value is its code.
+     */
+    public ArffRecordEncoder(int decimals, String[][] nominalAttributes) {
+        this(decimals, nominalAttributes, null);
+    }
+
+    /**
+     * Creates an encoder for the records of a schema.
+     *
+     * @param decimals : int : Number of decimal places of the numeric attributes.
+     * @param schema : ArffSchema : Schema of the records.
+     */
+    public ArffRecordEncoder(int decimals, ArffSchema schema) {
+        this(decimals, schema.getNominalValues(), schema);
+    }
+
+    private ArffRecordEncoder(int decimals, String[][] nominalAttributes, ArffSchema schema) {
+        this.schema = schema;
+        this.formatter = new DecimalFloatFormatter(decimals);
+        this.nominalValues = new byte[nominalAttributes.length][][];
+
+        for (int a = 0; a < nominalAttributes.length; a++) {
+            nominalValues[a] = new byte[nominalAttributes[a].length][];
+
+            for (int v = 0; v < nominalAttributes[a].length; v++) {
+                nominalValues[a][v] = nominalAttributes[a][v].getBytes(ASCII);
+            }
+        }
+    }
+
+    /**
+     * Starts a new record and discards the previous one.
+     */
+    public void beginRecord() {
+        length = 0;
+        firstAttribute = true;
+        buffer[length++] = '\n';
+    }
+
+    /**
+     * Appends a numeric attribute.
+     */
+    public void numeric(float value) {
+        separator(MAX_NUMERIC_LENGTH);
+        length = formatter.format(value, buffer, length);
+    }
+
+    /**
+     * Appends an integer value, e.g. a timestamp.
+     */
+    public void integer(long value) {
+        separator(MAX_NUMERIC_LENGTH);
+
+        if (value < 0) {
+            buffer[length++] = '-';
+            value = -value;
+        }
+
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) digits++;
+
+        for (int i = digits - 1; i >= 0; i--) {
+            buffer[length + i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+
+        length += digits;
+    }
+
+    /**
+     * Appends all attributes of the record in header order. Only available if the encoder
+     * was created with a schema.
+     */
+    public void encode(ArffRecord record) {
+        for (int i = 0; i < schema.getAttributeCount(); i++) {
+            ArffSchema.Attribute attribute = schema.getAttribute(i);
+
+            if (attribute.isNominal()) nominal(attribute.getColumnIndex(), record.getNominal(attribute.getColumnIndex()));
+            else numeric(record.getNumeric(attribute.getColumnIndex()));
+        }
+    }
+
+    /**
+     * Appends a nominal attribute.
+     *
+     * @param attribute : int : Index of the nominal attribute, as passed to the constructor.
+     * @param code : int : Index of the value.
+     */
+    public void nominal(int attribute, int code) {
+        byte[] value = nominalValues[attribute][code];
+
+        separator(value.length);
+        System.arraycopy(value, 0, buffer, length, value.length);
+        length += value.length;
+    }
+
+    private void separator(int required) {
+        if (length + required + 1 > buffer.length) {
+            byte[] larger = new byte[Math.max(buffer.length * 2, length + required + 1)];
+            System.arraycopy(buffer, 0, larger, 0, length);
+            buffer = larger;
+        }
+
+        if (firstAttribute) firstAttribute = false;
+        else buffer[length++] = ',';
+    }
+
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    public int getLength() {
+        return length;
+    }
+}
@@ -0,0 +1,47 @@
+package com.percom.percomdatacollector.Files;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Writes the records as Weka ARFF: the header of the schema and one data line per record,
+ * encoded with an ArffRecordEncoder.
+ */
+public class ArffRecordSink implements RecordSink {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final OutputStream out;
+
+    // Created for the schema of the header
+    private ArffRecordEncoder encoder = null;
+
+    /**
+     * Creates the sink.
+     *
+     * @param out : OutputStream : Receives the file, should be buffered.
+     */
+    public ArffRecordSink(OutputStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void writeHeader(ArffSchema schema) throws IOException {
+        encoder = new ArffRecordEncoder(ArffRecordEncoder.DEFAULT_DECIMALS, schema);
+        out.write(schema.toArffHeader().getBytes(UTF_8));
+    }
+
+    @Override
+    public void write(ArffRecord record) throws IOException {
+        encoder.beginRecord();
+        encoder.encode(record);
+
+        out.write(encoder.getBuffer(), 0, encoder.getLength());
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
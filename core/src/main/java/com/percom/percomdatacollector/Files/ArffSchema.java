@@ -0,0 +1,232 @@
+package com.percom.percomdatacollector.Files;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Describes the header of an ARFF file: the relation and its numeric and nominal attributes.
+ * Records of a schema keep the numeric and the nominal values in separate arrays (see
+ * ArffRecord), so every attribute has an index within its kind as well.
+ */
+public class ArffSchema {
+
+    /**
+     * One attribute of the relation. Nominal attributes have a list of values, the index of a
+     * value is its code.
+     */
+    public static class Attribute {
+
+        private final String name;
+        private final String[] nominalValues;
+        private final int columnIndex;
+        private final boolean runLength;
+
+        private Attribute(String name, String[] nominalValues, int columnIndex, boolean runLength) {
+            this.name = name;
+            this.nominalValues = nominalValues;
+            this.columnIndex = columnIndex;
+            this.runLength = runLength;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isNominal() {
+            return nominalValues != null;
+        }
+
+        /**
+         * Returns the values of a nominal attribute or null for a numeric one.
+         */
+        public String[] getNominalValues() {
+            return nominalValues;
+        }
+
+        /**
+         * Returns the index within the numeric or within the nominal attributes.
+         */
+        public int getColumnIndex() {
+            return columnIndex;
+        }
+
+        /**
+         * Returns true for a nominal attribute whose value rarely changes, e.g. the label. The
+         * binary capture stores it as segment markers instead of in every record.
+         */
+        public boolean isRunLength() {
+            return runLength;
+        }
+    }
+
+    // Name of the relation
+    private final String relation;
+
+    // All attributes in header order
+    private final List<Attribute> attributes = new ArrayList<Attribute>();
+
+    private int numericCount = 0;
+    private int nominalCount = 0;
+    private int runLengthCount = 0;
+
+    /**
+     * Creates a schema without attributes.
+     *
+     * @param relation : String : Name of the relation.
+     */
+    public ArffSchema(String relation) {
+        this.relation = relation;
+    }
+
+    /**
+     * Adds a numeric attribute.
+     *
+     * @param name : String : Name of the attribute.
+     * @return ArffSchema : This schema.
+     */
+    public ArffSchema addNumericAttribute(String name) {
+        attributes.add(new Attribute(name, null, numericCount++, false));
+        return this;
+    }
+
+    /**
+     * Adds a nominal attribute. At most 256 values are supported.
+     *
+     * @param name : String : Name of the attribute.
+     * @param values : String[] : Values, the index of a value is its code.
+     * @return ArffSchema : This schema.
+     */
+    public ArffSchema addNominalAttribute(String name, String[] values) {
+        return addNominalAttribute(name, values, false);
+    }
+
+    /**
+     * Adds a nominal attribute. At most 256 values are supported.
+     *
+     * @param name : String : Name of the attribute.
+     * @param values : String[] : Values, the index of a value is its code.
+     * @param runLength : boolean : The value rarely changes, the binary capture stores it as
+     *                  segment markers instead of in every record. The ARFF header is the same.
+     * @return ArffSchema : This schema.
+     */
+    public ArffSchema addNominalAttribute(String name, String[] values, boolean runLength) {
+        if (values.length == 0 || values.length > 256) {
+            throw new IllegalArgumentException("Nominal attribute needs 1 to 256 values: " + name);
+        }
+
+        attributes.add(new Attribute(name, values.clone(), nominalCount++, runLength));
+        if (runLength) runLengthCount++;
+
+        return this;
+    }
+
+    public String getRelation() {
+        return relation;
+    }
+
+    public int getAttributeCount() {
+        return attributes.size();
+    }
+
+    public Attribute getAttribute(int index) {
+        return attributes.get(index);
+    }
+
+    public int getNumericCount() {
+        return numericCount;
+    }
+
+    public int getNominalCount() {
+        return nominalCount;
+    }
+
+    /**
+     * Returns the number of nominal attributes which are stored as segment markers.
+     */
+    public int getRunLengthCount() {
+        return runLengthCount;
+    }
+
+    /**
+     * Returns for every nominal column whether it is stored as segment markers.
+     */
+    public boolean[] getRunLengthColumns() {
+        boolean[] columns = new boolean[nominalCount];
+
+        for (Attribute attribute : attributes) {
+            if (attribute.isNominal()) columns[attribute.getColumnIndex()] = attribute.isRunLength();
+        }
+
+        return columns;
+    }
+
+    /**
+     * Returns the values of all nominal attributes in order of their column index.
+     */
+    public String[][] getNominalValues() {
+        String[][] values = new String[nominalCount][];
+
+        for (Attribute attribute : attributes) {
+            if (attribute.isNominal()) values[attribute.getColumnIndex()] = attribute.getNominalValues();
+        }
+
+        return values;
+    }
+
+    /**
+     * Returns the index of the attribute with the given name or -1.
+     */
+    public int indexOf(String name) {
+        for (int i = 0; i < attributes.size(); i++) {
+            if (attributes.get(i).getName().equals(name)) return i;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns the ARFF header. It ends with "@data" without a line break, every record starts
+     * with one.
+     */
+    public String toArffHeader() {
+        StringBuilder header = new StringBuilder();
+        header.append("@relation ").append(quote(relation)).append("\n\n");
+
+        for (Attribute attribute : attributes) {
+            header.append("@attribute ").append(quote(attribute.getName())).append(' ');
+
+            if (attribute.isNominal()) {
+                header.append('{');
+
+                String[] values = attribute.getNominalValues();
+                for (int v = 0; v < values.length; v++) {
+                    if (v > 0) header.append(',');
+                    header.append(quote(values[v]));
+                }
+
+                header.append("}\n");
+            } else {
+                header.append("numeric\n");
+            }
+        }
+
+        header.append("\n@data");
+
+        return header.toString();
+    }
+
+    /**
+     * Quotes names which contain spaces or ARFF special characters.
+     */
+    private static String quote(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+
+            if (c == ' ' || c == '\t' || c == ',' || c == '{' || c == '}' || c == '%' || c == '\'') {
+                return "'" + name.replace("'", "\\'") + "'";
+            }
+        }
+
+        return name;
+    }
+}
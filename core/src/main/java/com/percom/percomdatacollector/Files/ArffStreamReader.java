@@ -0,0 +1,491 @@
+package com.percom.percomdatacollector.Files;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Pull parser for ARFF files. readHeader() returns the header as ArffSchema, afterwards next()
+ * parses one row of the @data section into a reused ArffRecord. Rows are parsed directly from
+ * the read buffer without creating Strings, so the memory needed is constant no matter how
+ * large the file is. The only limit is that a single line must fit into the buffer.
+ *
+ * Supported are numeric (numeric, real, integer) and nominal attributes in dense rows. Missing
+ * values ("?") are read as NaN or as nominal code -1. A numeric attribute named "timestamp",
+ * like the first column of the CSV export, isn't part of the schema: it's read exactly as an
+ * integer into the timestamp of the record.
+ *
+ * An instance is not thread safe.
+ */
+public class ArffStreamReader implements Closeable {
+
+    // Default size of the read buffer (64 KB), also the maximum line length
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    // Nominal code of a missing value
+    public static final int MISSING_NOMINAL = -1;
+
+    // Name of the attribute which is read into the timestamp of the record
+    public static final String TIMESTAMP_ATTRIBUTE = "timestamp";
+
+    // At most this many significant digits are used for a number and a timestamp
+    private static final int MAX_DIGITS = 18;
+
+    // Powers of ten which are exact as double
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Source of the file
+    private final InputStream inputStream;
+
+    // Read buffer, buffer[position, limit) isn't consumed yet
+    private final byte[] buffer;
+    private int position = 0;
+    private int limit = 0;
+    // Bytes before this index were already searched for a line break
+    private int scanned = 0;
+    private boolean endOfStream = false;
+    // Offset of buffer[0] in the stream
+    private long bufferOffset = 0;
+
+    // Current line: buffer[lineStart, lineEnd) without the line break
+    private int lineStart = 0;
+    private int lineEnd = 0;
+    private long lineNumber = 0;
+
+    // Schema from the header
+    private ArffSchema schema = null;
+    // Value of a row which is the timestamp, -1 if there is none
+    private int timestampField = -1;
+    // Per value of a row: attribute, column index and encoded nominal values (null if numeric)
+    private int[] attributes;
+    private int[] columns;
+    private byte[][][] nominalValues;
+
+    /**
+     * Creates a reader. The stream is closed with the reader.
+     *
+     * @param inputStream : InputStream : Stream of the ARFF file.
+     */
+    public ArffStreamReader(InputStream inputStream) {
+        this(inputStream, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a reader. The stream is closed with the reader.
+     *
+     * @param inputStream : InputStream : Stream of the ARFF file.
+     * @param bufferSize : int : Size of the read buffer and maximum line length.
+     */
+    public ArffStreamReader(InputStream inputStream, int bufferSize) {
+        this.inputStream = inputStream;
+        this.buffer = new byte[bufferSize];
+    }
+
+    /**
+     * Reads the header up to and including the @data line.
+     *
+     * @return ArffSchema : Relation and attributes of the file.
+     * @throws IOException : ArffParseException if the header is invalid.
+     */
+    public ArffSchema readHeader() throws IOException {
+        if (schema != null) throw new IllegalStateException("Header already read");
+
+        ArffSchema header = null;
+
+        while (nextLine()) {
+            int start = skipWhitespace(lineStart);
+            if (start == lineEnd || buffer[start] == '%') continue;
+
+            // The header is small, Strings are fine here
+            String line = new String(buffer, start, lineEnd - start, UTF_8).trim();
+            String lowerCase = line.toLowerCase(Locale.US);
+
+            if (lowerCase.startsWith("@relation")) {
+                header = new ArffSchema(unquote(line.substring(9).trim()));
+            } else if (lowerCase.startsWith("@attribute")) {
+                if (header == null) throw error("@attribute before @relation", start);
+                parseAttribute(header, line.substring(10).trim(), start);
+            } else if (lowerCase.startsWith("@data")) {
+                if (header == null) throw error("@data before @relation", start);
+                initColumns(header);
+                return header;
+            } else {
+                throw error("Unexpected line in header", start);
+            }
+        }
+
+        throw error("Missing @data section", lineEnd);
+    }
+
+    /**
+     * Parses the next row of the @data section.
+     *
+     * @param record : ArffRecord : Holder for the values, created for the schema of this file.
+     * @return boolean : false at the end of the file.
+     * @throws IOException : ArffParseException if the row is invalid.
+     */
+    public boolean next(ArffRecord record) throws IOException {
+        if (schema == null) throw new IllegalStateException("Header not read");
+
+        while (nextLine()) {
+            int p = skipWhitespace(lineStart);
+            if (p == lineEnd || buffer[p] == '%') continue;
+            if (buffer[p] == '{') throw error("Sparse rows are not supported", p);
+
+            int valueCount = columns.length;
+
+            for (int a = 0; a < valueCount; a++) {
+                int fieldStart = skipWhitespace(p);
+                int fieldEnd = fieldStart;
+                while (fieldEnd < lineEnd && buffer[fieldEnd] != ',') fieldEnd++;
+
+                if (fieldEnd == lineEnd && a < valueCount - 1) {
+                    throw error("Expected " + valueCount + " values, found " + (a + 1), fieldEnd);
+                }
+
+                int valueEnd = fieldEnd;
+                while (valueEnd > fieldStart && isWhitespace(buffer[valueEnd - 1])) valueEnd--;
+
+                if (valueEnd == fieldStart) throw error("Empty value", fieldStart);
+
+                boolean missing = valueEnd - fieldStart == 1 && buffer[fieldStart] == '?';
+
+                if (a == timestampField) {
+                    record.setTimestamp(missing ? 0 : parseTimestamp(fieldStart, valueEnd));
+                } else if (nominalValues[a] != null) {
+                    record.setNominal(columns[a], missing ? MISSING_NOMINAL : parseNominal(a, fieldStart, valueEnd));
+                } else {
+                    record.setNumeric(columns[a], missing ? Float.NaN : parseNumeric(fieldStart, valueEnd));
+                }
+
+                p = fieldEnd + 1;
+
+                if (a == valueCount - 1 && fieldEnd != lineEnd) {
+                    throw error("More than " + valueCount + " values", fieldEnd);
+                }
+            }
+
+            return true;
+        }
+
+        return false;
+    }
+
+    private void parseAttribute(ArffSchema header, String definition, int start) throws ArffParseException {
+        String name;
+        String type;
+
+        if (definition.startsWith("'") || definition.startsWith("\"")) {
+            int end = definition.indexOf(definition.charAt(0), 1);
+            if (end < 0) throw error("Unterminated attribute name", start);
+
+            name = definition.substring(1, end);
+            type = definition.substring(end + 1).trim();
+        } else {
+            int end = 0;
+            while (end < definition.length() && !Character.isWhitespace(definition.charAt(end))) end++;
+
+            name = definition.substring(0, end);
+            type = definition.substring(end).trim();
+        }
+
+        if (name.isEmpty()) throw error("Attribute without name", start);
+
+        String lowerCaseType = type.toLowerCase(Locale.US);
+        boolean numeric = lowerCaseType.equals("numeric") || lowerCaseType.equals("real")
+                || lowerCaseType.equals("integer");
+
+        if (name.equals(TIMESTAMP_ATTRIBUTE) && numeric) {
+            if (timestampField >= 0) throw error("Second timestamp attribute", start);
+
+            timestampField = header.getAttributeCount();
+            return;
+        }
+
+        if (type.startsWith("{")) {
+            if (!type.endsWith("}")) throw error("Unterminated nominal values of " + name, start);
+
+            List<String> values = new ArrayList<String>();
+            for (String value : type.substring(1, type.length() - 1).split(",")) {
+                values.add(unquote(value.trim()));
+            }
+
+            header.addNominalAttribute(name, values.toArray(new String[values.size()]));
+        } else if (numeric) {
+            header.addNumericAttribute(name);
+        } else {
+            throw error("Unsupported type of " + name + ": " + type, start);
+        }
+    }
+
+    private void initColumns(ArffSchema header) {
+        int count = header.getAttributeCount() + (timestampField >= 0 ? 1 : 0);
+
+        attributes = new int[count];
+        columns = new int[count];
+        nominalValues = new byte[count][][];
+
+        for (int field = 0; field < count; field++) {
+            if (field == timestampField) {
+                attributes[field] = -1;
+                columns[field] = -1;
+                continue;
+            }
+
+            int a = timestampField >= 0 && field > timestampField ? field - 1 : field;
+            ArffSchema.Attribute attribute = header.getAttribute(a);
+            attributes[field] = a;
+            columns[field] = attribute.getColumnIndex();
+
+            if (attribute.isNominal()) {
+                String[] values = attribute.getNominalValues();
+                nominalValues[field] = new byte[values.length][];
+
+                for (int v = 0; v < values.length; v++) nominalValues[field][v] = values[v].getBytes(UTF_8);
+            }
+        }
+
+        schema = header;
+    }
+
+    private long parseTimestamp(int start, int end) throws ArffParseException {
+        int p = start;
+        boolean negative = buffer[p] == '-';
+        if (negative || buffer[p] == '+') p++;
+
+        if (p == end || end - p > MAX_DIGITS) throw error("Invalid timestamp", start);
+
+        long value = 0;
+
+        for (; p < end; p++) {
+            if (!isDigit(buffer[p])) throw error("Invalid timestamp", p);
+            value = value * 10 + (buffer[p] - '0');
+        }
+
+        return negative ? -value : value;
+    }
+
+    private int parseNominal(int field, int start, int end) throws ArffParseException {
+        // Quoted values
+        if (end - start >= 2 && (buffer[start] == '\'' || buffer[start] == '"') && buffer[end - 1] == buffer[start]) {
+            start++;
+            end--;
+        }
+
+        byte[][] values = nominalValues[field];
+
+        for (int code = 0; code < values.length; code++) {
+            byte[] value = values[code];
+
+            if (value.length == end - start) {
+                int i = 0;
+                while (i < value.length && value[i] == buffer[start + i]) i++;
+
+                if (i == value.length) return code;
+            }
+        }
+
+        throw error("Unknown value of " + schema.getAttribute(attributes[field]).getName(), start);
+    }
+
+    private float parseNumeric(int start, int end) throws ArffParseException {
+        int p = start;
+        boolean negative = false;
+
+        if (buffer[p] == '-' || buffer[p] == '+') {
+            negative = buffer[p] == '-';
+            p++;
+        }
+
+        long mantissa = 0;
+        int exponent = 0;
+        int digits = 0;
+        boolean anyDigit = false;
+
+        // Integer part
+        while (p < end && isDigit(buffer[p])) {
+            anyDigit = true;
+
+            if (digits < MAX_DIGITS) {
+                mantissa = mantissa * 10 + (buffer[p] - '0');
+                if (mantissa != 0) digits++;
+            } else {
+                exponent++;
+            }
+
+            p++;
+        }
+
+        // Fraction
+        if (p < end && buffer[p] == '.') {
+            p++;
+
+            while (p < end && isDigit(buffer[p])) {
+                anyDigit = true;
+
+                if (digits < MAX_DIGITS) {
+                    mantissa = mantissa * 10 + (buffer[p] - '0');
+                    if (mantissa != 0) digits++;
+                    exponent--;
+                }
+
+                p++;
+            }
+        }
+
+        if (!anyDigit) throw error("Invalid number", start);
+
+        // Exponent
+        if (p < end && (buffer[p] == 'e' || buffer[p] == 'E')) {
+            p++;
+
+            boolean negativeExponent = false;
+            if (p < end && (buffer[p] == '-' || buffer[p] == '+')) {
+                negativeExponent = buffer[p] == '-';
+                p++;
+            }
+
+            if (p == end || !isDigit(buffer[p])) throw error("Invalid exponent", p);
+
+            int value = 0;
+            while (p < end && isDigit(buffer[p])) {
+                value = Math.min(value * 10 + (buffer[p] - '0'), 100000);
+                p++;
+            }
+
+            exponent += negativeExponent ? -value : value;
+        }
+
+        if (p != end) throw error("Invalid number", p);
+
+        double value = mantissa;
+
+        if (exponent > 0) {
+            value = exponent < POW10.length ? value * POW10[exponent] : value * Math.pow(10, exponent);
+        } else if (exponent < 0) {
+            value = -exponent < POW10.length ? value / POW10[-exponent] : value / Math.pow(10, -exponent);
+        }
+
+        return (float) (negative ? -value : value);
+    }
+
+    /**
+     * Moves to the next line.
+     *
+     * @return boolean : false at the end of the file.
+     */
+    private boolean nextLine() throws IOException {
+        while (true) {
+            for (int i = Math.max(scanned, position); i < limit; i++) {
+                if (buffer[i] == '\n') {
+                    setLine(i);
+                    position = i + 1;
+                    return true;
+                }
+            }
+
+            scanned = limit;
+
+            if (endOfStream) {
+                if (position == limit) return false;
+
+                // Last line without line break
+                setLine(limit);
+                position = limit;
+                return true;
+            }
+
+            // Move the unfinished line to the start of the buffer
+            if (position > 0) {
+                System.arraycopy(buffer, position, buffer, 0, limit - position);
+                bufferOffset += position;
+                limit -= position;
+                scanned = limit;
+                position = 0;
+            }
+
+            if (limit == buffer.length) {
+                throw new ArffParseException("Line longer than " + buffer.length + " bytes", lineNumber + 1, 1);
+            }
+
+            int read = inputStream.read(buffer, limit, buffer.length - limit);
+
+            if (read < 0) endOfStream = true;
+            else limit += read;
+        }
+    }
+
+    private void setLine(int end) {
+        lineStart = position;
+        lineEnd = end;
+        if (lineEnd > lineStart && buffer[lineEnd - 1] == '\r') lineEnd--;
+        lineNumber++;
+    }
+
+    private int skipWhitespace(int p) {
+        while (p < lineEnd && isWhitespace(buffer[p])) p++;
+        return p;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static String unquote(String value) {
+        if (value.length() >= 2 && (value.charAt(0) == '\'' || value.charAt(0) == '"')
+                && value.charAt(value.length() - 1) == value.charAt(0)) {
+            return value.substring(1, value.length() - 1);
+        }
+
+        return value;
+    }
+
+    private ArffParseException error(String message, int index) {
+        return new ArffParseException(message, lineNumber, index - lineStart + 1);
+    }
+
+    public ArffSchema getSchema() {
+        return schema;
+    }
+
+    /**
+     * Returns true if the header has a timestamp attribute, whose values are set as timestamp
+     * of the records.
+     */
+    public boolean hasTimestamp() {
+        return timestampField >= 0;
+    }
+
+    /**
+     * Returns the offset in the stream behind the line which was read last, e.g. the start of
+     * the rows after readHeader().
+     */
+    public long getOffset() {
+        return bufferOffset + position;
+    }
+
+    /**
+     * Returns the number of the line which was read last, starting at 1.
+     */
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inputStream.close();
+    }
+}
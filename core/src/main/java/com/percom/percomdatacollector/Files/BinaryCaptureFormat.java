@@ -0,0 +1,364 @@
+package com.percom.percomdatacollector.Files;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+/**
+ * Compact binary format of the capture files. All values are little-endian.
+ *
+ * Header:
+ * magic "PCDC" | version (u16) | header length in bytes (i32) | relation (string) |
+ * attribute count (u16) | per attribute: type (u8, 0 numeric, 1 nominal, 2 run-length nominal),
+ * name (string) and for nominal attributes the value count (u8, 0 means 256) followed by the
+ * values (strings). Strings are stored as length (u16) and UTF-8 bytes.
+ *
+ * Records (fixed width):
+ * timestamp in nanoseconds (i64) | numeric attributes (f32 each) | nominal codes (u8 each)
+ * The nominal values are stored as their code, the dictionary is the header.
+ *
+ * Since version 2 the records are framed in blocks, one block per group commit:
+ * block magic "PCDB" (i32) | payload length (i32) | CRC-32C of the payload (i32) | records |
+ * payload length (i32)
+ * A block only holds complete records. A block which was torn by a crash fails the checksum,
+ * the trailing length lets the recovery find the end of the last valid block from the end of
+ * the file. Version 1 files have no blocks, the records follow the header directly.
+ *
+ * Since version 3 the fixed part of the header is followed by the drop statistics of the
+ * segment: overflow policy (u8) | dropped samples (i64) | decimated samples (i64). They are
+ * at a fixed offset, so they can be updated in place when the segment is closed.
+ *
+ * Since version 4 run-length nominal attributes (the movement type) are not stored in the
+ * records. Their value is set by segment markers, which have the size of a record:
+ * SEGMENT_MARKER (i64) | run-length codes (u8 each, in column order) | zero padding
+ * A marker applies to all following records until the next one. Every block starts with the
+ * current marker, so each block can be decoded on its own.
+ *
+ * The header carries the full ArffSchema, so a capture can be converted to ARFF or CSV
+ * without further information.
+ */
+public final class BinaryCaptureFormat {
+
+    // File type of capture files
+    public static final String FILE_TYPE = ".pcd";
+
+    // "PCDC" as little-endian int
+    public static final int MAGIC = 0x43444350;
+
+    // Current format version
+    public static final int VERSION = 4;
+
+    // Oldest version which can still be read
+    public static final int MIN_VERSION = 1;
+
+    // First version with block framing
+    public static final int BLOCK_FRAMED_VERSION = 2;
+
+    // First version with drop statistics in the header
+    public static final int DROP_STATISTICS_VERSION = 3;
+
+    // First version with run-length nominal attributes
+    public static final int RUN_LENGTH_VERSION = 4;
+
+    // Timestamp of a segment marker, never the timestamp of a record
+    public static final long SEGMENT_MARKER = Long.MIN_VALUE;
+
+    // "PCDB" as little-endian int
+    public static final int BLOCK_MAGIC = 0x42444350;
+
+    // Size of block magic, payload length and checksum in front of the records
+    public static final int BLOCK_HEADER_SIZE = 12;
+
+    // Size of the payload length behind the records
+    public static final int BLOCK_TRAILER_SIZE = 4;
+
+    // Bytes a block adds to its records
+    public static final int BLOCK_OVERHEAD = BLOCK_HEADER_SIZE + BLOCK_TRAILER_SIZE;
+
+    // Largest payload of a block (16 MB), larger lengths are treated as damaged
+    public static final int MAX_BLOCK_PAYLOAD = 16 * 1024 * 1024;
+
+    // Size of magic, version and header length
+    public static final int FIXED_HEADER_SIZE = 10;
+
+    // Position and size of the drop statistics in the header
+    public static final int DROP_STATISTICS_OFFSET = FIXED_HEADER_SIZE;
+    public static final int DROP_STATISTICS_SIZE = 17;
+
+    // Attribute types
+    private static final byte TYPE_NUMERIC = 0;
+    private static final byte TYPE_NOMINAL = 1;
+    private static final byte TYPE_NOMINAL_RUN_LENGTH = 2;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private BinaryCaptureFormat() {}
+
+    /**
+     * Returns the size of one record of the schema in bytes, run-length attributes are not part
+     * of it. A segment marker has the same size.
+     */
+    public static int getRecordSize(ArffSchema schema) {
+        int stored = 8 + 4 * schema.getNumericCount() + schema.getNominalCount() - schema.getRunLengthCount();
+
+        return Math.max(stored, 8 + schema.getRunLengthCount());
+    }
+
+    /**
+     * Returns true if the bytes are a segment marker.
+     *
+     * @param src : byte[] : Array with the record.
+     * @param offset : int : Index of the first byte.
+     * @param length : int : Size of the record.
+     */
+    public static boolean isSegmentMarker(byte[] src, int offset, int length) {
+        if (length < 8) return false;
+
+        // Little-endian timestamp without a buffer, this is checked for every record
+        long timestamp = 0;
+        for (int i = 7; i >= 0; i--) timestamp = timestamp << 8 | (src[offset + i] & 0xFF);
+
+        return timestamp == SEGMENT_MARKER;
+    }
+
+    /**
+     * Encodes the header for the schema without drop statistics.
+     *
+     * @param schema : ArffSchema : Schema of the capture.
+     * @return byte[] : The complete header.
+     */
+    public static byte[] encodeHeader(ArffSchema schema) {
+        return encodeHeader(schema, DropStatistics.NONE);
+    }
+
+    /**
+     * Encodes the header for the schema.
+     *
+     * @param schema : ArffSchema : Schema of the capture.
+     * @param dropStatistics : DropStatistics : Initial drop statistics of the segment.
+     * @return byte[] : The complete header.
+     */
+    public static byte[] encodeHeader(ArffSchema schema, DropStatistics dropStatistics) {
+        // Calculate the size first, the header is written once per file
+        int size = FIXED_HEADER_SIZE + DROP_STATISTICS_SIZE + stringSize(schema.getRelation()) + 2;
+
+        for (int i = 0; i < schema.getAttributeCount(); i++) {
+            ArffSchema.Attribute attribute = schema.getAttribute(i);
+            size += 1 + stringSize(attribute.getName());
+
+            if (attribute.isNominal()) {
+                size += 1;
+                for (String value : attribute.getNominalValues()) size += stringSize(value);
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC);
+        buffer.putShort((short) VERSION);
+        buffer.putInt(size);
+        putDropStatistics(buffer, dropStatistics);
+        putString(buffer, schema.getRelation());
+        buffer.putShort((short) schema.getAttributeCount());
+
+        for (int i = 0; i < schema.getAttributeCount(); i++) {
+            ArffSchema.Attribute attribute = schema.getAttribute(i);
+
+            if (attribute.isNominal()) {
+                buffer.put(attribute.isRunLength() ? TYPE_NOMINAL_RUN_LENGTH : TYPE_NOMINAL);
+            } else {
+                buffer.put(TYPE_NUMERIC);
+            }
+
+            putString(buffer, attribute.getName());
+
+            if (attribute.isNominal()) {
+                String[] values = attribute.getNominalValues();
+                buffer.put((byte) values.length);
+                for (String value : values) putString(buffer, value);
+            }
+        }
+
+        return buffer.array();
+    }
+
+    /**
+     * Encodes the drop statistics for an update of the header in place at
+     * DROP_STATISTICS_OFFSET.
+     *
+     * @param dropStatistics : DropStatistics : The statistics.
+     * @return byte[] : DROP_STATISTICS_SIZE bytes.
+     */
+    public static byte[] encodeDropStatistics(DropStatistics dropStatistics) {
+        ByteBuffer buffer = ByteBuffer.allocate(DROP_STATISTICS_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        putDropStatistics(buffer, dropStatistics);
+
+        return buffer.array();
+    }
+
+    private static void putDropStatistics(ByteBuffer buffer, DropStatistics dropStatistics) {
+        buffer.put((byte) dropStatistics.getPolicyCode());
+        buffer.putLong(dropStatistics.getDroppedSamples());
+        buffer.putLong(dropStatistics.getDecimatedSamples());
+    }
+
+    /**
+     * Reads the drop statistics of a segment. The position of the buffer isn't changed.
+     *
+     * @param buffer : ByteBuffer : Little-endian buffer positioned at the start of the header,
+     *               with at least FIXED_HEADER_SIZE + DROP_STATISTICS_SIZE bytes for version 3.
+     * @return DropStatistics : The statistics, NONE for older versions.
+     * @throws IOException : If the data isn't a supported capture.
+     */
+    public static DropStatistics readDropStatistics(ByteBuffer buffer) throws IOException {
+        int start = buffer.position();
+
+        if (readVersion(buffer) < DROP_STATISTICS_VERSION) return DropStatistics.NONE;
+
+        int offset = start + DROP_STATISTICS_OFFSET;
+
+        return new DropStatistics(buffer.get(offset) & 0xFF, buffer.getLong(offset + 1), buffer.getLong(offset + 9));
+    }
+
+    /**
+     * Reads the format version from the fixed part of the header.
+     *
+     * @param buffer : ByteBuffer : Little-endian buffer with at least FIXED_HEADER_SIZE bytes.
+     * @return int : Format version.
+     * @throws IOException : If the data isn't a supported capture.
+     */
+    public static int readVersion(ByteBuffer buffer) throws IOException {
+        int start = buffer.position();
+
+        if (buffer.getInt(start) != MAGIC) throw new IOException("Not a capture file");
+
+        int version = buffer.getShort(start + 4) & 0xFFFF;
+        if (version < MIN_VERSION || version > VERSION) throw new IOException("Unsupported capture version " + version);
+
+        return version;
+    }
+
+    /**
+     * Reads the fixed part of the header and returns the total header length.
+     *
+     * @param buffer : ByteBuffer : Little-endian buffer with at least FIXED_HEADER_SIZE bytes.
+     * @return int : Header length in bytes.
+     * @throws IOException : If the data isn't a supported capture.
+     */
+    public static int readHeaderLength(ByteBuffer buffer) throws IOException {
+        readVersion(buffer);
+
+        return buffer.getInt(buffer.position() + 6);
+    }
+
+    /**
+     * Returns true if the records of this version are framed in blocks.
+     */
+    public static boolean isBlockFramed(int version) {
+        return version >= BLOCK_FRAMED_VERSION;
+    }
+
+    /**
+     * Frames the records in a buffer as one block: fills in the block header at index 0 and
+     * appends the trailer behind the records.
+     *
+     * @param buffer : ByteBuffer : Little-endian buffer with the records from BLOCK_HEADER_SIZE
+     *               to its position and room for the trailer behind them.
+     * @param crc : Crc32c : Reused for the checksum.
+     */
+    public static void sealBlock(ByteBuffer buffer, Crc32c crc) {
+        int payloadLength = buffer.position() - BLOCK_HEADER_SIZE;
+
+        crc.reset();
+        crc.update(buffer, BLOCK_HEADER_SIZE, payloadLength);
+
+        buffer.putInt(0, BLOCK_MAGIC);
+        buffer.putInt(4, payloadLength);
+        buffer.putInt(8, (int) crc.getValue());
+        buffer.putInt(payloadLength);
+    }
+
+    /**
+     * Checks a block: magic, matching lengths, whole records and the checksum. The position of
+     * the buffer isn't changed.
+     *
+     * @param buffer : ByteBuffer : Little-endian buffer, the block must end before its limit.
+     * @param start : int : Index of the block magic.
+     * @param recordSize : int : Size of one record.
+     * @param crc : Crc32c : Reused for the checksum.
+     * @return int : Payload length or -1 if the block is incomplete or damaged.
+     */
+    public static int checkBlock(ByteBuffer buffer, int start, int recordSize, Crc32c crc) {
+        if (start < 0 || start + BLOCK_OVERHEAD > buffer.limit()) return -1;
+        if (buffer.getInt(start) != BLOCK_MAGIC) return -1;
+
+        int payloadLength = buffer.getInt(start + 4);
+
+        if (payloadLength <= 0 || payloadLength > MAX_BLOCK_PAYLOAD || payloadLength % recordSize != 0) return -1;
+        if (payloadLength > buffer.limit() - start - BLOCK_OVERHEAD) return -1;
+        if (buffer.getInt(start + BLOCK_HEADER_SIZE + payloadLength) != payloadLength) return -1;
+
+        crc.reset();
+        crc.update(buffer, start + BLOCK_HEADER_SIZE, payloadLength);
+
+        return (int) crc.getValue() == buffer.getInt(start + 8) ? payloadLength : -1;
+    }
+
+    /**
+     * Decodes the header. The position of the buffer is moved behind the header.
+     *
+     * @param buffer : ByteBuffer : Little-endian buffer with the complete header.
+     * @return ArffSchema : Schema of the capture.
+     * @throws IOException : If the data isn't a supported capture.
+     */
+    public static ArffSchema decodeHeader(ByteBuffer buffer) throws IOException {
+        int start = buffer.position();
+        int version = readVersion(buffer);
+        int headerLength = readHeaderLength(buffer);
+
+        buffer.position(start + FIXED_HEADER_SIZE);
+        if (version >= DROP_STATISTICS_VERSION) buffer.position(buffer.position() + DROP_STATISTICS_SIZE);
+
+        ArffSchema schema = new ArffSchema(getString(buffer));
+        int attributeCount = buffer.getShort() & 0xFFFF;
+
+        for (int i = 0; i < attributeCount; i++) {
+            byte type = buffer.get();
+            String name = getString(buffer);
+
+            if (type == TYPE_NOMINAL || type == TYPE_NOMINAL_RUN_LENGTH) {
+                int count = buffer.get() & 0xFF;
+                if (count == 0) count = 256;
+
+                String[] values = new String[count];
+                for (int v = 0; v < count; v++) values[v] = getString(buffer);
+
+                schema.addNominalAttribute(name, values, type == TYPE_NOMINAL_RUN_LENGTH);
+            } else if (type == TYPE_NUMERIC) {
+                schema.addNumericAttribute(name);
+            } else {
+                throw new IOException("Unknown attribute type " + type);
+            }
+        }
+
+        if (buffer.position() != start + headerLength) throw new IOException("Corrupt capture header");
+
+        return schema;
+    }
+
+    private static int stringSize(String value) {
+        return 2 + value.getBytes(UTF_8).length;
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        byte[] bytes = value.getBytes(UTF_8);
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
@@ -0,0 +1,218 @@
+package com.percom.percomdatacollector.Files;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads a capture in the BinaryCaptureFormat record by record. Only one buffer is used, so the
+ * memory needed doesn't depend on the size of the capture. Blocks are verified completely
+ * before their first record is returned, reading stops at the first incomplete or damaged
+ * block. Segment markers are applied to the records, the run-length values are expanded into
+ * every record.
+ *
+ * An instance is not thread safe.
+ */
+public class BinaryCaptureReader implements Closeable {
+
+    // Default size of the read buffer (64 KB)
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    // Source of the capture
+    private final ReadableByteChannel channel;
+
+    // Read buffer, the remaining bytes are not consumed yet. Grows for blocks which are larger.
+    private ByteBuffer buffer;
+
+    // Schema and drop statistics from the header
+    private ArffSchema schema = null;
+    private DropStatistics dropStatistics = DropStatistics.NONE;
+    private BinaryRecordDecoder decoder = null;
+    private int recordSize = 0;
+
+    // Framing of the records, depends on the format version
+    private boolean blockFramed = false;
+    // Payload bytes of the current block which are not read yet
+    private int blockRemaining = 0;
+    private final Crc32c crc = new Crc32c();
+
+    private boolean endOfStream = false;
+    // true if the capture ends with an incomplete record or block
+    private boolean tornTail = false;
+
+    /**
+     * Creates a reader. The stream is closed with the reader.
+     *
+     * @param inputStream : InputStream : Stream of the capture.
+     */
+    public BinaryCaptureReader(InputStream inputStream) {
+        this(inputStream, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a reader. The stream is closed with the reader.
+     *
+     * @param inputStream : InputStream : Stream of the capture.
+     * @param bufferSize : int : Size of the read buffer.
+     */
+    public BinaryCaptureReader(InputStream inputStream, int bufferSize) {
+        if (inputStream instanceof FileInputStream) {
+            this.channel = ((FileInputStream) inputStream).getChannel();
+        } else {
+            this.channel = Channels.newChannel(inputStream);
+        }
+
+        this.buffer = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+        this.buffer.limit(0);
+    }
+
+    /**
+     * Reads the header. Must be called before the first record is read.
+     *
+     * @return ArffSchema : Schema of the capture.
+     * @throws IOException
+     */
+    public ArffSchema readHeader() throws IOException {
+        if (!fill(BinaryCaptureFormat.FIXED_HEADER_SIZE)) throw new IOException("Capture has no header");
+
+        blockFramed = BinaryCaptureFormat.isBlockFramed(BinaryCaptureFormat.readVersion(buffer));
+        int headerLength = BinaryCaptureFormat.readHeaderLength(buffer);
+        if (headerLength > buffer.capacity()) throw new IOException("Capture header too large");
+        if (!fill(headerLength)) throw new IOException("Capture header incomplete");
+
+        dropStatistics = BinaryCaptureFormat.readDropStatistics(buffer);
+        schema = BinaryCaptureFormat.decodeHeader(buffer);
+        decoder = new BinaryRecordDecoder(schema);
+        recordSize = decoder.getRecordSize();
+
+        return schema;
+    }
+
+    /**
+     * Reads the next record.
+     *
+     * @param record : ArffRecord : Holder for the values, created for the schema of the capture.
+     * @return boolean : false at the end of the capture.
+     * @throws IOException
+     */
+    public boolean next(ArffRecord record) throws IOException {
+        if (schema == null) throw new IllegalStateException("Header not read");
+
+        boolean decoded;
+
+        do {
+            if (blockFramed) {
+                if (blockRemaining == 0 && !nextBlock()) return false;
+            } else if (!fill(recordSize)) {
+                tornTail = buffer.hasRemaining();
+                return false;
+            }
+
+            decoded = decoder.decode(buffer, record);
+
+            if (blockFramed) {
+                blockRemaining -= recordSize;
+
+                // Skip the trailer of a finished block
+                if (blockRemaining == 0) buffer.position(buffer.position() + BinaryCaptureFormat.BLOCK_TRAILER_SIZE);
+            }
+        } while (!decoded);
+
+        return true;
+    }
+
+    /**
+     * Reads and verifies the next block, the buffer is positioned at its first record.
+     *
+     * @return boolean : false at the end of the capture or at an incomplete or damaged block.
+     */
+    private boolean nextBlock() throws IOException {
+        if (!fill(BinaryCaptureFormat.BLOCK_HEADER_SIZE)) {
+            tornTail = buffer.hasRemaining();
+            return false;
+        }
+
+        int payloadLength = buffer.getInt(buffer.position() + 4);
+
+        if (payloadLength <= 0 || payloadLength > BinaryCaptureFormat.MAX_BLOCK_PAYLOAD
+                || payloadLength % recordSize != 0) {
+            tornTail = true;
+            return false;
+        }
+
+        int blockSize = payloadLength + BinaryCaptureFormat.BLOCK_OVERHEAD;
+        ensureCapacity(blockSize);
+
+        if (!fill(blockSize) || BinaryCaptureFormat.checkBlock(buffer, buffer.position(), recordSize, crc) < 0) {
+            tornTail = true;
+            return false;
+        }
+
+        buffer.position(buffer.position() + BinaryCaptureFormat.BLOCK_HEADER_SIZE);
+        blockRemaining = payloadLength;
+
+        return true;
+    }
+
+    /**
+     * Replaces the buffer with a larger one if a block doesn't fit.
+     */
+    private void ensureCapacity(int required) {
+        if (required <= buffer.capacity()) return;
+
+        ByteBuffer larger = ByteBuffer.allocateDirect(required).order(ByteOrder.LITTLE_ENDIAN);
+        larger.put(buffer);
+        larger.flip();
+
+        buffer = larger;
+    }
+
+    /**
+     * Makes sure the buffer contains at least the given number of bytes.
+     *
+     * @return boolean : false if the stream ended before.
+     */
+    private boolean fill(int required) throws IOException {
+        if (buffer.remaining() >= required) return true;
+
+        buffer.compact();
+
+        while (!endOfStream && buffer.position() < required) {
+            if (channel.read(buffer) < 0) endOfStream = true;
+        }
+
+        buffer.flip();
+
+        return buffer.remaining() >= required;
+    }
+
+    public ArffSchema getSchema() {
+        return schema;
+    }
+
+    /**
+     * Returns the samples which were lost while the capture was written, NONE for captures
+     * without statistics.
+     */
+    public DropStatistics getDropStatistics() {
+        return dropStatistics;
+    }
+
+    /**
+     * Returns true if the capture ended with an incomplete record or a block which failed the
+     * checksum, e.g. after a crash.
+     */
+    public boolean hasTornTail() {
+        return tornTail;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
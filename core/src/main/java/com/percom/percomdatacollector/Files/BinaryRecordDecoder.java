@@ -0,0 +1,65 @@
+package com.percom.percomdatacollector.Files;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes records in the BinaryCaptureFormat. The values of the run-length attributes are
+ * taken from the last segment marker, they stay in the record holder until the next marker.
+ *
+ * An instance is not thread safe.
+ */
+public class BinaryRecordDecoder {
+
+    // Size of a record and of a segment marker
+    private final int recordSize;
+
+    // For every nominal column whether it is set by the segment markers
+    private final boolean[] runLength;
+
+    /**
+     * Creates a decoder for the records of the schema.
+     */
+    public BinaryRecordDecoder(ArffSchema schema) {
+        this.recordSize = BinaryCaptureFormat.getRecordSize(schema);
+        this.runLength = schema.getRunLengthColumns();
+    }
+
+    /**
+     * Decodes one record or segment marker. The position of the buffer is moved behind it.
+     *
+     * @param buffer : ByteBuffer : Little-endian buffer positioned at the record.
+     * @param record : ArffRecord : Holder for the values, created for the schema of the capture
+     *               and reused for the following records.
+     * @return boolean : false for a segment marker, only the run-length values were set.
+     */
+    public boolean decode(ByteBuffer buffer, ArffRecord record) {
+        int start = buffer.position();
+        long timestamp = buffer.getLong();
+
+        if (timestamp == BinaryCaptureFormat.SEGMENT_MARKER) {
+            for (int i = 0; i < runLength.length; i++) {
+                if (runLength[i]) record.setNominal(i, buffer.get() & 0xFF);
+            }
+
+            buffer.position(start + recordSize);
+            return false;
+        }
+
+        record.setTimestamp(timestamp);
+
+        for (int i = 0; i < record.getNumericCount(); i++) {
+            record.setNumeric(i, buffer.getFloat());
+        }
+
+        for (int i = 0; i < runLength.length; i++) {
+            if (!runLength[i]) record.setNominal(i, buffer.get() & 0xFF);
+        }
+
+        buffer.position(start + recordSize);
+        return true;
+    }
+
+    public int getRecordSize() {
+        return recordSize;
+    }
+}
@@ -0,0 +1,128 @@
+package com.percom.percomdatacollector.Files;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Encodes records in the BinaryCaptureFormat into a reusable byte array.
+ *
+ * Usage: beginRecord(timestamp), numeric() for every numeric attribute and nominal() for every
+ * nominal attribute in order of their column index. If isSegmentStart() returns true, write
+ * getSegmentMarker() from 0 to getLength() first. Then write getBuffer() from 0 to getLength().
+ *
+ * Run-length attributes are not written into the record, a change of their value starts a new
+ * segment instead. The first record always starts a segment.
+ *
+ * An instance is not thread safe.
+ */
+public class BinaryRecordEncoder {
+
+    // Record buffer and a little-endian view on it
+    private final byte[] buffer;
+    private final ByteBuffer view;
+
+    // Position of the first nominal code
+    private final int nominalOffset;
+
+    // Position of every nominal column in the record, or -1 - index in the segment marker
+    private final int[] nominalPositions;
+
+    // Marker with the codes of the current segment
+    private final byte[] segmentMarker;
+
+    // Next column
+    private int numericColumn = 0;
+    private int nominalColumn = 0;
+
+    // true if the current record changed a run-length value
+    private boolean segmentStart = false;
+    private boolean firstRecord = true;
+
+    /**
+     * Creates an encoder for the records of the schema.
+     */
+    public BinaryRecordEncoder(ArffSchema schema) {
+        this.buffer = new byte[BinaryCaptureFormat.getRecordSize(schema)];
+        this.view = ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN);
+        this.nominalOffset = 8 + 4 * schema.getNumericCount();
+
+        boolean[] runLength = schema.getRunLengthColumns();
+        this.nominalPositions = new int[runLength.length];
+
+        int stored = 0;
+        int segment = 0;
+
+        for (int i = 0; i < runLength.length; i++) {
+            nominalPositions[i] = runLength[i] ? -1 - segment++ : nominalOffset + stored++;
+        }
+
+        this.segmentMarker = new byte[buffer.length];
+        ByteBuffer.wrap(segmentMarker).order(ByteOrder.LITTLE_ENDIAN).putLong(0, BinaryCaptureFormat.SEGMENT_MARKER);
+    }
+
+    /**
+     * Starts a new record.
+     *
+     * @param timestamp : long : Timestamp in nanoseconds.
+     */
+    public void beginRecord(long timestamp) {
+        view.putLong(0, timestamp);
+        numericColumn = 0;
+        nominalColumn = 0;
+        segmentStart = firstRecord;
+        firstRecord = false;
+    }
+
+    /**
+     * Sets the next numeric attribute.
+     */
+    public void numeric(float value) {
+        view.putFloat(8 + 4 * numericColumn++, value);
+    }
+
+    /**
+     * Sets the next nominal attribute.
+     */
+    public void nominal(int code) {
+        int position = nominalPositions[nominalColumn++];
+
+        if (position >= 0) {
+            buffer[position] = (byte) code;
+        } else if (segmentMarker[8 - 1 - position] != (byte) code) {
+            segmentMarker[8 - 1 - position] = (byte) code;
+            segmentStart = true;
+        }
+    }
+
+    /**
+     * Encodes a complete record.
+     */
+    public void encode(ArffRecord record) {
+        beginRecord(record.getTimestamp());
+
+        for (int i = 0; i < record.getNumericCount(); i++) numeric(record.getNumeric(i));
+        for (int i = 0; i < record.getNominalCount(); i++) nominal(record.getNominal(i));
+    }
+
+    /**
+     * Returns true if the segment marker must be written in front of the current record.
+     */
+    public boolean isSegmentStart() {
+        return segmentStart;
+    }
+
+    /**
+     * Returns the marker of the current segment, it has the length of a record.
+     */
+    public byte[] getSegmentMarker() {
+        return segmentMarker;
+    }
+
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    public int getLength() {
+        return buffer.length;
+    }
+}
@@ -0,0 +1,109 @@
+package com.percom.percomdatacollector.Files;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Writes the records as one capture file in the BinaryCaptureFormat, e.g. to merge the
+ * segments of a capture into a single compact file. The records are collected in blocks with
+ * a checksum like a recording writes them, every block starts with the current segment marker.
+ * The header has no drop statistics.
+ */
+public class BinaryRecordSink implements RecordSink {
+
+    // Default payload size of a block (64 KB)
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+    private final OutputStream out;
+
+    // Block header, records and trailer of the current block
+    private final ByteBuffer block;
+    private final Crc32c crc = new Crc32c();
+
+    // Created for the schema of the header
+    private BinaryRecordEncoder encoder = null;
+    private boolean runLength = false;
+
+    /**
+     * Creates the sink with the default block size.
+     *
+     * @param out : OutputStream : Receives the file.
+     */
+    public BinaryRecordSink(OutputStream out) {
+        this(out, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Creates the sink.
+     *
+     * @param out : OutputStream : Receives the file.
+     * @param blockSize : int : Maximum payload of a block.
+     */
+    public BinaryRecordSink(OutputStream out, int blockSize) {
+        if (blockSize > BinaryCaptureFormat.MAX_BLOCK_PAYLOAD) throw new IllegalArgumentException("Block too large");
+
+        this.out = out;
+        this.block = ByteBuffer.allocate(blockSize + BinaryCaptureFormat.BLOCK_OVERHEAD).order(ByteOrder.LITTLE_ENDIAN);
+        startBlock();
+    }
+
+    @Override
+    public void writeHeader(ArffSchema schema) throws IOException {
+        encoder = new BinaryRecordEncoder(schema);
+        runLength = schema.getRunLengthCount() > 0;
+
+        if (2 * encoder.getLength() > block.remaining()) throw new IllegalArgumentException("Block smaller than a record");
+
+        out.write(BinaryCaptureFormat.encodeHeader(schema));
+    }
+
+    @Override
+    public void write(ArffRecord record) throws IOException {
+        encoder.encode(record);
+
+        int length = encoder.getLength();
+
+        // Room for the record and the marker which may precede it
+        if ((runLength ? 2 * length : length) > block.remaining()) writeBlock();
+
+        if (runLength && (encoder.isSegmentStart() || block.position() == BinaryCaptureFormat.BLOCK_HEADER_SIZE)) {
+            block.put(encoder.getSegmentMarker(), 0, length);
+        }
+
+        block.put(encoder.getBuffer(), 0, length);
+    }
+
+    /**
+     * Writes the current block if it holds records.
+     */
+    private void writeBlock() throws IOException {
+        if (block.position() > BinaryCaptureFormat.BLOCK_HEADER_SIZE) {
+            block.limit(block.capacity());
+            BinaryCaptureFormat.sealBlock(block, crc);
+
+            out.write(block.array(), 0, block.position());
+        }
+
+        startBlock();
+    }
+
+    /**
+     * Leaves room for the block header and the trailer.
+     */
+    private void startBlock() {
+        block.clear();
+        block.position(BinaryCaptureFormat.BLOCK_HEADER_SIZE);
+        block.limit(block.capacity() - BinaryCaptureFormat.BLOCK_TRAILER_SIZE);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            writeBlock();
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.percom.percomdatacollector.Files;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Enumeration;
+
+/**
+ * Converts a binary capture into another format in one streaming pass. Records are read into
+ * one reused ArffRecord and handed to the RecordSink of the format, so the memory needed
+ * doesn't depend on the size of the capture. A segmented capture is converted into one file,
+ * the segments must all have the same schema.
+ */
+public final class CaptureConverter {
+
+    // Size of the output buffer (64 KB)
+    public static final int BUFFER_SIZE = 64 * 1024;
+
+    private CaptureConverter() {}
+
+    /**
+     * Converts the capture. Both streams are closed afterwards.
+     *
+     * @param capture : InputStream : Binary capture.
+     * @param out : OutputStream : Destination of the file.
+     * @param format : ExportFormat : Format of the file.
+     * @return long : Number of converted records.
+     * @throws IOException
+     */
+    public static long convert(InputStream capture, OutputStream out, ExportFormat format) throws IOException {
+        return convert(Collections.enumeration(Collections.singletonList(capture)), out, format);
+    }
+
+    /**
+     * Converts the segments of a capture into one file. The segments are requested from the
+     * enumeration one after the other, so it can open them lazily. Every requested stream and
+     * the output stream are closed afterwards.
+     *
+     * @param segments : Enumeration : Binary segments in order.
+     * @param out : OutputStream : Destination of the file.
+     * @param format : ExportFormat : Format of the file.
+     * @return long : Number of converted records.
+     * @throws IOException : Also if the segments have different schemas.
+     */
+    public static long convert(Enumeration<? extends InputStream> segments, OutputStream out, ExportFormat format)
+            throws IOException {
+        OutputStream dst = new BufferedOutputStream(out, BUFFER_SIZE);
+        RecordSink sink;
+
+        try {
+            sink = format.createSink(dst, BUFFER_SIZE);
+        } catch (IOException e) {
+            dst.close();
+            throw e;
+        }
+
+        return convert(segments, sink);
+    }
+
+    /**
+     * Converts the segments of a capture into one file written by the sink. Every requested
+     * stream and the sink are closed afterwards.
+     *
+     * @param segments : Enumeration : Binary segments in order.
+     * @param sink : RecordSink : Writes the file.
+     * @return long : Number of converted records.
+     * @throws IOException : Also if the segments have different schemas.
+     */
+    public static long convert(Enumeration<? extends InputStream> segments, RecordSink sink) throws IOException {
+        try {
+            String arffHeader = null;
+            ArffRecord record = null;
+            long count = 0;
+
+            while (segments.hasMoreElements()) {
+                BinaryCaptureReader reader = new BinaryCaptureReader(segments.nextElement());
+
+                try {
+                    ArffSchema schema = reader.readHeader();
+
+                    if (arffHeader == null) {
+                        arffHeader = schema.toArffHeader();
+                        record = new ArffRecord(schema);
+
+                        sink.writeHeader(schema);
+                    } else if (!schema.toArffHeader().equals(arffHeader)) {
+                        throw new IOException("Segments have different schemas");
+                    }
+
+                    while (reader.next(record)) {
+                        sink.write(record);
+                        count++;
+                    }
+                } finally {
+                    reader.close();
+                }
+            }
+
+            if (arffHeader == null) throw new IOException("Capture has no segments");
+
+            return count;
+        } finally {
+            sink.close();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.percom.percomdatacollector.Files;
+
+import java.nio.ByteBuffer;
+import java.util.zip.Checksum;
+
+/**
+ * CRC-32C (Castagnoli) checksum of the capture blocks. java.util.zip.CRC32C only exists since
+ * Java 9 and isn't available on Android, so it's calculated with a lookup table of 256
+ * entries, one byte per step.
+ *
+ * An instance is not thread safe.
+ */
+public final class Crc32c implements Checksum {
+
+    // Reversed Castagnoli polynomial
+    private static final int POLYNOMIAL = 0x82F63B78;
+
+    // CRC of every byte value
+    private static final int[] TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+            }
+            TABLE[i] = crc;
+        }
+    }
+
+    // Current CRC, inverted
+    private int crc = 0xFFFFFFFF;
+
+    @Override
+    public void update(int b) {
+        crc = (crc >>> 8) ^ TABLE[(crc ^ b) & 0xFF];
+    }
+
+    @Override
+    public void update(byte[] src, int offset, int length) {
+        int value = crc;
+
+        for (int i = offset; i < offset + length; i++) {
+            value = (value >>> 8) ^ TABLE[(value ^ src[i]) & 0xFF];
+        }
+
+        crc = value;
+    }
+
+    /**
+     * Adds bytes of a buffer. The position of the buffer isn't changed.
+     *
+     * @param buffer : ByteBuffer : Heap, direct or mapped buffer.
+     * @param offset : int : Index of the first byte.
+     * @param length : int : Number of bytes.
+     */
+    public void update(ByteBuffer buffer, int offset, int length) {
+        int value = crc;
+
+        for (int i = offset; i < offset + length; i++) {
+            value = (value >>> 8) ^ TABLE[(value ^ buffer.get(i)) & 0xFF];
+        }
+
+        crc = value;
+    }
+
+    @Override
+    public long getValue() {
+        return ~crc & 0xFFFFFFFFL;
+    }
+
+    @Override
+    public void reset() {
+        crc = 0xFFFFFFFF;
+    }
+}
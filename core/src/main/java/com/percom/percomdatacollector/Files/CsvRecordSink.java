@@ -0,0 +1,55 @@
+package com.percom.percomdatacollector.Files;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Writes the records as comma separated values: a header line with the attribute names and one
+ * line per record. The timestamp is the first column.
+ */
+public class CsvRecordSink implements RecordSink {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final OutputStream out;
+
+    // Created for the schema of the header
+    private ArffRecordEncoder encoder = null;
+
+    /**
+     * Creates the sink.
+     *
+     * @param out : OutputStream : Receives the file, should be buffered.
+     */
+    public CsvRecordSink(OutputStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void writeHeader(ArffSchema schema) throws IOException {
+        encoder = new ArffRecordEncoder(ArffRecordEncoder.DEFAULT_DECIMALS, schema);
+
+        StringBuilder header = new StringBuilder("timestamp");
+
+        for (int i = 0; i < schema.getAttributeCount(); i++) {
+            header.append(',').append(schema.getAttribute(i).getName());
+        }
+
+        out.write(header.toString().getBytes(UTF_8));
+    }
+
+    @Override
+    public void write(ArffRecord record) throws IOException {
+        encoder.beginRecord();
+        encoder.integer(record.getTimestamp());
+        encoder.encode(record);
+
+        out.write(encoder.getBuffer(), 0, encoder.getLength());
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,151 @@
+package com.percom.percomdatacollector.Files;
+
+/**
+ * Formats floats as fixed-precision decimal ASCII text without creating Strings.
+ *
+ * Round trip guarantee: for every finite float v with |v| < 1e9, Float.parseFloat of the
+ * written text differs from v by at most half a unit of the last written decimal place
+ * (0.5 * 10^-decimals) plus one ulp of the parsed value. Larger values are written in
+ * exponent notation ("1.234560E12") with the same bound relative to the value. NaN and
+ * infinite values are written as the ARFF missing value "?".
+ *
+ * An instance keeps a small scratch buffer and is not thread safe.
+ */
+public class DecimalFloatFormatter {
+
+    // Largest supported number of decimal places
+    public static final int MAX_DECIMALS = 9;
+
+    // Values from this magnitude on are written in exponent notation
+    private static final double EXPONENT_THRESHOLD = 1e9;
+
+    // Powers of ten as long
+    private static final long[] POW10 = {
+            1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L,
+            1000000000L, 10000000000L, 100000000000L, 1000000000000L
+    };
+
+    // Number of decimal places
+    private final int decimals;
+
+    // Scratch buffer for the char[] output
+    private final byte[] scratch = new byte[32];
+
+    /**
+     * Creates a formatter.
+     *
+     * @param decimals : int : Number of decimal places, 0 to MAX_DECIMALS.
+     */
+    public DecimalFloatFormatter(int decimals) {
+        if (decimals < 0 || decimals > MAX_DECIMALS) {
+            throw new IllegalArgumentException("Decimals must be between 0 and " + MAX_DECIMALS);
+        }
+
+        this.decimals = decimals;
+    }
+
+    /**
+     * Writes the value as ASCII bytes. At most 32 bytes are written.
+     *
+     * @param value : float : Value which should be written.
+     * @param dst : byte[] : Destination array.
+     * @param offset : int : Index of the first byte.
+     * @return int : Index after the last written byte.
+     */
+    public int format(float value, byte[] dst, int offset) {
+        if (Float.isNaN(value) || Float.isInfinite(value)) {
+            dst[offset++] = '?';
+            return offset;
+        }
+
+        double abs = Math.abs((double) value);
+
+        if (abs >= EXPONENT_THRESHOLD) {
+            return formatExponent(value < 0, abs, dst, offset);
+        }
+
+        long scaled = Math.round(abs * POW10[decimals]);
+
+        // No sign for values which are rounded to zero
+        if (value < 0 && scaled != 0) dst[offset++] = '-';
+
+        return writeFixed(scaled, dst, offset);
+    }
+
+    /**
+     * Writes the value as chars. At most 32 chars are written.
+     *
+     * @param value : float : Value which should be written.
+     * @param dst : char[] : Destination array.
+     * @param offset : int : Index of the first char.
+     * @return int : Index after the last written char.
+     */
+    public int format(float value, char[] dst, int offset) {
+        int length = format(value, scratch, 0);
+
+        for (int i = 0; i < length; i++) {
+            dst[offset + i] = (char) scratch[i];
+        }
+
+        return offset + length;
+    }
+
+    private int writeFixed(long scaled, byte[] dst, int offset) {
+        offset = writeLong(scaled / POW10[decimals], dst, offset);
+
+        if (decimals > 0) {
+            dst[offset++] = '.';
+
+            long fraction = scaled % POW10[decimals];
+
+            // Fraction with leading zeros
+            for (int i = decimals - 1; i >= 0; i--) {
+                dst[offset + i] = (byte) ('0' + fraction % 10);
+                fraction /= 10;
+            }
+
+            offset += decimals;
+        }
+
+        return offset;
+    }
+
+    private int formatExponent(boolean negative, double abs, byte[] dst, int offset) {
+        int exponent = (int) Math.floor(Math.log10(abs));
+        long scaled = Math.round(abs / Math.pow(10, exponent) * POW10[decimals]);
+
+        // Rounding can give 10.000, then the exponent moves by one
+        if (scaled >= 10 * POW10[decimals]) {
+            exponent++;
+            scaled = Math.round(abs / Math.pow(10, exponent) * POW10[decimals]);
+        }
+
+        if (negative) dst[offset++] = '-';
+
+        offset = writeFixed(scaled, dst, offset);
+        dst[offset++] = 'E';
+
+        return writeLong(exponent, dst, offset);
+    }
+
+    private static int writeLong(long value, byte[] dst, int offset) {
+        if (value < 0) {
+            dst[offset++] = '-';
+            value = -value;
+        }
+
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) digits++;
+
+        for (int i = digits - 1; i >= 0; i--) {
+            dst[offset + i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+
+        return offset + digits;
+    }
+
+    public int getDecimals() {
+        return decimals;
+    }
+}
@@ -0,0 +1,59 @@
+package com.percom.percomdatacollector.Files;
+
+/**
+ * Samples which the capture pipeline lost under load while a segment was written, as stored in
+ * the header of the BinaryCaptureFormat. The policy is stored as its code, see
+ * OverflowPolicy.getCode().
+ */
+public final class DropStatistics {
+
+    // Code of a capture without statistics, e.g. from an older version
+    public static final int POLICY_UNKNOWN = 0;
+
+    // Nothing was dropped
+    public static final DropStatistics NONE = new DropStatistics(POLICY_UNKNOWN, 0, 0);
+
+    // Code of the overflow policy
+    private final int policyCode;
+    // Samples dropped because the queue was full
+    private final long droppedSamples;
+    // Samples skipped on purpose by the decimation
+    private final long decimatedSamples;
+
+    /**
+     * Creates the statistics.
+     *
+     * @param policyCode : int : Code of the overflow policy, 0 to 255.
+     * @param droppedSamples : long : Samples dropped because the queue was full.
+     * @param decimatedSamples : long : Samples skipped by the decimation.
+     */
+    public DropStatistics(int policyCode, long droppedSamples, long decimatedSamples) {
+        this.policyCode = policyCode;
+        this.droppedSamples = droppedSamples;
+        this.decimatedSamples = decimatedSamples;
+    }
+
+    public int getPolicyCode() {
+        return policyCode;
+    }
+
+    public long getDroppedSamples() {
+        return droppedSamples;
+    }
+
+    public long getDecimatedSamples() {
+        return decimatedSamples;
+    }
+
+    /**
+     * Returns the sum of both counters.
+     */
+    public long getLostSamples() {
+        return droppedSamples + decimatedSamples;
+    }
+
+    @Override
+    public String toString() {
+        return "policy " + policyCode + ", dropped " + droppedSamples + ", decimated " + decimatedSamples;
+    }
+}
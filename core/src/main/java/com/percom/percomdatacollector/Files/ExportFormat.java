@@ -0,0 +1,66 @@
+package com.percom.percomdatacollector.Files;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Formats a binary capture can be exported to. Every format creates a RecordSink, so a capture
+ * is exported in any format with one pass over its records.
+ */
+public enum ExportFormat {
+
+    // Weka ARFF with the header of the capture
+    ARFF(".arff", false),
+
+    // Comma separated values with a header line and the timestamp as first column
+    CSV(".csv", false),
+
+    // One capture file in the BinaryCaptureFormat, the segments merged
+    BINARY(BinaryCaptureFormat.FILE_TYPE, false),
+
+    // ARFF and CSV compressed with gzip
+    ARFF_GZIP(".arff.gz", true),
+    CSV_GZIP(".csv.gz", true);
+
+    private final String fileType;
+    private final boolean compressed;
+
+    ExportFormat(String fileType, boolean compressed) {
+        this.fileType = fileType;
+        this.compressed = compressed;
+    }
+
+    public String getFileType() {
+        return fileType;
+    }
+
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    /**
+     * Creates the sink of the format. A compressed format deflates through a buffer of
+     * bufferSize bytes, so the small records don't reach the compressor one by one.
+     *
+     * @param out : OutputStream : Receives the file, should be buffered. It's closed with the
+     *            sink.
+     * @param bufferSize : int : Size of the compression buffers.
+     * @return RecordSink : The sink.
+     * @throws IOException
+     */
+    public RecordSink createSink(OutputStream out, int bufferSize) throws IOException {
+        if (compressed) out = new BufferedOutputStream(new GZIPOutputStream(out, bufferSize), bufferSize);
+
+        switch (this) {
+            case CSV:
+            case CSV_GZIP:
+                return new CsvRecordSink(out);
+            case BINARY:
+                return new BinaryRecordSink(out);
+            default:
+                return new ArffRecordSink(out);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.percom.percomdatacollector.Files;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Destination of an export in one format. It receives the schema once and then every record in
+ * order, the records are encoded into the stream of the sink without building the file in
+ * memory. Closing the sink writes the buffered data and closes its stream.
+ *
+ * Usage: writeHeader(schema), write(record) for every record, close().
+ */
+public interface RecordSink extends Closeable {
+
+    /**
+     * Writes the header of the file. Called once before the first record.
+     *
+     * @param schema : ArffSchema : Schema of the records.
+     * @throws IOException
+     */
+    void writeHeader(ArffSchema schema) throws IOException;
+
+    /**
+     * Writes one record.
+     *
+     * @param record : ArffRecord : The record, it's reused by the caller afterwards.
+     * @throws IOException
+     */
+    void write(ArffRecord record) throws IOException;
+}
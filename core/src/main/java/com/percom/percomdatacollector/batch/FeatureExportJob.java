@@ -0,0 +1,194 @@
+package com.percom.percomdatacollector.batch;
+
+import com.percom.percomdatacollector.Files.ArffSchema;
+import com.percom.percomdatacollector.Files.ExportFormat;
+import com.percom.percomdatacollector.Files.RecordSink;
+import com.percom.percomdatacollector.capture.MergedFeatureRecordConsumer;
+import com.percom.percomdatacollector.capture.SensorRegistry;
+import com.percom.percomdatacollector.features.MovementFeatureSchema;
+import com.percom.percomdatacollector.storage.ExportHandle;
+import com.percom.percomdatacollector.storage.ExportJob;
+import com.percom.percomdatacollector.storage.RecordSinkOutput;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Computes the features of a raw capture while it's exported and writes them as one file of
+ * the detectSportType relation in an ExportFormat, so recording only has to store the raw
+ * samples. The
+ * segments are replayed one after the other through a single MergedFeatureRecordConsumer, the
+ * windows continue across segment boundaries and the result is the same as if the features
+ * had been computed while recording. The features are computed for the sensors of the first
+ * segment.
+ *
+ * Unlike the RefeaturizationEngine it runs on the calling thread and doesn't need a
+ * ForkJoinPool, so it can run on the ExportEngine of older devices. The progress is measured
+ * in bytes read from the capture.
+ */
+public class FeatureExportJob implements ExportJob {
+
+    // Size of the parts which are read between two progress reports (256 KB)
+    public static final long DEFAULT_CHUNK_SIZE = 256 * 1024;
+
+    // Size of the output buffer (64 KB)
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final List<File> segments;
+    private final File destination;
+    private final ExportFormat format;
+
+    // Resampling and window of the features
+    private final long tickNanos;
+    private final long maxLagNanos;
+    private final int windowLength;
+    private final int hop;
+
+    // Band edges of the spectral features or null
+    private final float[] spectralBandEdgesHz;
+
+    /**
+     * Creates the job for a single raw capture file.
+     *
+     * @param capture : File : Raw binary capture or text recording, see RawCapture.
+     * @param destination : File : New file, an existing file is replaced.
+     * @param format : ExportFormat : Format of the new file.
+     * @param tickNanos : long : Time between two resampled samples.
+     * @param maxLagNanos : long : Maximum time the clock waits for a lagging sensor.
+     * @param windowLength : int : Resampled samples per window.
+     * @param hop : int : Resampled samples between the start of two windows.
+     * @param spectralBandEdgesHz : float[] : Band edges of the spectral features, null for
+     *                            none.
+     */
+    public FeatureExportJob(File capture, File destination, ExportFormat format, long tickNanos, long maxLagNanos,
+                            int windowLength, int hop, float[] spectralBandEdgesHz) {
+        this(Collections.singletonList(capture), destination, format, tickNanos, maxLagNanos, windowLength, hop,
+                spectralBandEdgesHz);
+    }
+
+    /**
+     * Creates the job for a segmented raw capture.
+     *
+     * @param segments : List<File> : Segments in order.
+     * @param destination : File : New file, an existing file is replaced.
+     * @param format : ExportFormat : Format of the new file.
+     * @param tickNanos : long : Time between two resampled samples.
+     * @param maxLagNanos : long : Maximum time the clock waits for a lagging sensor.
+     * @param windowLength : int : Resampled samples per window.
+     * @param hop : int : Resampled samples between the start of two windows.
+     * @param spectralBandEdgesHz : float[] : Band edges of the spectral features, null for
+     *                            none.
+     */
+    public FeatureExportJob(List<File> segments, File destination, ExportFormat format, long tickNanos,
+                            long maxLagNanos, int windowLength, int hop, float[] spectralBandEdgesHz) {
+        this.segments = segments;
+        this.destination = destination;
+        this.format = format;
+        this.tickNanos = tickNanos;
+        this.maxLagNanos = maxLagNanos;
+        this.windowLength = windowLength;
+        this.hop = hop;
+        this.spectralBandEdgesHz = spectralBandEdgesHz;
+    }
+
+    @Override
+    public long run(ExportHandle handle) throws IOException {
+        boolean complete = false;
+
+        long total = 0;
+        for (File segment : segments) total += segment.length();
+        handle.setTotalBytes(total);
+
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(destination), BUFFER_SIZE);
+        RecordSink sink;
+
+        try {
+            sink = format.createSink(out, BUFFER_SIZE);
+        } catch (IOException e) {
+            out.close();
+            destination.delete();
+            throw e;
+        }
+
+        try {
+            SensorRegistry sensors = segments.isEmpty()
+                    ? SensorRegistry.DEFAULT : RawCapture.open(segments.get(0)).getSensors();
+            ArffSchema schema = spectralBandEdgesHz != null
+                    ? MovementFeatureSchema.createMergedWithSpectrum(sensors, spectralBandEdgesHz.length - 1)
+                    : MovementFeatureSchema.createMerged(sensors);
+            sink.writeHeader(schema);
+
+            RecordSinkOutput records = new RecordSinkOutput(schema, sink);
+            MergedFeatureRecordConsumer consumer = new MergedFeatureRecordConsumer(records, schema, tickNanos,
+                    maxLagNanos, windowLength, hop, spectralBandEdgesHz, sensors) {
+                @Override
+                protected void onWriteError(IOException e) {
+                    throw new FeatureWriteException(e);
+                }
+            };
+
+            long bytesRead = 0;
+
+            try {
+                for (File segment : segments) {
+                    RawCapture capture = RawCapture.open(segment);
+
+                    for (RawCaptureChunk chunk : capture.split(DEFAULT_CHUNK_SIZE)) {
+                        if (handle.isCancelled()) throw new InterruptedIOException("Export cancelled");
+
+                        capture.replay(chunk, consumer);
+
+                        // The header of the segment counts as read
+                        handle.reportProgress(bytesRead + chunk.getEnd());
+                    }
+
+                    bytesRead += segment.length();
+                    handle.reportProgress(bytesRead);
+                }
+
+                // Use the samples which still wait for a lagging sensor
+                consumer.onWriterStopped();
+            } catch (FeatureWriteException e) {
+                throw e.getCause();
+            }
+
+            complete = true;
+        } finally {
+            try {
+                // Writes the end of a compressed file
+                sink.close();
+            } catch (IOException e) {
+                complete = false;
+                throw e;
+            } finally {
+                // Don't leave an incomplete file
+                if (!complete) destination.delete();
+            }
+        }
+
+        return destination.length();
+    }
+
+    /**
+     * Carries a write error of the consumer out of the replay.
+     */
+    private static class FeatureWriteException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        FeatureWriteException(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+}
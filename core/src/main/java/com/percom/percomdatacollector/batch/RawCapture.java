@@ -0,0 +1,566 @@
+package com.percom.percomdatacollector.batch;
+
+import com.percom.percomdatacollector.Files.ArffParseException;
+import com.percom.percomdatacollector.Files.ArffRecord;
+import com.percom.percomdatacollector.Files.ArffSchema;
+import com.percom.percomdatacollector.Files.ArffStreamReader;
+import com.percom.percomdatacollector.Files.BinaryCaptureFormat;
+import com.percom.percomdatacollector.Files.BinaryRecordDecoder;
+import com.percom.percomdatacollector.Files.Crc32c;
+import com.percom.percomdatacollector.capture.SampleConsumer;
+import com.percom.percomdatacollector.capture.SensorRegistry;
+import com.percom.percomdatacollector.features.MovementFeatureSchema;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A recording of raw sensor samples with the schema MovementFeatureSchema.createRawSamples().
+ * Three forms are read:
+ *
+ * - binary captures in the BinaryCaptureFormat (version 1 records or blocks since version 2,
+ *   the movement type in segment markers since version 4)
+ * - the CSV export: a header line and one sample per line,
+ *   timestamp,valueX,valueY,valueZ,sensor,movementType. A file without the header line is
+ *   read too.
+ * - ARFF with the attributes of the raw schema and a numeric timestamp attribute, see
+ *   ArffStreamReader. The ARFF export of a capture has no timestamps, so it's rejected: the
+ *   samples can't be resampled without them.
+ *
+ * The sensors of a binary capture and of ARFF are read from the values of the sensor attribute.
+ * CSV is parsed with the names of SensorRegistry.ALL, its sensors are the ones which occur in
+ * the rows, so open() reads the whole file once. Text is parsed with an ArffStreamReader, a CSV chunk as the rows of
+ * an ARFF file with a timestamp attribute.
+ *
+ * The recording is split into chunks on record boundaries (blocks since version 2, lines for
+ * text), every chunk can be read on its own thread. An instance is immutable and thread safe,
+ * every read opens its own channel.
+ */
+public class RawCapture {
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    // Number of bytes which are read at once to find the end of a line
+    private static final int LINE_SEARCH_SIZE = 4096;
+
+    private final File file;
+    private final long length;
+
+    // Binary: record layout
+    private final boolean binary;
+    private final boolean blockFramed;
+    private final int recordSize;
+
+    // Schema of the samples and offset of the first sample
+    private final ArffSchema schema;
+    private final long headerLength;
+
+    // Text: ARFF header in front of the rows of every chunk
+    private final byte[] textHeader;
+
+    // Recorded sensors and the sensor type of every code of the sensor attribute
+    private final SensorRegistry sensors;
+    private final int[] sensorTypes;
+
+    private RawCapture(File file, long length, boolean binary, boolean blockFramed, long headerLength,
+                       int recordSize, ArffSchema schema, byte[] textHeader, SensorRegistry sensors,
+                       int[] sensorTypes) {
+        this.file = file;
+        this.length = length;
+        this.binary = binary;
+        this.blockFramed = blockFramed;
+        this.headerLength = headerLength;
+        this.recordSize = recordSize;
+        this.schema = schema;
+        this.textHeader = textHeader;
+        this.sensors = sensors;
+        this.sensorTypes = sensorTypes;
+    }
+
+    /**
+     * Reads the header of a recording and detects its form.
+     *
+     * @param file : File : Binary capture or text recording.
+     * @return RawCapture : The recording.
+     * @throws IOException : If the recording doesn't have the raw schema, ARFF has no
+     *                       timestamps or a CSV line is malformed.
+     */
+    public static RawCapture open(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            long length = channel.size();
+
+            ByteBuffer fixed = ByteBuffer.allocate(BinaryCaptureFormat.FIXED_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(fixed, 0);
+
+            if (fixed.hasRemaining() || fixed.getInt(0) != BinaryCaptureFormat.MAGIC) return openText(file, length);
+
+            fixed.flip();
+            int version = BinaryCaptureFormat.readVersion(fixed);
+            int headerLength = BinaryCaptureFormat.readHeaderLength(fixed);
+
+            ByteBuffer header = ByteBuffer.allocate(headerLength).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(header, 0);
+            if (header.hasRemaining()) throw new IOException("Capture header incomplete");
+            header.flip();
+
+            ArffSchema schema = BinaryCaptureFormat.decodeHeader(header);
+            SensorRegistry sensors = getRawSensors(schema);
+
+            return new RawCapture(file, length, true, BinaryCaptureFormat.isBlockFramed(version), headerLength,
+                    BinaryCaptureFormat.getRecordSize(schema), schema, null, sensors, sensors.getSensorTypes());
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Returns the sensors of the sensor attribute of a schema which must be the raw schema of
+     * these sensors.
+     */
+    private static SensorRegistry getRawSensors(ArffSchema schema) throws IOException {
+        int sensorIndex = schema.indexOf("sensor");
+        if (sensorIndex < 0) throw new IOException("Not a raw capture");
+
+        SensorRegistry sensors;
+        try {
+            sensors = SensorRegistry.fromNames(schema.getAttribute(sensorIndex).getNominalValues());
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Not a raw capture: " + e.getMessage());
+        }
+
+        ArffSchema rawSchema = MovementFeatureSchema.createRawSamples(sensors);
+        if (!schema.toArffHeader().equals(rawSchema.toArffHeader())) throw new IOException("Not a raw capture");
+
+        return sensors;
+    }
+
+    /**
+     * Reads the header of ARFF or the header line of CSV.
+     */
+    private static RawCapture openText(File file, long length) throws IOException {
+        ArffStreamReader reader = new ArffStreamReader(new FileInputStream(file));
+
+        try {
+            if (isArff(file)) {
+                ArffSchema schema = reader.readHeader();
+
+                if (!reader.hasTimestamp()) {
+                    throw new IOException("ARFF without " + ArffStreamReader.TIMESTAMP_ATTRIBUTE
+                            + " attribute, its samples can't be resampled, use the CSV export: " + file);
+                }
+
+                SensorRegistry sensors = getRawSensors(schema);
+                byte[] header = readBytes(file, (int) reader.getOffset());
+
+                return new RawCapture(file, length, false, false, header.length, 0, schema, header, sensors,
+                        sensors.getSensorTypes());
+            }
+        } finally {
+            reader.close();
+        }
+
+        ArffSchema schema = MovementFeatureSchema.createRawSamples(SensorRegistry.ALL);
+        String arffHeader = schema.toArffHeader();
+        int attributes = arffHeader.indexOf("@attribute");
+
+        // The columns of the CSV export as ARFF header
+        byte[] header = (arffHeader.substring(0, attributes) + "@attribute " + ArffStreamReader.TIMESTAMP_ATTRIBUTE
+                + " numeric\n" + arffHeader.substring(attributes) + "\n").getBytes(US_ASCII);
+
+        long dataOffset = findCsvData(file, schema);
+        RawCapture csv = new RawCapture(file, length, false, false, dataOffset, 0, schema, header,
+                SensorRegistry.ALL, SensorRegistry.ALL.getSensorTypes());
+        SensorRegistry sensors = csv.findRecordedSensors();
+
+        if (sensors == SensorRegistry.ALL) return csv;
+
+        return new RawCapture(file, length, false, false, dataOffset, 0, schema, header, sensors,
+                SensorRegistry.ALL.getSensorTypes());
+    }
+
+    /**
+     * Reads all samples and returns the sensors which occur in them in the order of the
+     * registry, SensorRegistry.DEFAULT if there are none.
+     */
+    private SensorRegistry findRecordedSensors() throws IOException {
+        SensorCollector collector = new SensorCollector();
+
+        for (RawCaptureChunk chunk : split(RefeaturizationEngine.DEFAULT_CHUNK_SIZE)) replay(chunk, collector);
+
+        if (collector.count == 0) return SensorRegistry.DEFAULT;
+
+        return sensors.retain(Arrays.copyOf(collector.types, collector.count));
+    }
+
+    /**
+     * Collects the sensor types of the samples.
+     */
+    private static class SensorCollector implements SampleConsumer {
+
+        private final int[] types = new int[SensorRegistry.ALL.size()];
+        private int count = 0;
+
+        @Override
+        public void onSample(int sensorType, long timestamp, float x, float y, float z, int label) {
+            for (int i = 0; i < count; i++) {
+                if (types[i] == sensorType) return;
+            }
+
+            if (count < types.length) types[count++] = sensorType;
+        }
+
+        @Override
+        public void onBatchComplete() {
+        }
+
+        @Override
+        public void onWriterStopped() {
+        }
+    }
+
+    /**
+     * Returns true if the first character which isn't white space starts an ARFF header or
+     * comment.
+     */
+    private static boolean isArff(File file) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+
+        try {
+            int c = in.read();
+            while (c == ' ' || c == '\t' || c == '\r' || c == '\n') c = in.read();
+
+            return c == '@' || c == '%';
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns the offset of the first sample of CSV, behind the header line if there is one.
+     */
+    private static long findCsvData(File file, ArffSchema schema) throws IOException {
+        StringBuilder columns = new StringBuilder(ArffStreamReader.TIMESTAMP_ATTRIBUTE);
+        for (int i = 0; i < schema.getAttributeCount(); i++) {
+            columns.append(',').append(schema.getAttribute(i).getName());
+        }
+
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+
+        try {
+            StringBuilder line = new StringBuilder();
+            long offset = 0;
+            int c;
+
+            while ((c = in.read()) >= 0) {
+                offset++;
+                if (c == '\n') break;
+                line.append((char) c);
+
+                // A sample, no header line
+                if (line.length() == 1 && (c == '-' || (c >= '0' && c <= '9'))) return 0;
+                if (line.length() > columns.length() + 1) break;
+            }
+
+            if (!line.toString().trim().equals(columns.toString())) throw new IOException("Not a raw recording: " + file);
+
+            return offset;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static byte[] readBytes(File file, int count) throws IOException {
+        byte[] bytes = new byte[count];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+
+        try {
+            in.readFully(bytes);
+        } finally {
+            in.close();
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Splits the recording into chunks of about the given size. The chunks only depend on the
+     * size, not on the number of threads which read them.
+     *
+     * @param chunkSizeBytes : long : Minimum size of a chunk, the last one may be smaller.
+     * @return List<RawCaptureChunk> : The chunks in order.
+     * @throws IOException
+     */
+    public List<RawCaptureChunk> split(long chunkSizeBytes) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+
+            if (!binary) return splitLines(channel, chunkSizeBytes);
+            if (blockFramed) return splitBlocks(channel, chunkSizeBytes);
+            return splitRecords(chunkSizeBytes);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private List<RawCaptureChunk> splitRecords(long chunkSizeBytes) {
+        List<RawCaptureChunk> chunks = new ArrayList<RawCaptureChunk>();
+
+        // A torn record at the end is left out
+        long end = headerLength + (length - headerLength) / recordSize * recordSize;
+        long step = Math.max(1, chunkSizeBytes / recordSize) * recordSize;
+
+        for (long start = headerLength; start < end; start += step) {
+            chunks.add(new RawCaptureChunk(start, Math.min(start + step, end)));
+        }
+
+        return chunks;
+    }
+
+    /**
+     * Walks the block headers, the payloads are only read later by the chunks.
+     */
+    private List<RawCaptureChunk> splitBlocks(FileChannel channel, long chunkSizeBytes) throws IOException {
+        List<RawCaptureChunk> chunks = new ArrayList<RawCaptureChunk>();
+        ByteBuffer blockHeader = ByteBuffer.allocate(BinaryCaptureFormat.BLOCK_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        long chunkStart = headerLength;
+        long position = headerLength;
+
+        while (position + BinaryCaptureFormat.BLOCK_OVERHEAD <= length) {
+            blockHeader.clear();
+            channel.read(blockHeader, position);
+
+            int payloadLength = blockHeader.getInt(4);
+
+            // The capture ends at the first damaged block, like for the BinaryCaptureReader
+            if (blockHeader.hasRemaining() || blockHeader.getInt(0) != BinaryCaptureFormat.BLOCK_MAGIC
+                    || payloadLength <= 0 || payloadLength > BinaryCaptureFormat.MAX_BLOCK_PAYLOAD
+                    || position + BinaryCaptureFormat.BLOCK_OVERHEAD + payloadLength > length) {
+                break;
+            }
+
+            position += BinaryCaptureFormat.BLOCK_OVERHEAD + payloadLength;
+
+            if (position - chunkStart >= chunkSizeBytes) {
+                chunks.add(new RawCaptureChunk(chunkStart, position));
+                chunkStart = position;
+            }
+        }
+
+        if (position > chunkStart) chunks.add(new RawCaptureChunk(chunkStart, position));
+
+        return chunks;
+    }
+
+    /**
+     * Moves every chunk boundary behind the next line break.
+     */
+    private List<RawCaptureChunk> splitLines(FileChannel channel, long chunkSizeBytes) throws IOException {
+        List<RawCaptureChunk> chunks = new ArrayList<RawCaptureChunk>();
+        ByteBuffer search = ByteBuffer.allocate(LINE_SEARCH_SIZE);
+
+        long start = headerLength;
+
+        while (start < length) {
+            long end = chunkSizeBytes >= length - start ? length : findLineEnd(channel, search, start + chunkSizeBytes);
+
+            chunks.add(new RawCaptureChunk(start, end));
+            start = end;
+        }
+
+        return chunks;
+    }
+
+    private long findLineEnd(FileChannel channel, ByteBuffer search, long position) throws IOException {
+        while (position < length) {
+            search.clear();
+            int read = channel.read(search, position);
+            if (read <= 0) break;
+
+            for (int i = 0; i < read; i++) {
+                if (search.get(i) == '\n') return position + i + 1;
+            }
+
+            position += read;
+        }
+
+        return length;
+    }
+
+    /**
+     * Passes the samples of a chunk to the consumer in the recorded order. Reading stops at
+     * the first damaged block.
+     *
+     * @param chunk : RawCaptureChunk : Chunk returned by split().
+     * @param consumer : SampleConsumer : Receives the samples, the movement type is the label.
+     * @return long : Number of samples.
+     * @throws IOException : If the chunk can't be read or a line is malformed.
+     */
+    public long replay(RawCaptureChunk chunk, SampleConsumer consumer) throws IOException {
+        return replay(chunk, consumer, Long.MAX_VALUE);
+    }
+
+    /**
+     * Passes at most the given number of samples of a chunk to the consumer in the recorded
+     * order, e.g. one to get the timestamp of the first sample. Reading stops at the first
+     * damaged block.
+     *
+     * @param chunk : RawCaptureChunk : Chunk returned by split().
+     * @param consumer : SampleConsumer : Receives the samples, the movement type is the label.
+     * @param maxSamples : long : Maximum number of samples.
+     * @return long : Number of samples.
+     * @throws IOException : If the chunk can't be read or a line is malformed.
+     */
+    public long replay(RawCaptureChunk chunk, SampleConsumer consumer, long maxSamples) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+
+        try {
+            ByteBuffer data = randomAccessFile.getChannel()
+                    .map(FileChannel.MapMode.READ_ONLY, chunk.getStart(), chunk.getLength())
+                    .order(ByteOrder.LITTLE_ENDIAN);
+
+            if (!binary) return replayRows(chunk, data, consumer, maxSamples);
+            if (blockFramed) return replayBlocks(data, consumer, maxSamples);
+            return replayRecords(data, data.limit(), consumer, maxSamples);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private long replayBlocks(ByteBuffer data, SampleConsumer consumer, long maxSamples) {
+        Crc32c crc = new Crc32c();
+        long count = 0;
+
+        while (count < maxSamples && data.remaining() >= BinaryCaptureFormat.BLOCK_OVERHEAD) {
+            int payloadLength = BinaryCaptureFormat.checkBlock(data, data.position(), recordSize, crc);
+            if (payloadLength < 0) break;
+
+            data.position(data.position() + BinaryCaptureFormat.BLOCK_HEADER_SIZE);
+            int end = data.position() + payloadLength;
+            count += replayRecords(data, end, consumer, maxSamples - count);
+            data.position(end + BinaryCaptureFormat.BLOCK_TRAILER_SIZE);
+        }
+
+        return count;
+    }
+
+    private long replayRecords(ByteBuffer data, int end, SampleConsumer consumer, long maxSamples) {
+        ArffRecord record = new ArffRecord(schema);
+        BinaryRecordDecoder decoder = new BinaryRecordDecoder(schema);
+        long count = 0;
+
+        while (count < maxSamples && data.position() + recordSize <= end) {
+            if (!decoder.decode(data, record)) continue;
+
+            consumer.onSample(sensorTypes[record.getNominal(0)], record.getTimestamp(),
+                    record.getNumeric(0), record.getNumeric(1), record.getNumeric(2), record.getNominal(1));
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * Parses the lines of a chunk as the rows of an ARFF file with the text header.
+     */
+    private long replayRows(RawCaptureChunk chunk, ByteBuffer data, SampleConsumer consumer, long maxSamples)
+            throws IOException {
+        ArffStreamReader reader = new ArffStreamReader(new SequenceInputStream(new ByteArrayInputStream(textHeader),
+                new ByteBufferInputStream(data)));
+        ArffRecord record = new ArffRecord(schema);
+        long count = 0;
+
+        try {
+            reader.readHeader();
+            long headerLines = reader.getLineNumber();
+
+            try {
+                while (count < maxSamples && reader.next(record)) {
+                    int sensor = record.getNominal(0);
+                    int movementType = record.getNominal(1);
+
+                    if (sensor == ArffStreamReader.MISSING_NOMINAL || movementType == ArffStreamReader.MISSING_NOMINAL) {
+                        throw new ArffParseException("Missing sensor or movement type", reader.getLineNumber(), 1);
+                    }
+
+                    consumer.onSample(sensorTypes[sensor], record.getTimestamp(), record.getNumeric(0),
+                            record.getNumeric(1), record.getNumeric(2), movementType);
+                    count++;
+                }
+            } catch (ArffParseException e) {
+                throw new IOException("Malformed sample in " + file + ", chunk at offset " + chunk.getStart()
+                        + ", line " + (e.getLine() - headerLines) + ", column " + e.getColumn() + " of the chunk: "
+                        + e.getReason(), e);
+            }
+        } finally {
+            reader.close();
+        }
+
+        return count;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the recorded sensors, the features are computed for them.
+     */
+    public SensorRegistry getSensors() {
+        return sensors;
+    }
+
+    /**
+     * Returns true for a binary capture, false for a text recording.
+     */
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * Reads a mapped chunk as stream.
+     */
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer data;
+
+        ByteBufferInputStream(ByteBuffer data) {
+            this.data = data;
+        }
+
+        @Override
+        public int read() {
+            return data.hasRemaining() ? data.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] dst, int offset, int length) {
+            if (length == 0) return 0;
+            if (!data.hasRemaining()) return -1;
+
+            int count = Math.min(length, data.remaining());
+            data.get(dst, offset, count);
+
+            return count;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.percom.percomdatacollector.batch;
+
+/**
+ * Byte range of a raw capture which starts and ends on a record boundary, so it can be read
+ * independently of the other chunks.
+ */
+public final class RawCaptureChunk {
+
+    // Offset of the first byte
+    private final long start;
+    // Offset behind the last byte
+    private final long end;
+
+    public RawCaptureChunk(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public long getLength() {
+        return end - start;
+    }
+}
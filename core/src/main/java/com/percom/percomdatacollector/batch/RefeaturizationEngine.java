@@ -0,0 +1,317 @@
+package com.percom.percomdatacollector.batch;
+
+import com.percom.percomdatacollector.Files.ArffSchema;
+import com.percom.percomdatacollector.capture.MergedFeatureRecordConsumer;
+import com.percom.percomdatacollector.capture.SampleConsumer;
+import com.percom.percomdatacollector.capture.SensorRegistry;
+import com.percom.percomdatacollector.features.MovementFeatureSchema;
+import com.percom.percomdatacollector.storage.ArffRecordOutput;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Computes the features of a raw recording again, e.g. with another window length, without
+ * recording again. The recording is split into chunks on record boundaries which are processed
+ * in parallel on a ForkJoinPool. Every chunk runs through a MergedFeatureRecordConsumer, so the
+ * features are computed by the same code as during the capture. The results are written in
+ * the order of the chunks as one ARFF file of the detectSportType relation, every chunk as soon
+ * as it and all chunks before it are done. At most two chunks per thread are held in memory.
+ *
+ * A chunk writes the records whose window ends between the first sample of the chunk and the
+ * first sample of the next chunk. To fill its windows, it starts with the samples of the two
+ * window lengths before its first sample and continues into the next chunks until its last
+ * window is complete. Windows end on the same ticks as in a single pass over the recording, so
+ * the result doesn't depend on the chunk size or the number of threads, as long as no sensor
+ * pauses for longer than the warm-up.
+ *
+ * ForkJoinPool needs a desktop JVM or Android 5.0.
+ */
+public class RefeaturizationEngine {
+
+    // Default size of a chunk (4 MB)
+    public static final long DEFAULT_CHUNK_SIZE = 4L * 1024 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Size of the output buffer (64 KB)
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // Chunks per thread which are processed or wait to be written
+    private static final int CHUNKS_PER_THREAD = 2;
+
+    // Runs the chunks
+    private final ForkJoinPool pool;
+
+    // Resampling and window of the features
+    private final long tickNanos;
+    private final long maxLagNanos;
+    private final int windowLength;
+    private final int hop;
+
+    // Band edges of the spectral features or null
+    private final float[] spectralBandEdgesHz;
+
+    private final long chunkSizeBytes;
+
+    // Samples in front of a chunk which fill its first windows
+    private final long warmUpNanos;
+
+    /**
+     * Creates the engine.
+     *
+     * @param pool : ForkJoinPool : Runs the chunks, its parallelism is the number of threads.
+     * @param tickNanos : long : Time between two resampled samples.
+     * @param maxLagNanos : long : Maximum time the clock waits for a lagging sensor.
+     * @param windowLength : int : Resampled samples per window.
+     * @param hop : int : Resampled samples between the start of two windows.
+     * @param chunkSizeBytes : long : Size of the chunks of the recording.
+     */
+    public RefeaturizationEngine(ForkJoinPool pool, long tickNanos, long maxLagNanos, int windowLength, int hop,
+                                 long chunkSizeBytes) {
+        this(pool, tickNanos, maxLagNanos, windowLength, hop, null, chunkSizeBytes);
+    }
+
+    /**
+     * Creates the engine with optional frequency-domain features.
+     *
+     * @param pool : ForkJoinPool : Runs the chunks, its parallelism is the number of threads.
+     * @param tickNanos : long : Time between two resampled samples.
+     * @param maxLagNanos : long : Maximum time the clock waits for a lagging sensor.
+     * @param windowLength : int : Resampled samples per window.
+     * @param hop : int : Resampled samples between the start of two windows.
+     * @param spectralBandEdgesHz : float[] : Band edges of the spectral features, null for
+     *                            none.
+     * @param chunkSizeBytes : long : Size of the chunks of the recording.
+     */
+    public RefeaturizationEngine(ForkJoinPool pool, long tickNanos, long maxLagNanos, int windowLength, int hop,
+                                 float[] spectralBandEdgesHz, long chunkSizeBytes) {
+        if (chunkSizeBytes < 1) throw new IllegalArgumentException("Chunk size must be positive");
+
+        this.pool = pool;
+        this.tickNanos = tickNanos;
+        this.maxLagNanos = maxLagNanos;
+        this.windowLength = windowLength;
+        this.hop = hop;
+        this.spectralBandEdgesHz = spectralBandEdgesHz;
+        this.chunkSizeBytes = chunkSizeBytes;
+
+        // Two window lengths, the window statistics are rebuilt once, plus the wait for a
+        // lagging sensor and a tick on either end for the interpolation
+        this.warmUpNanos = (2L * windowLength + 2) * tickNanos + maxLagNanos;
+    }
+
+    /**
+     * Computes the features of the recording and writes them as ARFF. The output stream is
+     * closed afterwards.
+     *
+     * @param recording : File : Raw binary capture or text recording, see RawCapture.
+     * @param out : OutputStream : Destination of the ARFF file.
+     * @return long : Number of feature records.
+     * @throws IOException
+     */
+    public long refeaturize(File recording, OutputStream out) throws IOException {
+        OutputStream dst = new BufferedOutputStream(out, BUFFER_SIZE);
+
+        try {
+            RawCapture capture = RawCapture.open(recording);
+            List<RawCaptureChunk> chunks = capture.split(chunkSizeBytes);
+            long[] bounds = findBounds(capture, chunks);
+
+            ArffSchema schema = createSchema(capture.getSensors());
+            dst.write(schema.toArffHeader().getBytes(UTF_8));
+
+            // Chunks in order which are processed or wait to be written
+            Deque<ChunkTask> pending = new ArrayDeque<ChunkTask>();
+            int maxPending = CHUNKS_PER_THREAD * pool.getParallelism();
+            int next = 0;
+            long count = 0;
+
+            try {
+                while (next < chunks.size() || !pending.isEmpty()) {
+                    while (next < chunks.size() && pending.size() < maxPending) {
+                        ChunkTask task = new ChunkTask(capture, chunks, bounds, next++);
+                        pool.execute(task);
+                        pending.addLast(task);
+                    }
+
+                    ChunkResult result = pending.removeFirst().join();
+                    if (result.error != null) throw result.error;
+
+                    result.text.writeTo(dst);
+                    count += result.output.getRecordCount();
+                }
+            } finally {
+                for (ChunkTask task : pending) task.cancel(false);
+            }
+
+            dst.flush();
+
+            return count;
+        } finally {
+            dst.close();
+        }
+    }
+
+    /**
+     * Returns the timestamp of the first sample of every chunk, Long.MIN_VALUE for the first
+     * chunk and Long.MAX_VALUE behind the last one. Chunk i writes the records from bounds[i]
+     * to bounds[i + 1]. A chunk without samples or with an older first sample gets the bound
+     * of the chunk before it.
+     */
+    private static long[] findBounds(RawCapture capture, List<RawCaptureChunk> chunks) throws IOException {
+        long[] bounds = new long[chunks.size() + 1];
+        bounds[0] = Long.MIN_VALUE;
+        bounds[chunks.size()] = Long.MAX_VALUE;
+
+        FirstSample first = new FirstSample();
+
+        for (int i = 1; i < chunks.size(); i++) {
+            first.timestamp = Long.MIN_VALUE;
+            capture.replay(chunks.get(i), first, 1);
+
+            bounds[i] = Math.max(bounds[i - 1], first.timestamp);
+        }
+
+        return bounds;
+    }
+
+    private ArffSchema createSchema(SensorRegistry sensors) {
+        return spectralBandEdgesHz != null
+                ? MovementFeatureSchema.createMergedWithSpectrum(sensors, spectralBandEdgesHz.length - 1)
+                : MovementFeatureSchema.createMerged(sensors);
+    }
+
+    /**
+     * Computes the records of one chunk.
+     */
+    private class ChunkTask extends RecursiveTask<ChunkResult> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final RawCapture capture;
+        private final List<RawCaptureChunk> chunks;
+        private final long[] bounds;
+        private final int index;
+
+        ChunkTask(RawCapture capture, List<RawCaptureChunk> chunks, long[] bounds, int index) {
+            this.capture = capture;
+            this.chunks = chunks;
+            this.bounds = bounds;
+            this.index = index;
+        }
+
+        @Override
+        protected ChunkResult compute() {
+            SensorRegistry sensors = capture.getSensors();
+            ArffSchema schema = createSchema(sensors);
+            ChunkResult result = new ChunkResult(schema, bounds[index], bounds[index + 1]);
+            MergedFeatureRecordConsumer consumer = new MergedFeatureRecordConsumer(result.output, schema, tickNanos,
+                    maxLagNanos, windowLength, hop, spectralBandEdgesHz, sensors);
+
+            // Start with the chunk which contains the warm-up, samples may be late by maxLag
+            long warmUpStart = Long.MIN_VALUE;
+            int first = index;
+
+            if (index > 0) {
+                warmUpStart = bounds[index] - warmUpNanos;
+                while (first > 0 && bounds[first] > warmUpStart - maxLagNanos) first--;
+            }
+
+            SampleGate gate = new SampleGate(consumer, warmUpStart, result.output);
+
+            try {
+                int chunk = first;
+                while (chunk < chunks.size() && !result.output.isComplete()) {
+                    capture.replay(chunks.get(chunk++), gate);
+                }
+            } catch (IOException e) {
+                result.error = e;
+                return result;
+            }
+
+            // End of the recording: use the samples which still wait for a lagging sensor
+            if (!result.output.isComplete()) consumer.onWriterStopped();
+
+            return result;
+        }
+    }
+
+    /**
+     * Collects the feature records of one chunk as ARFF text.
+     */
+    private static class ChunkResult {
+
+        private final ByteArrayOutputStream text = new ByteArrayOutputStream();
+        private final ArffRecordOutput output;
+
+        // Error of the chunk or null
+        private IOException error = null;
+
+        ChunkResult(ArffSchema schema, long fromTimestamp, long toTimestamp) {
+            this.output = new ArffRecordOutput(schema, text, fromTimestamp, toTimestamp);
+        }
+    }
+
+    /**
+     * Passes the samples from the start of the warm-up to the consumer until all records of
+     * the chunk are written.
+     */
+    private static class SampleGate implements SampleConsumer {
+
+        private final SampleConsumer consumer;
+        private final long fromTimestamp;
+        private final ArffRecordOutput output;
+
+        SampleGate(SampleConsumer consumer, long fromTimestamp, ArffRecordOutput output) {
+            this.consumer = consumer;
+            this.fromTimestamp = fromTimestamp;
+            this.output = output;
+        }
+
+        @Override
+        public void onSample(int sensorType, long timestamp, float x, float y, float z, int label) {
+            if (timestamp >= fromTimestamp && !output.isComplete()) {
+                consumer.onSample(sensorType, timestamp, x, y, z, label);
+            }
+        }
+
+        @Override
+        public void onBatchComplete() {
+        }
+
+        @Override
+        public void onWriterStopped() {
+        }
+    }
+
+    /**
+     * Keeps the timestamp of the last sample, replayed with one sample.
+     */
+    private static class FirstSample implements SampleConsumer {
+
+        private long timestamp = Long.MIN_VALUE;
+
+        @Override
+        public void onSample(int sensorType, long timestamp, float x, float y, float z, int label) {
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        public void onBatchComplete() {
+        }
+
+        @Override
+        public void onWriterStopped() {
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.percom.percomdatacollector.capture;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Background thread which drains the SampleRingBuffer in batches and hands the samples to a
+ * SampleConsumer. This keeps all record generation and disk writes away from the sensor
+ * callback.
+ */
+public class CaptureWriterThread extends Thread {
+
+    // Default number of samples per batch
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    // Default time the thread sleeps when the ring buffer is empty (2 ms)
+    public static final long DEFAULT_IDLE_PARK_NANOS = 2000000L;
+
+    // Source of the samples
+    private final SampleRingBuffer ringBuffer;
+    // Receiver of the samples
+    private final SampleConsumer consumer;
+    // Maximum number of samples per batch
+    private final int batchSize;
+    // Time the thread sleeps when the ring buffer is empty
+    private final long idleParkNanos;
+
+    // false as soon as shutdown was requested
+    private volatile boolean running = true;
+
+    /**
+     * Creates the writer thread. The thread is not started.
+     *
+     * @param ringBuffer : SampleRingBuffer : Buffer which is filled by the sensor callback.
+     * @param consumer : SampleConsumer : Consumer which writes the records.
+     * @param batchSize : int : Maximum number of samples per batch.
+     */
+    public CaptureWriterThread(SampleRingBuffer ringBuffer, SampleConsumer consumer, int batchSize) {
+        this(ringBuffer, consumer, batchSize, DEFAULT_IDLE_PARK_NANOS);
+    }
+
+    /**
+     * Creates the writer thread. The thread is not started. A long idle time should be
+     * combined with signal() calls from the producer, e.g. after every block of a batching
+     * sensor source, otherwise the samples wait in the ring buffer.
+     *
+     * @param ringBuffer : SampleRingBuffer : Buffer which is filled by the sensor callback.
+     * @param consumer : SampleConsumer : Consumer which writes the records.
+     * @param batchSize : int : Maximum number of samples per batch.
+     * @param idleParkNanos : long : Maximum time the thread sleeps when the buffer is empty.
+     */
+    public CaptureWriterThread(SampleRingBuffer ringBuffer, SampleConsumer consumer, int batchSize, long idleParkNanos) {
+        super("CaptureWriter");
+        this.ringBuffer = ringBuffer;
+        this.consumer = consumer;
+        this.batchSize = batchSize;
+        this.idleParkNanos = idleParkNanos;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            if (ringBuffer.drain(consumer, batchSize) > 0) {
+                consumer.onBatchComplete();
+            } else {
+                LockSupport.parkNanos(this, idleParkNanos);
+            }
+        }
+
+        // Write everything which was queued before the shutdown
+        while (ringBuffer.drain(consumer, batchSize) > 0) {
+            consumer.onBatchComplete();
+        }
+
+        consumer.onWriterStopped();
+    }
+
+    /**
+     * Wakes the thread up if it's sleeping, so the queued samples are drained right away. Can
+     * be called from any thread.
+     */
+    public void signal() {
+        LockSupport.unpark(this);
+    }
+
+    /**
+     * Stops the thread after the queued samples were written and waits for it to finish.
+     */
+    public void shutdown() {
+        running = false;
+        LockSupport.unpark(this);
+
+        try {
+            join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
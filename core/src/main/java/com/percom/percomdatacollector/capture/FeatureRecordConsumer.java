@@ -0,0 +1,125 @@
+package com.percom.percomdatacollector.capture;
+
+import com.percom.percomdatacollector.Files.ArffSchema;
+import com.percom.percomdatacollector.features.MovementFeatureSchema;
+import com.percom.percomdatacollector.features.SlidingWindowFeatureExtractor;
+import com.percom.percomdatacollector.storage.RecordOutput;
+
+import java.io.IOException;
+
+/**
+ * Collects the queued samples in a feature window per sensor and appends one record of the
+ * MovementFeatureSchema per window to a RecordOutput. The samples are dispatched to the window
+ * of their sensor by a SensorRegistry, samples of other sensors are ignored. Samples of a
+ * normalized sensor, e.g. the gyroscope, are normalized to the rotation axis first. All methods
+ * run on the writer thread.
+ *
+ * Write errors don't stop the capture, they are reported to onWriteError().
+ */
+public class FeatureRecordConsumer extends RecordWritingConsumer {
+
+    // maximal allowable margin of error
+    private static final float EPSILON = 0.000000001f;
+
+    // Sensors of the schema, the stream is the code of the sensor attribute
+    private final SensorRegistry sensors;
+
+    // Feature window per stream
+    private final SlidingWindowFeatureExtractor[] windows;
+
+    // Movement type of the samples in the window of every stream, a window never mixes
+    // movement types
+    private final int[] labels;
+
+    /**
+     * Creates the consumer.
+     *
+     * @param output : RecordOutput : Destination of the records.
+     * @param schema : ArffSchema : Schema created by MovementFeatureSchema.create().
+     * @param windowLength : int : Samples per window.
+     * @param hop : int : Samples between the start of two windows.
+     */
+    public FeatureRecordConsumer(RecordOutput output, ArffSchema schema, int windowLength, int hop) {
+        this(output, schema, windowLength, hop, SensorRegistry.DEFAULT);
+    }
+
+    /**
+     * Creates the consumer for the given sensors.
+     *
+     * @param output : RecordOutput : Destination of the records.
+     * @param schema : ArffSchema : Schema created by MovementFeatureSchema.create() with the
+     *               same sensors.
+     * @param windowLength : int : Samples per window.
+     * @param hop : int : Samples between the start of two windows.
+     * @param sensors : SensorRegistry : Sensors of the schema.
+     */
+    public FeatureRecordConsumer(RecordOutput output, ArffSchema schema, int windowLength, int hop,
+                                 SensorRegistry sensors) {
+        super(output, schema);
+
+        int axes = MovementFeatureSchema.AXES.length;
+
+        this.sensors = sensors;
+        this.windows = new SlidingWindowFeatureExtractor[sensors.size()];
+        this.labels = new int[sensors.size()];
+
+        for (int stream = 0; stream < windows.length; stream++) {
+            windows[stream] = new SlidingWindowFeatureExtractor(axes, windowLength, hop);
+            labels[stream] = -1;
+        }
+    }
+
+    @Override
+    public void onSample(int sensorType, long timestamp, float x, float y, float z, int label) {
+        int sensor = sensors.getStream(sensorType);
+        if (sensor < 0) return;
+
+        SlidingWindowFeatureExtractor window = windows[sensor];
+
+        if (label != labels[sensor]) {
+            window.reset();
+            labels[sensor] = label;
+        }
+
+        if (sensors.getChannel(sensor).isNormalized()) {
+            // Gyroscope: Calculate the angular speed of the data
+            float omegaMagnitude = (float) Math.sqrt(x*x + y*y + z*z);
+
+            // Normalize values of X, Y, Z axis
+            if (omegaMagnitude > EPSILON) {
+                x /= omegaMagnitude;
+                y /= omegaMagnitude;
+                z /= omegaMagnitude;
+            }
+        }
+
+        // Write a record when the window is complete
+        if (window.add(timestamp, x, y, z)) {
+            try {
+                addNewRecord(window, label, sensor);
+            } catch (IOException e) {
+                onWriteError(e);
+            }
+        }
+    }
+
+    /**
+     * Appends the features of the current window as one record.
+     */
+    private void addNewRecord(SlidingWindowFeatureExtractor window, int movementType, int sensor) throws IOException {
+        long start = startRecord();
+
+        encoder.beginRecord(window.getWindowEndTimestamp());
+
+        for (int axis = 0; axis < MovementFeatureSchema.AXES.length; axis++) {
+            encoder.numeric(window.getMean(axis));
+            encoder.numeric(window.getStdDeviation(axis));
+            encoder.numeric(window.getMin(axis));
+            encoder.numeric(window.getMax(axis));
+        }
+
+        encoder.nominal(movementType);
+        encoder.nominal(sensor);
+        writeRecord(movementType, start);
+    }
+}
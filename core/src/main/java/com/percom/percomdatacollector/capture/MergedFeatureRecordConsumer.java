@@ -0,0 +1,259 @@
+package com.percom.percomdatacollector.capture;
+
+import com.percom.percomdatacollector.Files.ArffSchema;
+import com.percom.percomdatacollector.features.SlidingWindowFeatureExtractor;
+import com.percom.percomdatacollector.features.SpectralFeatureExtractor;
+import com.percom.percomdatacollector.storage.RecordOutput;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Resamples the samples of the sensors of a SensorRegistry onto a common clock with a
+ * SensorStreamMerger and computes the features of all sensors over the same window. Every
+ * complete window is appended as one record of MovementFeatureSchema.createMerged(), so the
+ * features of the sensors can be correlated. The samples are dispatched to their stream by the
+ * registry, samples of other sensors are ignored. Samples of a normalized sensor, e.g. the
+ * gyroscope, are normalized to the rotation axis first. With spectral band edges, the
+ * frequency-domain features of every channel of a spectral sensor are appended too
+ * (MovementFeatureSchema.createMergedWithSpectrum()). A change of the movement
+ * type is appended as a segment marker in front of the record. All methods run on the writer
+ * thread.
+ *
+ * Write errors don't stop the capture, they are reported to onWriteError().
+ *
+ * With PipelineMetrics the samples are counted and serialization, write and flush are timed.
+ */
+public class MergedFeatureRecordConsumer extends RecordWritingConsumer implements MergedSampleListener {
+
+    // maximal allowable margin of error
+    private static final float EPSILON = 0.000000001f;
+
+    // Values per sample of every stream of the merger
+    private static final int AXES = SampleRingBuffer.VALUES_PER_SAMPLE;
+
+    // Streams of the merger in the order of the registry
+    private final SensorRegistry sensors;
+
+    // Normalization of every stream, looked up per sample
+    private final boolean[] normalized;
+
+    // Common clock of all sensors
+    private final SensorStreamMerger merger;
+
+    // Feature window over the used values of the merged samples, in the order of the columns
+    private final SlidingWindowFeatureExtractor window;
+
+    // Time between two ticks, the samples of the window are numbered by their tick
+    private final long tickNanos;
+
+    // Value of a tick of every window channel, null if all sensors use all values
+    private final int[] tickIndex;
+    private final float[] windowInput;
+
+    // Frequency-domain features of the window or null, the window is copied into spectrumInput
+    private final SpectralFeatureExtractor spectrum;
+    private final float[] spectrumInput;
+
+    // Window channels of the spectral sensors
+    private final int[] spectralChannels;
+
+    // Movement type of the samples in the window, a window never mixes movement types
+    private int windowLabel = -1;
+
+    /**
+     * Creates the consumer.
+     *
+     * @param output : RecordOutput : Destination of the records.
+     * @param schema : ArffSchema : Schema created by MovementFeatureSchema.createMerged().
+     * @param tickNanos : long : Time between two resampled samples.
+     * @param maxLagNanos : long : Maximum time the clock waits for a lagging sensor.
+     * @param windowLength : int : Resampled samples per window.
+     * @param hop : int : Resampled samples between the start of two windows.
+     */
+    public MergedFeatureRecordConsumer(RecordOutput output, ArffSchema schema, long tickNanos, long maxLagNanos,
+                                       int windowLength, int hop) {
+        this(output, schema, tickNanos, maxLagNanos, windowLength, hop, null);
+    }
+
+    /**
+     * Creates the consumer with optional frequency-domain features.
+     *
+     * @param output : RecordOutput : Destination of the records.
+     * @param schema : ArffSchema : Schema created by MovementFeatureSchema.createMerged() or,
+     *               with band edges, by createMergedWithSpectrum() with the same band count.
+     * @param tickNanos : long : Time between two resampled samples.
+     * @param maxLagNanos : long : Maximum time the clock waits for a lagging sensor.
+     * @param windowLength : int : Resampled samples per window.
+     * @param hop : int : Resampled samples between the start of two windows.
+     * @param spectralBandEdgesHz : float[] : Band edges of the spectral features, null for
+     *                            none.
+     */
+    public MergedFeatureRecordConsumer(RecordOutput output, ArffSchema schema, long tickNanos, long maxLagNanos,
+                                       int windowLength, int hop, float[] spectralBandEdgesHz) {
+        this(output, schema, tickNanos, maxLagNanos, windowLength, hop, spectralBandEdgesHz, SensorRegistry.DEFAULT);
+    }
+
+    /**
+     * Creates the consumer for the given sensors.
+     *
+     * @param output : RecordOutput : Destination of the records.
+     * @param schema : ArffSchema : Schema created by MovementFeatureSchema.createMerged() or,
+     *               with band edges, by createMergedWithSpectrum() with the same sensors and
+     *               band count.
+     * @param tickNanos : long : Time between two resampled samples.
+     * @param maxLagNanos : long : Maximum time the clock waits for a lagging sensor.
+     * @param windowLength : int : Resampled samples per window.
+     * @param hop : int : Resampled samples between the start of two windows.
+     * @param spectralBandEdgesHz : float[] : Band edges of the spectral features, null for
+     *                            none.
+     * @param sensors : SensorRegistry : Sensors of the schema.
+     */
+    public MergedFeatureRecordConsumer(RecordOutput output, ArffSchema schema, long tickNanos, long maxLagNanos,
+                                       int windowLength, int hop, float[] spectralBandEdgesHz, SensorRegistry sensors) {
+        super(output, schema);
+
+        int streams = sensors.size();
+        int channels = sensors.getAxisCount();
+
+        this.sensors = sensors;
+        this.normalized = new boolean[streams];
+        this.merger = new SensorStreamMerger(streams, AXES, tickNanos, maxLagNanos, this);
+        this.window = new SlidingWindowFeatureExtractor(channels, windowLength, hop);
+        this.tickNanos = tickNanos;
+
+        int[] index = new int[channels];
+        int[] spectral = new int[channels];
+        int spectralCount = 0;
+        int channel = 0;
+
+        for (int stream = 0; stream < streams; stream++) {
+            SensorChannel sensor = sensors.getChannel(stream);
+            normalized[stream] = sensor.isNormalized();
+
+            for (int axis = 0; axis < sensor.getAxes(); axis++) {
+                if (sensor.isSpectral()) spectral[spectralCount++] = channel;
+                index[channel++] = stream * AXES + axis;
+            }
+        }
+
+        if (channels == streams * AXES) {
+            this.tickIndex = null;
+            this.windowInput = null;
+        } else {
+            this.tickIndex = index;
+            this.windowInput = new float[channels];
+        }
+
+        if (spectralBandEdgesHz != null) {
+            this.spectrum = new SpectralFeatureExtractor(windowLength, 1e9f / tickNanos, spectralBandEdgesHz);
+            this.spectrumInput = new float[windowLength];
+            this.spectralChannels = Arrays.copyOf(spectral, spectralCount);
+        } else {
+            this.spectrum = null;
+            this.spectrumInput = null;
+            this.spectralChannels = new int[0];
+        }
+    }
+
+    @Override
+    public void onSample(int sensorType, long timestamp, float x, float y, float z, int label) {
+        int stream = sensors.getStream(sensorType);
+        if (stream < 0) return;
+
+        if (normalized[stream]) {
+            // Gyroscope: Calculate the angular speed of the data
+            float omegaMagnitude = (float) Math.sqrt(x*x + y*y + z*z);
+
+            // Normalize values of X, Y, Z axis
+            if (omegaMagnitude > EPSILON) {
+                x /= omegaMagnitude;
+                y /= omegaMagnitude;
+                z /= omegaMagnitude;
+            }
+        }
+
+        if (metrics != null) metrics.countWritten(sensorType, timestamp);
+
+        merger.add(stream, timestamp, x, y, z, label);
+    }
+
+    @Override
+    public void onTick(long timestamp, float[] values, int label) {
+        if (label != windowLabel) {
+            // Windows end on the same ticks no matter where the recording or a chunk starts
+            window.reset(Math.max(0, timestamp / tickNanos));
+            windowLabel = label;
+        }
+
+        // Only the used values of every sensor
+        if (tickIndex != null) {
+            for (int channel = 0; channel < windowInput.length; channel++) {
+                windowInput[channel] = values[tickIndex[channel]];
+            }
+            values = windowInput;
+        }
+
+        // Write a record when the window is complete
+        if (window.add(timestamp, values, 0)) {
+            try {
+                addNewRecord(label);
+            } catch (IOException e) {
+                onWriteError(e);
+            }
+        }
+    }
+
+    /**
+     * Appends the features of the current window as one record.
+     */
+    private void addNewRecord(int movementType) throws IOException {
+        long start = startRecord();
+
+        encoder.beginRecord(window.getWindowEndTimestamp());
+
+        for (int channel = 0; channel < window.getChannels(); channel++) {
+            encoder.numeric(window.getMean(channel));
+            encoder.numeric(window.getStdDeviation(channel));
+            encoder.numeric(window.getMin(channel));
+            encoder.numeric(window.getMax(channel));
+        }
+
+        if (spectrum != null) {
+            for (int channel : spectralChannels) {
+                window.copyWindow(channel, spectrumInput, 0);
+                spectrum.compute(spectrumInput, 0, window.getMean(channel));
+
+                encoder.numeric(spectrum.getDominantFrequency());
+                encoder.numeric(spectrum.getEnergy());
+                encoder.numeric(spectrum.getEntropy());
+
+                for (int band = 0; band < spectrum.getBandCount(); band++) {
+                    encoder.numeric(spectrum.getBandPower(band));
+                }
+            }
+        }
+
+        encoder.nominal(movementType);
+        writeRecord(movementType, start);
+    }
+
+    @Override
+    public void onWriterStopped() {
+        // Use the samples which still wait for a lagging sensor
+        merger.flush();
+
+        super.onWriterStopped();
+    }
+
+    public SensorRegistry getSensors() {
+        return sensors;
+    }
+
+    /**
+     * Returns the merger, e.g. for its statistics.
+     */
+    public SensorStreamMerger getMerger() {
+        return merger;
+    }
+}
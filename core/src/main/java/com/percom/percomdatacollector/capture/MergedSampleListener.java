@@ -0,0 +1,17 @@
+package com.percom.percomdatacollector.capture;
+
+/**
+ * Receives the resampled samples of a SensorStreamMerger, one call per clock tick.
+ */
+public interface MergedSampleListener {
+
+    /**
+     * Called once per tick in time order.
+     *
+     * @param timestamp : long : Time of the tick in nanoseconds.
+     * @param values : float[] : Interpolated values of all streams, the values of stream s
+     *               start at s * channels. The array is reused, it's only valid during the call.
+     * @param label : int : Label at the tick, taken from the first stream which has samples.
+     */
+    void onTick(long timestamp, float[] values, int label);
+}
@@ -0,0 +1,44 @@
+package com.percom.percomdatacollector.capture;
+
+/**
+ * Defines what the SampleRingBuffer does with new samples when the writer thread can't keep up,
+ * e.g. while the storage stalls. The code is stored in the header of the capture.
+ */
+public enum OverflowPolicy {
+
+    // Wait for a free slot, but at most the configured time, then drop the new sample
+    BLOCK(1),
+
+    // Replace the oldest queued sample, the queue always holds the latest samples
+    DROP_OLDEST(2),
+
+    // Drop the new sample, the queued samples are kept
+    DROP_NEWEST(3),
+
+    // Keep only every Nth sample per sensor while the queue is more than half full
+    DECIMATE(4);
+
+    private final int code;
+
+    OverflowPolicy(int code) {
+        this.code = code;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * Returns the policy of a code from a capture header.
+     *
+     * @param code : int : The stored code.
+     * @return OverflowPolicy : The policy or null for an unknown code.
+     */
+    public static OverflowPolicy fromCode(int code) {
+        for (OverflowPolicy policy : values()) {
+            if (policy.code == code) return policy;
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,71 @@
+package com.percom.percomdatacollector.capture;
+
+import com.percom.percomdatacollector.Files.ArffSchema;
+import com.percom.percomdatacollector.storage.RecordOutput;
+
+import java.io.IOException;
+
+/**
+ * Appends every sample of the sensors of a SensorRegistry unchanged as one record of
+ * MovementFeatureSchema.createRawSamples(): timestamp, valueX, valueY, valueZ and sensor, 21
+ * bytes per sample. The sensor code is the stream of the registry, samples of other sensors
+ * are ignored. The movement type is appended as a segment marker when it changes. No
+ * features are computed while recording, they are computed from the capture later, e.g. by a
+ * FeatureExportJob or the RefeaturizationEngine, with the same code as the
+ * MergedFeatureRecordConsumer. All methods run on the writer thread.
+ *
+ * Write errors don't stop the capture, they are reported to onWriteError().
+ *
+ * With PipelineMetrics the samples are counted and serialization, write and flush are timed.
+ */
+public class RawSampleRecordConsumer extends RecordWritingConsumer {
+
+    // Sensors of the schema, the stream is the code of the sensor attribute
+    private final SensorRegistry sensors;
+
+    /**
+     * Creates the consumer.
+     *
+     * @param output : RecordOutput : Destination of the records.
+     * @param schema : ArffSchema : Schema created by MovementFeatureSchema.createRawSamples().
+     */
+    public RawSampleRecordConsumer(RecordOutput output, ArffSchema schema) {
+        this(output, schema, SensorRegistry.DEFAULT);
+    }
+
+    /**
+     * Creates the consumer for the given sensors.
+     *
+     * @param output : RecordOutput : Destination of the records.
+     * @param schema : ArffSchema : Schema created by MovementFeatureSchema.createRawSamples()
+     *               with the same sensors.
+     * @param sensors : SensorRegistry : Sensors of the schema.
+     */
+    public RawSampleRecordConsumer(RecordOutput output, ArffSchema schema, SensorRegistry sensors) {
+        super(output, schema);
+        this.sensors = sensors;
+    }
+
+    @Override
+    public void onSample(int sensorType, long timestamp, float x, float y, float z, int label) {
+        int sensor = sensors.getStream(sensorType);
+        if (sensor < 0) return;
+
+        if (metrics != null) metrics.countWritten(sensorType, timestamp);
+
+        long start = startRecord();
+
+        encoder.beginRecord(timestamp);
+        encoder.numeric(x);
+        encoder.numeric(y);
+        encoder.numeric(z);
+        encoder.nominal(sensor);
+        encoder.nominal(label);
+
+        try {
+            writeRecord(label, start);
+        } catch (IOException e) {
+            onWriteError(e);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.percom.percomdatacollector.capture;
+
+import com.percom.percomdatacollector.Files.ArffSchema;
+import com.percom.percomdatacollector.Files.BinaryRecordEncoder;
+import com.percom.percomdatacollector.metrics.PipelineMetrics;
+import com.percom.percomdatacollector.storage.RecordOutput;
+
+import java.io.IOException;
+
+/**
+ * Base of the consumers which encode records with a BinaryRecordEncoder and append them to a
+ * RecordOutput. A subclass fills the encoder and calls writeRecord(), which appends the segment
+ * marker of a changed movement type in front of the record. The output is group committed
+ * after every batch and closed when the writer stops. All methods run on the writer thread.
+ *
+ * Write errors don't stop the capture, they are reported to onWriteError(), which passes them
+ * to the WriteErrorListener.
+ *
+ * With PipelineMetrics serialization, write and flush are timed and the records counted.
+ */
+public abstract class RecordWritingConsumer implements SampleConsumer {
+
+    // Destination of the records
+    private final RecordOutput output;
+
+    // Reused for every record
+    protected final BinaryRecordEncoder encoder;
+
+    // Instrumentation or null
+    protected PipelineMetrics metrics = null;
+
+    // Receives the write errors or null
+    private WriteErrorListener writeErrorListener = null;
+
+    /**
+     * Creates the consumer.
+     *
+     * @param output : RecordOutput : Destination of the records.
+     * @param schema : ArffSchema : Schema of the records.
+     */
+    protected RecordWritingConsumer(RecordOutput output, ArffSchema schema) {
+        this.output = output;
+        this.encoder = new BinaryRecordEncoder(schema);
+    }
+
+    /**
+     * Returns the start of the serialization of a record, 0 without PipelineMetrics.
+     */
+    protected final long startRecord() {
+        return metrics != null ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Appends the record of the encoder, preceded by a segment marker if its movement type
+     * changed.
+     *
+     * @param movementType : int : Movement type of the record.
+     * @param start : long : Value of startRecord() before the record was encoded.
+     * @throws IOException
+     */
+    protected final void writeRecord(int movementType, long start) throws IOException {
+        if (metrics != null) {
+            long encoded = System.nanoTime();
+            metrics.getSerialization().record(encoded - start);
+
+            append();
+            metrics.getWrite().record(System.nanoTime() - encoded);
+            metrics.countRecord(movementType);
+        } else {
+            append();
+        }
+    }
+
+    private void append() throws IOException {
+        if (encoder.isSegmentStart()) output.append(encoder.getSegmentMarker(), 0, encoder.getLength());
+        output.append(encoder.getBuffer(), 0, encoder.getLength());
+    }
+
+    @Override
+    public void onBatchComplete() {
+        try {
+            // Group commit when the time threshold has passed
+            if (metrics != null) {
+                long start = System.nanoTime();
+                output.flushIfDue();
+                metrics.getFlush().record(System.nanoTime() - start);
+            } else {
+                output.flushIfDue();
+            }
+        } catch (IOException e) {
+            onWriteError(e);
+        }
+    }
+
+    @Override
+    public void onWriterStopped() {
+        try {
+            output.close();
+        } catch (IOException e) {
+            onWriteError(e);
+        }
+    }
+
+    /**
+     * Sets the instrumentation. Must be called before the writer thread is started.
+     *
+     * @param metrics : PipelineMetrics : Counts the samples and times the stages, null for none.
+     */
+    public void setMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Sets the receiver of the write errors. Must be called before the writer thread is
+     * started.
+     *
+     * @param listener : WriteErrorListener : Receives the errors, null to ignore them.
+     */
+    public void setWriteErrorListener(WriteErrorListener listener) {
+        this.writeErrorListener = listener;
+    }
+
+    /**
+     * Called on the writer thread when a record couldn't be written. Passes the error to the
+     * WriteErrorListener by default.
+     *
+     * @param e : IOException : The error.
+     */
+    protected void onWriteError(IOException e) {
+        WriteErrorListener listener = writeErrorListener;
+        if (listener != null) listener.onWriteError(e);
+    }
+}
@@ -0,0 +1,36 @@
+package com.percom.percomdatacollector.capture;
+
+import com.percom.percomdatacollector.features.SlidingWindowFeatureExtractor;
+import com.percom.percomdatacollector.storage.FsyncPolicy;
+
+/**
+ * Configuration of a recording of the FileService. The LoadGenerator uses the same values, so
+ * its stress tests run the pipeline the way the app does.
+ */
+public final class RecordingDefaults {
+
+    // Recorded sensors, the ones which aren't available on the device are left out
+    public static final SensorRegistry SENSORS = SensorRegistry.ALL;
+
+    // The sensors batch their events in the hardware FIFO for up to 500 ms, 0 disables batching
+    public static final int MAX_REPORT_LATENCY_US = 500000;
+
+    // The sensors are resampled onto a common clock with this rate
+    public static final int RESAMPLING_RATE_HZ = 100;
+    public static final long RESAMPLING_TICK_NANOS = 1000000000L / RESAMPLING_RATE_HZ;
+
+    // Maximum time the common clock waits for a lagging sensor, covers the bursts of the FIFOs
+    public static final long MAX_SENSOR_LAG_NANOS = SensorStreamMerger.calcMaxLag(MAX_REPORT_LATENCY_US * 1000L);
+
+    // Number of resampled samples per feature window and number of samples the window moves
+    public static final int WINDOW_LENGTH = SlidingWindowFeatureExtractor.DEFAULT_WINDOW_LENGTH;
+    public static final int WINDOW_HOP = SlidingWindowFeatureExtractor.DEFAULT_HOP;
+
+    // Number of samples the queue between sensor callback and writer thread can hold
+    public static final int SAMPLE_QUEUE_CAPACITY = 8192;
+
+    // When the recorded data is forced to the storage device
+    public static final FsyncPolicy FSYNC_POLICY = FsyncPolicy.ON_CLOSE;
+
+    private RecordingDefaults() {}
+}
@@ -0,0 +1,14 @@
+package com.percom.percomdatacollector.capture;
+
+/**
+ * Defines what a recording stores.
+ */
+public enum RecordingMode {
+
+    // Features of resampled windows, computed by the MergedFeatureRecordConsumer while recording
+    FEATURES,
+
+    // Every sensor sample unchanged, see RawSampleRecordConsumer, the features are computed
+    // when the capture is exported
+    RAW_SAMPLES
+}
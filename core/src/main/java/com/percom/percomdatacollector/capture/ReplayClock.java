@@ -0,0 +1,33 @@
+package com.percom.percomdatacollector.capture;
+
+/**
+ * Paces the replay of recorded samples to real time: the replay sleeps until System.nanoTime()
+ * has advanced as far as the recorded timestamps. Used by the sensor sources and the
+ * LoadGenerator.
+ */
+public final class ReplayClock {
+
+    private ReplayClock() {}
+
+    /**
+     * Sleeps until System.nanoTime() reaches the given time. An interrupt ends the wait early,
+     * the interrupt flag of the thread is set again.
+     *
+     * @param nanoTime : long : Value of System.nanoTime() to wait for.
+     * @return boolean : false if the thread was interrupted.
+     */
+    public static boolean sleepUntil(long nanoTime) {
+        long remaining;
+
+        while ((remaining = nanoTime - System.nanoTime()) > 0) {
+            try {
+                Thread.sleep(remaining / 1000000L, (int) (remaining % 1000000L));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,133 @@
+package com.percom.percomdatacollector.capture;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+
+/**
+ * Replays recorded samples as a SensorSource, e.g. to drive the capture pipeline in JVM tests
+ * or benchmarks. The recording is a text file with one sample per line:
+ *
+ *     sensorType,timestamp,x,y,z
+ *
+ * Empty lines and lines starting with '#' are skipped. The samples are delivered in blocks of
+ * a fixed size like the bursts of a hardware FIFO, either as fast as possible or paced by their
+ * timestamps. start() replays on its own thread, replay() on the calling thread.
+ */
+public class ReplaySensorSource implements SensorSource {
+
+    // Recorded samples
+    private final InputStream recording;
+    // Samples per block
+    private final int blockSize;
+    // true to wait between the blocks like the real sensors
+    private final boolean realTime;
+
+    private volatile boolean stopped = false;
+    private Thread thread = null;
+
+    // Number of replayed samples
+    private volatile long sampleCount = 0;
+
+    /**
+     * Creates the source.
+     *
+     * @param recording : InputStream : Recorded samples, closed when the replay ends.
+     * @param blockSize : int : Samples per block.
+     * @param realTime : boolean : true to pace the blocks by the sample timestamps.
+     */
+    public ReplaySensorSource(InputStream recording, int blockSize, boolean realTime) {
+        if (blockSize < 1) throw new IllegalArgumentException("Block size must be positive");
+
+        this.recording = recording;
+        this.blockSize = blockSize;
+        this.realTime = realTime;
+    }
+
+    @Override
+    public void start(final SensorSampleListener listener) throws IOException {
+        if (thread != null) throw new IOException("Replay already started");
+
+        thread = new Thread("SensorReplay") {
+            @Override
+            public void run() {
+                try {
+                    replay(listener);
+                } catch (IOException e) {
+                    // The replay ends at the broken line, the listener is informed anyway
+                    listener.onSourceStopped();
+                }
+            }
+        };
+        thread.start();
+    }
+
+    /**
+     * Replays the whole recording on the calling thread until it ends or stop() is called.
+     *
+     * @param listener : SensorSampleListener : Receives the samples.
+     * @throws IOException if the recording can't be read or a line is malformed.
+     */
+    public void replay(SensorSampleListener listener) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(recording, Charset.forName("US-ASCII")));
+
+        try {
+            long firstTimestamp = -1;
+            long startNanos = System.nanoTime();
+            int inBlock = 0;
+            String line;
+
+            while (!stopped && (line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.charAt(0) == '#') continue;
+
+                String[] columns = line.split(",");
+                if (columns.length != 5) throw new IOException("Malformed sample: " + line);
+
+                long timestamp;
+                try {
+                    timestamp = Long.parseLong(columns[1].trim());
+
+                    listener.onSample(Integer.parseInt(columns[0].trim()), timestamp,
+                            Float.parseFloat(columns[2]), Float.parseFloat(columns[3]), Float.parseFloat(columns[4]));
+                } catch (NumberFormatException e) {
+                    throw new IOException("Malformed sample: " + line);
+                }
+
+                sampleCount++;
+
+                if (firstTimestamp < 0) firstTimestamp = timestamp;
+
+                if (++inBlock == blockSize) {
+                    inBlock = 0;
+
+                    if (realTime && !stopped) ReplayClock.sleepUntil(startNanos + timestamp - firstTimestamp);
+                    listener.onBlockComplete();
+                }
+            }
+
+            if (inBlock > 0) listener.onBlockComplete();
+        } finally {
+            reader.close();
+        }
+
+        listener.onSourceStopped();
+    }
+
+    @Override
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Waits until the replay thread has finished.
+     */
+    public void join() throws InterruptedException {
+        if (thread != null) thread.join();
+    }
+
+    public long getSampleCount() {
+        return sampleCount;
+    }
+}
@@ -0,0 +1,24 @@
+package com.percom.percomdatacollector.capture;
+
+/**
+ * Receives the samples drained from a SampleRingBuffer. All methods are called on the
+ * writer thread.
+ */
+public interface SampleConsumer {
+
+    /**
+     * Called once per sample, in the order the samples were offered.
+     */
+    void onSample(int sensorType, long timestamp, float x, float y, float z, int label);
+
+    /**
+     * Called after a batch of samples was handed over. This is the place to write the
+     * collected records.
+     */
+    void onBatchComplete();
+
+    /**
+     * Called once after the writer thread has drained the last sample.
+     */
+    void onWriterStopped();
+}
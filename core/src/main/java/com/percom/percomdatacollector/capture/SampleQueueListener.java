@@ -0,0 +1,74 @@
+package com.percom.percomdatacollector.capture;
+
+import com.percom.percomdatacollector.metrics.PipelineMetrics;
+
+/**
+ * Connects a SensorSource to the capture pipeline: every sample is queued in the
+ * SampleRingBuffer with the current label and the writer thread is woken up after every block.
+ * Queuing a sample never blocks and never allocates.
+ */
+public class SampleQueueListener implements SensorSampleListener {
+
+    // Queue to the writer thread
+    private final SampleRingBuffer sampleQueue;
+    // Drains the queue
+    private final CaptureWriterThread writer;
+    // Counts the received samples or null, the queue counts the lost ones
+    private final PipelineMetrics metrics;
+
+    // Label which is queued with the samples
+    private volatile int label = 0;
+
+    /**
+     * Creates the listener.
+     *
+     * @param sampleQueue : SampleRingBuffer : Queue to the writer thread.
+     * @param writer : CaptureWriterThread : Writer thread which is signaled after every block.
+     */
+    public SampleQueueListener(SampleRingBuffer sampleQueue, CaptureWriterThread writer) {
+        this(sampleQueue, writer, null);
+    }
+
+    /**
+     * Creates the listener which counts the received samples per sensor.
+     *
+     * @param sampleQueue : SampleRingBuffer : Queue to the writer thread.
+     * @param writer : CaptureWriterThread : Writer thread which is signaled after every block.
+     * @param metrics : PipelineMetrics : Counts the received samples, may be null.
+     */
+    public SampleQueueListener(SampleRingBuffer sampleQueue, CaptureWriterThread writer, PipelineMetrics metrics) {
+        this.sampleQueue = sampleQueue;
+        this.writer = writer;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Sets the label of the following samples. Can be called from any thread.
+     *
+     * @param label : int : Code of the movement type.
+     */
+    public void setLabel(int label) {
+        this.label = label;
+    }
+
+    public int getLabel() {
+        return label;
+    }
+
+    @Override
+    public void onSample(int sensorType, long timestamp, float x, float y, float z) {
+        if (metrics != null) metrics.countReceived(sensorType);
+
+        sampleQueue.offer(sensorType, timestamp, x, y, z, label);
+    }
+
+    @Override
+    public void onBlockComplete() {
+        writer.signal();
+    }
+
+    @Override
+    public void onSourceStopped() {
+        writer.signal();
+    }
+}
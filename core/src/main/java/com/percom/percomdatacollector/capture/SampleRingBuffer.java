@@ -0,0 +1,350 @@
+package com.percom.percomdatacollector.capture;
+
+import com.percom.percomdatacollector.Files.DropStatistics;
+import com.percom.percomdatacollector.metrics.PipelineMetrics;
+import com.percom.percomdatacollector.storage.DropStatisticsSource;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free single-producer/single-consumer ring buffer for sensor samples. All slots are
+ * preallocated as primitive arrays, so offering a sample only copies a few values and never
+ * allocates. The producer is the sensor callback, the consumer is the CaptureWriterThread.
+ *
+ * The OverflowPolicy decides what happens when the consumer can't keep up. With DROP_OLDEST
+ * the producer takes the oldest slot from the consumer, so both sides move the tail with a CAS
+ * and the consumer only uses a sample after its CAS succeeded. The other policies keep the
+ * plain release of the slots.
+ *
+ * With PipelineMetrics the time of every offer is stored in the slot and the time until the
+ * consumer takes the sample is recorded, lost samples are counted per sensor.
+ */
+public class SampleRingBuffer implements DropStatisticsSource {
+
+    // Number of float values stored per sample (x, y, z)
+    public static final int VALUES_PER_SAMPLE = 3;
+
+    // DECIMATE keeps every 4th sample per sensor by default
+    public static final int DEFAULT_DECIMATION_FACTOR = 4;
+
+    // BLOCK waits at most 50 ms for a free slot by default
+    public static final long DEFAULT_MAX_BLOCK_NANOS = 50000000L;
+
+    // Time a blocked producer sleeps between two checks (0.1 ms)
+    private static final long BLOCK_PARK_NANOS = 100000L;
+
+    // Decimation counters, sensor types are mapped onto them by their low bits
+    private static final int DECIMATION_SLOTS = 64;
+
+    // Number of slots, always a power of two
+    private final int capacity;
+    // Mask to map a sequence number to a slot index
+    private final int mask;
+
+    // Slot storage
+    private final int[] sensorTypes;
+    private final long[] timestamps;
+    private final float[] values;
+    private final byte[] labels;
+    // System.nanoTime() of the offer, only with metrics
+    private final long[] enqueueNanos;
+
+    // Sequence number of the next slot the producer writes
+    private final AtomicLong head = new AtomicLong();
+    // Sequence number of the next slot the consumer reads
+    private final AtomicLong tail = new AtomicLong();
+    // Last tail seen by the producer, avoids reading the shared tail on every offer
+    private long cachedTail = 0;
+
+    // Behaviour of a full queue
+    private final OverflowPolicy policy;
+    private final int decimationFactor;
+    private final long maxBlockNanos;
+
+    // DECIMATE starts when the queue holds this many samples
+    private final int decimationThreshold;
+    // Samples per sensor since the decimation started, only used by the producer
+    private final int[] decimationPhase = new int[DECIMATION_SLOTS];
+
+    // Woken up by a blocked producer, set by the first drain
+    private volatile Thread consumerThread = null;
+
+    // Instrumentation or null
+    private final PipelineMetrics metrics;
+
+    // Counters (only written by the producer)
+    private final AtomicLong overflowCount = new AtomicLong();
+    private final AtomicLong decimatedCount = new AtomicLong();
+    private final AtomicLong highWaterMark = new AtomicLong();
+
+    /**
+     * Creates a ring buffer which drops new samples when it's full.
+     *
+     * @param minCapacity : int : Minimum number of samples, rounded up to a power of two.
+     */
+    public SampleRingBuffer(int minCapacity) {
+        this(minCapacity, OverflowPolicy.DROP_NEWEST, null);
+    }
+
+    /**
+     * Creates a ring buffer with the default decimation factor and block time.
+     *
+     * @param minCapacity : int : Minimum number of samples, rounded up to a power of two.
+     * @param policy : OverflowPolicy : Behaviour when the consumer can't keep up.
+     * @param metrics : PipelineMetrics : Receives the queue wait and the lost samples, may be
+     *                null.
+     */
+    public SampleRingBuffer(int minCapacity, OverflowPolicy policy, PipelineMetrics metrics) {
+        this(minCapacity, policy, DEFAULT_DECIMATION_FACTOR, DEFAULT_MAX_BLOCK_NANOS, metrics);
+    }
+
+    /**
+     * Creates a ring buffer.
+     *
+     * @param minCapacity : int : Minimum number of samples, rounded up to a power of two.
+     * @param policy : OverflowPolicy : Behaviour when the consumer can't keep up.
+     * @param decimationFactor : int : DECIMATE keeps every Nth sample per sensor.
+     * @param maxBlockNanos : long : Maximum time BLOCK waits for a free slot.
+     * @param metrics : PipelineMetrics : Receives the queue wait and the lost samples, may be
+     *                null.
+     */
+    public SampleRingBuffer(int minCapacity, OverflowPolicy policy, int decimationFactor, long maxBlockNanos,
+                            PipelineMetrics metrics) {
+        if (minCapacity < 2) throw new IllegalArgumentException("Capacity must be at least 2");
+        if (decimationFactor < 1) throw new IllegalArgumentException("Decimation factor must be positive");
+
+        int size = Integer.highestOneBit(minCapacity - 1) << 1;
+
+        this.capacity = size;
+        this.mask = size - 1;
+        this.sensorTypes = new int[size];
+        this.timestamps = new long[size];
+        this.values = new float[size * VALUES_PER_SAMPLE];
+        this.labels = new byte[size];
+        this.enqueueNanos = metrics != null ? new long[size] : null;
+        this.policy = policy;
+        this.decimationFactor = decimationFactor;
+        this.maxBlockNanos = maxBlockNanos;
+        this.decimationThreshold = size / 2;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Copies one sample into the next free slot. Must only be called by the producer thread.
+     *
+     * @param sensorType : int : Sensor type of the sample.
+     * @param timestamp : long : Event timestamp in nanoseconds.
+     * @param x : float : First value.
+     * @param y : float : Second value.
+     * @param z : float : Third value.
+     * @param label : int : Code of the movement type.
+     * @return boolean : false if the sample was dropped or decimated.
+     */
+    public boolean offer(int sensorType, long timestamp, float x, float y, float z, int label) {
+        long currentHead = head.get();
+
+        if (policy == OverflowPolicy.DECIMATE && currentHead - cachedTail >= decimationThreshold) {
+            cachedTail = tail.get();
+
+            if (currentHead - cachedTail >= decimationThreshold
+                    && decimationPhase[sensorType & (DECIMATION_SLOTS - 1)]++ % decimationFactor != 0) {
+                decimatedCount.lazySet(decimatedCount.get() + 1);
+                if (metrics != null) metrics.countDropped(sensorType);
+                return false;
+            }
+        }
+
+        if (currentHead - cachedTail >= capacity && !makeRoom(currentHead)) {
+            overflowCount.lazySet(overflowCount.get() + 1);
+            if (metrics != null) metrics.countDropped(sensorType);
+            return false;
+        }
+
+        int index = (int) currentHead & mask;
+        int valueIndex = index * VALUES_PER_SAMPLE;
+
+        sensorTypes[index] = sensorType;
+        timestamps[index] = timestamp;
+        values[valueIndex] = x;
+        values[valueIndex + 1] = y;
+        values[valueIndex + 2] = z;
+        labels[index] = (byte) label;
+        if (enqueueNanos != null) enqueueNanos[index] = System.nanoTime();
+
+        // Publish the slot to the consumer
+        head.lazySet(currentHead + 1);
+
+        long depth = currentHead + 1 - cachedTail;
+        if (depth > highWaterMark.get()) highWaterMark.lazySet(depth);
+
+        return true;
+    }
+
+    /**
+     * Frees a slot for the sample at currentHead according to the policy.
+     *
+     * @return boolean : false if the new sample must be dropped.
+     */
+    private boolean makeRoom(long currentHead) {
+        cachedTail = tail.get();
+        if (currentHead - cachedTail < capacity) return true;
+
+        if (policy == OverflowPolicy.DROP_OLDEST) return evictOldest(currentHead);
+        if (policy == OverflowPolicy.BLOCK) return awaitRoom(currentHead);
+
+        return false;
+    }
+
+    /**
+     * Takes the oldest slot from the consumer. Fails only if the consumer took it first, then
+     * there is room anyway.
+     */
+    private boolean evictOldest(long currentHead) {
+        while (true) {
+            long currentTail = tail.get();
+
+            if (currentHead - currentTail < capacity) {
+                cachedTail = currentTail;
+                return true;
+            }
+
+            int evictedType = sensorTypes[(int) currentTail & mask];
+
+            if (tail.compareAndSet(currentTail, currentTail + 1)) {
+                cachedTail = currentTail + 1;
+                overflowCount.lazySet(overflowCount.get() + 1);
+                if (metrics != null) metrics.countDropped(evictedType);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Wakes the consumer and waits until it freed a slot, at most maxBlockNanos.
+     */
+    private boolean awaitRoom(long currentHead) {
+        long start = System.nanoTime();
+
+        do {
+            Thread consumer = consumerThread;
+            if (consumer != null) LockSupport.unpark(consumer);
+
+            LockSupport.parkNanos(BLOCK_PARK_NANOS);
+
+            cachedTail = tail.get();
+            if (currentHead - cachedTail < capacity) return true;
+        } while (System.nanoTime() - start < maxBlockNanos);
+
+        return false;
+    }
+
+    /**
+     * Hands up to maxSamples queued samples to the consumer. Must only be called by the
+     * consumer thread.
+     *
+     * @param consumer : SampleConsumer : Receives the samples in order.
+     * @param maxSamples : int : Upper bound for this batch.
+     * @return int : Number of samples handed over.
+     */
+    public int drain(SampleConsumer consumer, int maxSamples) {
+        if (consumerThread == null) consumerThread = Thread.currentThread();
+
+        if (policy == OverflowPolicy.DROP_OLDEST) return drainEvictable(consumer, maxSamples);
+
+        long currentTail = tail.get();
+        long available = head.get() - currentTail;
+        int count = (int) Math.min(available, maxSamples);
+
+        for (int i = 0; i < count; i++) {
+            int index = (int) (currentTail + i) & mask;
+            int valueIndex = index * VALUES_PER_SAMPLE;
+
+            consumer.onSample(sensorTypes[index], timestamps[index], values[valueIndex],
+                    values[valueIndex + 1], values[valueIndex + 2], labels[index]);
+
+            if (enqueueNanos != null) metrics.getQueueWait().record(System.nanoTime() - enqueueNanos[index]);
+
+            // Release the slot to the producer
+            tail.lazySet(currentTail + i + 1);
+        }
+
+        return count;
+    }
+
+    /**
+     * Drains while the producer may evict the oldest slot. Every sample is copied first and
+     * only handed over if the slot could be claimed, a slot which was evicted in between may
+     * have been overwritten.
+     */
+    private int drainEvictable(SampleConsumer consumer, int maxSamples) {
+        int count = 0;
+
+        while (count < maxSamples) {
+            long currentTail = tail.get();
+            if (head.get() - currentTail <= 0) break;
+
+            int index = (int) currentTail & mask;
+            int valueIndex = index * VALUES_PER_SAMPLE;
+
+            int sensorType = sensorTypes[index];
+            long timestamp = timestamps[index];
+            float x = values[valueIndex];
+            float y = values[valueIndex + 1];
+            float z = values[valueIndex + 2];
+            int label = labels[index];
+            long enqueued = enqueueNanos != null ? enqueueNanos[index] : 0;
+
+            if (!tail.compareAndSet(currentTail, currentTail + 1)) continue;
+
+            consumer.onSample(sensorType, timestamp, x, y, z, label);
+
+            if (enqueueNanos != null) metrics.getQueueWait().record(System.nanoTime() - enqueued);
+
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns the number of samples currently waiting for the consumer.
+     */
+    public int getDepth() {
+        return (int) (head.get() - tail.get());
+    }
+
+    /**
+     * Returns the largest queue depth seen since the buffer was created.
+     */
+    public long getHighWaterMark() {
+        return highWaterMark.get();
+    }
+
+    /**
+     * Returns the number of samples dropped because the buffer was full.
+     */
+    public long getOverflowCount() {
+        return overflowCount.get();
+    }
+
+    /**
+     * Returns the number of samples skipped by the decimation.
+     */
+    public long getDecimatedCount() {
+        return decimatedCount.get();
+    }
+
+    @Override
+    public DropStatistics getDropStatistics() {
+        return new DropStatistics(policy.getCode(), overflowCount.get(), decimatedCount.get());
+    }
+
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+}
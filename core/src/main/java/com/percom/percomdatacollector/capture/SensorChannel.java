@@ -0,0 +1,106 @@
+package com.percom.percomdatacollector.capture;
+
+/**
+ * Configuration of one sensor in the capture pipeline: its sensor type, the names of its schema
+ * columns, how many values of a sample are used, whether the samples are normalized to a unit
+ * vector and whether frequency-domain features are computed. The channels are collected in a
+ * SensorRegistry, which dispatches the samples by sensor type. An instance is immutable.
+ */
+public final class SensorChannel {
+
+    // Axis names used for the attribute names
+    private static final String[] AXES = {"X", "Y", "Z"};
+
+    public static final SensorChannel ACCELEROMETER =
+            new SensorChannel(SensorTypes.ACCELEROMETER, "accelerometer", "Acc", 3, false, true);
+
+    // Only the direction of the rotation axis is used, not the angular speed
+    public static final SensorChannel GYROSCOPE =
+            new SensorChannel(SensorTypes.GYROSCOPE, "gyroscope", "Gyr", 3, true, true);
+
+    public static final SensorChannel MAGNETOMETER =
+            new SensorChannel(SensorTypes.MAGNETIC_FIELD, "magnetometer", "Mag", 3, false, false);
+
+    public static final SensorChannel LINEAR_ACCELERATION =
+            new SensorChannel(SensorTypes.LINEAR_ACCELERATION, "linearAcceleration", "Lin", 3, false, true);
+
+    // Changes with the orientation of the phone only, the spectrum would be empty
+    public static final SensorChannel GRAVITY =
+            new SensorChannel(SensorTypes.GRAVITY, "gravity", "Grv", 3, false, false);
+
+    public static final SensorChannel ROTATION_VECTOR =
+            new SensorChannel(SensorTypes.ROTATION_VECTOR, "rotationVector", "Rot", 3, false, false);
+
+    // The air pressure changes too slowly for frequency features
+    public static final SensorChannel PRESSURE =
+            new SensorChannel(SensorTypes.PRESSURE, "pressure", "Prs", 1, false, false);
+
+    private final int sensorType;
+
+    // Value of the sensor attribute and part of the feature attribute names, e.g. meanAccX
+    private final String name;
+    private final String prefix;
+
+    // Values of a sample which are used, 1 to 3
+    private final int axes;
+
+    // true to scale every sample to a unit vector
+    private final boolean normalized;
+
+    // true to compute the frequency-domain features
+    private final boolean spectral;
+
+    /**
+     * Creates the channel.
+     *
+     * @param sensorType : int : Sensor type, see SensorTypes.
+     * @param name : String : Value of the sensor attribute of raw samples.
+     * @param prefix : String : Sensor name of the feature attributes.
+     * @param axes : int : Values of a sample which are used, 1 to 3.
+     * @param normalized : boolean : true to scale every sample to a unit vector.
+     * @param spectral : boolean : true to compute the frequency-domain features.
+     */
+    public SensorChannel(int sensorType, String name, String prefix, int axes, boolean normalized,
+                         boolean spectral) {
+        if (axes < 1 || axes > AXES.length) throw new IllegalArgumentException("1 to 3 axes required: " + axes);
+
+        this.sensorType = sensorType;
+        this.name = name;
+        this.prefix = prefix;
+        this.axes = axes;
+        this.normalized = normalized;
+        this.spectral = spectral;
+    }
+
+    public int getSensorType() {
+        return sensorType;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public int getAxes() {
+        return axes;
+    }
+
+    /**
+     * Returns the suffix of the attributes of an axis, e.g. "X". A sensor with a single value
+     * has no suffix.
+     */
+    public String getAxisName(int axis) {
+        return axes == 1 ? "" : AXES[axis];
+    }
+
+    public boolean isNormalized() {
+        return normalized;
+    }
+
+    public boolean isSpectral() {
+        return spectral;
+    }
+}
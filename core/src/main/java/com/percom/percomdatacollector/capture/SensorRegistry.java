@@ -0,0 +1,162 @@
+package com.percom.percomdatacollector.capture;
+
+import java.util.Arrays;
+
+/**
+ * The sensors of a capture in a fixed order. The position of a SensorChannel is its stream,
+ * e.g. the stream of the SensorStreamMerger, the code of the sensor attribute of raw samples and
+ * the order of the feature columns. A sample is dispatched by looking its sensor type up in a
+ * table, so the cost per sample doesn't grow with the number of sensors. An instance is
+ * immutable.
+ */
+public final class SensorRegistry {
+
+    // Size of the lookup table, larger than all sensor types of SensorTypes
+    private static final int TYPE_SLOTS = 64;
+
+    // Accelerometer and gyroscope, the sensors of the original schemas
+    public static final SensorRegistry DEFAULT =
+            new SensorRegistry(SensorChannel.ACCELEROMETER, SensorChannel.GYROSCOPE);
+
+    // All supported sensors, accelerometer and gyroscope first so their codes are the same as
+    // in DEFAULT
+    public static final SensorRegistry ALL = new SensorRegistry(SensorChannel.ACCELEROMETER, SensorChannel.GYROSCOPE,
+            SensorChannel.MAGNETOMETER, SensorChannel.LINEAR_ACCELERATION, SensorChannel.GRAVITY,
+            SensorChannel.ROTATION_VECTOR, SensorChannel.PRESSURE);
+
+    // Channels in stream order
+    private final SensorChannel[] channels;
+
+    // Stream of every sensor type, -1 for a sensor which isn't registered
+    private final int[] streams = new int[TYPE_SLOTS];
+
+    // Sum of the used values of all channels
+    private final int axisCount;
+
+    /**
+     * Creates the registry.
+     *
+     * @param channels : SensorChannel[] : Channels in stream order, one per sensor type.
+     */
+    public SensorRegistry(SensorChannel... channels) {
+        if (channels.length == 0) throw new IllegalArgumentException("At least one sensor required");
+
+        this.channels = channels.clone();
+        Arrays.fill(streams, -1);
+
+        int axes = 0;
+
+        for (int stream = 0; stream < channels.length; stream++) {
+            int type = channels[stream].getSensorType();
+
+            if (type < 0 || type >= TYPE_SLOTS) throw new IllegalArgumentException("Unsupported sensor type: " + type);
+            if (streams[type] >= 0) throw new IllegalArgumentException("Sensor type registered twice: " + type);
+
+            streams[type] = stream;
+            axes += channels[stream].getAxes();
+        }
+
+        this.axisCount = axes;
+    }
+
+    /**
+     * Creates the registry of the values of a sensor attribute, e.g. of the schema of a raw
+     * capture.
+     *
+     * @param names : String[] : Names of the channels of ALL in stream order.
+     * @return SensorRegistry : The registry.
+     * @throws IllegalArgumentException : For an unknown name.
+     */
+    public static SensorRegistry fromNames(String[] names) {
+        SensorChannel[] channels = new SensorChannel[names.length];
+
+        for (int i = 0; i < names.length; i++) {
+            channels[i] = ALL.find(names[i]);
+            if (channels[i] == null) throw new IllegalArgumentException("Unknown sensor: " + names[i]);
+        }
+
+        return new SensorRegistry(channels);
+    }
+
+    private SensorChannel find(String name) {
+        for (SensorChannel channel : channels) {
+            if (channel.getName().equals(name)) return channel;
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the registry with only the given sensor types in the same order, e.g. the sensors
+     * which are available on the device.
+     *
+     * @param sensorTypes : int[] : Sensor types to keep.
+     * @return SensorRegistry : The registry, this if all sensors are kept.
+     * @throws IllegalArgumentException : If none of the sensors is kept.
+     */
+    public SensorRegistry retain(int[] sensorTypes) {
+        SensorChannel[] kept = new SensorChannel[channels.length];
+        int count = 0;
+
+        for (SensorChannel channel : channels) {
+            for (int type : sensorTypes) {
+                if (type == channel.getSensorType()) {
+                    kept[count++] = channel;
+                    break;
+                }
+            }
+        }
+
+        if (count == channels.length) return this;
+
+        return new SensorRegistry(Arrays.copyOf(kept, count));
+    }
+
+    /**
+     * Returns the stream of a sensor type.
+     *
+     * @param sensorType : int : Sensor type of a sample.
+     * @return int : The stream or -1 if the sensor isn't registered.
+     */
+    public int getStream(int sensorType) {
+        return sensorType >= 0 && sensorType < TYPE_SLOTS ? streams[sensorType] : -1;
+    }
+
+    public SensorChannel getChannel(int stream) {
+        return channels[stream];
+    }
+
+    /**
+     * Returns the number of sensors.
+     */
+    public int size() {
+        return channels.length;
+    }
+
+    /**
+     * Returns the sum of the used values of all sensors, the number of feature channels.
+     */
+    public int getAxisCount() {
+        return axisCount;
+    }
+
+    /**
+     * Returns the sensor types in stream order.
+     */
+    public int[] getSensorTypes() {
+        int[] types = new int[channels.length];
+        for (int i = 0; i < channels.length; i++) types[i] = channels[i].getSensorType();
+
+        return types;
+    }
+
+    /**
+     * Returns the names in stream order, the values of the sensor attribute.
+     */
+    public String[] getNames() {
+        String[] names = new String[channels.length];
+        for (int i = 0; i < channels.length; i++) names[i] = channels[i].getName();
+
+        return names;
+    }
+}
@@ -0,0 +1,29 @@
+package com.percom.percomdatacollector.capture;
+
+/**
+ * Receives the samples of a SensorSource. All methods are called on the thread of the source.
+ */
+public interface SensorSampleListener {
+
+    /**
+     * Called once per sample.
+     *
+     * @param sensorType : int : Sensor type, see SensorTypes.
+     * @param timestamp : long : Event timestamp in nanoseconds.
+     * @param x : float : First value.
+     * @param y : float : Second value.
+     * @param z : float : Third value.
+     */
+    void onSample(int sensorType, long timestamp, float x, float y, float z);
+
+    /**
+     * Called after a block of samples, e.g. after the burst of a hardware FIFO. This is the
+     * place to hand the samples over to the next stage.
+     */
+    void onBlockComplete();
+
+    /**
+     * Called once after stop() when the last sample was delivered.
+     */
+    void onSourceStopped();
+}
@@ -0,0 +1,25 @@
+package com.percom.percomdatacollector.capture;
+
+import java.io.IOException;
+
+/**
+ * Source of sensor samples for the capture pipeline, e.g. the Android sensors or a replay of
+ * recorded data. Samples are delivered in blocks: a number of onSample() calls followed by
+ * onBlockComplete().
+ */
+public interface SensorSource {
+
+    /**
+     * Starts delivering samples to the listener.
+     *
+     * @param listener : SensorSampleListener : Receives the samples.
+     * @throws IOException if the source can't be started.
+     */
+    void start(SensorSampleListener listener) throws IOException;
+
+    /**
+     * Stops the source. Samples which are already buffered are still delivered, then
+     * onSourceStopped() is called. Returns without waiting for it.
+     */
+    void stop();
+}
@@ -0,0 +1,352 @@
+package com.percom.percomdatacollector.capture;
+
+import java.util.Arrays;
+
+/**
+ * Joins the samples of several sensors (e.g. accelerometer and gyroscope) on a common clock.
+ * The clock ticks at a fixed rate on a grid of the event timestamps. For every tick the value of
+ * each stream is interpolated linearly between the two samples around the tick and all values
+ * are handed to a MergedSampleListener as one sample.
+ *
+ * A tick is emitted as soon as every stream has a sample at or after it. If a stream lags (or
+ * delivers nothing at all) the tick is emitted anyway once the newest sample of any stream is
+ * maxLag ahead of it; the lagging stream then holds its last value, or NaN if it has none yet.
+ * So the latency is bounded by maxLag. Every stream keeps its samples in a fixed-size circular
+ * buffer of primitive arrays, if a stream gets more samples than fit into it before they are
+ * used, the oldest ones are dropped. Nothing is allocated after the construction.
+ *
+ * Sensors which batch their events in the hardware FIFO deliver the burst of one sensor before
+ * the one of the next, so the streams are up to a report latency apart. calcMaxLag() gives a
+ * maxLag which waits for the burst of the other streams instead of holding their old values.
+ *
+ * An instance is not thread safe, it's used by the writer thread.
+ */
+public class SensorStreamMerger {
+
+    // Minimum number of buffered samples per stream
+    public static final int DEFAULT_STREAM_CAPACITY = 256;
+
+    // Highest sample rate the buffers are sized for, the fastest rate of common accelerometers
+    public static final int MAX_SAMPLE_RATE_HZ = 500;
+
+    // Maximum lag of sensors which deliver every event right away (100 ms)
+    public static final long DEFAULT_MAX_LAG_NANOS = 100000000L;
+
+    // Configuration
+    private final int streams;
+    private final int channels;
+    private final long tickNanos;
+    private final long maxLagNanos;
+    private final MergedSampleListener listener;
+
+    // Circular buffers per stream, the samples of stream s start at s * capacity
+    private final int capacity;
+    private final long[] timestamps;
+    private final float[] values;
+    private final int[] labels;
+    private final int[] head;
+    private final int[] count;
+
+    // Values of the current tick, reused
+    private final float[] tickValues;
+
+    // Time of the next tick, only valid if started is true
+    private long nextTick = 0;
+    private boolean started = false;
+
+    // Newest timestamp of all streams
+    private long newestTimestamp = Long.MIN_VALUE;
+
+    // Statistics
+    private long droppedSamples = 0;
+    private long outOfOrderSamples = 0;
+
+    /**
+     * Returns the maximum lag for sensors which batch their events. The burst of a sensor can
+     * follow the one of another sensor by a whole report latency, the second latency covers
+     * FIFOs which are flushed late.
+     *
+     * @param maxReportLatencyNanos : long : Maximum report latency of the sensors, 0 if they
+     *                              don't batch.
+     * @return long : The maximum lag in nanoseconds, at least DEFAULT_MAX_LAG_NANOS.
+     */
+    public static long calcMaxLag(long maxReportLatencyNanos) {
+        return Math.max(DEFAULT_MAX_LAG_NANOS, 2 * maxReportLatencyNanos);
+    }
+
+    /**
+     * Returns the buffered samples per stream which cover maxLag at MAX_SAMPLE_RATE_HZ, at
+     * least DEFAULT_STREAM_CAPACITY.
+     */
+    public static int calcCapacity(long maxLagNanos) {
+        long samples = maxLagNanos / (1000000000L / MAX_SAMPLE_RATE_HZ) + 2;
+
+        return (int) Math.max(DEFAULT_STREAM_CAPACITY, samples);
+    }
+
+    /**
+     * Creates a merger whose buffers cover maxLag, see calcCapacity().
+     *
+     * @param streams : int : Number of sensor streams.
+     * @param channels : int : Values per sample of every stream.
+     * @param tickNanos : long : Time between two ticks, e.g. 10 ms for 100 Hz.
+     * @param maxLagNanos : long : Maximum time a tick waits for a lagging stream.
+     * @param listener : MergedSampleListener : Receives the merged samples.
+     */
+    public SensorStreamMerger(int streams, int channels, long tickNanos, long maxLagNanos, MergedSampleListener listener) {
+        this(streams, channels, tickNanos, maxLagNanos, calcCapacity(maxLagNanos), listener);
+    }
+
+    /**
+     * Creates a merger.
+     *
+     * @param streams : int : Number of sensor streams.
+     * @param channels : int : Values per sample of every stream.
+     * @param tickNanos : long : Time between two ticks, e.g. 10 ms for 100 Hz.
+     * @param maxLagNanos : long : Maximum time a tick waits for a lagging stream.
+     * @param capacity : int : Buffered samples per stream, should cover maxLag at the highest
+     *                 sample rate.
+     * @param listener : MergedSampleListener : Receives the merged samples.
+     */
+    public SensorStreamMerger(int streams, int channels, long tickNanos, long maxLagNanos, int capacity,
+                              MergedSampleListener listener) {
+        if (streams < 1 || channels < 1) throw new IllegalArgumentException("At least one stream and channel required");
+        if (tickNanos < 1) throw new IllegalArgumentException("Tick must be positive");
+        if (capacity < 2) throw new IllegalArgumentException("Capacity must be at least 2");
+
+        this.streams = streams;
+        this.channels = channels;
+        this.tickNanos = tickNanos;
+        this.maxLagNanos = maxLagNanos;
+        this.capacity = capacity;
+        this.listener = listener;
+
+        this.timestamps = new long[streams * capacity];
+        this.values = new float[streams * capacity * channels];
+        this.labels = new int[streams * capacity];
+        this.head = new int[streams];
+        this.count = new int[streams];
+        this.tickValues = new float[streams * channels];
+    }
+
+    /**
+     * Adds a sample with three values and emits all ticks which are complete afterwards.
+     */
+    public void add(int stream, long timestamp, float x, float y, float z, int label) {
+        int slot = append(stream, timestamp, label);
+        if (slot < 0) return;
+
+        int valueIndex = slot * channels;
+        values[valueIndex] = x;
+        if (channels > 1) values[valueIndex + 1] = y;
+        if (channels > 2) values[valueIndex + 2] = z;
+
+        advance(false);
+    }
+
+    /**
+     * Adds a sample and emits all ticks which are complete afterwards.
+     *
+     * @param stream : int : Index of the stream.
+     * @param timestamp : long : Event timestamp in nanoseconds.
+     * @param sample : float[] : Array with the values.
+     * @param offset : int : Index of the first value of the sample.
+     * @param label : int : Label of the sample.
+     */
+    public void add(int stream, long timestamp, float[] sample, int offset, int label) {
+        int slot = append(stream, timestamp, label);
+        if (slot < 0) return;
+
+        System.arraycopy(sample, offset, values, slot * channels, channels);
+
+        advance(false);
+    }
+
+    /**
+     * Emits the ticks up to the newest sample without waiting for lagging streams, e.g. when
+     * the recording stops.
+     */
+    public void flush() {
+        advance(true);
+    }
+
+    /**
+     * Discards all buffered samples and restarts the clock.
+     */
+    public void reset() {
+        Arrays.fill(head, 0);
+        Arrays.fill(count, 0);
+        started = false;
+        newestTimestamp = Long.MIN_VALUE;
+    }
+
+    /**
+     * Stores the timestamp and label and returns the slot for the values or -1 if the sample
+     * is older than the last one of the stream.
+     */
+    private int append(int stream, long timestamp, int label) {
+        int base = stream * capacity;
+        int n = count[stream];
+
+        if (n > 0 && timestamp <= timestamps[base + (head[stream] + n - 1) % capacity]) {
+            outOfOrderSamples++;
+            return -1;
+        }
+
+        if (n == capacity) {
+            head[stream] = (head[stream] + 1) % capacity;
+            n--;
+            droppedSamples++;
+        }
+
+        int slot = base + (head[stream] + n) % capacity;
+        timestamps[slot] = timestamp;
+        labels[slot] = label;
+        count[stream] = n + 1;
+
+        if (timestamp > newestTimestamp) newestTimestamp = timestamp;
+
+        return slot;
+    }
+
+    private void advance(boolean force) {
+        if (!started && !start(force)) return;
+
+        while (force ? nextTick <= newestTimestamp : isComplete(nextTick) || newestTimestamp - nextTick >= maxLagNanos) {
+            emit(nextTick);
+            nextTick += tickNanos;
+            discardUsedSamples();
+        }
+    }
+
+    /**
+     * Starts the clock at the first tick every stream has data for. Waits for missing streams
+     * until maxLag has passed.
+     */
+    private boolean start(boolean force) {
+        long first = Long.MIN_VALUE;
+        long oldest = Long.MAX_VALUE;
+        boolean allStreams = true;
+
+        for (int s = 0; s < streams; s++) {
+            if (count[s] == 0) {
+                allStreams = false;
+                continue;
+            }
+
+            long t = timestamps[s * capacity + head[s]];
+            first = Math.max(first, t);
+            oldest = Math.min(oldest, t);
+        }
+
+        if (first == Long.MIN_VALUE) return false;
+        if (!allStreams && !force && newestTimestamp - oldest < maxLagNanos) return false;
+
+        // First tick on the grid at or after the first sample
+        nextTick = ceilToTick(first);
+        started = true;
+
+        return true;
+    }
+
+    private long ceilToTick(long timestamp) {
+        long tick = timestamp - timestamp % tickNanos;
+        if (tick < timestamp) tick += tickNanos;
+        return tick;
+    }
+
+    /**
+     * Returns true if every stream has a sample at or after the tick.
+     */
+    private boolean isComplete(long tick) {
+        for (int s = 0; s < streams; s++) {
+            int n = count[s];
+            if (n == 0 || timestamps[s * capacity + (head[s] + n - 1) % capacity] < tick) return false;
+        }
+
+        return true;
+    }
+
+    private void emit(long tick) {
+        int label = -1;
+
+        for (int s = 0; s < streams; s++) {
+            int base = s * capacity;
+            int n = count[s];
+            int out = s * channels;
+
+            if (n == 0) {
+                Arrays.fill(tickValues, out, out + channels, Float.NaN);
+                continue;
+            }
+
+            // Last sample at or before the tick, the first one if the stream starts later
+            int i = 0;
+            while (i + 1 < n && timestamps[base + (head[s] + i + 1) % capacity] <= tick) i++;
+
+            int lower = base + (head[s] + i) % capacity;
+            long lowerTime = timestamps[lower];
+
+            if (label < 0) label = labels[lower];
+
+            if (i + 1 < n && lowerTime < tick) {
+                // Interpolate between lower and upper
+                int upper = base + (head[s] + i + 1) % capacity;
+                float fraction = (float) (tick - lowerTime) / (float) (timestamps[upper] - lowerTime);
+
+                for (int c = 0; c < channels; c++) {
+                    float a = values[lower * channels + c];
+                    float b = values[upper * channels + c];
+                    tickValues[out + c] = a + (b - a) * fraction;
+                }
+            } else {
+                // Hold the value
+                System.arraycopy(values, lower * channels, tickValues, out, channels);
+            }
+        }
+
+        listener.onTick(tick, tickValues, label);
+    }
+
+    /**
+     * Drops the samples which aren't needed for the next tick anymore. The last sample before
+     * the next tick is kept for the interpolation.
+     */
+    private void discardUsedSamples() {
+        for (int s = 0; s < streams; s++) {
+            int base = s * capacity;
+
+            while (count[s] > 1 && timestamps[base + (head[s] + 1) % capacity] <= nextTick) {
+                head[s] = (head[s] + 1) % capacity;
+                count[s]--;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of samples which were dropped because a stream buffer was full.
+     */
+    public long getDroppedSamples() {
+        return droppedSamples;
+    }
+
+    /**
+     * Returns the number of samples which were ignored because they were older than the
+     * previous sample of the same stream.
+     */
+    public long getOutOfOrderSamples() {
+        return outOfOrderSamples;
+    }
+
+    public int getStreams() {
+        return streams;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public long getTickNanos() {
+        return tickNanos;
+    }
+}
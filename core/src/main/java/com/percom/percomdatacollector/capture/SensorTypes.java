@@ -0,0 +1,31 @@
+package com.percom.percomdatacollector.capture;
+
+/**
+ * Sensor types of the queued samples. The values are the same as the Android constants
+ * Sensor.TYPE_*, so the sensor callback can queue event.sensor.getType() directly.
+ */
+public final class SensorTypes {
+
+    // Sensor.TYPE_ACCELEROMETER
+    public static final int ACCELEROMETER = 1;
+
+    // Sensor.TYPE_MAGNETIC_FIELD
+    public static final int MAGNETIC_FIELD = 2;
+
+    // Sensor.TYPE_GYROSCOPE
+    public static final int GYROSCOPE = 4;
+
+    // Sensor.TYPE_PRESSURE, only the first value is used
+    public static final int PRESSURE = 6;
+
+    // Sensor.TYPE_GRAVITY
+    public static final int GRAVITY = 9;
+
+    // Sensor.TYPE_LINEAR_ACCELERATION
+    public static final int LINEAR_ACCELERATION = 10;
+
+    // Sensor.TYPE_ROTATION_VECTOR, the first three values (x, y, z of the unit quaternion)
+    public static final int ROTATION_VECTOR = 11;
+
+    private SensorTypes() {}
+}
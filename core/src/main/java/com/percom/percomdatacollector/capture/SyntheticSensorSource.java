@@ -0,0 +1,232 @@
+package com.percom.percomdatacollector.capture;
+
+import java.io.IOException;
+
+/**
+ * Synthesizes reproducible sensor traces as a SensorSource, e.g. to stress the capture pipeline
+ * at rates the phone sensors don't reach. Every sensor delivers samples at a fixed rate, the
+ * samples of all sensors are merged in timestamp order. The values are sine waves of a
+ * walking-like frequency, the accelerometer with gravity on z, so the features aren't constant.
+ *
+ * The timestamps start at System.nanoTime() when the replay starts, like the Android sensor
+ * timestamps. The samples are delivered in blocks of a fixed size, either as fast as possible or
+ * paced by their timestamps. Only paced samples have a meaningful event-to-writer latency.
+ *
+ * With a report latency the samples are delivered like batching hardware FIFOs instead: the
+ * samples of one latency period arrive sensor after sensor, every sensor's burst is one block.
+ * So a stream is up to a report latency behind the others, like on the phone. start() replays on its own thread, replay() on the
+ * calling thread.
+ */
+public class SyntheticSensorSource implements SensorSource {
+
+    // Frequency of the synthesized motion, about the step frequency of walking
+    private static final double MOTION_FREQUENCY_HZ = 2.0;
+
+    // Entries of the sine table, a power of two so the index can be masked
+    private static final int WAVE_SIZE = 1024;
+    private static final int WAVE_MASK = WAVE_SIZE - 1;
+
+    // One period of a sine, computing Math.sin() per sample would dominate the replay
+    private static final float[] WAVE = new float[WAVE_SIZE];
+
+    static {
+        for (int i = 0; i < WAVE_SIZE; i++) {
+            WAVE[i] = (float) Math.sin(2 * Math.PI * i / WAVE_SIZE);
+        }
+    }
+
+    // Standard gravity on the z axis of the accelerometer
+    private static final float GRAVITY = 9.81f;
+
+    // Synthesized sensors and the time between two of their samples
+    private final int[] sensorTypes;
+    private final long[] periodNanos;
+    // Length of the trace
+    private final long durationNanos;
+    // Samples per block
+    private final int blockSize;
+    // Length of a burst of every sensor, 0 to deliver in timestamp order
+    private final long reportLatencyNanos;
+    // true to wait between the blocks like the real sensors
+    private final boolean realTime;
+
+    private volatile boolean stopped = false;
+    private Thread thread = null;
+
+    // Number of synthesized samples
+    private volatile long sampleCount = 0;
+
+    /**
+     * Creates the source.
+     *
+     * @param sensorTypes : int[] : Synthesized sensors, see SensorTypes.
+     * @param ratesHz : double[] : Sample rate of every sensor.
+     * @param durationNanos : long : Length of the trace.
+     * @param blockSize : int : Samples per block.
+     * @param realTime : boolean : true to pace the blocks by the sample timestamps.
+     */
+    public SyntheticSensorSource(int[] sensorTypes, double[] ratesHz, long durationNanos, int blockSize,
+                                 boolean realTime) {
+        this(sensorTypes, ratesHz, durationNanos, blockSize, 0, realTime);
+    }
+
+    /**
+     * Creates the source.
+     *
+     * @param sensorTypes : int[] : Synthesized sensors, see SensorTypes.
+     * @param ratesHz : double[] : Sample rate of every sensor.
+     * @param durationNanos : long : Length of the trace.
+     * @param blockSize : int : Samples per block, only used without a report latency.
+     * @param reportLatencyNanos : long : Length of the burst of every sensor, 0 to deliver all
+     *                           samples in timestamp order.
+     * @param realTime : boolean : true to pace the blocks by the sample timestamps.
+     */
+    public SyntheticSensorSource(int[] sensorTypes, double[] ratesHz, long durationNanos, int blockSize,
+                                 long reportLatencyNanos, boolean realTime) {
+        if (sensorTypes.length == 0) throw new IllegalArgumentException("At least one sensor required");
+        if (sensorTypes.length != ratesHz.length) throw new IllegalArgumentException("One rate per sensor required");
+        if (blockSize < 1) throw new IllegalArgumentException("Block size must be positive");
+        if (reportLatencyNanos < 0) throw new IllegalArgumentException("Report latency must not be negative");
+
+        this.sensorTypes = sensorTypes.clone();
+        this.periodNanos = new long[ratesHz.length];
+
+        for (int i = 0; i < ratesHz.length; i++) {
+            if (!(ratesHz[i] > 0) || ratesHz[i] > 1e9) throw new IllegalArgumentException("Invalid rate: " + ratesHz[i]);
+            periodNanos[i] = Math.round(1e9 / ratesHz[i]);
+        }
+
+        this.durationNanos = durationNanos;
+        this.blockSize = blockSize;
+        this.reportLatencyNanos = reportLatencyNanos;
+        this.realTime = realTime;
+    }
+
+    @Override
+    public void start(final SensorSampleListener listener) throws IOException {
+        if (thread != null) throw new IOException("Replay already started");
+
+        thread = new Thread("SensorSynthesizer") {
+            @Override
+            public void run() {
+                replay(listener);
+            }
+        };
+        thread.start();
+    }
+
+    /**
+     * Delivers the whole trace on the calling thread until it ends or stop() is called.
+     *
+     * @param listener : SensorSampleListener : Receives the samples.
+     */
+    public void replay(SensorSampleListener listener) {
+        int sensors = sensorTypes.length;
+        long startNanos = System.nanoTime();
+        long endNanos = startNanos + durationNanos;
+
+        // Next timestamp and position in the wave of every sensor
+        long[] next = new long[sensors];
+        double[] phase = new double[sensors];
+        double[] phaseStep = new double[sensors];
+
+        for (int i = 0; i < sensors; i++) {
+            next[i] = startNanos;
+            phase[i] = i * WAVE_SIZE / (double) sensors;
+            phaseStep[i] = MOTION_FREQUENCY_HZ * WAVE_SIZE * periodNanos[i] / 1e9;
+        }
+
+        if (reportLatencyNanos > 0) {
+            replayBursts(listener, startNanos, endNanos, next, phase, phaseStep);
+        } else {
+            replayInOrder(listener, endNanos, next, phase, phaseStep);
+        }
+
+        listener.onSourceStopped();
+    }
+
+    /**
+     * Delivers the samples of all sensors in timestamp order in blocks of blockSize.
+     */
+    private void replayInOrder(SensorSampleListener listener, long endNanos, long[] next, double[] phase,
+                               double[] phaseStep) {
+        int inBlock = 0;
+
+        while (!stopped) {
+            // The sensor with the earliest sample, there are only a few
+            int sensor = 0;
+            for (int i = 1; i < next.length; i++) {
+                if (next[i] < next[sensor]) sensor = i;
+            }
+
+            long timestamp = next[sensor];
+            if (timestamp >= endNanos) break;
+
+            deliver(listener, sensor, next, phase, phaseStep);
+
+            if (++inBlock == blockSize) {
+                inBlock = 0;
+
+                if (realTime && !stopped) ReplayClock.sleepUntil(timestamp);
+                listener.onBlockComplete();
+            }
+        }
+
+        if (inBlock > 0) listener.onBlockComplete();
+    }
+
+    /**
+     * Delivers the samples of every report latency period sensor after sensor, one block per
+     * sensor. The period is delivered when it's over, like a FIFO which reaches its latency.
+     */
+    private void replayBursts(SensorSampleListener listener, long startNanos, long endNanos, long[] next,
+                              double[] phase, double[] phaseStep) {
+        for (long periodStart = startNanos; periodStart < endNanos && !stopped; periodStart += reportLatencyNanos) {
+            long periodEnd = Math.min(periodStart + reportLatencyNanos, endNanos);
+
+            if (realTime) ReplayClock.sleepUntil(periodEnd);
+
+            for (int sensor = 0; sensor < next.length && !stopped; sensor++) {
+                if (next[sensor] >= periodEnd) continue;
+
+                while (next[sensor] < periodEnd) deliver(listener, sensor, next, phase, phaseStep);
+                listener.onBlockComplete();
+            }
+        }
+    }
+
+    /**
+     * Delivers the next sample of a sensor and moves it to its following sample.
+     */
+    private void deliver(SensorSampleListener listener, int sensor, long[] next, double[] phase, double[] phaseStep) {
+        int index = (int) phase[sensor];
+        float sin = WAVE[index & WAVE_MASK];
+        float cos = WAVE[(index + WAVE_SIZE / 4) & WAVE_MASK];
+
+        if (sensorTypes[sensor] == SensorTypes.ACCELEROMETER) {
+            listener.onSample(sensorTypes[sensor], next[sensor], 2f * sin, 1.5f * cos, GRAVITY + sin);
+        } else {
+            listener.onSample(sensorTypes[sensor], next[sensor], 0.5f * cos, 0.25f * sin, 0.1f * sin);
+        }
+
+        sampleCount++;
+        next[sensor] += periodNanos[sensor];
+        phase[sensor] += phaseStep[sensor];
+    }
+
+    @Override
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Waits until the replay thread has finished.
+     */
+    public void join() throws InterruptedException {
+        if (thread != null) thread.join();
+    }
+
+    public long getSampleCount() {
+        return sampleCount;
+    }
+}
@@ -0,0 +1,16 @@
+package com.percom.percomdatacollector.capture;
+
+import java.io.IOException;
+
+/**
+ * Receives the errors of a consumer which couldn't write a record. Called on the writer thread.
+ */
+public interface WriteErrorListener {
+
+    /**
+     * Called when a record couldn't be written, flushed or the output couldn't be closed.
+     *
+     * @param e : IOException : The error.
+     */
+    void onWriteError(IOException e);
+}
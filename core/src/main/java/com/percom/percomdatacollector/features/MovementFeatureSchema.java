@@ -0,0 +1,167 @@
+package com.percom.percomdatacollector.features;
+
+import com.percom.percomdatacollector.Files.ArffSchema;
+import com.percom.percomdatacollector.capture.SensorChannel;
+import com.percom.percomdatacollector.capture.SensorRegistry;
+
+/**
+ * Schemas of the detectSportType relation. The per sensor schema has mean, standard deviation,
+ * min and max of one window per axis, the movement type and the sensor. The merged schema has
+ * these features per sensor and axis in one row and the movement type. The raw schema holds
+ * single samples for an offline feature computation. The indices of MOVEMENT_TYPES and SENSORS
+ * are the codes of the nominal attributes. The movement type changes rarely, binary captures
+ * store it as run-length segments.
+ *
+ * The sensors of a schema are given by a SensorRegistry, their order is the order of the
+ * columns and the codes of the sensor attribute. The methods without a registry create the
+ * schemas of SensorRegistry.DEFAULT.
+ */
+public final class MovementFeatureSchema {
+
+    // Axis names used for the attribute names
+    public static final String[] AXES = {"X", "Y", "Z"};
+
+    // Movement types, the index is the label code which is queued with every sample
+    public static final String[] MOVEMENT_TYPES = {"walking", "jogging", "sport"};
+    public static final int MOVEMENT_WALKING = 0;
+    public static final int MOVEMENT_JOGGING = 1;
+    public static final int MOVEMENT_SPORT   = 2;
+
+    // Values of the sensor attribute of SensorRegistry.DEFAULT
+    public static final String[] SENSORS = {"accelerometer", "gyroscope"};
+    public static final int SENSOR_ACCELEROMETER = 0;
+    public static final int SENSOR_GYROSCOPE     = 1;
+
+    private MovementFeatureSchema() {}
+
+    /**
+     * Creates the per sensor schema of the detectSportType relation.
+     */
+    public static ArffSchema create() {
+        return create(SensorRegistry.DEFAULT);
+    }
+
+    /**
+     * Creates the per sensor schema of the detectSportType relation for the given sensors.
+     *
+     * @param sensors : SensorRegistry : Values of the sensor attribute.
+     */
+    public static ArffSchema create(SensorRegistry sensors) {
+        ArffSchema schema = new ArffSchema("detectSportType");
+
+        for (String axis : AXES) {
+            schema.addNumericAttribute("mean" + axis)
+                    .addNumericAttribute("stdDeviation" + axis)
+                    .addNumericAttribute("min" + axis)
+                    .addNumericAttribute("max" + axis);
+        }
+
+        return schema.addNominalAttribute("movementType", MOVEMENT_TYPES, true)
+                .addNominalAttribute("sensor", sensors.getNames());
+    }
+
+    /**
+     * Creates the merged schema of the detectSportType relation: the features of all sensors
+     * for the same window of the common clock, e.g. meanAccX ... maxGyrZ, and the movement type.
+     */
+    public static ArffSchema createMerged() {
+        return createMerged(SensorRegistry.DEFAULT);
+    }
+
+    /**
+     * Creates the merged schema for the given sensors, e.g. meanAccX ... maxPrs.
+     *
+     * @param sensors : SensorRegistry : Sensors in the order of their columns.
+     */
+    public static ArffSchema createMerged(SensorRegistry sensors) {
+        return addMergedTimeFeatures(new ArffSchema("detectSportType"), sensors)
+                .addNominalAttribute("movementType", MOVEMENT_TYPES, true);
+    }
+
+    /**
+     * Creates the merged schema with frequency-domain features: behind the statistics every
+     * sensor and axis gets the dominant frequency, spectral energy, spectral entropy and the
+     * power of every band, e.g. dominantFrequencyAccX ... bandPower2GyrZ.
+     *
+     * @param bandCount : int : Number of frequency bands.
+     */
+    public static ArffSchema createMergedWithSpectrum(int bandCount) {
+        return createMergedWithSpectrum(SensorRegistry.DEFAULT, bandCount);
+    }
+
+    /**
+     * Creates the merged schema with frequency-domain features for the given sensors. Only the
+     * sensors with SensorChannel.isSpectral() get the frequency-domain features.
+     *
+     * @param sensors : SensorRegistry : Sensors in the order of their columns.
+     * @param bandCount : int : Number of frequency bands.
+     */
+    public static ArffSchema createMergedWithSpectrum(SensorRegistry sensors, int bandCount) {
+        ArffSchema schema = addMergedTimeFeatures(new ArffSchema("detectSportType"), sensors);
+
+        for (int stream = 0; stream < sensors.size(); stream++) {
+            SensorChannel channel = sensors.getChannel(stream);
+            if (!channel.isSpectral()) continue;
+
+            String sensor = channel.getPrefix();
+
+            for (int a = 0; a < channel.getAxes(); a++) {
+                String axis = channel.getAxisName(a);
+
+                schema.addNumericAttribute("dominantFrequency" + sensor + axis)
+                        .addNumericAttribute("spectralEnergy" + sensor + axis)
+                        .addNumericAttribute("spectralEntropy" + sensor + axis);
+
+                for (int band = 0; band < bandCount; band++) {
+                    schema.addNumericAttribute("bandPower" + band + sensor + axis);
+                }
+            }
+        }
+
+        return schema.addNominalAttribute("movementType", MOVEMENT_TYPES, true);
+    }
+
+    private static ArffSchema addMergedTimeFeatures(ArffSchema schema, SensorRegistry sensors) {
+        for (int stream = 0; stream < sensors.size(); stream++) {
+            SensorChannel channel = sensors.getChannel(stream);
+            String sensor = channel.getPrefix();
+
+            for (int a = 0; a < channel.getAxes(); a++) {
+                String axis = channel.getAxisName(a);
+
+                schema.addNumericAttribute("mean" + sensor + axis)
+                        .addNumericAttribute("stdDeviation" + sensor + axis)
+                        .addNumericAttribute("min" + sensor + axis)
+                        .addNumericAttribute("max" + sensor + axis);
+            }
+        }
+
+        return schema;
+    }
+
+    /**
+     * Creates the schema of raw sensor samples: valueX, valueY and valueZ of one sample, the
+     * sensor and the movement type. The timestamp is stored with every record. Features of
+     * any window can be computed from it later.
+     */
+    public static ArffSchema createRawSamples() {
+        return createRawSamples(SensorRegistry.DEFAULT);
+    }
+
+    /**
+     * Creates the schema of raw sensor samples of the given sensors. Sensors with less than
+     * three values store 0 for the unused ones.
+     *
+     * @param sensors : SensorRegistry : Values of the sensor attribute.
+     */
+    public static ArffSchema createRawSamples(SensorRegistry sensors) {
+        ArffSchema schema = new ArffSchema("sensorSamples");
+
+        for (String axis : AXES) {
+            schema.addNumericAttribute("value" + axis);
+        }
+
+        return schema.addNominalAttribute("sensor", sensors.getNames())
+                .addNominalAttribute("movementType", MOVEMENT_TYPES, true);
+    }
+}
@@ -0,0 +1,74 @@
+package com.percom.percomdatacollector.features;
+
+/**
+ * The statistics of the detectSportType relation (mean, stdDeviation, min, max) over a range
+ * of sensor values.
+ */
+public final class SensorStatistics {
+
+    private SensorStatistics() {}
+
+    /**
+     * Calculates the arithmetic mean.
+     *
+     * @param values : float[] : Array with the values.
+     * @param offset : int : Index of the first value.
+     * @param length : int : Number of values, at least one.
+     * @return float : The mean.
+     */
+    public static float calcMean(float[] values, int offset, int length) {
+        double sum = 0;
+
+        for (int i = offset; i < offset + length; i++) {
+            sum += values[i];
+        }
+
+        return (float) (sum / length);
+    }
+
+    /**
+     * Calculates the population standard deviation.
+     *
+     * @param values : float[] : Array with the values.
+     * @param offset : int : Index of the first value.
+     * @param length : int : Number of values, at least one.
+     * @return double : The standard deviation.
+     */
+    public static double calcStdDeviation(float[] values, int offset, int length) {
+        double mean = calcMean(values, offset, length);
+        double variance = 0;
+
+        for (int i = offset; i < offset + length; i++) {
+            double delta = values[i] - mean;
+            variance += delta * delta;
+        }
+
+        return Math.sqrt(variance / length);
+    }
+
+    /**
+     * Finds the smallest value.
+     */
+    public static float findMin(float[] values, int offset, int length) {
+        float min = values[offset];
+
+        for (int i = offset + 1; i < offset + length; i++) {
+            if (values[i] < min) min = values[i];
+        }
+
+        return min;
+    }
+
+    /**
+     * Finds the largest value.
+     */
+    public static float findMax(float[] values, int offset, int length) {
+        float max = values[offset];
+
+        for (int i = offset + 1; i < offset + length; i++) {
+            if (values[i] > max) max = values[i];
+        }
+
+        return max;
+    }
+}
@@ -0,0 +1,303 @@
+package com.percom.percomdatacollector.features;
+
+/**
+ * Calculates mean, stdDeviation, min and max per channel (e.g. x, y, z) over a sliding window
+ * of the last N samples. The window moves by a configurable hop, so 128 samples with a hop of
+ * 64 give windows with 50% overlap.
+ *
+ * Every channel has a circular buffer of primitive floats. Mean and variance are updated with
+ * Welford's method when a sample enters or leaves the window, min and max are kept in monotonic
+ * deques. Adding a sample therefore costs O(1) and never allocates. To avoid rounding drift the
+ * running sums are recalculated from the buffer once per window length.
+ *
+ * The samples are numbered from the number given to reset(), 0 by default. The buffer slot of
+ * a sample, the end of every window and the recalculation only depend on its number, so two
+ * extractors which number the samples the same way, e.g. by the tick of a resampled stream,
+ * return exactly the same features once both saw two window lengths of the same samples.
+ *
+ * An instance is not thread safe.
+ */
+public class SlidingWindowFeatureExtractor {
+
+    // Default window: 128 samples with 50% overlap
+    public static final int DEFAULT_WINDOW_LENGTH = 128;
+    public static final int DEFAULT_HOP = 64;
+
+    // Configuration
+    private final int channels;
+    private final int windowLength;
+    private final int hop;
+
+    // Circular buffers, the values of channel c start at c * windowLength
+    private final float[] values;
+    // Timestamps of the buffered samples
+    private final long[] timestamps;
+
+    // Running mean and sum of squared deviations per channel (Welford)
+    private final double[] mean;
+    private final double[] m2;
+
+    // Monotonic deques with sample numbers, the deque of channel c starts at c * windowLength
+    private final long[] minDeque;
+    private final long[] maxDeque;
+    private final int[] minHead;
+    private final int[] minSize;
+    private final int[] maxHead;
+    private final int[] maxSize;
+
+    // Number of the next sample
+    private long nextSample = 0;
+    // Number of samples since the last reset
+    private long sampleCount = 0;
+
+    /**
+     * Creates an extractor with the default window for x, y and z.
+     */
+    public SlidingWindowFeatureExtractor() {
+        this(3, DEFAULT_WINDOW_LENGTH, DEFAULT_HOP);
+    }
+
+    /**
+     * Creates an extractor.
+     *
+     * @param channels : int : Number of values per sample.
+     * @param windowLength : int : Number of samples per window.
+     * @param hop : int : Number of samples the window moves, 1 to windowLength.
+     */
+    public SlidingWindowFeatureExtractor(int channels, int windowLength, int hop) {
+        if (channels < 1) throw new IllegalArgumentException("At least one channel required");
+        if (windowLength < 1) throw new IllegalArgumentException("Window length must be positive");
+        if (hop < 1 || hop > windowLength) throw new IllegalArgumentException("Hop must be between 1 and the window length");
+
+        this.channels = channels;
+        this.windowLength = windowLength;
+        this.hop = hop;
+
+        this.values = new float[channels * windowLength];
+        this.timestamps = new long[windowLength];
+        this.mean = new double[channels];
+        this.m2 = new double[channels];
+        this.minDeque = new long[channels * windowLength];
+        this.maxDeque = new long[channels * windowLength];
+        this.minHead = new int[channels];
+        this.minSize = new int[channels];
+        this.maxHead = new int[channels];
+        this.maxSize = new int[channels];
+
+        reset();
+    }
+
+    /**
+     * Adds a sample with three channels.
+     *
+     * @return boolean : true if a window is complete, its features can be read with the getters.
+     */
+    public boolean add(long timestamp, float x, float y, float z) {
+        if (channels != 3) throw new IllegalStateException("Extractor has " + channels + " channels");
+
+        long sample = nextSample;
+        int slot = (int) (sample % windowLength);
+
+        addValue(0, sample, slot, x);
+        addValue(1, sample, slot, y);
+        addValue(2, sample, slot, z);
+
+        return completeSample(timestamp, slot);
+    }
+
+    /**
+     * Adds a sample with one value per channel.
+     *
+     * @param timestamp : long : Timestamp of the sample.
+     * @param sample : float[] : Values, one per channel.
+     * @param offset : int : Index of the value of the first channel.
+     * @return boolean : true if a window is complete, its features can be read with the getters.
+     */
+    public boolean add(long timestamp, float[] sample, int offset) {
+        long number = nextSample;
+        int slot = (int) (number % windowLength);
+
+        for (int c = 0; c < channels; c++) {
+            addValue(c, number, slot, sample[offset + c]);
+        }
+
+        return completeSample(timestamp, slot);
+    }
+
+    /**
+     * Discards the current window, e.g. when the movement type changes.
+     */
+    public void reset() {
+        reset(0);
+    }
+
+    /**
+     * Discards the current window and numbers the following samples from firstSample on. A
+     * window is complete when it's full and the number of its newest sample n has
+     * (n + 1 - windowLength) % hop == 0.
+     *
+     * @param firstSample : long : Number of the next sample, not negative.
+     */
+    public void reset(long firstSample) {
+        if (firstSample < 0) throw new IllegalArgumentException("Sample number must not be negative");
+
+        nextSample = firstSample;
+        sampleCount = 0;
+
+        for (int c = 0; c < channels; c++) {
+            mean[c] = 0;
+            m2[c] = 0;
+            minHead[c] = 0;
+            minSize[c] = 0;
+            maxHead[c] = 0;
+            maxSize[c] = 0;
+        }
+    }
+
+    private void addValue(int channel, long sample, int slot, float value) {
+        int base = channel * windowLength;
+        boolean full = sampleCount >= windowLength;
+
+        // Welford: remove the value which leaves the window
+        if (full) {
+            double old = values[base + slot];
+            double n = windowLength - 1;
+            double delta = old - mean[channel];
+            mean[channel] -= delta / n;
+            m2[channel] -= delta * (old - mean[channel]);
+        }
+
+        values[base + slot] = value;
+
+        // Welford: add the new value
+        double n = full ? windowLength : sampleCount + 1;
+        double delta = value - mean[channel];
+        mean[channel] += delta / n;
+        m2[channel] += delta * (value - mean[channel]);
+
+        long oldest = sample - windowLength + 1;
+
+        // Min deque: increasing values from head to tail
+        int head = minHead[channel];
+        int size = minSize[channel];
+        while (size > 0 && valueOf(base, minDeque[base + (head + size - 1) % windowLength]) >= value) size--;
+        while (size > 0 && minDeque[base + head] < oldest) {
+            head = (head + 1) % windowLength;
+            size--;
+        }
+        minDeque[base + (head + size) % windowLength] = sample;
+        minHead[channel] = head;
+        minSize[channel] = size + 1;
+
+        // Max deque: decreasing values from head to tail
+        head = maxHead[channel];
+        size = maxSize[channel];
+        while (size > 0 && valueOf(base, maxDeque[base + (head + size - 1) % windowLength]) <= value) size--;
+        while (size > 0 && maxDeque[base + head] < oldest) {
+            head = (head + 1) % windowLength;
+            size--;
+        }
+        maxDeque[base + (head + size) % windowLength] = sample;
+        maxHead[channel] = head;
+        maxSize[channel] = size + 1;
+    }
+
+    private float valueOf(int base, long sample) {
+        return values[base + (int) (sample % windowLength)];
+    }
+
+    private boolean completeSample(long timestamp, int slot) {
+        timestamps[slot] = timestamp;
+        nextSample++;
+        sampleCount++;
+
+        if (sampleCount < windowLength) return false;
+
+        if (nextSample % windowLength == 0) rebuild();
+
+        return (nextSample - windowLength) % hop == 0;
+    }
+
+    /**
+     * Recalculates mean and variance from the full buffer to remove the rounding drift.
+     */
+    private void rebuild() {
+        for (int c = 0; c < channels; c++) {
+            int base = c * windowLength;
+            double stdDeviation = SensorStatistics.calcStdDeviation(values, base, windowLength);
+
+            mean[c] = SensorStatistics.calcMean(values, base, windowLength);
+            m2[c] = stdDeviation * stdDeviation * windowLength;
+        }
+    }
+
+    public float getMean(int channel) {
+        return (float) mean[channel];
+    }
+
+    public float getStdDeviation(int channel) {
+        double variance = m2[channel] / Math.min(sampleCount, windowLength);
+
+        return variance > 0 ? (float) Math.sqrt(variance) : 0f;
+    }
+
+    public float getMin(int channel) {
+        return values[channel * windowLength + (int) (minDeque[channel * windowLength + minHead[channel]] % windowLength)];
+    }
+
+    public float getMax(int channel) {
+        return values[channel * windowLength + (int) (maxDeque[channel * windowLength + maxHead[channel]] % windowLength)];
+    }
+
+    /**
+     * Copies the values of a channel in the window from the oldest to the newest sample, e.g.
+     * for a spectral analysis.
+     *
+     * @param channel : int : The channel.
+     * @param dst : float[] : Destination, needs room for the window length.
+     * @param offset : int : Index of the oldest value in dst.
+     * @return int : Number of copied values, less than the window length before the first
+     *               window is complete.
+     */
+    public int copyWindow(int channel, float[] dst, int offset) {
+        int base = channel * windowLength;
+        int count = (int) Math.min(sampleCount, windowLength);
+        int oldest = oldestSlot();
+        int first = Math.min(count, windowLength - oldest);
+
+        System.arraycopy(values, base + oldest, dst, offset, first);
+        System.arraycopy(values, base, dst, offset + first, count - first);
+
+        return count;
+    }
+
+    private int oldestSlot() {
+        return (int) ((nextSample - Math.min(sampleCount, windowLength)) % windowLength);
+    }
+
+    /**
+     * Returns the timestamp of the oldest sample in the window.
+     */
+    public long getWindowStartTimestamp() {
+        return timestamps[oldestSlot()];
+    }
+
+    /**
+     * Returns the timestamp of the newest sample in the window.
+     */
+    public long getWindowEndTimestamp() {
+        return timestamps[(int) ((nextSample - 1) % windowLength)];
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public int getWindowLength() {
+        return windowLength;
+    }
+
+    public int getHop() {
+        return hop;
+    }
+}
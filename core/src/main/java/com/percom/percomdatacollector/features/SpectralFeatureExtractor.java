@@ -0,0 +1,217 @@
+package com.percom.percomdatacollector.features;
+
+/**
+ * Frequency-domain features of a window of samples: dominant frequency, spectral energy,
+ * spectral entropy and the power in a few frequency bands. Walking and jogging differ mostly
+ * in the step frequency, which the time-domain statistics don't show.
+ *
+ * The window is freed from its mean, weighted with a Hann window, zero-padded to a power of
+ * two and transformed with an iterative radix-2 FFT. Twiddle factors, bit-reversal order and
+ * the Hann weights are computed once in the constructor, the transform works in place on
+ * reused float arrays. compute() therefore never allocates and can run for every window on
+ * the writer thread.
+ *
+ * The spectrum uses the bins 1 to size / 2, the DC bin is left out because the mean was
+ * removed. Energy and band powers are normalized by the FFT size.
+ *
+ * An instance is not thread safe.
+ */
+public class SpectralFeatureExtractor {
+
+    // Default band edges in Hz: 0.5 - 2 Hz, 2 - 4 Hz and 4 - 8 Hz
+    public static final float[] DEFAULT_BAND_EDGES_HZ = {0.5f, 2f, 4f, 8f};
+
+    // FFT size, a power of two
+    private final int size;
+    private final int log2Size;
+
+    // Number of samples per window, at most size
+    private final int windowLength;
+
+    // Frequency of one FFT bin in Hz
+    private final float binWidthHz;
+
+    // Precomputed tables
+    private final float[] cos;
+    private final float[] sin;
+    private final int[] bitReversed;
+    private final float[] hann;
+
+    // First bin of every band and the bin behind the last band
+    private final int[] bandBins;
+
+    // Work arrays, reused for every window
+    private final float[] re;
+    private final float[] im;
+    private final float[] power;
+
+    // Results of the last window
+    private float dominantFrequency;
+    private float energy;
+    private float entropy;
+    private final float[] bandPower;
+
+    /**
+     * Creates an extractor.
+     *
+     * @param windowLength : int : Number of samples per window, at least 3. The Hann window of
+     *                     2 samples is zero and the FFT of size 2 has a single bin, which has
+     *                     no entropy to normalize.
+     * @param sampleRateHz : float : Rate of the samples, e.g. the resampling rate.
+     * @param bandEdgesHz : float[] : Ascending band edges, n edges give n - 1 bands.
+     */
+    public SpectralFeatureExtractor(int windowLength, float sampleRateHz, float[] bandEdgesHz) {
+        if (windowLength < 3) throw new IllegalArgumentException("Window needs at least 3 samples");
+        if (bandEdgesHz.length < 2) throw new IllegalArgumentException("At least one band required");
+
+        int log2 = 1;
+        while ((1 << log2) < windowLength) log2++;
+
+        this.size = 1 << log2;
+        this.log2Size = log2;
+        this.windowLength = windowLength;
+        this.binWidthHz = sampleRateHz / size;
+
+        // Twiddle factors of the largest stage, the smaller stages use every n-th one
+        this.cos = new float[size / 2];
+        this.sin = new float[size / 2];
+        for (int k = 0; k < size / 2; k++) {
+            double angle = -2 * Math.PI * k / size;
+            cos[k] = (float) Math.cos(angle);
+            sin[k] = (float) Math.sin(angle);
+        }
+
+        this.bitReversed = new int[size];
+        for (int i = 0; i < size; i++) {
+            bitReversed[i] = Integer.reverse(i) >>> (32 - log2);
+        }
+
+        this.hann = new float[windowLength];
+        for (int i = 0; i < windowLength; i++) {
+            hann[i] = (float) (0.5 - 0.5 * Math.cos(2 * Math.PI * i / (windowLength - 1)));
+        }
+
+        this.bandBins = new int[bandEdgesHz.length];
+        for (int b = 0; b < bandEdgesHz.length; b++) {
+            int bin = (int) Math.ceil(bandEdgesHz[b] / binWidthHz);
+            bandBins[b] = Math.max(1, Math.min(bin, size / 2 + 1));
+        }
+
+        this.re = new float[size];
+        this.im = new float[size];
+        this.power = new float[size / 2 + 1];
+        this.bandPower = new float[bandEdgesHz.length - 1];
+    }
+
+    /**
+     * Computes the features of one window.
+     *
+     * @param samples : float[] : Samples of the window from the oldest to the newest.
+     * @param offset : int : Index of the oldest sample.
+     * @param mean : float : Mean of the window, it's removed before the transform.
+     */
+    public void compute(float[] samples, int offset, float mean) {
+        // Windowed samples in bit-reversed order, the rest is zero padding
+        for (int i = 0; i < size; i++) {
+            int j = bitReversed[i];
+            re[i] = j < windowLength ? (samples[offset + j] - mean) * hann[j] : 0f;
+            im[i] = 0f;
+        }
+
+        transform();
+
+        // Power spectrum of the positive frequencies
+        float total = 0f;
+        int peak = 1;
+
+        for (int k = 1; k <= size / 2; k++) {
+            float p = (re[k] * re[k] + im[k] * im[k]) / size;
+            power[k] = p;
+            total += p;
+
+            if (p > power[peak]) peak = k;
+        }
+
+        energy = total;
+        dominantFrequency = total > 0f ? peak * binWidthHz : 0f;
+
+        // Shannon entropy of the normalized spectrum, 0 for a pure tone and 1 for white noise
+        float sum = 0f;
+        if (total > 0f) {
+            for (int k = 1; k <= size / 2; k++) {
+                float p = power[k] / total;
+                if (p > 0f) sum -= p * (float) Math.log(p);
+            }
+            sum /= (float) Math.log(size / 2);
+        }
+        entropy = sum;
+
+        for (int b = 0; b < bandPower.length; b++) {
+            float bandSum = 0f;
+            for (int k = bandBins[b]; k < bandBins[b + 1]; k++) bandSum += power[k];
+            bandPower[b] = bandSum;
+        }
+    }
+
+    /**
+     * Iterative radix-2 decimation-in-time FFT on re and im, the input is in bit-reversed order.
+     */
+    private void transform() {
+        for (int stage = 1; stage <= log2Size; stage++) {
+            int span = 1 << stage;
+            int half = span >>> 1;
+            int twiddleStep = size / span;
+
+            for (int start = 0; start < size; start += span) {
+                for (int k = 0; k < half; k++) {
+                    float wr = cos[k * twiddleStep];
+                    float wi = sin[k * twiddleStep];
+
+                    int even = start + k;
+                    int odd = even + half;
+
+                    float tr = wr * re[odd] - wi * im[odd];
+                    float ti = wr * im[odd] + wi * re[odd];
+
+                    re[odd] = re[even] - tr;
+                    im[odd] = im[even] - ti;
+                    re[even] += tr;
+                    im[even] += ti;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the frequency of the strongest bin in Hz.
+     */
+    public float getDominantFrequency() {
+        return dominantFrequency;
+    }
+
+    public float getEnergy() {
+        return energy;
+    }
+
+    /**
+     * Returns the spectral entropy normalized to 0 .. 1.
+     */
+    public float getEntropy() {
+        return entropy;
+    }
+
+    public float getBandPower(int band) {
+        return bandPower[band];
+    }
+
+    public int getBandCount() {
+        return bandPower.length;
+    }
+
+    /**
+     * Returns the FFT size, the window length rounded up to a power of two.
+     */
+    public int getSize() {
+        return size;
+    }
+}
@@ -0,0 +1,117 @@
+package com.percom.percomdatacollector.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations in nanoseconds with logarithmic buckets. Every power of two
+ * is split into SUB_BUCKETS linear buckets, so a recorded value is known with a relative error
+ * of at most 1 / SUB_BUCKETS (12.5%) and the whole range up to MAX_VALUE needs only a few
+ * hundred counters. Recording a value costs a few atomic increments and never allocates.
+ *
+ * Any number of threads may record at the same time. The getters can be called from any thread
+ * while values are recorded, they see a consistent count only when no thread records.
+ */
+public class LatencyHistogram {
+
+    // Linear buckets per power of two
+    public static final int SUB_BUCKETS = 8;
+    private static final int SUB_BUCKET_BITS = 3;
+
+    // Largest value which is counted exactly, larger values are counted as MAX_VALUE (~18 min)
+    public static final long MAX_VALUE = (1L << 40) - 1;
+
+    // Values below SUB_BUCKETS get one bucket each, every following power of two SUB_BUCKETS
+    private static final int BUCKET_COUNT = (40 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Counts one value.
+     *
+     * @param nanos : long : Duration in nanoseconds, negative values are counted as 0.
+     */
+    public void record(long nanos) {
+        long value = nanos < 0 ? 0 : Math.min(nanos, MAX_VALUE);
+
+        buckets.incrementAndGet(bucketIndex(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+
+        long currentMax = max.get();
+        while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+            currentMax = max.get();
+        }
+    }
+
+    /**
+     * Returns the bucket of a value between 0 and MAX_VALUE.
+     */
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Returns the largest value which is counted in a bucket.
+     */
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) return index;
+
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = index % SUB_BUCKETS;
+
+        return ((SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    /**
+     * Returns the value below which the given fraction of the recorded values lies. The result
+     * is the upper bound of the bucket, so it's never lower than the exact percentile.
+     *
+     * @param fraction : double : Fraction between 0 and 1, e.g. 0.99 for the 99th percentile.
+     * @return long : Duration in nanoseconds, 0 if nothing was recorded.
+     */
+    public long getPercentile(double fraction) {
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            total += buckets.get(i);
+        }
+
+        if (total == 0) return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) return Math.min(bucketUpperBound(i), getMax());
+        }
+
+        return getMax();
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Returns the mean of the recorded values in nanoseconds.
+     */
+    public double getMean() {
+        long n = count.get();
+
+        return n > 0 ? (double) sum.get() / n : 0;
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+}
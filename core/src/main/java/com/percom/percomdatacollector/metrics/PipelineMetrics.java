@@ -0,0 +1,253 @@
+package com.percom.percomdatacollector.metrics;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histograms and event counters of one recording session. The capture pipeline records
+ * into it while it runs, the UI reads it and writeReport() dumps it as text, so the numbers of
+ * two builds can be compared under the same load.
+ *
+ * The stages are measured where they happen:
+ * - callback: duration of the sensor callback (sensor thread)
+ * - queueWait: time a sample waits in the SampleRingBuffer (offer to drain)
+ * - eventToWriter: age of a sample when the writer thread takes it, measured against the
+ *   sensor timestamp with the clock of the sensor events
+ * - serialization: computing the features of a window and encoding the record
+ * - write: appending a record to the output
+ * - flush: the group commit check after every batch, includes the write to the file
+ *
+ * The sample counters are kept per sensor type, the written records per movement type. Every
+ * counter has a single writer thread, so a counter update is a plain read and an ordered write
+ * without a CAS.
+ */
+public class PipelineMetrics {
+
+    // Counters exist for the sensor types 0 to SENSOR_SLOTS - 1, other types are counted in slot 0
+    public static final int SENSOR_SLOTS = 64;
+
+    // Records are counted for the labels 0 to LABEL_SLOTS - 1, other labels are counted in slot 0
+    public static final int LABEL_SLOTS = 16;
+
+    /**
+     * Clock of the sensor timestamps, e.g. SystemClock.elapsedRealtimeNanos() on Android.
+     */
+    public interface EventClock {
+        long nanoTime();
+    }
+
+    // Uses System.nanoTime(), for sources whose timestamps come from it
+    public static final EventClock SYSTEM_CLOCK = new EventClock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    private final EventClock eventClock;
+
+    // Latency of the stages
+    private final LatencyHistogram callback = new LatencyHistogram();
+    private final LatencyHistogram queueWait = new LatencyHistogram();
+    private final LatencyHistogram eventToWriter = new LatencyHistogram();
+    private final LatencyHistogram serialization = new LatencyHistogram();
+    private final LatencyHistogram write = new LatencyHistogram();
+    private final LatencyHistogram flush = new LatencyHistogram();
+
+    // Counters per sensor type, received and dropped by the sensor thread, written by the writer thread
+    private final AtomicLongArray received = new AtomicLongArray(SENSOR_SLOTS);
+    private final AtomicLongArray dropped = new AtomicLongArray(SENSOR_SLOTS);
+    private final AtomicLongArray written = new AtomicLongArray(SENSOR_SLOTS);
+
+    // Records per label, written by the writer thread
+    private final AtomicLongArray records = new AtomicLongArray(LABEL_SLOTS);
+
+    // Start of the session for the throughput
+    private final long startNanos;
+
+    /**
+     * Creates the metrics for sensor timestamps from System.nanoTime().
+     */
+    public PipelineMetrics() {
+        this(SYSTEM_CLOCK);
+    }
+
+    /**
+     * Creates the metrics.
+     *
+     * @param eventClock : EventClock : Clock of the sensor timestamps.
+     */
+    public PipelineMetrics(EventClock eventClock) {
+        this.eventClock = eventClock;
+        this.startNanos = System.nanoTime();
+    }
+
+    private static int slot(int sensorType) {
+        return sensorType >= 0 && sensorType < SENSOR_SLOTS ? sensorType : 0;
+    }
+
+    private static void increment(AtomicLongArray counters, int sensorType) {
+        int slot = slot(sensorType);
+        counters.lazySet(slot, counters.get(slot) + 1);
+    }
+
+    private static int labelSlot(int label) {
+        return label >= 0 && label < LABEL_SLOTS ? label : 0;
+    }
+
+    /**
+     * Counts a sample delivered by the sensor. Must only be called by the sensor thread.
+     */
+    public void countReceived(int sensorType) {
+        increment(received, sensorType);
+    }
+
+    /**
+     * Counts a sample which was lost under load, dropped or decimated by the queue. Must only
+     * be called by the sensor thread.
+     */
+    public void countDropped(int sensorType) {
+        increment(dropped, sensorType);
+    }
+
+    /**
+     * Counts a sample which the writer thread took from the queue and records the time since
+     * its timestamp. Must only be called by the writer thread.
+     *
+     * @param sensorType : int : Sensor type of the sample.
+     * @param timestamp : long : Sensor timestamp of the sample.
+     */
+    public void countWritten(int sensorType, long timestamp) {
+        increment(written, sensorType);
+        eventToWriter.record(eventClock.nanoTime() - timestamp);
+    }
+
+    /**
+     * Counts a record which was appended to the output. Must only be called by the writer
+     * thread.
+     *
+     * @param label : int : Code of the movement type of the record.
+     */
+    public void countRecord(int label) {
+        int slot = labelSlot(label);
+        records.lazySet(slot, records.get(slot) + 1);
+    }
+
+    public long getRecords(int label) {
+        return records.get(labelSlot(label));
+    }
+
+    public long getReceived(int sensorType) {
+        return received.get(slot(sensorType));
+    }
+
+    public long getDropped(int sensorType) {
+        return dropped.get(slot(sensorType));
+    }
+
+    public long getWritten(int sensorType) {
+        return written.get(slot(sensorType));
+    }
+
+    public long getTotalReceived() {
+        return sum(received);
+    }
+
+    public long getTotalDropped() {
+        return sum(dropped);
+    }
+
+    public long getTotalWritten() {
+        return sum(written);
+    }
+
+    private static long sum(AtomicLongArray counters) {
+        long total = 0;
+        for (int i = 0; i < SENSOR_SLOTS; i++) {
+            total += counters.get(i);
+        }
+
+        return total;
+    }
+
+    /**
+     * Returns the time since the metrics were created in nanoseconds.
+     */
+    public long getElapsedNanos() {
+        return System.nanoTime() - startNanos;
+    }
+
+    public LatencyHistogram getCallback() {
+        return callback;
+    }
+
+    public LatencyHistogram getQueueWait() {
+        return queueWait;
+    }
+
+    public LatencyHistogram getEventToWriter() {
+        return eventToWriter;
+    }
+
+    public LatencyHistogram getSerialization() {
+        return serialization;
+    }
+
+    public LatencyHistogram getWrite() {
+        return write;
+    }
+
+    public LatencyHistogram getFlush() {
+        return flush;
+    }
+
+    /**
+     * Writes all histograms and counters as text, one line per stage and per sensor. The
+     * durations are in microseconds.
+     *
+     * @param out : Appendable : Destination, e.g. a Writer or a StringBuilder.
+     * @throws IOException
+     */
+    public void writeReport(Appendable out) throws IOException {
+        double seconds = getElapsedNanos() / 1e9;
+
+        out.append(String.format(Locale.US, "duration_s %.3f%n", seconds));
+        out.append(String.format(Locale.US, "events_per_s received %.1f written %.1f%n",
+                getTotalReceived() / seconds, getTotalWritten() / seconds));
+        out.append(String.format(Locale.US, "%-14s %10s %10s %10s %10s %10s %10s %10s%n",
+                "stage", "count", "mean_us", "p50_us", "p90_us", "p99_us", "p999_us", "max_us"));
+
+        writeStage(out, "callback", callback);
+        writeStage(out, "queueWait", queueWait);
+        writeStage(out, "eventToWriter", eventToWriter);
+        writeStage(out, "serialization", serialization);
+        writeStage(out, "write", write);
+        writeStage(out, "flush", flush);
+
+        out.append(String.format(Locale.US, "%-14s %10s %10s %10s%n", "sensor", "received", "written", "dropped"));
+
+        for (int type = 0; type < SENSOR_SLOTS; type++) {
+            if (received.get(type) == 0 && written.get(type) == 0 && dropped.get(type) == 0) continue;
+
+            out.append(String.format(Locale.US, "%-14d %10d %10d %10d%n",
+                    type, received.get(type), written.get(type), dropped.get(type)));
+        }
+
+        out.append(String.format(Locale.US, "%-14s %10s%n", "label", "records"));
+
+        for (int label = 0; label < LABEL_SLOTS; label++) {
+            if (records.get(label) == 0) continue;
+
+            out.append(String.format(Locale.US, "%-14d %10d%n", label, records.get(label)));
+        }
+    }
+
+    private static void writeStage(Appendable out, String name, LatencyHistogram histogram) throws IOException {
+        out.append(String.format(Locale.US, "%-14s %10d %10.1f %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                name, histogram.getCount(), histogram.getMean() / 1000,
+                histogram.getPercentile(0.5) / 1000.0, histogram.getPercentile(0.9) / 1000.0,
+                histogram.getPercentile(0.99) / 1000.0, histogram.getPercentile(0.999) / 1000.0,
+                histogram.getMax() / 1000.0));
+    }
+}
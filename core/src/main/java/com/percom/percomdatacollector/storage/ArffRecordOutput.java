@@ -0,0 +1,106 @@
+package com.percom.percomdatacollector.storage;
+
+import com.percom.percomdatacollector.Files.ArffRecord;
+import com.percom.percomdatacollector.Files.ArffRecordEncoder;
+import com.percom.percomdatacollector.Files.ArffSchema;
+import com.percom.percomdatacollector.Files.BinaryRecordDecoder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Writes binary records as ARFF data lines into a stream, e.g. the feature records which are
+ * computed from a raw capture. Segment markers aren't written, their values are expanded into
+ * the following lines. The ARFF header isn't written. close() doesn't close the
+ * stream, so the records of several sources can be written one after the other.
+ *
+ * Optionally only the records with a timestamp in a range are written, e.g. the records of one
+ * chunk of a recording. The records must arrive in the order of their timestamps then.
+ */
+public class ArffRecordOutput implements RecordOutput {
+
+    private final OutputStream out;
+
+    // Reused for every record
+    private final ArffRecord record;
+    private final BinaryRecordDecoder decoder;
+    private final ArffRecordEncoder encoder;
+
+    // Timestamps of the written records, from inclusive, to exclusive
+    private final long fromTimestamp;
+    private final long toTimestamp;
+
+    private long recordCount = 0;
+
+    // true after a record at or after toTimestamp
+    private boolean complete = false;
+
+    /**
+     * Creates the output.
+     *
+     * @param schema : ArffSchema : Schema of the binary records.
+     * @param out : OutputStream : Receives the ARFF lines.
+     */
+    public ArffRecordOutput(ArffSchema schema, OutputStream out) {
+        this(schema, out, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Creates the output for the records of a time range.
+     *
+     * @param schema : ArffSchema : Schema of the binary records.
+     * @param out : OutputStream : Receives the ARFF lines.
+     * @param fromTimestamp : long : Timestamp of the first record which is written.
+     * @param toTimestamp : long : Records at or after it aren't written anymore.
+     */
+    public ArffRecordOutput(ArffSchema schema, OutputStream out, long fromTimestamp, long toTimestamp) {
+        this.out = out;
+        this.record = new ArffRecord(schema);
+        this.decoder = new BinaryRecordDecoder(schema);
+        this.encoder = new ArffRecordEncoder(ArffRecordEncoder.DEFAULT_DECIMALS, schema);
+        this.fromTimestamp = fromTimestamp;
+        this.toTimestamp = toTimestamp;
+    }
+
+    @Override
+    public void append(byte[] src, int offset, int length) throws IOException {
+        // Segment markers are decoded in any case, their values belong to the following records
+        if (!decoder.decode(ByteBuffer.wrap(src, offset, length).order(ByteOrder.LITTLE_ENDIAN), record)) return;
+
+        if (record.getTimestamp() < fromTimestamp) return;
+        if (record.getTimestamp() >= toTimestamp) {
+            complete = true;
+            return;
+        }
+
+        encoder.beginRecord();
+        encoder.encode(record);
+        out.write(encoder.getBuffer(), 0, encoder.getLength());
+        recordCount++;
+    }
+
+    @Override
+    public void flushIfDue() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Returns the number of records written so far.
+     */
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Returns true if a record at or after the end of the time range arrived, all records of
+     * the range are written then.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+}
@@ -0,0 +1,150 @@
+package com.percom.percomdatacollector.storage;
+
+import com.percom.percomdatacollector.Files.CaptureConverter;
+import com.percom.percomdatacollector.Files.ExportFormat;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Converts a binary capture into one of the ExportFormats, the records are read once and
+ * streamed into the RecordSink of the format. A segmented capture is converted into one file,
+ * the segments are opened one after the other. The active segment may still grow while it's
+ * exported, the records up to the last complete one are exported. The progress is measured in
+ * bytes read from the capture.
+ */
+public class CaptureExportJob implements ExportJob {
+
+    private final List<File> segments;
+    private final File destination;
+    private final ExportFormat format;
+
+    // Bytes read from all segments
+    private long bytesRead = 0;
+
+    /**
+     * Creates the job for a single capture file.
+     *
+     * @param capture : File : Binary capture.
+     * @param destination : File : New file, an existing file is replaced.
+     * @param format : ExportFormat : Format of the new file.
+     */
+    public CaptureExportJob(File capture, File destination, ExportFormat format) {
+        this(Collections.singletonList(capture), destination, format);
+    }
+
+    /**
+     * Creates the job for a segmented capture.
+     *
+     * @param segments : List<File> : Segments in order.
+     * @param destination : File : New file, an existing file is replaced.
+     * @param format : ExportFormat : Format of the new file.
+     */
+    public CaptureExportJob(List<File> segments, File destination, ExportFormat format) {
+        this.segments = segments;
+        this.destination = destination;
+        this.format = format;
+    }
+
+    @Override
+    public long run(final ExportHandle handle) throws IOException {
+        boolean complete = false;
+
+        long total = 0;
+        for (File segment : segments) total += segment.length();
+        handle.setTotalBytes(total);
+
+        // Opens the next segment when the converter asks for it
+        Enumeration<InputStream> inputs = new Enumeration<InputStream>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasMoreElements() {
+                return next < segments.size();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                if (next >= segments.size()) throw new NoSuchElementException();
+
+                File segment = segments.get(next++);
+
+                try {
+                    return new ProgressInputStream(new FileInputStream(segment), handle);
+                } catch (FileNotFoundException e) {
+                    // Enumeration can't throw, the error surfaces on the first read
+                    return new ProgressInputStream(new MissingSegmentStream(segment), handle);
+                }
+            }
+        };
+
+        try {
+            CaptureConverter.convert(inputs, new FileOutputStream(destination), format);
+            complete = true;
+        } finally {
+            // Don't leave an incomplete file
+            if (!complete) destination.delete();
+        }
+
+        return destination.length();
+    }
+
+    /**
+     * Reports the bytes read to the handle and stops reading when the export is cancelled.
+     */
+    private class ProgressInputStream extends FilterInputStream {
+
+        private final ExportHandle handle;
+
+        ProgressInputStream(InputStream in, ExportHandle handle) {
+            super(in);
+            this.handle = handle;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (handle.isCancelled()) throw new InterruptedIOException("Export cancelled");
+
+            int read = super.read(buffer, offset, length);
+
+            if (read > 0) {
+                bytesRead += read;
+                handle.reportProgress(bytesRead);
+            }
+
+            return read;
+        }
+    }
+
+    /**
+     * Fails on the first read, for a segment which was deleted before it was exported.
+     */
+    private static class MissingSegmentStream extends InputStream {
+
+        private final File segment;
+
+        MissingSegmentStream(File segment) {
+            this.segment = segment;
+        }
+
+        @Override
+        public int read() throws IOException {
+            throw new FileNotFoundException(segment.getPath());
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            throw new FileNotFoundException(segment.getPath());
+        }
+    }
+}
@@ -0,0 +1,348 @@
+package com.percom.percomdatacollector.storage;
+
+import com.percom.percomdatacollector.Files.BinaryCaptureFormat;
+import com.percom.percomdatacollector.Files.Crc32c;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes the records of one recording session into a file. The file channel stays open for
+ * the whole session and the records are collected in a reusable buffer. The buffer is written
+ * as one group commit when it reaches the size threshold or when the time threshold has passed.
+ *
+ * With block framing every group commit is written as one block of the BinaryCaptureFormat
+ * with a CRC-32C checksum, so a commit which was torn by a crash can be detected. A block only
+ * holds complete records, a record which doesn't fit into the buffer starts the next block.
+ * The last segment marker which was appended is repeated at the start of every block.
+ *
+ * The size of the file is counted in memory while records are appended, getSize() is cheap and
+ * can be called from any thread. The on-disk length is only read when the file is opened and
+ * when it is sealed.
+ *
+ * An instance is not thread safe, it must only be used by the writer thread. Only getSize()
+ * may be called from other threads.
+ */
+public class CaptureFileWriter implements RecordOutput {
+
+    // Default size of the record buffer (64 KB)
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    // Default time after which buffered records are committed (1 s)
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 1000;
+
+    // Stream and channel of the capture file
+    private final FileOutputStream fileOutputStream;
+    private final FileChannel channel;
+
+    // Collects the records until the next group commit
+    private final ByteBuffer buffer;
+
+    // Every group commit is written as a checksummed block
+    private final boolean blockFramed;
+    private final Crc32c crc = new Crc32c();
+
+    // Index of the first record in the buffer, behind the space for the block header
+    private final int payloadStart;
+
+    // Last appended segment marker or null
+    private byte[] segmentMarker = null;
+
+    // Group commit thresholds
+    private final int flushThresholdBytes;
+    private final long flushIntervalNanos;
+
+    // When the data is forced to the device
+    private final FsyncPolicy fsyncPolicy;
+
+    // Time of the last group commit
+    private long lastFlushNanos;
+
+    // Size of the file including the buffered records, only written by the writer thread
+    private volatile long size;
+
+    // Informed when the size crossed the next multiple of sizeGranularity
+    private CaptureSizeListener sizeListener = null;
+    private long sizeGranularity = Long.MAX_VALUE;
+    private long nextSizeReport = Long.MAX_VALUE;
+
+    private boolean closed = false;
+
+    /**
+     * Opens the file for appending with the default thresholds and without block framing.
+     *
+     * @param file : File : The capture file.
+     * @param fsyncPolicy : FsyncPolicy : When the data is forced to the device.
+     * @throws IOException
+     */
+    public CaptureFileWriter(File file, FsyncPolicy fsyncPolicy) throws IOException {
+        this(file, fsyncPolicy, DEFAULT_BUFFER_SIZE, DEFAULT_FLUSH_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Opens the file for appending without block framing.
+     *
+     * @param file : File : The capture file.
+     * @param fsyncPolicy : FsyncPolicy : When the data is forced to the device.
+     * @param flushThresholdBytes : int : Buffer size, a full buffer is committed at once.
+     * @param flushIntervalMillis : long : Maximum time records stay in the buffer.
+     * @throws IOException
+     */
+    public CaptureFileWriter(File file, FsyncPolicy fsyncPolicy, int flushThresholdBytes,
+                             long flushIntervalMillis) throws IOException {
+        this(file, fsyncPolicy, flushThresholdBytes, flushIntervalMillis, false);
+    }
+
+    /**
+     * Opens the file for appending.
+     *
+     * @param file : File : The capture file, it must already contain the header.
+     * @param fsyncPolicy : FsyncPolicy : When the data is forced to the device.
+     * @param flushThresholdBytes : int : Buffer size, a full buffer is committed at once.
+     * @param flushIntervalMillis : long : Maximum time records stay in the buffer.
+     * @param blockFramed : boolean : Write every group commit as a checksummed block.
+     * @throws IOException
+     */
+    public CaptureFileWriter(File file, FsyncPolicy fsyncPolicy, int flushThresholdBytes,
+                             long flushIntervalMillis, boolean blockFramed) throws IOException {
+        if (blockFramed && flushThresholdBytes > BinaryCaptureFormat.MAX_BLOCK_PAYLOAD) {
+            throw new IllegalArgumentException("Buffer larger than a block");
+        }
+
+        this.blockFramed = blockFramed;
+        this.payloadStart = blockFramed ? BinaryCaptureFormat.BLOCK_HEADER_SIZE : 0;
+        this.buffer = ByteBuffer.allocateDirect(flushThresholdBytes + (blockFramed ? BinaryCaptureFormat.BLOCK_OVERHEAD : 0))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        startBlock();
+
+        this.fileOutputStream = new FileOutputStream(file, true);
+        this.channel = fileOutputStream.getChannel();
+        this.flushThresholdBytes = flushThresholdBytes;
+        this.flushIntervalNanos = flushIntervalMillis * 1000000L;
+        this.fsyncPolicy = fsyncPolicy;
+        this.lastFlushNanos = System.nanoTime();
+        this.size = channel.size();
+    }
+
+    /**
+     * Sets the listener which is informed about the growing file. It's called right away with
+     * the current size.
+     *
+     * @param listener : CaptureSizeListener : Listener or null.
+     * @param granularityBytes : long : The listener is called whenever the size crosses the
+     *                         next multiple of this value.
+     */
+    public void setSizeListener(CaptureSizeListener listener, long granularityBytes) {
+        this.sizeListener = listener;
+        this.sizeGranularity = granularityBytes;
+
+        if (listener != null) {
+            nextSizeReport = (size / granularityBytes + 1) * granularityBytes;
+            listener.onSizeChanged(size);
+        } else {
+            nextSizeReport = Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Appends a record. The record must only contain ASCII characters, every char is
+     * written as one byte without creating a String.
+     *
+     * @param record : CharSequence : Record which should be appended.
+     * @throws IOException
+     */
+    public void append(CharSequence record) throws IOException {
+        int length = record.length();
+
+        if (blockFramed) beginRecord(length, true);
+
+        for (int i = 0; i < length; i++) {
+            if (!buffer.hasRemaining()) flush();
+            buffer.put((byte) record.charAt(i));
+        }
+
+        addSize(length);
+
+        if (buffer.position() - payloadStart >= flushThresholdBytes) flush();
+    }
+
+    /**
+     * Appends raw bytes. With block framing the bytes are one record, it isn't split between
+     * two blocks. A segment marker is kept and repeated at the start of the following blocks.
+     *
+     * @param src : byte[] : Array with the bytes.
+     * @param offset : int : Index of the first byte.
+     * @param length : int : Number of bytes.
+     * @throws IOException
+     */
+    @Override
+    public void append(byte[] src, int offset, int length) throws IOException {
+        if (blockFramed) {
+            boolean marker = BinaryCaptureFormat.isSegmentMarker(src, offset, length);
+
+            if (marker) setSegmentMarker(src, offset, length);
+            beginRecord(length, !marker);
+        }
+
+        addSize(length);
+
+        while (length > 0) {
+            if (!buffer.hasRemaining()) flush();
+
+            int chunk = Math.min(length, buffer.remaining());
+            buffer.put(src, offset, chunk);
+            offset += chunk;
+            length -= chunk;
+        }
+
+        if (buffer.position() - payloadStart >= flushThresholdBytes) flush();
+    }
+
+    /**
+     * Makes room for a whole record in the current block and counts the block overhead when
+     * the record starts a new block. A new block starts with the current segment marker.
+     */
+    private void beginRecord(int length, boolean repeatMarker) throws IOException {
+        if (length > buffer.remaining()) {
+            flush();
+            if (length > buffer.remaining()) throw new IOException("Record larger than a block");
+        }
+
+        if (buffer.position() == payloadStart) {
+            addSize(BinaryCaptureFormat.BLOCK_OVERHEAD);
+
+            if (repeatMarker && segmentMarker != null) {
+                if (segmentMarker.length + length > buffer.remaining()) throw new IOException("Record larger than a block");
+
+                buffer.put(segmentMarker);
+                addSize(segmentMarker.length);
+            }
+        }
+    }
+
+    /**
+     * Sets the segment marker which starts the next blocks, e.g. the one of the previous segment
+     * file. It isn't appended now.
+     *
+     * @param src : byte[] : Array with the marker.
+     * @param offset : int : Index of the first byte.
+     * @param length : int : Size of the marker.
+     */
+    public void setSegmentMarker(byte[] src, int offset, int length) {
+        if (segmentMarker == null || segmentMarker.length != length) segmentMarker = new byte[length];
+
+        System.arraycopy(src, offset, segmentMarker, 0, length);
+    }
+
+    /**
+     * Returns the last appended segment marker or null.
+     */
+    public byte[] getSegmentMarker() {
+        return segmentMarker;
+    }
+
+    /**
+     * Clears the buffer and leaves room for the block header.
+     */
+    private void startBlock() {
+        buffer.clear();
+
+        if (blockFramed) {
+            buffer.position(payloadStart);
+            buffer.limit(buffer.capacity() - BinaryCaptureFormat.BLOCK_TRAILER_SIZE);
+        }
+    }
+
+    /**
+     * Fills in the block header and trailer around the buffered records.
+     */
+    private void sealBlock() {
+        buffer.limit(buffer.capacity());
+        BinaryCaptureFormat.sealBlock(buffer, crc);
+    }
+
+    private void addSize(long bytes) {
+        long newSize = size + bytes;
+        size = newSize;
+
+        if (newSize >= nextSizeReport) {
+            nextSizeReport = (newSize / sizeGranularity + 1) * sizeGranularity;
+            sizeListener.onSizeChanged(newSize);
+        }
+    }
+
+    /**
+     * Commits the buffered records if the time threshold has passed. Should be called
+     * after every batch of records.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void flushIfDue() throws IOException {
+        if (buffer.position() > payloadStart && System.nanoTime() - lastFlushNanos >= flushIntervalNanos) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes all buffered records into the file (group commit).
+     *
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        if (buffer.position() > payloadStart) {
+            if (blockFramed) sealBlock();
+
+            buffer.flip();
+
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        startBlock();
+
+        if (fsyncPolicy == FsyncPolicy.ON_FLUSH) channel.force(false);
+
+        lastFlushNanos = System.nanoTime();
+    }
+
+    /**
+     * Flushes the remaining records and seals the file. The writer can't be used afterwards.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+
+        try {
+            flush();
+
+            if (fsyncPolicy != FsyncPolicy.NEVER) channel.force(true);
+
+            // Re-sync with the on-disk length
+            size = channel.size();
+            if (sizeListener != null) sizeListener.onSizeChanged(size);
+        } finally {
+            fileOutputStream.close();
+        }
+    }
+
+    /**
+     * Returns the size of the file including the records which are not written yet. Can be
+     * called from any thread.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+}
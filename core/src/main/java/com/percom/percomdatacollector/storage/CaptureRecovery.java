@@ -0,0 +1,134 @@
+package com.percom.percomdatacollector.storage;
+
+import com.percom.percomdatacollector.Files.BinaryCaptureFormat;
+import com.percom.percomdatacollector.Files.Crc32c;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Removes the damaged end of a capture file after a crash, e.g. a group commit which was only
+ * written partly. Only the tail of the file is read through a memory-mapped window: the block
+ * trailers are searched backwards from the end until a block passes its checksum, the file is
+ * truncated behind it. The time needed doesn't depend on the size of the file.
+ *
+ * The blocks in front of the last valid one aren't checked, a crash can only damage the last
+ * group commit. Files of version 1 have no blocks, they are cut to the last complete record.
+ */
+public final class CaptureRecovery {
+
+    // Default size of the tail which is searched (256 KB), covers several group commits
+    public static final int DEFAULT_WINDOW_SIZE = 256 * 1024;
+
+    private CaptureRecovery() {}
+
+    /**
+     * Recovers the file with the default window size.
+     *
+     * @param file : File : Capture file or active segment, it must not be open for writing.
+     * @return long : Number of bytes which were cut off.
+     * @throws IOException
+     */
+    public static long recover(File file) throws IOException {
+        return recover(file, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Recovers the file. If no complete block ends within the window, the whole file is
+     * searched.
+     *
+     * @param file : File : Capture file or active segment, it must not be open for writing.
+     * @param windowSize : int : Size of the tail which is searched first.
+     * @return long : Number of bytes which were cut off.
+     * @throws IOException
+     */
+    public static long recover(File file, int windowSize) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            long length = channel.size();
+
+            // A torn header is repaired when the capture is opened
+            if (length < BinaryCaptureFormat.FIXED_HEADER_SIZE) return 0;
+
+            ByteBuffer fixed = ByteBuffer.allocate(BinaryCaptureFormat.FIXED_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, fixed, 0);
+
+            int version = BinaryCaptureFormat.readVersion(fixed);
+            int headerLength = BinaryCaptureFormat.readHeaderLength(fixed);
+            if (length < headerLength) return 0;
+
+            ByteBuffer header = ByteBuffer.allocate(headerLength).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, header, 0);
+            int recordSize = BinaryCaptureFormat.getRecordSize(BinaryCaptureFormat.decodeHeader(header));
+
+            long validLength;
+
+            if (BinaryCaptureFormat.isBlockFramed(version)) {
+                validLength = findEndOfLastBlock(channel, headerLength, length, recordSize, windowSize);
+
+                if (validLength < 0) {
+                    if (length - headerLength > Integer.MAX_VALUE) throw new IOException("Capture too large to recover");
+
+                    validLength = findEndOfLastBlock(channel, headerLength, length, recordSize, (int) (length - headerLength));
+                    if (validLength < 0) validLength = headerLength;
+                }
+            } else {
+                validLength = headerLength + (length - headerLength) / recordSize * recordSize;
+            }
+
+            if (validLength < length) {
+                channel.truncate(validLength);
+                channel.force(true);
+            }
+
+            return length - validLength;
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Searches the window at the end of the file backwards for the last valid block.
+     *
+     * @return long : End of the last valid block, the header end if the window covers the
+     *                whole file without a block, or -1 if no block ends within the window.
+     */
+    private static long findEndOfLastBlock(FileChannel channel, int headerLength, long length, int recordSize,
+                                           int windowSize) throws IOException {
+        long windowStart = Math.max(headerLength, length - windowSize);
+        ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, length - windowStart)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        Crc32c crc = new Crc32c();
+
+        int minBlockSize = BinaryCaptureFormat.BLOCK_OVERHEAD + recordSize;
+
+        for (int end = window.limit(); end >= minBlockSize; end--) {
+            int payloadLength = window.getInt(end - BinaryCaptureFormat.BLOCK_TRAILER_SIZE);
+
+            // Cheap checks first, most positions aren't a block end
+            if (payloadLength <= 0 || payloadLength % recordSize != 0) continue;
+
+            int start = end - BinaryCaptureFormat.BLOCK_OVERHEAD - payloadLength;
+
+            if (start >= 0 && BinaryCaptureFormat.checkBlock(window, start, recordSize, crc) == payloadLength) {
+                return windowStart + end;
+            }
+        }
+
+        return windowStart == headerLength ? headerLength : -1;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) throw new IOException("Capture header incomplete");
+        }
+
+        buffer.flip();
+    }
+}
@@ -0,0 +1,15 @@
+package com.percom.percomdatacollector.storage;
+
+/**
+ * Receives the size of a capture file while it grows. Called on the writer thread.
+ */
+public interface CaptureSizeListener {
+
+    /**
+     * Called when the size crossed the next multiple of the configured granularity and when
+     * the session is opened or sealed.
+     *
+     * @param sizeBytes : long : Size of the file including buffered records.
+     */
+    void onSizeChanged(long sizeBytes);
+}
@@ -0,0 +1,132 @@
+package com.percom.percomdatacollector.storage;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Copies a file with FileChannel.transferTo, so the kernel moves the data without copying it
+ * through the Java heap. If a file system doesn't support this, the copy continues with a large
+ * direct buffer. The file is copied in chunks to report progress and to check for cancellation.
+ * If the source is truncated during the copy, the job fails and deletes the partial copy.
+ */
+public class ChannelCopyJob implements ExportJob {
+
+    // Bytes per transferTo call (8 MB)
+    private static final long CHUNK_SIZE = 8L * 1024 * 1024;
+
+    // Buffer of the fallback copy (1 MB)
+    private static final int FALLBACK_BUFFER_SIZE = 1024 * 1024;
+
+    private final File source;
+    private final File destination;
+
+    // Bytes per transferTo call and progress report
+    private final long chunkSizeBytes;
+
+    /**
+     * Creates the job.
+     *
+     * @param source : File : File which should be copied.
+     * @param destination : File : New file, an existing file is replaced.
+     */
+    public ChannelCopyJob(File source, File destination) {
+        this(source, destination, CHUNK_SIZE);
+    }
+
+    /**
+     * Creates the job with another chunk size, e.g. to test the progress of small files.
+     */
+    ChannelCopyJob(File source, File destination, long chunkSizeBytes) {
+        this.source = source;
+        this.destination = destination;
+        this.chunkSizeBytes = chunkSizeBytes;
+    }
+
+    @Override
+    public long run(ExportHandle handle) throws IOException {
+        FileInputStream src = new FileInputStream(source);
+        FileOutputStream dst = null;
+        long position = 0;
+        boolean complete = false;
+
+        try {
+            dst = new FileOutputStream(destination);
+
+            FileChannel in = src.getChannel();
+            FileChannel out = dst.getChannel();
+            long size = in.size();
+            ByteBuffer fallbackBuffer = null;
+
+            handle.setTotalBytes(size);
+
+            while (position < size && !handle.isCancelled()) {
+                long count = Math.min(chunkSizeBytes, size - position);
+                long copied = 0;
+
+                if (fallbackBuffer == null) {
+                    try {
+                        copied = transfer(in, position, count, out);
+                    } catch (IOException e) {
+                        // Not supported by the file system, the fallback continues at position
+                        copied = 0;
+                    }
+
+                    if (copied <= 0) fallbackBuffer = ByteBuffer.allocateDirect(FALLBACK_BUFFER_SIZE);
+                }
+
+                if (fallbackBuffer != null) {
+                    copied = copyWithBuffer(in, out, position, count, fallbackBuffer);
+                }
+
+                // The source became shorter than its size at the start, don't wait for the rest
+                if (copied <= 0) throw new IOException("Source truncated: " + source);
+
+                position += copied;
+                handle.reportProgress(position);
+            }
+
+            out.force(false);
+            complete = !handle.isCancelled();
+        } finally {
+            src.close();
+            if (dst != null) dst.close();
+
+            // Don't leave an incomplete copy
+            if (!complete) destination.delete();
+        }
+
+        return position;
+    }
+
+    /**
+     * Copies with FileChannel.transferTo, replaced by the tests to simulate a file system
+     * without support.
+     */
+    long transfer(FileChannel in, long position, long count, FileChannel out) throws IOException {
+        return in.transferTo(position, count, out);
+    }
+
+    private static long copyWithBuffer(FileChannel in, FileChannel out, long position, long count,
+                                       ByteBuffer buffer) throws IOException {
+        long copied = 0;
+
+        while (copied < count) {
+            buffer.clear();
+            if (count - copied < buffer.capacity()) buffer.limit((int) (count - copied));
+
+            int read = in.read(buffer, position + copied);
+            if (read < 0) break;
+
+            buffer.flip();
+            while (buffer.hasRemaining()) out.write(buffer, position + copied + buffer.position());
+
+            copied += read;
+        }
+
+        return copied;
+    }
+}
@@ -0,0 +1,48 @@
+package com.percom.percomdatacollector.storage;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Deletes a directory with all files in it, e.g. the segments of a deleted capture. The
+ * progress is measured in deleted bytes.
+ */
+public class DeleteFilesJob implements ExportJob {
+
+    private final File directory;
+
+    /**
+     * Creates the job.
+     *
+     * @param directory : File : Directory without subdirectories.
+     */
+    public DeleteFilesJob(File directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public long run(ExportHandle handle) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) files = new File[0];
+
+        long total = 0;
+        for (File file : files) total += file.length();
+        handle.setTotalBytes(total);
+
+        long deleted = 0;
+
+        for (File file : files) {
+            if (handle.isCancelled()) return deleted;
+
+            long length = file.length();
+            if (!file.delete()) throw new IOException("Couldn't delete " + file.getName());
+
+            deleted += length;
+            handle.reportProgress(deleted);
+        }
+
+        if (!directory.delete()) throw new IOException("Couldn't delete " + directory.getName());
+
+        return deleted;
+    }
+}
@@ -0,0 +1,15 @@
+package com.percom.percomdatacollector.storage;
+
+import com.percom.percomdatacollector.Files.DropStatistics;
+
+/**
+ * Counts the samples which the capture pipeline lost under load, e.g. the sample queue. The
+ * SegmentedCaptureLog writes the samples lost while a segment was active into its header.
+ */
+public interface DropStatisticsSource {
+
+    /**
+     * Returns the counters since the source was created. Can be called from any thread.
+     */
+    DropStatistics getDropStatistics();
+}
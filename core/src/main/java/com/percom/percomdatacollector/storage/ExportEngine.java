@@ -0,0 +1,66 @@
+package com.percom.percomdatacollector.storage;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Executes exports on a background thread, one after the other. Every export gets an
+ * ExportHandle to follow its progress and to cancel it.
+ */
+public class ExportEngine {
+
+    // Single background thread for all exports
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "ExportEngine");
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+
+    /**
+     * Queues an export.
+     *
+     * @param job : ExportJob : The export.
+     * @param listener : ExportListener : Receives progress and result on the export thread.
+     * @return ExportHandle : Handle to cancel the export.
+     */
+    public ExportHandle submit(final ExportJob job, final ExportListener listener) {
+        final ExportHandle handle = new ExportHandle(listener);
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (handle.isCancelled()) {
+                        listener.onCancelled();
+                        return;
+                    }
+
+                    handle.start();
+                    long bytes = job.run(handle);
+
+                    if (handle.isCancelled()) listener.onCancelled();
+                    else listener.onFinished(bytes, handle.getMegabytesPerSecond(bytes));
+                } catch (IOException e) {
+                    if (handle.isCancelled()) listener.onCancelled();
+                    else listener.onFailed(e);
+                } finally {
+                    handle.finish();
+                }
+            }
+        });
+
+        return handle;
+    }
+
+    /**
+     * Cancels the queued exports and stops the thread. A running export is interrupted.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
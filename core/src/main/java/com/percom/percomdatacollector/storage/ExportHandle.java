@@ -0,0 +1,83 @@
+package com.percom.percomdatacollector.storage;
+
+/**
+ * Handle of a running export. The caller can cancel the export with it, the ExportJob reports
+ * its progress to it.
+ */
+public class ExportHandle {
+
+    // Minimum time between two progress reports (200 ms)
+    private static final long PROGRESS_INTERVAL_NANOS = 200000000L;
+
+    // Receives the progress
+    private final ExportListener listener;
+
+    private volatile boolean cancelled = false;
+    private volatile boolean done = false;
+
+    // Only used by the export thread
+    private long totalBytes = -1;
+    private long startNanos = 0;
+    private long lastReportNanos = 0;
+
+    ExportHandle(ExportListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Requests the export to stop. The listener is informed with onCancelled().
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Returns true after the export finished, failed or was cancelled.
+     */
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Sets the number of bytes the export has to process.
+     */
+    public void setTotalBytes(long totalBytes) {
+        this.totalBytes = totalBytes;
+    }
+
+    /**
+     * Reports the progress. The listener is called at most every 200 ms.
+     *
+     * @param bytesDone : long : Bytes processed so far.
+     */
+    public void reportProgress(long bytesDone) {
+        long now = System.nanoTime();
+
+        if (now - lastReportNanos >= PROGRESS_INTERVAL_NANOS) {
+            lastReportNanos = now;
+            listener.onProgress(bytesDone, totalBytes, getMegabytesPerSecond(bytesDone));
+        }
+    }
+
+    /**
+     * Returns the throughput since the start of the export.
+     */
+    public double getMegabytesPerSecond(long bytes) {
+        long elapsed = System.nanoTime() - startNanos;
+
+        return elapsed > 0 ? (bytes / (1024.0 * 1024.0)) / (elapsed / 1e9) : 0;
+    }
+
+    void start() {
+        startNanos = System.nanoTime();
+        lastReportNanos = startNanos;
+    }
+
+    void finish() {
+        done = true;
+    }
+}
@@ -0,0 +1,19 @@
+package com.percom.percomdatacollector.storage;
+
+import java.io.IOException;
+
+/**
+ * One export which is executed by the ExportEngine.
+ */
+public interface ExportJob {
+
+    /**
+     * Executes the export. Implementations report their progress to the handle, check
+     * isCancelled() regularly and delete incomplete files when they stop early.
+     *
+     * @param handle : ExportHandle : Handle of this export.
+     * @return long : Number of bytes written.
+     * @throws IOException
+     */
+    long run(ExportHandle handle) throws IOException;
+}
@@ -0,0 +1,37 @@
+package com.percom.percomdatacollector.storage;
+
+import java.io.IOException;
+
+/**
+ * Receives the progress of an export. The methods are called on the thread of the
+ * ExportEngine unless the listener is wrapped for another thread.
+ */
+public interface ExportListener {
+
+    /**
+     * Called periodically while the export is running.
+     *
+     * @param bytesDone : long : Bytes processed so far.
+     * @param bytesTotal : long : Bytes to process, -1 if unknown.
+     * @param megabytesPerSecond : double : Throughput since the start.
+     */
+    void onProgress(long bytesDone, long bytesTotal, double megabytesPerSecond);
+
+    /**
+     * Called once when the export completed.
+     *
+     * @param bytesWritten : long : Size of the exported file.
+     * @param megabytesPerSecond : double : Average throughput.
+     */
+    void onFinished(long bytesWritten, double megabytesPerSecond);
+
+    /**
+     * Called once when the export was cancelled. The incomplete file is deleted.
+     */
+    void onCancelled();
+
+    /**
+     * Called once when the export failed.
+     */
+    void onFailed(IOException e);
+}
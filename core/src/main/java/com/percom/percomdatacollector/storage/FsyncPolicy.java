@@ -0,0 +1,16 @@
+package com.percom.percomdatacollector.storage;
+
+/**
+ * Defines when a CaptureFileWriter forces its data to the storage device.
+ */
+public enum FsyncPolicy {
+
+    // Never force, the operating system decides when the data reaches the device
+    NEVER,
+
+    // Force after every group commit, safest but slowest
+    ON_FLUSH,
+
+    // Force once when the session is closed
+    ON_CLOSE
+}
@@ -0,0 +1,34 @@
+package com.percom.percomdatacollector.storage;
+
+import java.io.IOException;
+
+/**
+ * Destination of the encoded records of a recording session. All methods are called on the
+ * writer thread.
+ */
+public interface RecordOutput {
+
+    /**
+     * Appends one encoded record.
+     *
+     * @param src : byte[] : Array with the record.
+     * @param offset : int : Index of the first byte.
+     * @param length : int : Number of bytes.
+     * @throws IOException
+     */
+    void append(byte[] src, int offset, int length) throws IOException;
+
+    /**
+     * Commits the appended records if the time threshold has passed.
+     *
+     * @throws IOException
+     */
+    void flushIfDue() throws IOException;
+
+    /**
+     * Commits the remaining records and seals the output.
+     *
+     * @throws IOException
+     */
+    void close() throws IOException;
+}
@@ -0,0 +1,61 @@
+package com.percom.percomdatacollector.storage;
+
+import com.percom.percomdatacollector.Files.ArffRecord;
+import com.percom.percomdatacollector.Files.ArffSchema;
+import com.percom.percomdatacollector.Files.BinaryRecordDecoder;
+import com.percom.percomdatacollector.Files.RecordSink;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Passes binary records to a RecordSink, e.g. the feature records which are computed from a
+ * raw capture, so they can be exported in any ExportFormat. Segment markers aren't passed on,
+ * their values are expanded into the following records. close() doesn't close the sink.
+ */
+public class RecordSinkOutput implements RecordOutput {
+
+    private final RecordSink sink;
+
+    // Reused for every record
+    private final ArffRecord record;
+    private final BinaryRecordDecoder decoder;
+
+    private long recordCount = 0;
+
+    /**
+     * Creates the output. The header must already have been written to the sink.
+     *
+     * @param schema : ArffSchema : Schema of the binary records.
+     * @param sink : RecordSink : Receives the records.
+     */
+    public RecordSinkOutput(ArffSchema schema, RecordSink sink) {
+        this.sink = sink;
+        this.record = new ArffRecord(schema);
+        this.decoder = new BinaryRecordDecoder(schema);
+    }
+
+    @Override
+    public void append(byte[] src, int offset, int length) throws IOException {
+        if (!decoder.decode(ByteBuffer.wrap(src, offset, length).order(ByteOrder.LITTLE_ENDIAN), record)) return;
+
+        sink.write(record);
+        recordCount++;
+    }
+
+    @Override
+    public void flushIfDue() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Returns the number of records written so far.
+     */
+    public long getRecordCount() {
+        return recordCount;
+    }
+}
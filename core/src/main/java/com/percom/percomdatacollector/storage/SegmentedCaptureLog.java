@@ -0,0 +1,486 @@
+package com.percom.percomdatacollector.storage;
+
+import com.percom.percomdatacollector.Files.ArffSchema;
+import com.percom.percomdatacollector.Files.BinaryCaptureFormat;
+import com.percom.percomdatacollector.Files.DropStatistics;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A capture stored as a sequence of segment files of a limited size: name-000001.pcd,
+ * name-000002.pcd, ... Every segment starts with the binary header, so each one can be read
+ * on its own. Records are appended to the last (active) segment; when it would grow beyond
+ * the segment size, it is sealed and a new segment is started. Sealed segments never change
+ * again, so they can be exported, copied or deleted in the background while the recording
+ * continues, and no operation has to touch the whole capture.
+ *
+ * The active segment is written by a CaptureFileWriter with block framing, the group commit
+ * and the fsync policy apply per segment. A record is never split between two segments. After
+ * a crash only the active segment can be damaged, recoverTail() repairs it.
+ *
+ * With a DropStatisticsSource the header of every segment counts the samples which were lost
+ * while the segment was active. The counters are updated in place when the segment is sealed
+ * or the session is closed, sessions which continue in a segment add to them.
+ *
+ * An instance is not thread safe, it must only be used by the writer thread. Only getSize()
+ * may be called from other threads.
+ */
+public class SegmentedCaptureLog implements RecordOutput {
+
+    // Default maximum size of a segment (1 MB)
+    public static final long DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+
+    // Number of digits of the segment number
+    private static final int SEGMENT_DIGITS = 6;
+
+    // Location and name of the capture
+    private final File directory;
+    private final String name;
+
+    // Maximum size of a segment
+    private final long segmentSizeBytes;
+
+    // When the data is forced to the device
+    private final FsyncPolicy fsyncPolicy;
+
+    // Header which starts every segment and the schema in it
+    private final byte[] header;
+    private final ArffSchema schema;
+
+    // Writer and number of the active segment
+    private CaptureFileWriter activeWriter;
+    private int activeNumber;
+
+    // Size of the sealed segments
+    private long sealedBytes;
+
+    // Size of all segments including the buffered records, only written by the writer thread
+    private volatile long size;
+
+    // Counts the lost samples of the session or null
+    private DropStatisticsSource dropSource = null;
+    // Statistics in the header of the active segment and of the source when it was activated
+    private DropStatistics segmentDrops = DropStatistics.NONE;
+    private DropStatistics sourceDropsAtStart = DropStatistics.NONE;
+
+    // Informed when the size crossed the next multiple of sizeGranularity
+    private CaptureSizeListener sizeListener = null;
+    private long sizeGranularity = Long.MAX_VALUE;
+    private long nextSizeReport = Long.MAX_VALUE;
+
+    /**
+     * Creates a new capture with one empty segment.
+     *
+     * @param directory : File : Directory of the segments.
+     * @param name : String : Name of the capture.
+     * @param schema : ArffSchema : Schema of the records.
+     * @throws IOException : If the capture already exists or can't be written.
+     */
+    public static void create(File directory, String name, ArffSchema schema) throws IOException {
+        if (!listSegments(directory, name).isEmpty()) throw new IOException("Capture already exists: " + name);
+
+        writeHeader(getSegmentFile(directory, name, 1), BinaryCaptureFormat.encodeHeader(schema));
+    }
+
+    /**
+     * Cuts a block off the active segment which was torn by a crash. Only the tail of the
+     * segment is read, so it's fast for captures of any size. The capture must not be open
+     * for appending.
+     *
+     * @param directory : File : Directory of the segments.
+     * @param name : String : Name of the capture.
+     * @return long : Number of bytes which were cut off.
+     * @throws IOException
+     */
+    public static long recoverTail(File directory, String name) throws IOException {
+        List<File> segments = listSegments(directory, name);
+
+        return segments.isEmpty() ? 0 : CaptureRecovery.recover(segments.get(segments.size() - 1));
+    }
+
+    /**
+     * Returns the segments of a capture in order. The last one is the active segment.
+     *
+     * @param directory : File : Directory of the segments.
+     * @param name : String : Name of the capture.
+     * @return List<File> : The segments, empty if the capture doesn't exist.
+     */
+    public static List<File> listSegments(File directory, String name) {
+        List<File> segments = new ArrayList<File>();
+        String[] fileNames = directory.list();
+
+        if (fileNames == null) return segments;
+
+        for (String fileName : fileNames) {
+            if (getSegmentNumber(name, fileName) > 0) segments.add(new File(directory, fileName));
+        }
+
+        Collections.sort(segments, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return a.getName().compareTo(b.getName());
+            }
+        });
+
+        return segments;
+    }
+
+    /**
+     * Returns the size of all segments of a capture in bytes.
+     */
+    public static long calcSize(File directory, String name) {
+        long total = 0;
+
+        for (File segment : listSegments(directory, name)) total += segment.length();
+
+        return total;
+    }
+
+    /**
+     * Moves all segments of a capture into a new directory, so a new capture with the same name
+     * can be created right away while the old segments are deleted in the background.
+     *
+     * @param directory : File : Directory of the segments.
+     * @param name : String : Name of the capture.
+     * @param trash : File : New directory, it must not exist.
+     * @throws IOException : If a segment couldn't be moved.
+     */
+    public static void moveSegments(File directory, String name, File trash) throws IOException {
+        if (!trash.mkdirs()) throw new IOException("Couldn't create " + trash);
+
+        for (File segment : listSegments(directory, name)) {
+            if (!segment.renameTo(new File(trash, segment.getName()))) {
+                throw new IOException("Couldn't move " + segment.getName());
+            }
+        }
+    }
+
+    /**
+     * Turns a capture which was stored in a single file into the first segment of a capture.
+     *
+     * @param file : File : The single capture file.
+     * @param directory : File : Directory of the segments.
+     * @param name : String : Name of the capture.
+     * @throws IOException : If the capture already exists or the file couldn't be moved.
+     */
+    public static void adopt(File file, File directory, String name) throws IOException {
+        if (!listSegments(directory, name).isEmpty()) throw new IOException("Capture already exists: " + name);
+
+        if (!file.renameTo(getSegmentFile(directory, name, 1))) throw new IOException("Couldn't move " + file.getName());
+    }
+
+    /**
+     * Opens an existing capture for appending. The records are appended to the last segment.
+     *
+     * @param directory : File : Directory of the segments.
+     * @param name : String : Name of the capture.
+     * @param fsyncPolicy : FsyncPolicy : When the data is forced to the device.
+     * @param segmentSizeBytes : long : Maximum size of a segment.
+     * @throws IOException
+     */
+    public SegmentedCaptureLog(File directory, String name, FsyncPolicy fsyncPolicy, long segmentSizeBytes)
+            throws IOException {
+        this.directory = directory;
+        this.name = name;
+        this.fsyncPolicy = fsyncPolicy;
+        this.segmentSizeBytes = segmentSizeBytes;
+
+        List<File> segments = listSegments(directory, name);
+        if (segments.isEmpty()) throw new FileNotFoundException(name);
+
+        // The first segment always has a complete header. New segments get the header of the
+        // current version, also if the capture was started with an older one.
+        this.schema = BinaryCaptureFormat.decodeHeader(
+                ByteBuffer.wrap(readHeader(segments.get(0))).order(ByteOrder.LITTLE_ENDIAN));
+        this.header = BinaryCaptureFormat.encodeHeader(schema);
+
+        if (segmentSizeBytes <= header.length) throw new IllegalArgumentException("Segment size smaller than the header");
+
+        for (int i = 0; i < segments.size() - 1; i++) sealedBytes += segments.get(i).length();
+
+        File active = segments.get(segments.size() - 1);
+        activeNumber = getSegmentNumber(name, active.getName());
+
+        // A segment which was started but whose header wasn't written completely is started again
+        if (active.length() < header.length) {
+            if (!active.delete()) throw new IOException("Couldn't repair " + active.getName());
+
+            writeHeader(active, header);
+        } else if (readVersion(active) != BinaryCaptureFormat.VERSION) {
+            // Records without blocks are only appended to segments of the old version
+            sealedBytes += active.length();
+            activeNumber++;
+            writeHeader(getSegmentFile(directory, name, activeNumber), header);
+        }
+
+        activeWriter = openWriter(getSegmentFile(directory, name, activeNumber));
+
+        size = sealedBytes + activeWriter.getSize();
+    }
+
+    /**
+     * Sets the listener which is informed about the growing capture. It's called right away
+     * with the current size.
+     *
+     * @param listener : CaptureSizeListener : Listener or null.
+     * @param granularityBytes : long : The listener is called whenever the size crosses the
+     *                         next multiple of this value.
+     */
+    public void setSizeListener(CaptureSizeListener listener, long granularityBytes) {
+        this.sizeListener = listener;
+        this.sizeGranularity = granularityBytes;
+
+        if (listener != null) {
+            nextSizeReport = (size / granularityBytes + 1) * granularityBytes;
+            listener.onSizeChanged(size);
+        } else {
+            nextSizeReport = Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Sets the source of the drop statistics of this session. Its counters from now on are
+     * added to the header of the active segment and of the following segments.
+     *
+     * @param source : DropStatisticsSource : Counts the lost samples, null for none.
+     * @throws IOException : If the header of the active segment can't be read.
+     */
+    public void setDropStatisticsSource(DropStatisticsSource source) throws IOException {
+        this.dropSource = source;
+
+        if (source != null) {
+            segmentDrops = BinaryCaptureFormat.readDropStatistics(
+                    ByteBuffer.wrap(readHeader(getActiveSegment())).order(ByteOrder.LITTLE_ENDIAN));
+            sourceDropsAtStart = source.getDropStatistics();
+        }
+    }
+
+    /**
+     * Appends one ASCII record, a new segment is started if it doesn't fit.
+     *
+     * @param record : CharSequence : Record which should be appended.
+     * @throws IOException
+     */
+    public void append(CharSequence record) throws IOException {
+        rotateIfFull(record.length());
+
+        long activeSize = activeWriter.getSize();
+        activeWriter.append(record);
+        addSize(activeWriter.getSize() - activeSize);
+    }
+
+    /**
+     * Appends one encoded record, a new segment is started if it doesn't fit.
+     */
+    @Override
+    public void append(byte[] src, int offset, int length) throws IOException {
+        rotateIfFull(length);
+
+        // Counted like the writer does it, with the overhead of a new block and the repeated
+        // segment marker
+        long activeSize = activeWriter.getSize();
+        activeWriter.append(src, offset, length);
+        addSize(activeWriter.getSize() - activeSize);
+    }
+
+    private void rotateIfFull(int length) throws IOException {
+        long activeSize = activeWriter.getSize();
+
+        // A segment gets at least one record, even if the record is larger than the segment. The
+        // record may start a new block.
+        if (activeSize + length + BinaryCaptureFormat.BLOCK_OVERHEAD > segmentSizeBytes && activeSize > header.length) {
+            rotate();
+        }
+    }
+
+    /**
+     * Seals the active segment and starts the next one.
+     *
+     * @throws IOException
+     */
+    public void rotate() throws IOException {
+        activeWriter.close();
+        sealedBytes += activeWriter.getSize();
+        updateDropStatistics();
+        segmentDrops = DropStatistics.NONE;
+
+        // The records in the new segment continue the current label segment
+        byte[] segmentMarker = activeWriter.getSegmentMarker();
+
+        activeNumber++;
+        File segment = getSegmentFile(directory, name, activeNumber);
+        writeHeader(segment, header);
+        activeWriter = openWriter(segment);
+        if (segmentMarker != null) activeWriter.setSegmentMarker(segmentMarker, 0, segmentMarker.length);
+        addSize(header.length);
+    }
+
+    /**
+     * Writes the samples lost while the active segment was written into its header. The source
+     * is re-based, so the next segment starts counting from zero.
+     */
+    private void updateDropStatistics() throws IOException {
+        if (dropSource == null) return;
+
+        DropStatistics current = dropSource.getDropStatistics();
+        DropStatistics segment = new DropStatistics(current.getPolicyCode(),
+                segmentDrops.getDroppedSamples() + current.getDroppedSamples() - sourceDropsAtStart.getDroppedSamples(),
+                segmentDrops.getDecimatedSamples() + current.getDecimatedSamples() - sourceDropsAtStart.getDecimatedSamples());
+
+        RandomAccessFile file = new RandomAccessFile(getActiveSegment(), "rw");
+
+        try {
+            file.seek(BinaryCaptureFormat.DROP_STATISTICS_OFFSET);
+            file.write(BinaryCaptureFormat.encodeDropStatistics(segment));
+        } finally {
+            file.close();
+        }
+
+        segmentDrops = segment;
+        sourceDropsAtStart = current;
+    }
+
+    private CaptureFileWriter openWriter(File segment) throws IOException {
+        return new CaptureFileWriter(segment, fsyncPolicy, CaptureFileWriter.DEFAULT_BUFFER_SIZE,
+                CaptureFileWriter.DEFAULT_FLUSH_INTERVAL_MILLIS, true);
+    }
+
+    private void addSize(long bytes) {
+        long newSize = size + bytes;
+        size = newSize;
+
+        if (newSize >= nextSizeReport) {
+            nextSizeReport = (newSize / sizeGranularity + 1) * sizeGranularity;
+            sizeListener.onSizeChanged(newSize);
+        }
+    }
+
+    @Override
+    public void flushIfDue() throws IOException {
+        activeWriter.flushIfDue();
+    }
+
+    /**
+     * Writes the buffered records of the active segment.
+     *
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        activeWriter.flush();
+    }
+
+    /**
+     * Flushes the remaining records and closes the active segment. The next session continues
+     * in the same segment.
+     */
+    @Override
+    public void close() throws IOException {
+        activeWriter.close();
+        updateDropStatistics();
+
+        // Re-sync with the on-disk length
+        size = sealedBytes + activeWriter.getSize();
+        if (sizeListener != null) sizeListener.onSizeChanged(size);
+    }
+
+    /**
+     * Returns the size of all segments including the records which are not written yet. Can
+     * be called from any thread.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the schema of the records from the header of the capture.
+     */
+    public ArffSchema getSchema() {
+        return schema;
+    }
+
+    public boolean isClosed() {
+        return activeWriter.isClosed();
+    }
+
+    /**
+     * Returns the file of the active segment.
+     */
+    public File getActiveSegment() {
+        return getSegmentFile(directory, name, activeNumber);
+    }
+
+    private static File getSegmentFile(File directory, String name, int number) {
+        return new File(directory, name + "-" + String.format(Locale.US, "%0" + SEGMENT_DIGITS + "d", number)
+                + BinaryCaptureFormat.FILE_TYPE);
+    }
+
+    /**
+     * Returns the number of a segment file of the capture or -1 if it isn't one.
+     */
+    private static int getSegmentNumber(String name, String fileName) {
+        int start = name.length() + 1;
+        int end = start + SEGMENT_DIGITS;
+
+        if (fileName.length() != end + BinaryCaptureFormat.FILE_TYPE.length()
+                || !fileName.startsWith(name) || fileName.charAt(name.length()) != '-'
+                || !fileName.endsWith(BinaryCaptureFormat.FILE_TYPE)) {
+            return -1;
+        }
+
+        int number = 0;
+
+        for (int i = start; i < end; i++) {
+            char c = fileName.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            number = number * 10 + (c - '0');
+        }
+
+        return number;
+    }
+
+    private static void writeHeader(File segment, byte[] header) throws IOException {
+        FileOutputStream fileOutputStream = new FileOutputStream(segment);
+
+        try {
+            fileOutputStream.write(header);
+        } finally {
+            fileOutputStream.close();
+        }
+    }
+
+    private static int readVersion(File segment) throws IOException {
+        byte[] header = readHeader(segment);
+
+        return BinaryCaptureFormat.readVersion(ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN));
+    }
+
+    private static byte[] readHeader(File segment) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(segment, "r");
+
+        try {
+            byte[] fixed = new byte[BinaryCaptureFormat.FIXED_HEADER_SIZE];
+            file.readFully(fixed);
+
+            int headerLength = BinaryCaptureFormat.readHeaderLength(ByteBuffer.wrap(fixed).order(ByteOrder.LITTLE_ENDIAN));
+
+            byte[] header = new byte[headerLength];
+            file.seek(0);
+            file.readFully(header);
+
+            return header;
+        } finally {
+            file.close();
+        }
+    }
+}
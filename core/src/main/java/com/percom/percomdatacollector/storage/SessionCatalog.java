@@ -0,0 +1,457 @@
+package com.percom.percomdatacollector.storage;
+
+import com.percom.percomdatacollector.Files.Crc32c;
+import com.percom.percomdatacollector.capture.RecordingMode;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Catalog of the recording sessions with their metadata, see SessionInfo. It's kept in memory
+ * and stored in an append-only file, so listing, filtering and summarizing the sessions never
+ * opens or stats a capture.
+ *
+ * Every change appends one entry to the file and forces it to the device, the last entry of a
+ * session wins and a removed session gets a tombstone. An entry is framed like a capture block:
+ *
+ * - u32 ENTRY_MAGIC
+ * - u16 payload length
+ * - u32 CRC-32C of the payload
+ * - payload: u8 kind, u16 name length, name (UTF-8) and for PUT: u8 mode (ordinal of
+ *   RecordingMode), i64 start, i64 end, i64 size, i64 exported, u8 label count, i64 records
+ *   per label, u8 sensor count, (u8 sensor type, i64 samples) per sensor
+ *
+ * Loading stops at the first incomplete or damaged entry and cuts it off, like the recovery
+ * of a capture. When the file holds many overwritten entries, it's rewritten with one entry
+ * per session. All methods are thread safe.
+ */
+public class SessionCatalog {
+
+    // Name of the catalog file in the app storage
+    public static final String FILE_NAME = "sessions.catalog";
+
+    // "PCDS" / "PCDE" in little-endian, different from the magic of a capture
+    public static final int MAGIC = 0x53444350;
+    public static final int ENTRY_MAGIC = 0x45444350;
+
+    public static final int VERSION = 1;
+
+    // u32 magic, u16 version
+    public static final int HEADER_SIZE = 6;
+
+    // u32 magic, u16 payload length, u32 checksum
+    public static final int ENTRY_HEADER_SIZE = 10;
+
+    // The file is rewritten on open if it holds more than this many entries per session
+    private static final int COMPACTION_RATIO = 2;
+    // and at least this many entries
+    private static final int COMPACTION_MIN_ENTRIES = 64;
+
+    private static final int KIND_PUT = 1;
+    private static final int KIND_REMOVE = 2;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Sessions by name, in the order they were added
+    private final Map<String, SessionInfo> sessions = new LinkedHashMap<String, SessionInfo>();
+
+    private final File file;
+
+    // Entries in the file, including overwritten ones
+    private int entryCount = 0;
+
+    /**
+     * Accepts the sessions of a listing or a summary.
+     */
+    public interface Filter {
+        boolean accept(SessionInfo session);
+    }
+
+    // Accepts every session
+    public static final Filter ALL = new Filter() {
+        @Override
+        public boolean accept(SessionInfo session) {
+            return true;
+        }
+    };
+
+    // Accepts the finished sessions which weren't exported yet
+    public static final Filter NOT_EXPORTED = new Filter() {
+        @Override
+        public boolean accept(SessionInfo session) {
+            return !session.isOpen() && !session.isExported();
+        }
+    };
+
+    /**
+     * Opens the catalog, a missing file is created.
+     *
+     * @param file : File : The catalog file.
+     * @throws IOException : If the file can't be read or isn't a catalog.
+     */
+    public SessionCatalog(File file) throws IOException {
+        this.file = file;
+
+        if (!file.exists() || file.length() == 0) {
+            rewrite();
+            return;
+        }
+
+        load();
+
+        if (entryCount >= COMPACTION_MIN_ENTRIES && entryCount > COMPACTION_RATIO * sessions.size()) rewrite();
+    }
+
+    private void load() throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+
+        try {
+            long length = randomAccessFile.length();
+            if (length > Integer.MAX_VALUE) throw new IOException("Catalog too large: " + file);
+
+            ByteBuffer data = ByteBuffer.allocate((int) length).order(ByteOrder.LITTLE_ENDIAN);
+            randomAccessFile.getChannel().read(data, 0);
+            data.flip();
+
+            if (data.remaining() < HEADER_SIZE || data.getInt() != MAGIC) throw new IOException("Not a session catalog: " + file);
+            if ((data.getShort() & 0xFFFF) != VERSION) throw new IOException("Unsupported catalog version: " + file);
+
+            Crc32c crc = new Crc32c();
+
+            while (data.remaining() >= ENTRY_HEADER_SIZE) {
+                int start = data.position();
+                int payloadLength = data.getShort(start + 4) & 0xFFFF;
+
+                if (data.getInt(start) != ENTRY_MAGIC || payloadLength > data.remaining() - ENTRY_HEADER_SIZE) break;
+
+                crc.reset();
+                crc.update(data, start + ENTRY_HEADER_SIZE, payloadLength);
+                if ((int) crc.getValue() != data.getInt(start + 6)) break;
+
+                data.position(start + ENTRY_HEADER_SIZE);
+                ByteBuffer payload = data.slice().order(ByteOrder.LITTLE_ENDIAN);
+                payload.limit(payloadLength);
+
+                try {
+                    apply(payload);
+                } catch (RuntimeException e) {
+                    // A malformed payload with a valid checksum, e.g. of a newer version
+                    throw new IOException("Damaged catalog entry at " + start + ": " + file);
+                }
+
+                data.position(start + ENTRY_HEADER_SIZE + payloadLength);
+                entryCount++;
+            }
+
+            // Cut off an entry which was torn by a crash
+            if (data.position() < length) randomAccessFile.setLength(data.position());
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private void apply(ByteBuffer payload) {
+        int kind = payload.get();
+        String name = getString(payload);
+
+        if (kind == KIND_REMOVE) {
+            sessions.remove(name);
+            return;
+        }
+        if (kind != KIND_PUT) throw new IllegalArgumentException("Unknown entry kind " + kind);
+
+        RecordingMode mode = RecordingMode.values()[payload.get()];
+        long startMillis = payload.getLong();
+        long endMillis = payload.getLong();
+        long sizeBytes = payload.getLong();
+        long exportedMillis = payload.getLong();
+
+        long[] recordsPerLabel = new long[payload.get() & 0xFF];
+        for (int i = 0; i < recordsPerLabel.length; i++) recordsPerLabel[i] = payload.getLong();
+
+        int sensorCount = payload.get() & 0xFF;
+        int[] sensorTypes = new int[sensorCount];
+        long[] samplesPerSensor = new long[sensorCount];
+
+        for (int i = 0; i < sensorCount; i++) {
+            sensorTypes[i] = payload.get() & 0xFF;
+            samplesPerSensor[i] = payload.getLong();
+        }
+
+        // Keep the position of a session which is updated
+        sessions.put(name, new SessionInfo(name, mode, startMillis, endMillis, sizeBytes, recordsPerLabel,
+                sensorTypes, samplesPerSensor, exportedMillis));
+    }
+
+    /**
+     * Adds a session or replaces the session with the same name.
+     *
+     * @param session : SessionInfo : The new metadata.
+     * @throws IOException : If the entry can't be written, the catalog is unchanged then.
+     */
+    public synchronized void put(SessionInfo session) throws IOException {
+        append(encodePut(session));
+        sessions.put(session.getName(), session);
+    }
+
+    /**
+     * Removes a session.
+     *
+     * @param name : String : Name of the session.
+     * @return boolean : false if there was no such session.
+     * @throws IOException : If the entry can't be written, the catalog is unchanged then.
+     */
+    public synchronized boolean remove(String name) throws IOException {
+        if (!sessions.containsKey(name)) return false;
+
+        byte[] nameBytes = name.getBytes(UTF_8);
+        ByteBuffer payload = ByteBuffer.allocate(1 + 2 + nameBytes.length).order(ByteOrder.LITTLE_ENDIAN);
+        payload.put((byte) KIND_REMOVE);
+        putString(payload, nameBytes);
+
+        append(payload.array());
+        sessions.remove(name);
+
+        return true;
+    }
+
+    /**
+     * Marks a session as exported.
+     *
+     * @param name : String : Name of the session.
+     * @param exportedMillis : long : Time of the export.
+     * @throws IOException : If the entry can't be written.
+     */
+    public synchronized void markExported(String name, long exportedMillis) throws IOException {
+        SessionInfo session = sessions.get(name);
+
+        if (session != null) put(session.exported(exportedMillis));
+    }
+
+    /**
+     * Returns a session or null if there is no session with the name.
+     */
+    public synchronized SessionInfo get(String name) {
+        return sessions.get(name);
+    }
+
+    /**
+     * Returns all sessions ordered by their start.
+     */
+    public List<SessionInfo> list() {
+        return list(ALL);
+    }
+
+    /**
+     * Returns the sessions accepted by the filter ordered by their start.
+     */
+    public synchronized List<SessionInfo> list(Filter filter) {
+        List<SessionInfo> result = new ArrayList<SessionInfo>();
+
+        for (SessionInfo session : sessions.values()) {
+            if (filter.accept(session)) result.add(session);
+        }
+
+        Collections.sort(result, new Comparator<SessionInfo>() {
+            @Override
+            public int compare(SessionInfo a, SessionInfo b) {
+                return a.getStartMillis() < b.getStartMillis() ? -1 : a.getStartMillis() == b.getStartMillis() ? 0 : 1;
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * Sums the metadata of the sessions accepted by the filter.
+     */
+    public synchronized Summary summarize(Filter filter) {
+        Summary summary = new Summary();
+
+        for (SessionInfo session : sessions.values()) {
+            if (filter.accept(session)) summary.add(session);
+        }
+
+        return summary;
+    }
+
+    /**
+     * Returns the number of entries in the file, including overwritten ones.
+     */
+    public synchronized int getEntryCount() {
+        return entryCount;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Appends one entry and forces it to the device.
+     */
+    private void append(byte[] payload) throws IOException {
+        FileOutputStream out = new FileOutputStream(file, true);
+
+        try {
+            out.write(frame(payload));
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+
+        entryCount++;
+    }
+
+    /**
+     * Writes the catalog with one entry per session into a new file which replaces the old one.
+     */
+    private void rewrite() throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putShort((short) VERSION);
+            out.write(header.array());
+
+            for (SessionInfo session : sessions.values()) {
+                out.write(frame(encodePut(session)));
+            }
+
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Couldn't replace the catalog: " + file);
+        }
+
+        entryCount = sessions.size();
+    }
+
+    private static byte[] frame(byte[] payload) {
+        Crc32c crc = new Crc32c();
+        crc.update(payload, 0, payload.length);
+
+        ByteBuffer entry = ByteBuffer.allocate(ENTRY_HEADER_SIZE + payload.length).order(ByteOrder.LITTLE_ENDIAN);
+        entry.putInt(ENTRY_MAGIC).putShort((short) payload.length).putInt((int) crc.getValue()).put(payload);
+
+        return entry.array();
+    }
+
+    private static byte[] encodePut(SessionInfo session) {
+        byte[] nameBytes = session.getName().getBytes(UTF_8);
+        int[] sensorTypes = session.getSensorTypes();
+
+        if (session.getLabelCount() > 255 || sensorTypes.length > 255) throw new IllegalArgumentException("Too many counters");
+
+        ByteBuffer payload = ByteBuffer.allocate(1 + 2 + nameBytes.length + 1 + 4 * 8
+                + 1 + 8 * session.getLabelCount() + 1 + 9 * sensorTypes.length).order(ByteOrder.LITTLE_ENDIAN);
+
+        payload.put((byte) KIND_PUT);
+        putString(payload, nameBytes);
+        payload.put((byte) session.getMode().ordinal());
+        payload.putLong(session.getStartMillis());
+        payload.putLong(session.getEndMillis());
+        payload.putLong(session.getSizeBytes());
+        payload.putLong(session.getExportedMillis());
+
+        payload.put((byte) session.getLabelCount());
+        for (int label = 0; label < session.getLabelCount(); label++) payload.putLong(session.getRecordCount(label));
+
+        payload.put((byte) sensorTypes.length);
+        for (int sensorType : sensorTypes) {
+            payload.put((byte) sensorType);
+            payload.putLong(session.getSampleCount(sensorType));
+        }
+
+        return payload.array();
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        if (bytes.length > 0xFFFF) throw new IllegalArgumentException("Name too long");
+
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Sums of the metadata of several sessions.
+     */
+    public static final class Summary {
+
+        // Sample counts are summed for the sensor types 0 to SENSOR_SLOTS - 1
+        private static final int SENSOR_SLOTS = 64;
+
+        private int sessionCount = 0;
+        private int notExportedCount = 0;
+        private long sizeBytes = 0;
+        private long durationMillis = 0;
+        private long[] recordsPerLabel = new long[0];
+        private final long[] samplesPerSensor = new long[SENSOR_SLOTS];
+
+        private void add(SessionInfo session) {
+            sessionCount++;
+            if (NOT_EXPORTED.accept(session)) notExportedCount++;
+            sizeBytes += session.getSizeBytes();
+            durationMillis += session.getDurationMillis();
+
+            if (session.getLabelCount() > recordsPerLabel.length) {
+                long[] grown = new long[session.getLabelCount()];
+                System.arraycopy(recordsPerLabel, 0, grown, 0, recordsPerLabel.length);
+                recordsPerLabel = grown;
+            }
+            for (int label = 0; label < session.getLabelCount(); label++) {
+                recordsPerLabel[label] += session.getRecordCount(label);
+            }
+
+            for (int sensorType : session.getSensorTypes()) {
+                if (sensorType < SENSOR_SLOTS) samplesPerSensor[sensorType] += session.getSampleCount(sensorType);
+            }
+        }
+
+        public int getSessionCount() {
+            return sessionCount;
+        }
+
+        public int getNotExportedCount() {
+            return notExportedCount;
+        }
+
+        public long getSizeBytes() {
+            return sizeBytes;
+        }
+
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        public long getRecordCount(int label) {
+            return label >= 0 && label < recordsPerLabel.length ? recordsPerLabel[label] : 0;
+        }
+
+        public long getSampleCount(int sensorType) {
+            return sensorType >= 0 && sensorType < SENSOR_SLOTS ? samplesPerSensor[sensorType] : 0;
+        }
+    }
+}
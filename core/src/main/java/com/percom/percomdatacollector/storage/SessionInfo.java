@@ -0,0 +1,187 @@
+package com.percom.percomdatacollector.storage;
+
+import com.percom.percomdatacollector.capture.RecordingMode;
+
+import java.util.Arrays;
+
+/**
+ * Metadata of one recording session as stored in the SessionCatalog: the name of its capture,
+ * what it stores, the time range, the records per movement type, the samples per sensor, the
+ * size and when it was exported. An instance is immutable, an update creates a copy.
+ */
+public final class SessionInfo {
+
+    // Stored instead of a time which isn't known yet
+    public static final long UNKNOWN_TIME = 0;
+
+    private static final long[] NO_COUNTS = new long[0];
+    private static final int[] NO_TYPES = new int[0];
+
+    private final String name;
+    private final RecordingMode mode;
+
+    // Wall clock time in milliseconds, endMillis is UNKNOWN_TIME while recording
+    private final long startMillis;
+    private final long endMillis;
+
+    // Size of all segments of the capture
+    private final long sizeBytes;
+
+    // Records per movement type code
+    private final long[] recordsPerLabel;
+
+    // Samples written per sensor type, the types in ascending order
+    private final int[] sensorTypes;
+    private final long[] samplesPerSensor;
+
+    // Time of the last export or UNKNOWN_TIME
+    private final long exportedMillis;
+
+    /**
+     * Creates the metadata.
+     *
+     * @param name : String : Name of the capture in the app storage.
+     * @param mode : RecordingMode : What the capture stores.
+     * @param startMillis : long : Start of the recording.
+     * @param endMillis : long : End of the recording, UNKNOWN_TIME while recording.
+     * @param sizeBytes : long : Size of all segments.
+     * @param recordsPerLabel : long[] : Records per movement type code, copied.
+     * @param sensorTypes : int[] : Recorded sensor types in ascending order, copied.
+     * @param samplesPerSensor : long[] : Samples written per entry of sensorTypes, copied.
+     * @param exportedMillis : long : Time of the last export, UNKNOWN_TIME if never exported.
+     */
+    public SessionInfo(String name, RecordingMode mode, long startMillis, long endMillis, long sizeBytes,
+                       long[] recordsPerLabel, int[] sensorTypes, long[] samplesPerSensor, long exportedMillis) {
+        if (sensorTypes.length != samplesPerSensor.length) {
+            throw new IllegalArgumentException("One sample count per sensor type required");
+        }
+
+        this.name = name;
+        this.mode = mode;
+        this.startMillis = startMillis;
+        this.endMillis = endMillis;
+        this.sizeBytes = sizeBytes;
+        this.recordsPerLabel = recordsPerLabel.clone();
+        this.sensorTypes = sensorTypes.clone();
+        this.samplesPerSensor = samplesPerSensor.clone();
+        this.exportedMillis = exportedMillis;
+    }
+
+    /**
+     * Creates the metadata of a session which has just started.
+     *
+     * @param name : String : Name of the capture in the app storage.
+     * @param mode : RecordingMode : What the capture stores.
+     * @param startMillis : long : Start of the recording.
+     * @return SessionInfo : Open session without records.
+     */
+    public static SessionInfo started(String name, RecordingMode mode, long startMillis) {
+        return new SessionInfo(name, mode, startMillis, UNKNOWN_TIME, 0, NO_COUNTS, NO_TYPES, NO_COUNTS, UNKNOWN_TIME);
+    }
+
+    /**
+     * Returns a copy for the finished session.
+     *
+     * @param endMillis : long : End of the recording.
+     * @param sizeBytes : long : Size of all segments.
+     * @param recordsPerLabel : long[] : Records per movement type code.
+     * @param sensorTypes : int[] : Recorded sensor types in ascending order.
+     * @param samplesPerSensor : long[] : Samples written per entry of sensorTypes.
+     * @return SessionInfo : The finished session.
+     */
+    public SessionInfo finished(long endMillis, long sizeBytes, long[] recordsPerLabel, int[] sensorTypes,
+                                long[] samplesPerSensor) {
+        return new SessionInfo(name, mode, startMillis, endMillis, sizeBytes, recordsPerLabel, sensorTypes,
+                samplesPerSensor, exportedMillis);
+    }
+
+    /**
+     * Returns a copy which was exported at the given time.
+     */
+    public SessionInfo exported(long exportedMillis) {
+        return new SessionInfo(name, mode, startMillis, endMillis, sizeBytes, recordsPerLabel, sensorTypes,
+                samplesPerSensor, exportedMillis);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public RecordingMode getMode() {
+        return mode;
+    }
+
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    public long getEndMillis() {
+        return endMillis;
+    }
+
+    /**
+     * Returns true while the session is recorded or if it wasn't finished, e.g. after a crash.
+     */
+    public boolean isOpen() {
+        return endMillis == UNKNOWN_TIME;
+    }
+
+    /**
+     * Returns the recorded time, 0 for an open session.
+     */
+    public long getDurationMillis() {
+        return isOpen() ? 0 : endMillis - startMillis;
+    }
+
+    public long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    /**
+     * Returns the number of records of a movement type.
+     */
+    public long getRecordCount(int label) {
+        return label >= 0 && label < recordsPerLabel.length ? recordsPerLabel[label] : 0;
+    }
+
+    /**
+     * Returns the number of records of all movement types.
+     */
+    public long getTotalRecordCount() {
+        long total = 0;
+        for (long count : recordsPerLabel) total += count;
+
+        return total;
+    }
+
+    /**
+     * Returns the number of movement type codes with a count, the highest code plus one.
+     */
+    public int getLabelCount() {
+        return recordsPerLabel.length;
+    }
+
+    /**
+     * Returns the number of written samples of a sensor type.
+     */
+    public long getSampleCount(int sensorType) {
+        int index = Arrays.binarySearch(sensorTypes, sensorType);
+
+        return index >= 0 ? samplesPerSensor[index] : 0;
+    }
+
+    /**
+     * Returns the recorded sensor types in ascending order.
+     */
+    public int[] getSensorTypes() {
+        return sensorTypes.clone();
+    }
+
+    public long getExportedMillis() {
+        return exportedMillis;
+    }
+
+    public boolean isExported() {
+        return exportedMillis != UNKNOWN_TIME;
+    }
+}
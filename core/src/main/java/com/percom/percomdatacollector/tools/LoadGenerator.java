@@ -0,0 +1,452 @@
+package com.percom.percomdatacollector.tools;
+
+import com.percom.percomdatacollector.Files.ArffSchema;
+import com.percom.percomdatacollector.batch.RawCapture;
+import com.percom.percomdatacollector.batch.RawCaptureChunk;
+import com.percom.percomdatacollector.batch.RefeaturizationEngine;
+import com.percom.percomdatacollector.capture.CaptureWriterThread;
+import com.percom.percomdatacollector.capture.MergedFeatureRecordConsumer;
+import com.percom.percomdatacollector.capture.OverflowPolicy;
+import com.percom.percomdatacollector.capture.RawSampleRecordConsumer;
+import com.percom.percomdatacollector.capture.RecordWritingConsumer;
+import com.percom.percomdatacollector.capture.RecordingDefaults;
+import com.percom.percomdatacollector.capture.RecordingMode;
+import com.percom.percomdatacollector.capture.ReplayClock;
+import com.percom.percomdatacollector.capture.ReplaySensorSource;
+import com.percom.percomdatacollector.capture.SampleConsumer;
+import com.percom.percomdatacollector.capture.SampleQueueListener;
+import com.percom.percomdatacollector.capture.SampleRingBuffer;
+import com.percom.percomdatacollector.capture.SensorRegistry;
+import com.percom.percomdatacollector.capture.SensorSampleListener;
+import com.percom.percomdatacollector.capture.SyntheticSensorSource;
+import com.percom.percomdatacollector.capture.WriteErrorListener;
+import com.percom.percomdatacollector.features.MovementFeatureSchema;
+import com.percom.percomdatacollector.features.SpectralFeatureExtractor;
+import com.percom.percomdatacollector.metrics.PipelineMetrics;
+import com.percom.percomdatacollector.storage.FsyncPolicy;
+import com.percom.percomdatacollector.storage.SegmentedCaptureLog;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Command line load generator for reproducible stress tests of the capture pipeline on a
+ * desktop JVM. It synthesizes sensor traces at configurable rates or replays recordings and
+ * drives them through the same stages as a recording of the FileService: SampleQueueListener,
+ * SampleRingBuffer, CaptureWriterThread, the consumer of the recording mode and a
+ * SegmentedCaptureLog, with the RecordingDefaults of the app. Like the batching FIFOs of the
+ * phone the synthesized trace arrives in bursts of the report latency, sensor after sensor. At the end it prints the
+ * sustained events per second, the bytes written and the PipelineMetrics report with the
+ * latency percentiles of every stage.
+ *
+ * Run with ./gradlew :core:loadGenerator -Pargs="--rate 10000 --duration 30", see usage().
+ */
+public final class LoadGenerator {
+
+    // Name of the capture in the output directory
+    private static final String CAPTURE_NAME = "loadtest";
+
+    // Options which are followed by a value
+    private static final List<String> VALUE_OPTIONS = Arrays.asList("--replay", "--replay-samples", "--sensors",
+            "--rate", "--duration", "--block", "--latency", "--label", "--mode", "--policy", "--queue", "--fsync", "--segment-size",
+            "--dir");
+
+    // Exit code for invalid arguments
+    private static final int EXIT_USAGE = 2;
+
+    // Sources of the samples, delivered one after the other
+    private final List<File> captures = new ArrayList<File>();
+    private final List<File> sampleFiles = new ArrayList<File>();
+    private boolean synthetic = false;
+
+    // Synthesized trace, the recorded sensors
+    private int[] sensorTypes = RecordingDefaults.SENSORS.getSensorTypes();
+    private SensorRegistry sensors = RecordingDefaults.SENSORS;
+    private boolean sensorsGiven = false;
+    private double[] ratesHz = {1000};
+    private double durationSeconds = 10;
+
+    // Delivery of the samples
+    private int blockSize = 64;
+    private long reportLatencyNanos = RecordingDefaults.MAX_REPORT_LATENCY_US * 1000L;
+    private boolean realTime = false;
+    private int label = 0;
+
+    // Pipeline configuration
+    private RecordingMode mode = RecordingMode.FEATURES;
+    private OverflowPolicy policy = OverflowPolicy.DROP_NEWEST;
+    private int queueCapacity = RecordingDefaults.SAMPLE_QUEUE_CAPACITY;
+    private FsyncPolicy fsyncPolicy = RecordingDefaults.FSYNC_POLICY;
+    private long segmentSize = SegmentedCaptureLog.DEFAULT_SEGMENT_SIZE;
+
+    // Directory of the capture, null for a temporary one which is deleted afterwards
+    private File directory = null;
+
+    // Number of records which couldn't be written, updated by the writer thread
+    private volatile long writeErrors = 0;
+
+    private LoadGenerator() {}
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator = new LoadGenerator();
+
+        try {
+            generator.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            usage(System.err);
+            System.exit(EXIT_USAGE);
+        }
+
+        generator.run(System.out);
+    }
+
+    private static void usage(PrintStream out) {
+        out.println("Usage: LoadGenerator [options]");
+        out.println("Sources, delivered in this order (default: --synthetic):");
+        out.println("  --synthetic              synthesized trace");
+        out.println("  --replay <file>          raw capture segment or its text export, repeatable");
+        out.println("  --replay-samples <file>  text file with lines sensorType,timestamp,x,y,z, repeatable");
+        out.println("Synthesized trace:");
+        out.println("  --sensors <types>        recorded sensor types, comma separated (the ones of the app or");
+        out.println("                           of the first --replay)");
+        out.println("  --rate <hz>              rate of all sensors or one per sensor, comma separated (1000)");
+        out.println("  --duration <s>           length of the trace (10)");
+        out.println("  --latency <ms>           bursts of every sensor like a batching FIFO, 0 for blocks of samples");
+        out.println("                           in timestamp order (" + RecordingDefaults.MAX_REPORT_LATENCY_US / 1000 + ")");
+        out.println("Delivery:");
+        out.println("  --block <n>              samples per block of a replay or without --latency (64)");
+        out.println("  --realtime               pace the blocks by the timestamps instead of as fast as possible");
+        out.println("  --label <code>           movement type of the samples of a synthesized or text source (0)");
+        out.println("Pipeline:");
+        out.println("  --mode features|raw      recording mode (features)");
+        out.println("  --policy <policy>        overflow policy of the queue, " + Arrays.toString(OverflowPolicy.values())
+                + " (DROP_NEWEST)");
+        out.println("  --queue <n>              capacity of the queue (" + RecordingDefaults.SAMPLE_QUEUE_CAPACITY + ")");
+        out.println("  --fsync <policy>         " + Arrays.toString(FsyncPolicy.values()) + " ("
+                + RecordingDefaults.FSYNC_POLICY + ")");
+        out.println("  --segment-size <bytes>   size of a capture segment (" + SegmentedCaptureLog.DEFAULT_SEGMENT_SIZE + ")");
+        out.println("  --dir <directory>        keep the capture there instead of a temporary directory");
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+
+            if (option.equals("--synthetic")) {
+                synthetic = true;
+            } else if (option.equals("--realtime")) {
+                realTime = true;
+            } else if (!VALUE_OPTIONS.contains(option)) {
+                throw new IllegalArgumentException("Unknown option: " + option);
+            } else {
+                if (i + 1 == args.length) throw new IllegalArgumentException("Missing value of " + option);
+                String value = args[++i];
+
+                try {
+                    parseOption(option, value);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid value of " + option + ": " + value);
+                }
+            }
+        }
+
+        if (captures.isEmpty() && sampleFiles.isEmpty()) synthetic = true;
+
+        if (ratesHz.length == 1 && sensorTypes.length > 1) {
+            double rate = ratesHz[0];
+            ratesHz = new double[sensorTypes.length];
+            Arrays.fill(ratesHz, rate);
+        }
+
+        if (ratesHz.length != sensorTypes.length) throw new IllegalArgumentException("One rate per sensor required");
+
+        // Throws if none of the sensors is supported
+        sensors = SensorRegistry.ALL.retain(sensorTypes);
+        if (blockSize < 1 || queueCapacity < 1 || segmentSize < 1 || durationSeconds <= 0) {
+            throw new IllegalArgumentException("Sizes and the duration must be positive");
+        }
+        if (reportLatencyNanos < 0) throw new IllegalArgumentException("The latency must not be negative");
+    }
+
+    private void parseOption(String option, String value) {
+        if (option.equals("--replay")) {
+            captures.add(new File(value));
+        } else if (option.equals("--replay-samples")) {
+            sampleFiles.add(new File(value));
+        } else if (option.equals("--sensors")) {
+            String[] types = value.split(",");
+            sensorTypes = new int[types.length];
+            sensorsGiven = true;
+            for (int i = 0; i < types.length; i++) sensorTypes[i] = Integer.parseInt(types[i].trim());
+        } else if (option.equals("--rate")) {
+            String[] rates = value.split(",");
+            ratesHz = new double[rates.length];
+            for (int i = 0; i < rates.length; i++) ratesHz[i] = Double.parseDouble(rates[i].trim());
+        } else if (option.equals("--duration")) {
+            durationSeconds = Double.parseDouble(value);
+        } else if (option.equals("--block")) {
+            blockSize = Integer.parseInt(value);
+        } else if (option.equals("--latency")) {
+            reportLatencyNanos = Long.parseLong(value) * 1000000L;
+        } else if (option.equals("--label")) {
+            label = Integer.parseInt(value);
+        } else if (option.equals("--mode")) {
+            if (value.equals("features")) {
+                mode = RecordingMode.FEATURES;
+            } else if (value.equals("raw")) {
+                mode = RecordingMode.RAW_SAMPLES;
+            } else {
+                throw new IllegalArgumentException("Unknown mode: " + value);
+            }
+        } else if (option.equals("--policy")) {
+            policy = OverflowPolicy.valueOf(value.toUpperCase(Locale.US));
+        } else if (option.equals("--queue")) {
+            queueCapacity = Integer.parseInt(value);
+        } else if (option.equals("--fsync")) {
+            fsyncPolicy = FsyncPolicy.valueOf(value.toUpperCase(Locale.US));
+        } else if (option.equals("--segment-size")) {
+            segmentSize = Long.parseLong(value);
+        } else {
+            directory = new File(value);
+        }
+    }
+
+    private void run(PrintStream out) throws IOException {
+        boolean temporary = directory == null;
+        File captureDirectory = directory;
+
+        if (temporary) {
+            captureDirectory = File.createTempFile("loadgen", "");
+            captureDirectory.delete();
+        }
+
+        if (!captureDirectory.isDirectory() && !captureDirectory.mkdirs()) {
+            throw new IOException("Couldn't create " + captureDirectory);
+        }
+
+        // A capture of an earlier run would be continued
+        for (File segment : SegmentedCaptureLog.listSegments(captureDirectory, CAPTURE_NAME)) {
+            if (!segment.delete()) throw new IOException("Couldn't delete " + segment);
+        }
+
+        // A replayed capture is recorded with its own sensors
+        if (!sensorsGiven && !captures.isEmpty()) sensors = RawCapture.open(captures.get(0)).getSensors();
+
+        ArffSchema schema = mode == RecordingMode.RAW_SAMPLES
+                ? MovementFeatureSchema.createRawSamples(sensors)
+                : MovementFeatureSchema.createMergedWithSpectrum(sensors,
+                        SpectralFeatureExtractor.DEFAULT_BAND_EDGES_HZ.length - 1);
+
+        PipelineMetrics metrics = new PipelineMetrics();
+        SampleRingBuffer sampleQueue = new SampleRingBuffer(queueCapacity, policy, metrics);
+
+        SegmentedCaptureLog.create(captureDirectory, CAPTURE_NAME, schema);
+        SegmentedCaptureLog log = new SegmentedCaptureLog(captureDirectory, CAPTURE_NAME, fsyncPolicy, segmentSize);
+        log.setDropStatisticsSource(sampleQueue);
+
+        CaptureWriterThread writer = new CaptureWriterThread(sampleQueue, createConsumer(log, schema, metrics),
+                CaptureWriterThread.DEFAULT_BATCH_SIZE);
+        SampleQueueListener queueListener = new SampleQueueListener(sampleQueue, writer, metrics);
+        queueListener.setLabel(label);
+        ReplayListener listener = new ReplayListener(queueListener, metrics);
+
+        long start = System.nanoTime();
+        writer.start();
+
+        if (synthetic) {
+            long durationNanos = (long) (durationSeconds * 1e9);
+            listener.rebase();
+            new SyntheticSensorSource(sensorTypes, ratesHz, durationNanos, blockSize, reportLatencyNanos, realTime)
+                    .replay(listener);
+        }
+
+        for (File file : sampleFiles) {
+            listener.rebase();
+            new ReplaySensorSource(new FileInputStream(file), blockSize, realTime).replay(listener);
+        }
+
+        for (File file : captures) {
+            RawCapture capture = RawCapture.open(file);
+            CaptureFeeder feeder = new CaptureFeeder(listener, queueListener);
+            listener.rebase();
+
+            for (RawCaptureChunk chunk : capture.split(RefeaturizationEngine.DEFAULT_CHUNK_SIZE)) {
+                capture.replay(chunk, feeder);
+            }
+
+            feeder.onWriterStopped();
+        }
+
+        // Drains the queue and closes the capture
+        writer.shutdown();
+        long elapsed = System.nanoTime() - start;
+
+        long bytes = SegmentedCaptureLog.calcSize(captureDirectory, CAPTURE_NAME);
+        int segments = SegmentedCaptureLog.listSegments(captureDirectory, CAPTURE_NAME).size();
+
+        report(out, metrics, elapsed, bytes, segments);
+
+        if (temporary) {
+            for (File segment : SegmentedCaptureLog.listSegments(captureDirectory, CAPTURE_NAME)) segment.delete();
+            captureDirectory.delete();
+        } else {
+            out.println("capture        " + new File(captureDirectory, CAPTURE_NAME));
+        }
+    }
+
+    private SampleConsumer createConsumer(SegmentedCaptureLog log, ArffSchema schema, PipelineMetrics metrics) {
+        RecordWritingConsumer consumer;
+
+        if (mode == RecordingMode.RAW_SAMPLES) {
+            consumer = new RawSampleRecordConsumer(log, schema, sensors);
+        } else {
+            consumer = new MergedFeatureRecordConsumer(log, schema, RecordingDefaults.RESAMPLING_TICK_NANOS,
+                    RecordingDefaults.MAX_SENSOR_LAG_NANOS, RecordingDefaults.WINDOW_LENGTH, RecordingDefaults.WINDOW_HOP,
+                    SpectralFeatureExtractor.DEFAULT_BAND_EDGES_HZ, sensors);
+        }
+
+        consumer.setMetrics(metrics);
+        consumer.setWriteErrorListener(new WriteErrorListener() {
+            @Override
+            public void onWriteError(IOException e) {
+                writeErrors++;
+            }
+        });
+
+        return consumer;
+    }
+
+    private void report(PrintStream out, PipelineMetrics metrics, long elapsedNanos, long bytes, int segments)
+            throws IOException {
+        double seconds = elapsedNanos / 1e9;
+        long records = 0;
+        for (int code = 0; code < PipelineMetrics.LABEL_SLOTS; code++) records += metrics.getRecords(code);
+
+        if (synthetic) {
+            out.println("synthetic      sensors " + Arrays.toString(sensorTypes) + " rate_hz " + Arrays.toString(ratesHz)
+                    + " duration_s " + durationSeconds + " latency_ms " + reportLatencyNanos / 1000000L);
+        }
+        for (File file : sampleFiles) out.println("replay_samples " + file);
+        for (File file : captures) out.println("replay         " + file);
+
+        out.println("pipeline       mode " + mode + " policy " + policy + " queue " + queueCapacity + " block "
+                + blockSize + " fsync " + fsyncPolicy + " realtime " + realTime);
+        out.println(String.format(Locale.US, "elapsed_s      %.3f", seconds));
+        out.println(String.format(Locale.US, "sustained      %.1f events/s written, %.1f KB/s",
+                metrics.getTotalWritten() / seconds, bytes / seconds / 1024));
+        out.println("samples        received " + metrics.getTotalReceived() + " written " + metrics.getTotalWritten()
+                + " dropped " + metrics.getTotalDropped());
+        out.println("records        " + records + " write_errors " + writeErrors);
+        out.println("bytes_written  " + bytes + " segments " + segments);
+
+        // Without pacing the timestamps run ahead of the clock, eventToWriter is only valid with --realtime
+        metrics.writeReport(out);
+    }
+
+    /**
+     * Times every sample like the sensor callback of the AndroidSensorSource and moves the
+     * timestamps of a source to the current time, so consecutive sources stay in order and the
+     * event-to-writer latency is measured against the replay.
+     */
+    private static class ReplayListener implements SensorSampleListener {
+
+        private final SensorSampleListener target;
+        private final PipelineMetrics metrics;
+
+        // Added to the timestamps of the current source, set by the first sample
+        private long offset = 0;
+        private boolean rebasing = true;
+
+        ReplayListener(SensorSampleListener target, PipelineMetrics metrics) {
+            this.target = target;
+            this.metrics = metrics;
+        }
+
+        /**
+         * Moves the timestamps of the next source, its first sample gets the current time.
+         */
+        void rebase() {
+            rebasing = true;
+        }
+
+        @Override
+        public void onSample(int sensorType, long timestamp, float x, float y, float z) {
+            long start = System.nanoTime();
+
+            if (rebasing) {
+                rebasing = false;
+                offset = start - timestamp;
+            }
+
+            target.onSample(sensorType, timestamp + offset, x, y, z);
+            metrics.getCallback().record(System.nanoTime() - start);
+        }
+
+        @Override
+        public void onBlockComplete() {
+            target.onBlockComplete();
+        }
+
+        @Override
+        public void onSourceStopped() {
+            target.onSourceStopped();
+        }
+    }
+
+    /**
+     * Delivers the samples of a RawCapture in blocks, with the recorded movement type of every
+     * sample. Paces the blocks with --realtime.
+     */
+    private class CaptureFeeder implements SampleConsumer {
+
+        private final ReplayListener listener;
+        private final SampleQueueListener queueListener;
+
+        // First timestamp of the capture and start of the replay for the pacing
+        private long firstTimestamp = -1;
+        private long startNanos = 0;
+        private int inBlock = 0;
+
+        CaptureFeeder(ReplayListener listener, SampleQueueListener queueListener) {
+            this.listener = listener;
+            this.queueListener = queueListener;
+        }
+
+        @Override
+        public void onSample(int sensorType, long timestamp, float x, float y, float z, int label) {
+            if (firstTimestamp < 0) {
+                firstTimestamp = timestamp;
+                startNanos = System.nanoTime();
+            }
+
+            if (label != queueListener.getLabel()) queueListener.setLabel(label);
+            listener.onSample(sensorType, timestamp, x, y, z);
+
+            if (++inBlock == blockSize) {
+                inBlock = 0;
+
+                if (realTime) ReplayClock.sleepUntil(startNanos + timestamp - firstTimestamp);
+                listener.onBlockComplete();
+            }
+        }
+
+        @Override
+        public void onBatchComplete() {
+        }
+
+        @Override
+        public void onWriterStopped() {
+            if (inBlock > 0) listener.onBlockComplete();
+            inBlock = 0;
+
+            listener.onSourceStopped();
+        }
+    }
+}
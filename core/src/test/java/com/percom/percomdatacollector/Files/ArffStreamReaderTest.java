@@ -0,0 +1,295 @@
+package com.percom.percomdatacollector.Files;
+
+import com.percom.percomdatacollector.features.MovementFeatureSchema;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+/**
+ * Parses ARFF headers and rows from the read buffer.
+ */
+public class ArffStreamReaderTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Lines 1 to 7, the first row is line 8
+    private static final String HEADER = "@relation test\n"
+            + "\n"
+            + "@attribute a numeric\n"
+            + "@attribute b real\n"
+            + "@attribute c {x,'y z',\"w\"}\n"
+            + "\n"
+            + "@data\n";
+
+    /**
+     * Returns at most a few bytes per read, like a slow stream.
+     */
+    private static class TrickleInputStream extends InputStream {
+        private final InputStream in;
+        private final int maxRead;
+
+        TrickleInputStream(byte[] bytes, int maxRead) {
+            this.in = new ByteArrayInputStream(bytes);
+            this.maxRead = maxRead;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return in.read();
+        }
+
+        @Override
+        public int read(byte[] dst, int offset, int length) throws IOException {
+            return in.read(dst, offset, Math.min(length, maxRead));
+        }
+    }
+
+    private static ArffStreamReader open(String text) {
+        return new ArffStreamReader(new ByteArrayInputStream(text.getBytes(UTF_8)));
+    }
+
+    /**
+     * Returns the error of the second row of the test header.
+     */
+    private static ArffParseException parseError(String row) throws IOException {
+        ArffStreamReader reader = open(HEADER + "1,2,x\n" + row + "\n");
+        ArffRecord record = new ArffRecord(reader.readHeader());
+
+        assertTrue(reader.next(record));
+
+        try {
+            reader.next(record);
+        } catch (ArffParseException e) {
+            return e;
+        }
+
+        fail("Accepted " + row);
+        return null;
+    }
+
+    private static float parseNumber(String value) throws IOException {
+        ArffStreamReader reader = open("@relation n\n@attribute a numeric\n@data\n" + value);
+        ArffRecord record = new ArffRecord(reader.readHeader());
+
+        assertTrue(reader.next(record));
+
+        return record.getNumeric(0);
+    }
+
+    @Test
+    public void next_readsTheRecordsOfTheArffRecordSink() throws Exception {
+        ArffSchema schema = MovementFeatureSchema.createRawSamples();
+        ArffRecord record = new ArffRecord(schema);
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        ArffRecordSink sink = new ArffRecordSink(file);
+
+        sink.writeHeader(schema);
+        for (int i = 0; i < 1000; i++) {
+            record.setNumeric(0, i / 8f);
+            record.setNumeric(1, -i * 1.5e-4f);
+            record.setNumeric(2, i == 7 ? Float.NaN : 9.81f);
+            record.setNominal(0, i % 2);
+            record.setNominal(1, i / 400);
+            sink.write(record);
+        }
+        sink.close();
+
+        ArffStreamReader reader = new ArffStreamReader(new ByteArrayInputStream(file.toByteArray()));
+        ArffSchema read = reader.readHeader();
+        ArffRecord row = new ArffRecord(read);
+
+        assertEquals(schema.toArffHeader(), read.toArffHeader());
+        assertFalse(reader.hasTimestamp());
+
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(reader.next(row));
+            assertEquals(i / 8f, row.getNumeric(0), 1e-6f);
+            assertEquals(-i * 1.5e-4f, row.getNumeric(1), 1e-6f);
+            assertEquals(i == 7 ? Float.NaN : 9.81f, row.getNumeric(2), 1e-6f);
+            assertEquals(i % 2, row.getNominal(0));
+            assertEquals(i / 400, row.getNominal(1));
+        }
+
+        assertFalse(reader.next(row));
+        assertEquals(9 + 1000, reader.getLineNumber());
+        reader.close();
+    }
+
+    @Test
+    public void next_reportsLineAndColumnOfMalformedRows() throws Exception {
+        ArffParseException e = parseError("1,abc,x");
+        assertEquals(9, e.getLine());
+        assertEquals(3, e.getColumn());
+        assertEquals("Invalid number", e.getReason());
+
+        e = parseError("1,2");
+        assertEquals(9, e.getLine());
+        assertEquals(4, e.getColumn());
+
+        e = parseError("1,2,x,4");
+        assertEquals(6, e.getColumn());
+
+        e = parseError("1, 2,  v");
+        assertEquals(8, e.getColumn());
+        assertEquals("Unknown value of c", e.getReason());
+
+        e = parseError("1,2e,x");
+        assertEquals(5, e.getColumn());
+        assertEquals("Invalid exponent", e.getReason());
+
+        e = parseError("1,,x");
+        assertEquals(3, e.getColumn());
+    }
+
+    @Test
+    public void readHeader_reportsTheLineOfAnInvalidHeader() throws Exception {
+        try {
+            open("@relation test\n@attribute a string\n@data\n").readHeader();
+            fail("String attribute accepted");
+        } catch (ArffParseException e) {
+            assertEquals(2, e.getLine());
+            assertEquals(1, e.getColumn());
+        }
+    }
+
+    @Test
+    public void next_parsesNumbersLikeFloatParseFloat() throws Exception {
+        String[] values = {
+                "0", "-0.5", "+7", ".25", "3.", "1.5e3", "-2.5E-2", "1e+2", "6.02214076E23",
+                "1.401298464324817E-45", "0.000000000000000000000123",
+                // More than 18 significant digits
+                "12345678901234567890123", "123456789012345678901.5", "0.1234567890123456789012",
+                "9999999999999999999999e-10"
+        };
+
+        for (String value : values) {
+            float expected = Float.parseFloat(value);
+            assertEquals(value, expected, parseNumber(value), Math.ulp(expected));
+        }
+
+        assertTrue(Float.isNaN(parseNumber("?")));
+        assertTrue(Float.isInfinite(parseNumber("1e400")));
+        assertEquals(0f, parseNumber("1e-400"), 0f);
+    }
+
+    @Test
+    public void next_readsQuotedNominalValues() throws Exception {
+        ArffStreamReader reader = open("@relation 'quoted relation'\n"
+                + "@attribute 'first value' numeric\n"
+                + "@attribute c {x,'y z',\"w\"}\n"
+                + "@data\n"
+                + "1,'y z'\n"
+                + "2,\"w\"\n"
+                + "3,'x'\n"
+                + "4,x\n"
+                + "5,?\n");
+        ArffSchema schema = reader.readHeader();
+        ArffRecord record = new ArffRecord(schema);
+
+        assertEquals("quoted relation", schema.getRelation());
+        assertEquals("first value", schema.getAttribute(0).getName());
+
+        int[] expected = {1, 2, 0, 0, ArffStreamReader.MISSING_NOMINAL};
+        for (int code : expected) {
+            assertTrue(reader.next(record));
+            assertEquals(code, record.getNominal(0));
+        }
+
+        assertFalse(reader.next(record));
+    }
+
+    @Test
+    public void next_readsCrlfLineBreaks() throws Exception {
+        ArffStreamReader reader = open(HEADER.replace("\n", "\r\n") + "1.5,2,'y z'\r\n% comment\r\n\r\n-3,4e1,w\r\n");
+        ArffRecord record = new ArffRecord(reader.readHeader());
+
+        assertTrue(reader.next(record));
+        assertEquals(1.5f, record.getNumeric(0), 0f);
+        assertEquals(1, record.getNominal(0));
+
+        assertTrue(reader.next(record));
+        assertEquals(-3f, record.getNumeric(0), 0f);
+        assertEquals(40f, record.getNumeric(1), 0f);
+        assertEquals(2, record.getNominal(0));
+        assertEquals(11, reader.getLineNumber());
+
+        assertFalse(reader.next(record));
+    }
+
+    @Test
+    public void next_refillsTheBufferForLinesAcrossReads() throws Exception {
+        StringBuilder text = new StringBuilder(HEADER);
+        for (int i = 0; i < 500; i++) text.append(i).append(".25,").append(-i).append(",x\n");
+
+        // The last line without a line break
+        text.append("-1,-2,w");
+
+        byte[] bytes = text.toString().getBytes(UTF_8);
+        ArffStreamReader reader = new ArffStreamReader(new TrickleInputStream(bytes, 7), 32);
+        ArffRecord record = new ArffRecord(reader.readHeader());
+
+        assertEquals(HEADER.length(), reader.getOffset());
+
+        for (int i = 0; i < 500; i++) {
+            assertTrue(reader.next(record));
+            assertEquals(i + 0.25f, record.getNumeric(0), 0f);
+            assertEquals(-i, record.getNumeric(1), 0f);
+        }
+
+        assertTrue(reader.next(record));
+        assertEquals(2, record.getNominal(0));
+        assertFalse(reader.next(record));
+        assertEquals(bytes.length, reader.getOffset());
+
+        // A line must fit into the buffer
+        reader = new ArffStreamReader(new TrickleInputStream(bytes, 7), 16);
+
+        try {
+            reader.readHeader();
+            fail("Line longer than the buffer accepted");
+        } catch (ArffParseException e) {
+            assertEquals(3, e.getLine());
+        }
+    }
+
+    @Test
+    public void next_readsTheTimestampAttribute() throws Exception {
+        ArffStreamReader reader = open("@relation t\n"
+                + "@attribute a numeric\n"
+                + "@attribute timestamp numeric\n"
+                + "@attribute c {x,y}\n"
+                + "@data\n"
+                + "1,-9223372036854775,y\n"
+                + "2,123456789012345678,x\n"
+                + "3,1.5,x\n");
+        ArffSchema schema = reader.readHeader();
+        ArffRecord record = new ArffRecord(schema);
+
+        assertTrue(reader.hasTimestamp());
+        assertEquals(2, schema.getAttributeCount());
+        assertEquals(-1, schema.indexOf(ArffStreamReader.TIMESTAMP_ATTRIBUTE));
+
+        assertTrue(reader.next(record));
+        assertEquals(-9223372036854775L, record.getTimestamp());
+        assertEquals(1, record.getNominal(0));
+
+        assertTrue(reader.next(record));
+        assertEquals(123456789012345678L, record.getTimestamp());
+        assertEquals(2f, record.getNumeric(0), 0f);
+
+        try {
+            reader.next(record);
+            fail("Fractional timestamp accepted");
+        } catch (ArffParseException e) {
+            assertEquals(8, e.getLine());
+            assertEquals(4, e.getColumn());
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.percom.percomdatacollector.Files;
+
+import com.percom.percomdatacollector.features.MovementFeatureSchema;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Exports a capture through the RecordSink of every format.
+ */
+public class CaptureConverterTest {
+
+    /**
+     * A capture of raw samples written with small blocks, the movement type changes twice.
+     */
+    private static byte[] createCapture() throws Exception {
+        ByteArrayOutputStream capture = new ByteArrayOutputStream();
+        BinaryRecordSink sink = new BinaryRecordSink(capture, 256);
+        ArffSchema schema = MovementFeatureSchema.createRawSamples();
+        ArffRecord record = new ArffRecord(schema);
+
+        sink.writeHeader(schema);
+
+        for (int i = 0; i < 100; i++) {
+            record.setTimestamp(i * 5000000L);
+            record.setNumeric(0, i / 10f);
+            record.setNumeric(1, -1.25f);
+            record.setNumeric(2, 9.81f);
+            record.setNominal(0, i % 2);
+            record.setNominal(1, i / 40);
+            sink.write(record);
+        }
+
+        sink.close();
+
+        return capture.toByteArray();
+    }
+
+    private static byte[] convert(byte[] capture, ExportFormat format) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertEquals(100, CaptureConverter.convert(new ByteArrayInputStream(capture), out, format));
+
+        return out.toByteArray();
+    }
+
+    private static byte[] readAll(InputStream in) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+
+        for (int read; (read = in.read(buffer)) > 0; ) out.write(buffer, 0, read);
+
+        return out.toByteArray();
+    }
+
+    @Test
+    public void convert_binaryKeepsAllRecords() throws Exception {
+        byte[] capture = createCapture();
+        byte[] csv = convert(capture, ExportFormat.CSV);
+
+        // The labels of the segments are expanded into every line
+        String text = new String(csv, "UTF-8");
+        assertTrue(text.contains("\n195000000,3.900000,-1.250000,9.810000,gyroscope,walking"));
+        assertTrue(text.contains("\n400000000,8.000000,-1.250000,9.810000,accelerometer,sport"));
+
+        assertTrue(Arrays.equals(csv, convert(convert(capture, ExportFormat.BINARY), ExportFormat.CSV)));
+    }
+
+    @Test
+    public void convert_gzipCompressesTheText() throws Exception {
+        byte[] capture = createCapture();
+        byte[] arff = convert(capture, ExportFormat.ARFF);
+        byte[] compressed = convert(capture, ExportFormat.ARFF_GZIP);
+
+        assertTrue(Arrays.equals(arff, readAll(new GZIPInputStream(new ByteArrayInputStream(compressed)))));
+    }
+}
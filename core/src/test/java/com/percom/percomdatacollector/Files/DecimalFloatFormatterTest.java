@@ -0,0 +1,70 @@
+package com.percom.percomdatacollector.Files;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the round trip guarantee of the DecimalFloatFormatter against Float.parseFloat.
+ */
+public class DecimalFloatFormatterTest {
+
+    private static String format(DecimalFloatFormatter formatter, float value) {
+        byte[] buffer = new byte[32];
+        int length = formatter.format(value, buffer, 0);
+
+        return new String(buffer, 0, length);
+    }
+
+    @Test
+    public void format_fixedPrecision() throws Exception {
+        DecimalFloatFormatter formatter = new DecimalFloatFormatter(3);
+
+        assertEquals("0.000", format(formatter, 0f));
+        assertEquals("9.810", format(formatter, 9.81f));
+        assertEquals("-0.125", format(formatter, -0.125f));
+        assertEquals("0.000", format(formatter, -0.0001f));
+        assertEquals("?", format(formatter, Float.NaN));
+        assertEquals("?", format(formatter, Float.POSITIVE_INFINITY));
+    }
+
+    @Test
+    public void format_roundTripWithinHalfUnit() throws Exception {
+        Random random = new Random(42);
+
+        for (int decimals = 0; decimals <= DecimalFloatFormatter.MAX_DECIMALS; decimals++) {
+            DecimalFloatFormatter formatter = new DecimalFloatFormatter(decimals);
+            double bound = 0.5 / Math.pow(10, decimals);
+
+            for (int i = 0; i < 20000; i++) {
+                float value = (float) ((random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(10)));
+                float parsed = Float.parseFloat(format(formatter, value));
+
+                assertTrue(value + " -> " + parsed, Math.abs(parsed - (double) value) <= bound + Math.ulp(parsed));
+            }
+        }
+    }
+
+    @Test
+    public void format_largeValuesUseExponent() throws Exception {
+        DecimalFloatFormatter formatter = new DecimalFloatFormatter(6);
+        float[] values = {1e9f, -3.4028235e38f, 9.999999e15f, 1.5e20f};
+
+        for (float value : values) {
+            float parsed = Float.parseFloat(format(formatter, value));
+
+            assertEquals(value, parsed, Math.abs(value) * 0.5e-6 + Math.ulp(parsed));
+        }
+    }
+
+    @Test
+    public void format_chars() throws Exception {
+        DecimalFloatFormatter formatter = new DecimalFloatFormatter(2);
+        char[] chars = new char[32];
+        int length = formatter.format(-12.345f, chars, 0);
+
+        assertEquals("-12.35", new String(chars, 0, length));
+    }
+}
@@ -0,0 +1,96 @@
+package com.percom.percomdatacollector.batch;
+
+import com.percom.percomdatacollector.Files.ExportFormat;
+import com.percom.percomdatacollector.storage.ExportEngine;
+import com.percom.percomdatacollector.storage.ExportListener;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Records raw samples and computes their features while exporting.
+ */
+public class FeatureExportJobTest {
+
+    private static final long TICK_NANOS = RawCaptureFixture.TICK_NANOS;
+    private static final long MAX_LAG_NANOS = RawCaptureFixture.MAX_LAG_NANOS;
+
+    private File capture;
+    private File destination;
+
+    @Before
+    public void recordCapture() throws Exception {
+        capture = RawCaptureFixture.record();
+        destination = File.createTempFile("features", ".arff");
+    }
+
+    @After
+    public void deleteFiles() {
+        capture.delete();
+        destination.delete();
+    }
+
+    @Test
+    public void export_matchesRefeaturizationOfTheWholeCapture() throws Exception {
+        final CountDownLatch finished = new CountDownLatch(1);
+        final IOException[] failure = {null};
+
+        ExportEngine engine = new ExportEngine();
+
+        try {
+            engine.submit(new FeatureExportJob(capture, destination, ExportFormat.ARFF, TICK_NANOS, MAX_LAG_NANOS, 64, 32, null),
+                    new ExportListener() {
+                        @Override
+                        public void onProgress(long bytesDone, long bytesTotal, double megabytesPerSecond) {
+                        }
+
+                        @Override
+                        public void onFinished(long bytesWritten, double megabytesPerSecond) {
+                            finished.countDown();
+                        }
+
+                        @Override
+                        public void onCancelled() {
+                            finished.countDown();
+                        }
+
+                        @Override
+                        public void onFailed(IOException e) {
+                            failure[0] = e;
+                            finished.countDown();
+                        }
+                    });
+
+            assertTrue(finished.await(10, TimeUnit.SECONDS));
+        } finally {
+            engine.shutdown();
+        }
+
+        assertNull(failure[0]);
+
+        // A single chunk has the same windows as the export
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        long count = new RefeaturizationEngine(new ForkJoinPool(1), TICK_NANOS, MAX_LAG_NANOS, 64, 32, Long.MAX_VALUE)
+                .refeaturize(capture, expected);
+
+        byte[] exported = new byte[(int) destination.length()];
+        FileInputStream in = new FileInputStream(destination);
+        assertEquals(exported.length, in.read(exported));
+        in.close();
+
+        assertEquals(RawCaptureFixture.FEATURE_RECORDS, count);
+        assertTrue(Arrays.equals(expected.toByteArray(), exported));
+    }
+}
@@ -0,0 +1,86 @@
+package com.percom.percomdatacollector.batch;
+
+import com.percom.percomdatacollector.Files.ArffSchema;
+import com.percom.percomdatacollector.Files.BinaryCaptureFormat;
+import com.percom.percomdatacollector.capture.RawSampleRecordConsumer;
+import com.percom.percomdatacollector.capture.SensorRegistry;
+import com.percom.percomdatacollector.capture.SensorTypes;
+import com.percom.percomdatacollector.features.MovementFeatureSchema;
+import com.percom.percomdatacollector.storage.CaptureFileWriter;
+import com.percom.percomdatacollector.storage.FsyncPolicy;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Raw capture shared by the tests of the batch jobs.
+ */
+final class RawCaptureFixture {
+
+    // Resampling of the features: 100 Hz, a sensor may lag by 100 ms
+    static final long TICK_NANOS = 10000000L;
+    static final long MAX_LAG_NANOS = 100000000L;
+
+    // Feature records of the capture with windows of 64 and a hop of 32: 2 x 500 ticks per
+    // movement type
+    static final long FEATURE_RECORDS = 2 * 14;
+
+    private RawCaptureFixture() {}
+
+    /**
+     * Records 10 s of accelerometer samples at 200 Hz and gyroscope samples at 150 Hz, walking
+     * and then jogging, with the RawSampleRecordConsumer. Small blocks, so the capture has many
+     * of them.
+     *
+     * @return File : New temporary capture.
+     * @throws IOException
+     */
+    static File record() throws IOException {
+        return record(SensorRegistry.DEFAULT);
+    }
+
+    /**
+     * Records the capture of record() with the given sensors, the ones besides accelerometer
+     * and gyroscope deliver 50 Hz.
+     *
+     * @param sensors : SensorRegistry : Recorded sensors, must contain accelerometer and
+     *                gyroscope.
+     * @return File : New temporary capture.
+     * @throws IOException
+     */
+    static File record(SensorRegistry sensors) throws IOException {
+        ArffSchema schema = MovementFeatureSchema.createRawSamples(sensors);
+        File capture = File.createTempFile("raw", BinaryCaptureFormat.FILE_TYPE);
+
+        FileOutputStream header = new FileOutputStream(capture);
+        header.write(BinaryCaptureFormat.encodeHeader(schema));
+        header.close();
+
+        RawSampleRecordConsumer consumer = new RawSampleRecordConsumer(
+                new CaptureFileWriter(capture, FsyncPolicy.NEVER, 4096, 1000, true), schema, sensors);
+
+        for (long us = 0; us < 10000000L; us += 100) {
+            int movementType = us < 5000000L ? MovementFeatureSchema.MOVEMENT_WALKING : MovementFeatureSchema.MOVEMENT_JOGGING;
+            float phase = us / 100000f;
+
+            if (us % 5000 == 0) {
+                consumer.onSample(SensorTypes.ACCELEROMETER, us * 1000, (float) Math.sin(phase), -1.25f, 9.81f, movementType);
+            }
+            if (us % 6700 == 0) {
+                consumer.onSample(SensorTypes.GYROSCOPE, us * 1000, 0.1f, (float) Math.cos(phase), 0.3f, movementType);
+            }
+            if (us % 20000 == 0) {
+                for (int type : sensors.getSensorTypes()) {
+                    if (type == SensorTypes.ACCELEROMETER || type == SensorTypes.GYROSCOPE) continue;
+
+                    consumer.onSample(type, us * 1000, type, (float) Math.sin(phase), 0f, movementType);
+                }
+            }
+        }
+
+        consumer.onWriterStopped();
+
+        return capture;
+    }
+}
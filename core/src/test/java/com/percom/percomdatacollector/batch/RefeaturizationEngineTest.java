@@ -0,0 +1,244 @@
+package com.percom.percomdatacollector.batch;
+
+import com.percom.percomdatacollector.Files.ArffStreamReader;
+import com.percom.percomdatacollector.Files.CaptureConverter;
+import com.percom.percomdatacollector.Files.ExportFormat;
+import com.percom.percomdatacollector.capture.SampleConsumer;
+import com.percom.percomdatacollector.capture.SensorRegistry;
+import com.percom.percomdatacollector.capture.SensorTypes;
+import com.percom.percomdatacollector.features.MovementFeatureSchema;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * Computes the features of a raw recording in parallel chunks.
+ */
+public class RefeaturizationEngineTest {
+
+    private static final long TICK_NANOS = RawCaptureFixture.TICK_NANOS;
+    private static final long MAX_LAG_NANOS = RawCaptureFixture.MAX_LAG_NANOS;
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    private File capture;
+
+    @Before
+    public void createCapture() throws Exception {
+        capture = RawCaptureFixture.record();
+    }
+
+    @After
+    public void deleteCapture() {
+        capture.delete();
+    }
+
+    @Test
+    public void refeaturize_sameResultForAnyParallelism() throws Exception {
+        ByteArrayOutputStream sequential = new ByteArrayOutputStream();
+        ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+
+        long sequentialCount = new RefeaturizationEngine(new ForkJoinPool(1), TICK_NANOS, MAX_LAG_NANOS, 64, 32, 16 * 1024)
+                .refeaturize(capture, sequential);
+        long parallelCount = new RefeaturizationEngine(new ForkJoinPool(4), TICK_NANOS, MAX_LAG_NANOS, 64, 32, 16 * 1024)
+                .refeaturize(capture, parallel);
+
+        assertTrue(sequentialCount > 0);
+        assertEquals(sequentialCount, parallelCount);
+        assertTrue(Arrays.equals(sequential.toByteArray(), parallel.toByteArray()));
+    }
+
+    @Test
+    public void refeaturize_sameResultForAnyChunkSize() throws Exception {
+        byte[] whole = refeaturize(capture, Long.MAX_VALUE);
+
+        // One block per chunk, the windows span many chunks
+        assertTrue(Arrays.equals(whole, refeaturize(capture, 4096)));
+        assertTrue(Arrays.equals(whole, refeaturize(capture, 16 * 1024)));
+        assertTrue(Arrays.equals(whole, refeaturize(capture, 100 * 1000)));
+    }
+
+    @Test
+    public void refeaturize_readsCsvExport() throws Exception {
+        File csv = File.createTempFile("raw", ExportFormat.CSV.getFileType());
+
+        try {
+            CaptureConverter.convert(new FileInputStream(capture), new FileOutputStream(csv), ExportFormat.CSV);
+
+            RefeaturizationEngine engine = new RefeaturizationEngine(new ForkJoinPool(2), TICK_NANOS, MAX_LAG_NANOS,
+                    64, 32, Long.MAX_VALUE);
+
+            assertEquals(RawCaptureFixture.FEATURE_RECORDS, engine.refeaturize(capture, new ByteArrayOutputStream()));
+            assertEquals(RawCaptureFixture.FEATURE_RECORDS, engine.refeaturize(csv, new ByteArrayOutputStream()));
+            assertTrue(Arrays.equals(refeaturize(csv, Long.MAX_VALUE), refeaturize(csv, 8 * 1024)));
+        } finally {
+            csv.delete();
+        }
+    }
+
+    @Test
+    public void refeaturize_keepsEverySensorOfTheCsvExport() throws Exception {
+        SensorRegistry sensors = SensorRegistry.ALL.retain(new int[]{
+                SensorTypes.ACCELEROMETER, SensorTypes.GYROSCOPE, SensorTypes.MAGNETIC_FIELD, SensorTypes.PRESSURE});
+        File binary = RawCaptureFixture.record(sensors);
+        File csv = File.createTempFile("raw", ExportFormat.CSV.getFileType());
+
+        try {
+            CaptureConverter.convert(new FileInputStream(binary), new FileOutputStream(csv), ExportFormat.CSV);
+
+            assertArrayEquals(sensors.getSensorTypes(), RawCapture.open(csv).getSensors().getSensorTypes());
+
+            // Same feature columns and records as the capture
+            String fromBinary = new String(refeaturize(binary, Long.MAX_VALUE), US_ASCII);
+            String fromCsv = new String(refeaturize(csv, Long.MAX_VALUE), US_ASCII);
+            int data = fromBinary.indexOf("@data");
+
+            assertTrue(data > 0);
+            assertEquals(fromBinary.substring(0, data), fromCsv.substring(0, data));
+            assertEquals(fromBinary.split("\n").length, fromCsv.split("\n").length);
+        } finally {
+            binary.delete();
+            csv.delete();
+        }
+    }
+
+    @Test
+    public void refeaturize_rejectsArffExportWithoutTimestamps() throws Exception {
+        File arff = File.createTempFile("raw", ExportFormat.ARFF.getFileType());
+
+        try {
+            CaptureConverter.convert(new FileInputStream(capture), new FileOutputStream(arff), ExportFormat.ARFF);
+
+            try {
+                refeaturize(arff, Long.MAX_VALUE);
+                fail("ARFF without timestamps accepted");
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains(ArffStreamReader.TIMESTAMP_ATTRIBUTE));
+            }
+        } finally {
+            arff.delete();
+        }
+    }
+
+    @Test
+    public void refeaturize_readsArffWithTimestamps() throws Exception {
+        File csv = File.createTempFile("raw", ExportFormat.CSV.getFileType());
+        File arff = File.createTempFile("raw", ExportFormat.ARFF.getFileType());
+
+        try {
+            CaptureConverter.convert(new FileInputStream(capture), new FileOutputStream(csv), ExportFormat.CSV);
+
+            // The rows of the CSV export behind an ARFF header with a timestamp attribute
+            String rows = readText(csv);
+            String header = MovementFeatureSchema.createRawSamples().toArffHeader()
+                    .replace("@attribute valueX", "@attribute timestamp numeric\n@attribute valueX");
+            writeText(arff, header + rows.substring(rows.indexOf('\n')));
+
+            byte[] expected = refeaturize(csv, Long.MAX_VALUE);
+
+            assertTrue(Arrays.equals(expected, refeaturize(arff, Long.MAX_VALUE)));
+            assertTrue(Arrays.equals(expected, refeaturize(arff, 8 * 1024)));
+        } finally {
+            csv.delete();
+            arff.delete();
+        }
+    }
+
+    @Test
+    public void replay_readsCsvWithoutHeaderAndNegativeValues() throws Exception {
+        File csv = File.createTempFile("raw", ExportFormat.CSV.getFileType());
+
+        try {
+            CaptureConverter.convert(new FileInputStream(capture), new FileOutputStream(csv), ExportFormat.CSV);
+
+            // Without the header line, every line starts with a negative timestamp
+            String[] lines = readText(csv).split("\n");
+            StringBuilder rows = new StringBuilder();
+
+            for (int i = 1; i < lines.length; i++) {
+                int comma = lines[i].indexOf(',');
+                long timestamp = Long.parseLong(lines[i].substring(0, comma)) - 20000000000L;
+                rows.append(timestamp).append(lines[i].substring(comma)).append('\n');
+            }
+            writeText(csv, rows.toString());
+
+            RawCapture binary = RawCapture.open(capture);
+            RawCapture text = RawCapture.open(csv);
+            CountingConsumer expected = new CountingConsumer();
+            CountingConsumer actual = new CountingConsumer();
+
+            for (RawCaptureChunk chunk : binary.split(Long.MAX_VALUE)) binary.replay(chunk, expected);
+            for (RawCaptureChunk chunk : text.split(4096)) text.replay(chunk, actual);
+
+            assertEquals(lines.length - 1, actual.count);
+            assertEquals(expected.count, actual.count);
+            assertEquals(expected.lastTimestamp - 20000000000L, actual.lastTimestamp);
+        } finally {
+            csv.delete();
+        }
+    }
+
+    private static byte[] refeaturize(File recording, long chunkSizeBytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new RefeaturizationEngine(new ForkJoinPool(4), TICK_NANOS, MAX_LAG_NANOS, 64, 32, chunkSizeBytes)
+                .refeaturize(recording, out);
+
+        return out.toByteArray();
+    }
+
+    private static String readText(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        FileInputStream in = new FileInputStream(file);
+
+        try {
+            int read = 0;
+            while (read < bytes.length) read += in.read(bytes, read, bytes.length - read);
+        } finally {
+            in.close();
+        }
+
+        return new String(bytes, US_ASCII);
+    }
+
+    private static void writeText(File file, String text) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+
+        try {
+            out.write(text.getBytes(US_ASCII));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static class CountingConsumer implements SampleConsumer {
+        long count = 0;
+        long lastTimestamp = Long.MIN_VALUE;
+
+        @Override
+        public void onSample(int sensorType, long timestamp, float x, float y, float z, int label) {
+            count++;
+            lastTimestamp = timestamp;
+        }
+
+        @Override
+        public void onBatchComplete() {
+        }
+
+        @Override
+        public void onWriterStopped() {
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.percom.percomdatacollector.capture;
+
+import com.percom.percomdatacollector.Files.BinaryCaptureFormat;
+import com.percom.percomdatacollector.features.MovementFeatureSchema;
+import com.percom.percomdatacollector.storage.RecordOutput;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drives the capture pipeline with a replayed recording like the Android sensors would.
+ */
+public class ReplaySensorSourceTest {
+
+    private static class MemoryOutput implements RecordOutput {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        boolean closed = false;
+
+        @Override
+        public void append(byte[] src, int offset, int length) {
+            bytes.write(src, offset, length);
+        }
+
+        @Override
+        public void flushIfDue() {
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    /**
+     * 5 s of accelerometer samples at 200 Hz and gyroscope samples at 150 Hz.
+     */
+    private static byte[] createRecording() {
+        StringBuilder recording = new StringBuilder("# sensorType,timestamp,x,y,z\n");
+
+        for (long us = 0; us < 5000000L; us += 100) {
+            if (us % 5000 == 0) {
+                recording.append(SensorTypes.ACCELEROMETER).append(',').append(us * 1000).append(",0.5,-1.25,9.81\n");
+            }
+            if (us % 6700 == 0) {
+                recording.append(SensorTypes.GYROSCOPE).append(',').append(us * 1000).append(",0.1,0.2,0.3\n");
+            }
+        }
+
+        return recording.toString().getBytes(Charset.forName("US-ASCII"));
+    }
+
+    @Test
+    public void replay_drivesCapturePipeline() throws Exception {
+        MemoryOutput output = new MemoryOutput();
+        SampleRingBuffer sampleQueue = new SampleRingBuffer(1024);
+        MergedFeatureRecordConsumer consumer = new MergedFeatureRecordConsumer(output,
+                MovementFeatureSchema.createMerged(), 10000000L, 100000000L, 128, 64);
+        CaptureWriterThread writer = new CaptureWriterThread(sampleQueue, consumer, 256);
+        writer.start();
+
+        // Blocks of 32 samples like a hardware FIFO, the queue is large enough for a block
+        ReplaySensorSource source = new ReplaySensorSource(new ByteArrayInputStream(createRecording()), 32, false);
+        SampleQueueListener listener = new SampleQueueListener(sampleQueue, writer);
+        listener.setLabel(MovementFeatureSchema.MOVEMENT_JOGGING);
+
+        source.replay(listener);
+        writer.shutdown();
+
+        int recordSize = BinaryCaptureFormat.getRecordSize(MovementFeatureSchema.createMerged());
+
+        // 500 ticks at 100 Hz give (500 - 128) / 64 + 1 = 6 windows behind the marker of the
+        // label segment
+        assertEquals(1000 + 747, source.getSampleCount());
+        assertEquals(0, sampleQueue.getOverflowCount());
+        assertEquals((1 + 6) * recordSize, output.bytes.size());
+        assertTrue(output.closed);
+    }
+}
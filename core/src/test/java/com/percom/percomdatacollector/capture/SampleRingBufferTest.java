@@ -0,0 +1,237 @@
+package com.percom.percomdatacollector.capture;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the order and the overflow policies of the sample queue, also with a concurrent
+ * consumer and the writer thread.
+ */
+public class SampleRingBufferTest {
+
+    private static class Timestamps implements SampleConsumer {
+        final List<Long> times = new ArrayList<Long>();
+
+        @Override
+        public void onSample(int sensorType, long timestamp, float x, float y, float z, int label) {
+            times.add(timestamp);
+        }
+
+        @Override
+        public void onBatchComplete() {
+        }
+
+        @Override
+        public void onWriterStopped() {
+        }
+    }
+
+    private static void offer(SampleRingBuffer queue, int sensorType, long first, int count) {
+        for (long t = first; t < first + count; t++) {
+            queue.offer(sensorType, t, 0f, 0f, 0f, 0);
+        }
+    }
+
+    @Test
+    public void constructor_roundsTheCapacityUpToAPowerOfTwo() {
+        assertEquals(2, new SampleRingBuffer(2).getCapacity());
+        assertEquals(8, new SampleRingBuffer(5).getCapacity());
+        assertEquals(8, new SampleRingBuffer(8).getCapacity());
+        assertEquals(OverflowPolicy.DROP_NEWEST, new SampleRingBuffer(8).getPolicy());
+
+        try {
+            new SampleRingBuffer(1);
+            fail("Capacity 1 accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void drain_handsOverTheSamplesInOrderAcrossTheWrapAround() throws Exception {
+        SampleRingBuffer queue = new SampleRingBuffer(8);
+        final List<String> samples = new ArrayList<String>();
+        SampleConsumer consumer = new SampleConsumer() {
+            @Override
+            public void onSample(int sensorType, long timestamp, float x, float y, float z, int label) {
+                samples.add(sensorType + "," + timestamp + "," + x + "," + y + "," + z + "," + label);
+            }
+
+            @Override
+            public void onBatchComplete() {
+            }
+
+            @Override
+            public void onWriterStopped() {
+            }
+        };
+
+        for (int i = 0; i < 6; i++) assertTrue(queue.offer(SensorTypes.ACCELEROMETER, i, i, -i, 0.5f, 1));
+        assertEquals(6, queue.getDepth());
+
+        // At most maxSamples per batch
+        assertEquals(4, queue.drain(consumer, 4));
+        assertEquals(2, queue.getDepth());
+
+        // Slots 6, 7, 0, 1, 2, 3 are written, the buffer wraps around
+        for (int i = 6; i < 12; i++) assertTrue(queue.offer(SensorTypes.GYROSCOPE, i, i, -i, 0.5f, 2));
+        assertEquals(8, queue.getDepth());
+        assertEquals(8, queue.getHighWaterMark());
+
+        assertEquals(8, queue.drain(consumer, 100));
+        assertEquals(0, queue.drain(consumer, 100));
+        assertEquals(0, queue.getDepth());
+        assertEquals(0, queue.getOverflowCount());
+
+        assertEquals(12, samples.size());
+        for (int i = 0; i < 12; i++) {
+            int sensorType = i < 6 ? SensorTypes.ACCELEROMETER : SensorTypes.GYROSCOPE;
+            assertEquals(sensorType + "," + i + "," + (float) i + "," + (float) -i + ",0.5," + (i < 6 ? 1 : 2),
+                    samples.get(i));
+        }
+    }
+
+    @Test
+    public void writerThread_writesAllSamplesBeforeItStops() throws Exception {
+        final SampleRingBuffer queue = new SampleRingBuffer(1024, OverflowPolicy.BLOCK, 1, 1000000000L, null);
+        final int total = 100000;
+        final long[] next = {0};
+        final int[] batches = {0};
+        final boolean[] valid = {true};
+
+        CaptureWriterThread writer = new CaptureWriterThread(queue, new SampleConsumer() {
+            int inBatch = 0;
+
+            @Override
+            public void onSample(int sensorType, long timestamp, float x, float y, float z, int label) {
+                if (timestamp != next[0]++ || ++inBatch > 64) valid[0] = false;
+            }
+
+            @Override
+            public void onBatchComplete() {
+                inBatch = 0;
+                batches[0]++;
+            }
+
+            @Override
+            public void onWriterStopped() {
+                if (next[0] != total) valid[0] = false;
+                batches[0] = -batches[0];
+            }
+        }, 64);
+        writer.start();
+
+        for (int t = 0; t < total; t++) {
+            assertTrue(queue.offer(SensorTypes.ACCELEROMETER, t, 0f, 0f, 0f, 0));
+        }
+
+        writer.shutdown();
+
+        assertFalse(writer.isAlive());
+        assertTrue(valid[0]);
+        assertEquals(total, next[0]);
+        // onWriterStopped was called after the last batch
+        assertTrue(batches[0] <= -total / 64);
+    }
+
+    @Test
+    public void dropNewest_keepsTheQueuedSamples() throws Exception {
+        SampleRingBuffer queue = new SampleRingBuffer(8, OverflowPolicy.DROP_NEWEST, null);
+        Timestamps consumer = new Timestamps();
+
+        offer(queue, SensorTypes.ACCELEROMETER, 0, 10);
+        queue.drain(consumer, 100);
+
+        assertEquals(8, consumer.times.size());
+        assertEquals(Long.valueOf(7), consumer.times.get(7));
+        assertEquals(2, queue.getOverflowCount());
+    }
+
+    @Test
+    public void dropOldest_keepsTheLatestSamples() throws Exception {
+        SampleRingBuffer queue = new SampleRingBuffer(8, OverflowPolicy.DROP_OLDEST, null);
+        Timestamps consumer = new Timestamps();
+
+        offer(queue, SensorTypes.ACCELEROMETER, 0, 10);
+        queue.drain(consumer, 100);
+
+        assertEquals(8, consumer.times.size());
+        assertEquals(Long.valueOf(2), consumer.times.get(0));
+        assertEquals(Long.valueOf(9), consumer.times.get(7));
+        assertEquals(2, queue.getDropStatistics().getDroppedSamples());
+    }
+
+    @Test
+    public void decimate_keepsEveryNthSamplePerSensor() throws Exception {
+        SampleRingBuffer queue = new SampleRingBuffer(16, OverflowPolicy.DECIMATE, 2, 0, null);
+        Timestamps consumer = new Timestamps();
+
+        // Up to half the capacity everything is queued, then every 2nd sample per sensor
+        offer(queue, SensorTypes.ACCELEROMETER, 0, 8);
+        for (long t = 8; t < 16; t++) {
+            queue.offer(t % 2 == 0 ? SensorTypes.ACCELEROMETER : SensorTypes.GYROSCOPE, t, 0f, 0f, 0f, 0);
+        }
+        queue.drain(consumer, 100);
+
+        assertEquals(12, consumer.times.size());
+        assertEquals(4, queue.getDecimatedCount());
+        assertEquals(0, queue.getOverflowCount());
+    }
+
+    @Test
+    public void block_dropsAfterTheMaximumWait() throws Exception {
+        SampleRingBuffer queue = new SampleRingBuffer(4, OverflowPolicy.BLOCK, 1, 1000000L, null);
+
+        offer(queue, SensorTypes.ACCELEROMETER, 0, 4);
+        assertFalse(queue.offer(SensorTypes.ACCELEROMETER, 4, 0f, 0f, 0f, 0));
+        assertEquals(1, queue.getOverflowCount());
+    }
+
+    @Test
+    public void dropOldest_concurrentConsumerSeesOrderedSamples() throws Exception {
+        final SampleRingBuffer queue = new SampleRingBuffer(64, OverflowPolicy.DROP_OLDEST, null);
+        final int total = 200000;
+        final long[] last = {-1};
+        final long[] received = {0};
+        final boolean[] ordered = {true};
+
+        Thread consumerThread = new Thread() {
+            @Override
+            public void run() {
+                SampleConsumer consumer = new SampleConsumer() {
+                    @Override
+                    public void onSample(int sensorType, long timestamp, float x, float y, float z, int label) {
+                        if (timestamp <= last[0] || x != timestamp) ordered[0] = false;
+                        last[0] = timestamp;
+                        received[0]++;
+                    }
+
+                    @Override
+                    public void onBatchComplete() {
+                    }
+
+                    @Override
+                    public void onWriterStopped() {
+                    }
+                };
+
+                while (last[0] < total - 1) queue.drain(consumer, 16);
+            }
+        };
+        consumerThread.start();
+
+        for (int t = 0; t < total; t++) {
+            queue.offer(SensorTypes.ACCELEROMETER, t, t, 0f, 0f, 0);
+        }
+
+        consumerThread.join(10000);
+
+        assertFalse(consumerThread.isAlive());
+        assertTrue(ordered[0]);
+        assertEquals(total, received[0] + queue.getOverflowCount());
+    }
+}
@@ -0,0 +1,90 @@
+package com.percom.percomdatacollector.capture;
+
+import com.percom.percomdatacollector.Files.ArffRecord;
+import com.percom.percomdatacollector.Files.ArffSchema;
+import com.percom.percomdatacollector.Files.BinaryRecordDecoder;
+import com.percom.percomdatacollector.features.MovementFeatureSchema;
+import com.percom.percomdatacollector.storage.RecordOutput;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Dispatches the samples by sensor type and builds the columns of every registered sensor.
+ */
+public class SensorRegistryTest {
+
+    private static class MemoryOutput implements RecordOutput {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        @Override
+        public void append(byte[] src, int offset, int length) {
+            bytes.write(src, offset, length);
+        }
+
+        @Override
+        public void flushIfDue() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void retain_keepsTheOrderOfTheStreams() {
+        SensorRegistry sensors = SensorRegistry.ALL.retain(
+                new int[]{SensorTypes.PRESSURE, SensorTypes.GYROSCOPE, SensorTypes.ACCELEROMETER});
+
+        assertEquals(3, sensors.size());
+        assertEquals(0, sensors.getStream(SensorTypes.ACCELEROMETER));
+        assertEquals(1, sensors.getStream(SensorTypes.GYROSCOPE));
+        assertEquals(2, sensors.getStream(SensorTypes.PRESSURE));
+        assertEquals(-1, sensors.getStream(SensorTypes.MAGNETIC_FIELD));
+        assertEquals(-1, sensors.getStream(65536));
+        assertEquals(7, sensors.getAxisCount());
+        assertSame(SensorChannel.GYROSCOPE, SensorRegistry.fromNames(new String[]{"gyroscope"}).getChannel(0));
+    }
+
+    @Test
+    public void mergedConsumer_computesTheFeaturesOfEverySensor() {
+        SensorRegistry sensors = new SensorRegistry(SensorChannel.ACCELEROMETER, SensorChannel.PRESSURE);
+        ArffSchema schema = MovementFeatureSchema.createMergedWithSpectrum(sensors, 3);
+        MemoryOutput output = new MemoryOutput();
+        MergedFeatureRecordConsumer consumer = new MergedFeatureRecordConsumer(output, schema, 10000000L,
+                100000000L, 128, 64, new float[]{0f, 1f, 2f, 5f}, sensors);
+
+        // Accelerometer: 4 values per axis, pressure: 1 value, no spectrum of the pressure
+        assertEquals(3 * 4 + 4 + 3 * (3 + 3), schema.getNumericCount());
+        assertEquals(3 * 4, schema.indexOf("meanPrs"));
+
+        // 5 s at 100 Hz, the gyroscope isn't registered and ignored
+        for (long ms = 0; ms < 5000; ms += 10) {
+            long timestamp = ms * 1000000L;
+            consumer.onSample(SensorTypes.ACCELEROMETER, timestamp, 0.5f, -1.25f, 9.81f, 0);
+            consumer.onSample(SensorTypes.GYROSCOPE, timestamp, 0.1f, 0.2f, 0.3f, 0);
+            consumer.onSample(SensorTypes.PRESSURE, timestamp, 1013.25f, 0f, 0f, 0);
+        }
+        consumer.onWriterStopped();
+
+        BinaryRecordDecoder decoder = new BinaryRecordDecoder(schema);
+        ByteBuffer data = ByteBuffer.wrap(output.bytes.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+        ArffRecord record = new ArffRecord(schema);
+        int records = 0;
+
+        while (data.hasRemaining()) {
+            if (!decoder.decode(data, record)) continue;
+
+            assertEquals(9.81f, record.getNumeric(schema.indexOf("meanAccZ")), 1e-4f);
+            assertEquals(1013.25f, record.getNumeric(schema.indexOf("meanPrs")), 1e-2f);
+            records++;
+        }
+
+        assertEquals(6, records);
+    }
+}
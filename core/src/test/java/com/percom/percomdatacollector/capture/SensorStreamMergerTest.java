@@ -0,0 +1,103 @@
+package com.percom.percomdatacollector.capture;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the interpolation onto the common clock and the bounded wait for a lagging stream.
+ */
+public class SensorStreamMergerTest {
+
+    // 10 ms ticks, 50 ms maximum lag
+    private static final long TICK = 10000000L;
+    private static final long MAX_LAG = 50000000L;
+
+    private static class Ticks implements MergedSampleListener {
+        final List<Long> times = new ArrayList<Long>();
+        final List<float[]> values = new ArrayList<float[]>();
+
+        @Override
+        public void onTick(long timestamp, float[] tickValues, int label) {
+            times.add(timestamp);
+            values.add(tickValues.clone());
+        }
+    }
+
+    @Test
+    public void merge_interpolatesBothStreams() throws Exception {
+        Ticks ticks = new Ticks();
+        SensorStreamMerger merger = new SensorStreamMerger(2, 3, TICK, MAX_LAG, ticks);
+
+        // Stream 0 every 4 ms with x = t in ms, stream 1 every 7 ms with x = 2 * t in ms
+        for (long ms = 0; ms <= 40; ms++) {
+            if (ms % 4 == 0) merger.add(0, ms * 1000000L, ms, 0f, 0f, 1);
+            if (ms % 7 == 0) merger.add(1, ms * 1000000L, 2f * ms, 0f, 0f, 1);
+        }
+
+        // Ticks at 0, 10, 20 and 30 ms, the last sample of stream 1 is at 35 ms, so 40 ms waits
+        assertEquals(4, ticks.times.size());
+
+        for (int i = 0; i < ticks.times.size(); i++) {
+            long ms = ticks.times.get(i) / 1000000L;
+
+            assertEquals(10 * i, ms);
+            assertEquals(ms, ticks.values.get(i)[0], 1e-4f);
+            assertEquals(2f * ms, ticks.values.get(i)[3], 1e-4f);
+        }
+    }
+
+    @Test
+    public void merge_doesNotWaitLongerThanMaxLag() throws Exception {
+        Ticks ticks = new Ticks();
+        SensorStreamMerger merger = new SensorStreamMerger(2, 3, TICK, MAX_LAG, ticks);
+
+        merger.add(1, 0L, 5f, 0f, 0f, 0);
+
+        // Stream 0 never delivers, stream 1 runs 200 ms ahead
+        for (long ms = 5; ms <= 200; ms += 5) {
+            merger.add(1, ms * 1000000L, 5f, 0f, 0f, 0);
+        }
+
+        assertFalse(ticks.times.isEmpty());
+
+        long lastTick = ticks.times.get(ticks.times.size() - 1);
+        assertTrue(200000000L - lastTick <= MAX_LAG);
+        assertTrue(Float.isNaN(ticks.values.get(0)[0]));
+        assertEquals(5f, ticks.values.get(0)[3], 0f);
+    }
+
+    @Test
+    public void merge_waitsForTheBurstOfTheOtherSensor() throws Exception {
+        Ticks ticks = new Ticks();
+        long latency = 500000000L;
+        SensorStreamMerger merger = new SensorStreamMerger(2, 3, TICK, SensorStreamMerger.calcMaxLag(latency), ticks);
+
+        // Batched at 200 Hz: every FIFO delivers 500 ms at once, the accelerometer before the
+        // gyroscope. Stream 0 has x = t in ms, stream 1 has x = 2 * t in ms.
+        for (long burst = 0; burst < 10; burst++) {
+            for (int stream = 0; stream < 2; stream++) {
+                for (long ms = burst * 500; ms < (burst + 1) * 500; ms += 5) {
+                    merger.add(stream, ms * 1000000L, (stream + 1f) * ms, 0f, 0f, 0);
+                }
+            }
+        }
+
+        merger.flush();
+
+        // No tick holds an old value of the stream whose burst came second
+        assertEquals(500, ticks.times.size());
+        assertEquals(0, merger.getDroppedSamples());
+
+        for (int i = 0; i < ticks.times.size(); i++) {
+            long ms = ticks.times.get(i) / 1000000L;
+
+            assertEquals(10 * i, ms);
+            assertEquals(ms, ticks.values.get(i)[0], 1e-3f);
+            assertEquals(2f * ms, ticks.values.get(i)[3], 1e-3f);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.percom.percomdatacollector.capture;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Synthesizes the samples of several sensors at fixed rates in timestamp order or in bursts.
+ */
+public class SyntheticSensorSourceTest {
+
+    private static class CountingListener implements SensorSampleListener {
+        long accelerometer = 0;
+        long gyroscope = 0;
+        long blocks = 0;
+        long lastTimestamp = Long.MIN_VALUE;
+        boolean ordered = true;
+        boolean stopped = false;
+
+        // Sensor and timestamps of the current block, -1 if several sensors are in it
+        int blockSensor = 0;
+        long blockFirst = 0;
+        long blockLast = 0;
+        final List<long[]> bursts = new ArrayList<long[]>();
+
+        @Override
+        public void onSample(int sensorType, long timestamp, float x, float y, float z) {
+            if (sensorType == SensorTypes.ACCELEROMETER) accelerometer++;
+            if (sensorType == SensorTypes.GYROSCOPE) gyroscope++;
+
+            if (timestamp < lastTimestamp) ordered = false;
+            lastTimestamp = timestamp;
+
+            if (blockSensor == 0) {
+                blockSensor = sensorType;
+                blockFirst = timestamp;
+            } else if (blockSensor != sensorType) {
+                blockSensor = -1;
+            }
+            blockLast = timestamp;
+        }
+
+        @Override
+        public void onBlockComplete() {
+            blocks++;
+            bursts.add(new long[]{blockSensor, blockFirst, blockLast});
+            blockSensor = 0;
+        }
+
+        @Override
+        public void onSourceStopped() {
+            stopped = true;
+        }
+    }
+
+    @Test
+    public void replay_mergesTheSensorsInTimestampOrder() {
+        CountingListener listener = new CountingListener();
+
+        // 100 ms at 10 kHz and 1 kHz
+        SyntheticSensorSource source = new SyntheticSensorSource(
+                new int[]{SensorTypes.ACCELEROMETER, SensorTypes.GYROSCOPE}, new double[]{10000, 1000},
+                100000000L, 64, false);
+        source.replay(listener);
+
+        assertEquals(1000, listener.accelerometer);
+        assertEquals(100, listener.gyroscope);
+        assertEquals(1100, source.getSampleCount());
+        assertTrue(listener.ordered);
+        assertEquals((1100 + 63) / 64, listener.blocks);
+        assertTrue(listener.stopped);
+    }
+
+    @Test
+    public void replay_deliversEverySensorInBurstsOfTheReportLatency() {
+        CountingListener listener = new CountingListener();
+        long latency = 500000000L;
+
+        // 1.2 s at 200 Hz in bursts of 500 ms: 500, 500 and 200 ms per sensor
+        SyntheticSensorSource source = new SyntheticSensorSource(
+                new int[]{SensorTypes.ACCELEROMETER, SensorTypes.GYROSCOPE}, new double[]{200, 200},
+                1200000000L, 64, latency, false);
+        source.replay(listener);
+
+        assertEquals(240, listener.accelerometer);
+        assertEquals(240, listener.gyroscope);
+        assertFalse(listener.ordered);
+        assertEquals(6, listener.blocks);
+        assertTrue(listener.stopped);
+
+        long start = listener.bursts.get(0)[1];
+
+        for (int i = 0; i < listener.bursts.size(); i++) {
+            long[] burst = listener.bursts.get(i);
+            long periodStart = start + i / 2 * latency;
+
+            // One sensor per block, the accelerometer first, each covers one period
+            assertEquals(i % 2 == 0 ? SensorTypes.ACCELEROMETER : SensorTypes.GYROSCOPE, burst[0]);
+            assertEquals(periodStart, burst[1]);
+            assertTrue(burst[2] < periodStart + latency);
+            assertTrue(burst[2] >= periodStart + (i < 4 ? latency : 200000000L) - 5000000L);
+        }
+    }
+}
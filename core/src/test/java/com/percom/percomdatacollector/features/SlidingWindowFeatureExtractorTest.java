@@ -0,0 +1,142 @@
+package com.percom.percomdatacollector.features;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares the incremental window statistics with SensorStatistics over the same window.
+ */
+public class SlidingWindowFeatureExtractorTest {
+
+    private static final int CHANNELS = 3;
+
+    // Window length and hop, including a hop of the window length and a single sample
+    private static final int[][] WINDOWS = {
+            {1, 1}, {2, 1}, {4, 4}, {5, 2}, {7, 1}, {8, 3}, {16, 16}, {64, 32}, {128, 64}
+    };
+
+    /**
+     * Adds the samples from index from on and checks every complete window against the brute
+     * force statistics of the last windowLength samples.
+     *
+     * @return int : Number of complete windows.
+     */
+    private static int addAndCheck(SlidingWindowFeatureExtractor window, float[][] samples, int from, int to,
+                                   long firstNumber) {
+        int windowLength = window.getWindowLength();
+        float[] channel = new float[windowLength];
+        float[] copy = new float[windowLength];
+        int windows = 0;
+
+        for (int i = from; i < to; i++) {
+            long number = firstNumber + i - from;
+            boolean expected = i - from + 1 >= windowLength && (number + 1 - windowLength) % window.getHop() == 0;
+
+            assertEquals("Sample " + i, expected, window.add(i * 10L, samples[i], 0));
+            if (!expected) continue;
+
+            windows++;
+            int oldest = i - windowLength + 1;
+
+            assertEquals(oldest * 10L, window.getWindowStartTimestamp());
+            assertEquals(i * 10L, window.getWindowEndTimestamp());
+
+            for (int c = 0; c < CHANNELS; c++) {
+                for (int k = 0; k < windowLength; k++) channel[k] = samples[oldest + k][c];
+
+                float mean = SensorStatistics.calcMean(channel, 0, windowLength);
+                float stdDeviation = (float) SensorStatistics.calcStdDeviation(channel, 0, windowLength);
+
+                assertEquals(mean, window.getMean(c), 1e-4f * Math.max(1f, Math.abs(mean)));
+                assertEquals(stdDeviation, window.getStdDeviation(c), 1e-3f * Math.max(1f, stdDeviation));
+                assertEquals(SensorStatistics.findMin(channel, 0, windowLength), window.getMin(c), 0f);
+                assertEquals(SensorStatistics.findMax(channel, 0, windowLength), window.getMax(c), 0f);
+
+                assertEquals(windowLength, window.copyWindow(c, copy, 0));
+                assertArrayEquals(channel, copy, 0f);
+            }
+        }
+
+        return windows;
+    }
+
+    /**
+     * Accelerometer-like values: gravity with noise, steps, plateaus for equal minima and
+     * maxima, and a spike.
+     */
+    private static float[][] createSamples(int count) {
+        Random random = new Random(42);
+        float[][] samples = new float[count][CHANNELS];
+
+        for (int i = 0; i < count; i++) {
+            samples[i][0] = (float) (random.nextGaussian() * 2);
+            samples[i][1] = (float) Math.round(Math.sin(i / 10.0) * 4);
+            samples[i][2] = 9.81f + (float) random.nextGaussian() + (i % 97 == 0 ? 50f : 0f);
+        }
+
+        return samples;
+    }
+
+    @Test
+    public void add_matchesBruteForceStatistics() {
+        float[][] samples = createSamples(1000);
+
+        for (int[] config : WINDOWS) {
+            SlidingWindowFeatureExtractor window = new SlidingWindowFeatureExtractor(CHANNELS, config[0], config[1]);
+            int windows = addAndCheck(window, samples, 0, samples.length, 0);
+
+            assertEquals((samples.length - config[0]) / config[1] + 1, windows);
+        }
+    }
+
+    @Test
+    public void reset_startsNewWindowsAtTheGivenNumber() {
+        float[][] samples = createSamples(700);
+
+        for (int[] config : WINDOWS) {
+            SlidingWindowFeatureExtractor window = new SlidingWindowFeatureExtractor(CHANNELS, config[0], config[1]);
+
+            addAndCheck(window, samples, 0, 300, 0);
+
+            // A new movement type: nothing of the old window is used
+            window.reset();
+            addAndCheck(window, samples, 300, 500, 0);
+
+            window.reset(1003);
+            addAndCheck(window, samples, 500, samples.length, 1003);
+        }
+    }
+
+    @Test
+    public void add_sameFeaturesForAnyStart() {
+        float[][] samples = createSamples(600);
+        SlidingWindowFeatureExtractor whole = new SlidingWindowFeatureExtractor(CHANNELS, 64, 32);
+        SlidingWindowFeatureExtractor late = new SlidingWindowFeatureExtractor(CHANNELS, 64, 32);
+
+        // The second extractor starts with sample 77, both number the samples by their index
+        late.reset(77);
+
+        for (int i = 0; i < samples.length; i++) {
+            boolean complete = whole.add(i, samples[i], 0);
+            if (i < 77) continue;
+
+            boolean lateComplete = late.add(i, samples[i], 0);
+
+            // After two window lengths both have rebuilt their sums from the same samples
+            if (i < 77 + 2 * 64) continue;
+
+            assertEquals(complete, lateComplete);
+            if (!complete) continue;
+
+            for (int c = 0; c < CHANNELS; c++) {
+                assertEquals(Float.floatToIntBits(whole.getMean(c)), Float.floatToIntBits(late.getMean(c)));
+                assertEquals(Float.floatToIntBits(whole.getStdDeviation(c)), Float.floatToIntBits(late.getStdDeviation(c)));
+                assertEquals(whole.getMin(c), late.getMin(c), 0f);
+                assertEquals(whole.getMax(c), late.getMax(c), 0f);
+            }
+        }
+    }
+}
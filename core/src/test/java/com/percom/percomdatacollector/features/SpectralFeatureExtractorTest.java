@@ -0,0 +1,73 @@
+package com.percom.percomdatacollector.features;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Spectral features of synthetic signals with a known frequency.
+ */
+public class SpectralFeatureExtractorTest {
+
+    private static final float SAMPLE_RATE_HZ = 100f;
+
+    private static float[] sine(int length, float frequencyHz, float offset) {
+        float[] samples = new float[length];
+
+        for (int i = 0; i < length; i++) {
+            samples[i] = offset + (float) Math.sin(2 * Math.PI * frequencyHz * i / SAMPLE_RATE_HZ);
+        }
+
+        return samples;
+    }
+
+    @Test
+    public void compute_findsStepFrequency() {
+        SpectralFeatureExtractor spectrum = new SpectralFeatureExtractor(128, SAMPLE_RATE_HZ,
+                SpectralFeatureExtractor.DEFAULT_BAND_EDGES_HZ);
+
+        // Jogging with 2.8 steps per second on top of gravity
+        float[] samples = sine(128, 2.8f, 9.81f);
+        spectrum.compute(samples, 0, SensorStatistics.calcMean(samples, 0, samples.length));
+
+        assertEquals(2.8f, spectrum.getDominantFrequency(), SAMPLE_RATE_HZ / 128);
+        assertTrue(spectrum.getBandPower(1) > 10 * spectrum.getBandPower(0));
+        assertTrue(spectrum.getBandPower(1) > 10 * spectrum.getBandPower(2));
+        assertTrue(spectrum.getEntropy() < 0.5f);
+    }
+
+    @Test
+    public void compute_padsWindowToPowerOfTwo() {
+        SpectralFeatureExtractor spectrum = new SpectralFeatureExtractor(100, SAMPLE_RATE_HZ,
+                SpectralFeatureExtractor.DEFAULT_BAND_EDGES_HZ);
+        float[] samples = sine(100, 1.5f, 0f);
+
+        spectrum.compute(samples, 0, 0f);
+
+        assertEquals(128, spectrum.getSize());
+        assertEquals(1.5f, spectrum.getDominantFrequency(), SAMPLE_RATE_HZ / 128);
+
+        // A constant signal has no spectrum
+        spectrum.compute(new float[100], 0, 0f);
+        assertEquals(0f, spectrum.getEnergy(), 0f);
+        assertEquals(0f, spectrum.getDominantFrequency(), 0f);
+    }
+
+    @Test
+    public void compute_normalizesTheEntropyOfTheSmallestWindow() {
+        SpectralFeatureExtractor spectrum = new SpectralFeatureExtractor(3, SAMPLE_RATE_HZ,
+                SpectralFeatureExtractor.DEFAULT_BAND_EDGES_HZ);
+        float[] samples = {1f, -2f, 0.5f};
+
+        spectrum.compute(samples, 0, SensorStatistics.calcMean(samples, 0, samples.length));
+
+        assertEquals(4, spectrum.getSize());
+        assertTrue(spectrum.getEnergy() > 0f);
+        assertTrue(spectrum.getEntropy() >= 0f && spectrum.getEntropy() <= 1f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsWindowWithSingleBin() {
+        new SpectralFeatureExtractor(2, SAMPLE_RATE_HZ, SpectralFeatureExtractor.DEFAULT_BAND_EDGES_HZ);
+    }
+}
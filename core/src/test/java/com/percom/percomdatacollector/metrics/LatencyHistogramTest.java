@@ -0,0 +1,119 @@
+package com.percom.percomdatacollector.metrics;
+
+import com.percom.percomdatacollector.capture.OverflowPolicy;
+import com.percom.percomdatacollector.capture.SampleConsumer;
+import com.percom.percomdatacollector.capture.SampleQueueListener;
+import com.percom.percomdatacollector.capture.SampleRingBuffer;
+import com.percom.percomdatacollector.capture.SensorTypes;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the bucket error of the histogram, concurrent recording and the sample counters.
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucket_boundsContainTheValue() throws Exception {
+        for (long value = 0; value < 100000; value += 7) {
+            int index = LatencyHistogram.bucketIndex(value);
+            long upper = LatencyHistogram.bucketUpperBound(index);
+
+            assertTrue(value <= upper);
+            assertTrue(index == 0 || LatencyHistogram.bucketUpperBound(index - 1) < value);
+            assertTrue(upper - value <= value / LatencyHistogram.SUB_BUCKETS);
+        }
+
+        assertEquals(LatencyHistogram.MAX_VALUE,
+                LatencyHistogram.bucketUpperBound(LatencyHistogram.bucketIndex(LatencyHistogram.MAX_VALUE)));
+    }
+
+    @Test
+    public void percentile_withinBucketError() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        // 1 to 1000 us
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500500.0, histogram.getMean(), 0.001);
+        assertEquals(1000000, histogram.getMax());
+
+        long p50 = histogram.getPercentile(0.5);
+        long p99 = histogram.getPercentile(0.99);
+
+        assertTrue(p50 >= 500000 && p50 <= 500000 * 9 / 8);
+        assertTrue(p99 >= 990000 && p99 <= 1000000);
+        assertEquals(0, new LatencyHistogram().getPercentile(0.99));
+    }
+
+    @Test
+    public void record_concurrentThreadsLoseNothing() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final int perThread = 100000;
+        Thread[] threads = new Thread[4];
+
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        histogram.record(i + offset);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(threads.length * perThread, histogram.getCount());
+        assertEquals(perThread - 1 + threads.length - 1, histogram.getMax());
+    }
+
+    @Test
+    public void counters_receivedWrittenDropped() throws Exception {
+        final PipelineMetrics metrics = new PipelineMetrics();
+        SampleRingBuffer queue = new SampleRingBuffer(4, OverflowPolicy.DROP_NEWEST, metrics);
+        SampleQueueListener listener = new SampleQueueListener(queue, null, metrics);
+
+        // Only four samples fit, the last two are dropped
+        for (int i = 0; i < 6; i++) {
+            listener.onSample(i < 3 ? SensorTypes.ACCELEROMETER : SensorTypes.GYROSCOPE, System.nanoTime(), 0f, 0f, 0f);
+        }
+
+        queue.drain(new SampleConsumer() {
+            @Override
+            public void onSample(int sensorType, long timestamp, float x, float y, float z, int label) {
+                metrics.countWritten(sensorType, timestamp);
+            }
+
+            @Override
+            public void onBatchComplete() {
+            }
+
+            @Override
+            public void onWriterStopped() {
+            }
+        }, 16);
+
+        assertEquals(3, metrics.getReceived(SensorTypes.ACCELEROMETER));
+        assertEquals(3, metrics.getReceived(SensorTypes.GYROSCOPE));
+        assertEquals(0, metrics.getDropped(SensorTypes.ACCELEROMETER));
+        assertEquals(2, metrics.getDropped(SensorTypes.GYROSCOPE));
+        assertEquals(4, metrics.getTotalWritten());
+        assertEquals(4, metrics.getQueueWait().getCount());
+        assertEquals(4, metrics.getEventToWriter().getCount());
+
+        StringBuilder report = new StringBuilder();
+        metrics.writeReport(report);
+        assertTrue(report.toString().contains("queueWait"));
+    }
+}
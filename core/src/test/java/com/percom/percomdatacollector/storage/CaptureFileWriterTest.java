@@ -0,0 +1,145 @@
+package com.percom.percomdatacollector.storage;
+
+import com.percom.percomdatacollector.Files.BinaryCaptureFormat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Group commits of the capture file by size and time, with every FsyncPolicy.
+ */
+public class CaptureFileWriterTest {
+
+    private static final int RECORD_SIZE = 16;
+
+    private File file;
+
+    @Before
+    public void createFile() throws Exception {
+        file = File.createTempFile("capture", BinaryCaptureFormat.FILE_TYPE);
+    }
+
+    @After
+    public void deleteFile() {
+        file.delete();
+    }
+
+    private static byte[] record(int i) {
+        byte[] record = new byte[RECORD_SIZE];
+        Arrays.fill(record, (byte) i);
+        return record;
+    }
+
+    private byte[] readFile() throws Exception {
+        byte[] bytes = new byte[(int) file.length()];
+        FileInputStream in = new FileInputStream(file);
+
+        try {
+            assertEquals(bytes.length, in.read(bytes));
+        } finally {
+            in.close();
+        }
+
+        return bytes;
+    }
+
+    @Test
+    public void append_commitsWhenTheBufferIsFull() throws Exception {
+        CaptureFileWriter writer = new CaptureFileWriter(file, FsyncPolicy.NEVER, 4 * RECORD_SIZE, 60000);
+
+        for (int i = 0; i < 3; i++) writer.append(record(i), 0, RECORD_SIZE);
+
+        // Buffered, but already counted
+        assertEquals(0, file.length());
+        assertEquals(3 * RECORD_SIZE, writer.getSize());
+
+        writer.append(record(3), 0, RECORD_SIZE);
+        assertEquals(4 * RECORD_SIZE, file.length());
+
+        writer.append(record(4), 0, RECORD_SIZE);
+        writer.flushIfDue();
+        assertEquals(4 * RECORD_SIZE, file.length());
+
+        writer.close();
+        assertEquals(5 * RECORD_SIZE, file.length());
+        assertEquals(file.length(), writer.getSize());
+        assertTrue(writer.isClosed());
+    }
+
+    @Test
+    public void flushIfDue_commitsWhenTheIntervalHasPassed() throws Exception {
+        CaptureFileWriter writer = new CaptureFileWriter(file, FsyncPolicy.NEVER, 1024, 200);
+
+        writer.append(record(1), 0, RECORD_SIZE);
+        writer.flushIfDue();
+        assertEquals(0, file.length());
+
+        Thread.sleep(250);
+        writer.flushIfDue();
+        assertEquals(RECORD_SIZE, file.length());
+
+        // Nothing buffered, nothing written
+        Thread.sleep(250);
+        writer.flushIfDue();
+        assertEquals(RECORD_SIZE, file.length());
+
+        writer.close();
+    }
+
+    @Test
+    public void close_writesTheSameFileWithEveryFsyncPolicy() throws Exception {
+        byte[] expected = null;
+
+        for (FsyncPolicy policy : FsyncPolicy.values()) {
+            assertTrue(file.delete());
+
+            CaptureFileWriter writer = new CaptureFileWriter(file, policy, 3 * RECORD_SIZE, 60000, true);
+            for (int i = 0; i < 10; i++) writer.append(record(i), 0, RECORD_SIZE);
+
+            // The full blocks are on disk before the close
+            assertEquals(3 * (BinaryCaptureFormat.BLOCK_OVERHEAD + 3 * RECORD_SIZE), file.length());
+
+            writer.flush();
+            writer.close();
+            writer.close();
+
+            byte[] written = readFile();
+            assertEquals(4 * BinaryCaptureFormat.BLOCK_OVERHEAD + 10 * RECORD_SIZE, written.length);
+            assertEquals(written.length, writer.getSize());
+
+            if (expected == null) expected = written;
+            assertTrue(policy.name(), Arrays.equals(expected, written));
+        }
+    }
+
+    @Test
+    public void setSizeListener_reportsEveryStepOfTheGranularity() throws Exception {
+        CaptureFileWriter writer = new CaptureFileWriter(file, FsyncPolicy.NEVER, 1024, 60000);
+        final long[] reported = new long[8];
+        final int[] reports = {0};
+
+        writer.setSizeListener(new CaptureSizeListener() {
+            @Override
+            public void onSizeChanged(long sizeBytes) {
+                reported[reports[0]++] = sizeBytes;
+            }
+        }, 2 * RECORD_SIZE);
+
+        for (int i = 0; i < 5; i++) writer.append(record(i), 0, RECORD_SIZE);
+        writer.close();
+
+        // The current size, every second record and the size on disk after the close
+        assertEquals(4, reports[0]);
+        assertEquals(0, reported[0]);
+        assertEquals(2 * RECORD_SIZE, reported[1]);
+        assertEquals(4 * RECORD_SIZE, reported[2]);
+        assertEquals(5 * RECORD_SIZE, reported[3]);
+    }
+}
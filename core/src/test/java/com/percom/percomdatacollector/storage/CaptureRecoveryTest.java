@@ -0,0 +1,104 @@
+package com.percom.percomdatacollector.storage;
+
+import com.percom.percomdatacollector.Files.ArffRecord;
+import com.percom.percomdatacollector.Files.ArffSchema;
+import com.percom.percomdatacollector.Files.BinaryCaptureFormat;
+import com.percom.percomdatacollector.Files.BinaryCaptureReader;
+import com.percom.percomdatacollector.Files.Crc32c;
+import com.percom.percomdatacollector.features.MovementFeatureSchema;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+/**
+ * Cuts torn and damaged blocks off the end of a capture.
+ */
+public class CaptureRecoveryTest {
+
+    private final ArffSchema schema = MovementFeatureSchema.createMerged();
+    private final int recordSize = BinaryCaptureFormat.getRecordSize(schema);
+
+    private File file;
+
+    @Before
+    public void createCapture() throws Exception {
+        file = File.createTempFile("recovery", BinaryCaptureFormat.FILE_TYPE);
+
+        FileOutputStream header = new FileOutputStream(file);
+        header.write(BinaryCaptureFormat.encodeHeader(schema));
+        header.close();
+
+        // Two blocks with 3 and 2 records
+        CaptureFileWriter writer = new CaptureFileWriter(file, FsyncPolicy.NEVER, 3 * recordSize, 1000, true);
+        for (int i = 0; i < 5; i++) writer.append(new byte[recordSize], 0, recordSize);
+        writer.close();
+    }
+
+    @After
+    public void deleteCapture() {
+        file.delete();
+    }
+
+    @Test
+    public void crc32c_matchesCheckValue() {
+        Crc32c crc = new Crc32c();
+        byte[] data = "123456789".getBytes(Charset.forName("US-ASCII"));
+        crc.update(data, 0, data.length);
+
+        assertEquals(0xE3069283L, crc.getValue());
+    }
+
+    @Test
+    public void recover_cutsTornBlock() throws Exception {
+        long validLength = file.length();
+
+        // Start of a block which wasn't written completely
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.seek(validLength);
+        randomAccessFile.writeInt(Integer.reverseBytes(BinaryCaptureFormat.BLOCK_MAGIC));
+        randomAccessFile.write(new byte[recordSize]);
+        randomAccessFile.close();
+
+        assertEquals(4 + recordSize, CaptureRecovery.recover(file));
+        assertEquals(validLength, file.length());
+        assertEquals(5, countRecords());
+    }
+
+    @Test
+    public void recover_cutsBlockWithWrongChecksum() throws Exception {
+        long length = file.length();
+
+        // Damage the last record of the second block
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.seek(length - BinaryCaptureFormat.BLOCK_TRAILER_SIZE - 1);
+        randomAccessFile.write(0x7F);
+        randomAccessFile.close();
+
+        assertEquals(2 * recordSize + BinaryCaptureFormat.BLOCK_OVERHEAD, CaptureRecovery.recover(file));
+        assertEquals(3, countRecords());
+    }
+
+    private int countRecords() throws Exception {
+        BinaryCaptureReader reader = new BinaryCaptureReader(new FileInputStream(file));
+        ArffRecord record = new ArffRecord(reader.readHeader());
+        int count = 0;
+
+        try {
+            while (reader.next(record)) count++;
+            assertFalse(reader.hasTornTail());
+        } finally {
+            reader.close();
+        }
+
+        return count;
+    }
+}
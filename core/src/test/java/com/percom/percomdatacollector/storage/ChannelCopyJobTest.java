@@ -0,0 +1,166 @@
+package com.percom.percomdatacollector.storage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Copies a file in chunks with transferTo or the buffer fallback.
+ */
+public class ChannelCopyJobTest {
+
+    // Not a multiple of the chunk size, the last chunk is shorter
+    private static final int FILE_SIZE = 3 * 1024 * 1024 + 123;
+    private static final long CHUNK_SIZE = 1024 * 1024;
+
+    private File source;
+    private File destination;
+    private byte[] content;
+
+    /**
+     * Records every progress report, optionally cancels after a number of reports.
+     */
+    private static class RecordingHandle extends ExportHandle {
+        final List<Long> progress = new ArrayList<Long>();
+        private final int cancelAfter;
+
+        RecordingHandle(int cancelAfter) {
+            super(null);
+            this.cancelAfter = cancelAfter;
+        }
+
+        @Override
+        public void reportProgress(long bytesDone) {
+            progress.add(bytesDone);
+            if (progress.size() == cancelAfter) cancel();
+        }
+    }
+
+    @Before
+    public void createSource() throws Exception {
+        content = new byte[FILE_SIZE];
+        new Random(7).nextBytes(content);
+
+        source = File.createTempFile("source", ".bin");
+        destination = File.createTempFile("destination", ".bin");
+
+        FileOutputStream out = new FileOutputStream(source);
+        out.write(content);
+        out.close();
+    }
+
+    @After
+    public void deleteFiles() {
+        source.delete();
+        destination.delete();
+    }
+
+    private byte[] readDestination() throws Exception {
+        byte[] bytes = new byte[(int) destination.length()];
+        FileInputStream in = new FileInputStream(destination);
+
+        try {
+            int read = 0;
+            while (read < bytes.length) read += in.read(bytes, read, bytes.length - read);
+        } finally {
+            in.close();
+        }
+
+        return bytes;
+    }
+
+    @Test
+    public void run_copiesInChunksAndReportsTheProgress() throws Exception {
+        RecordingHandle handle = new RecordingHandle(-1);
+
+        assertEquals(FILE_SIZE, new ChannelCopyJob(source, destination, CHUNK_SIZE).run(handle));
+
+        assertEquals(Arrays.asList(CHUNK_SIZE, 2 * CHUNK_SIZE, 3 * CHUNK_SIZE, (long) FILE_SIZE), handle.progress);
+        assertTrue(Arrays.equals(content, readDestination()));
+    }
+
+    @Test
+    public void run_continuesWithTheBufferWhenTransferToFails() throws Exception {
+        final int[] transfers = {0};
+        RecordingHandle handle = new RecordingHandle(-1);
+
+        // The first chunk is transferred, then the file system refuses
+        ChannelCopyJob job = new ChannelCopyJob(source, destination, CHUNK_SIZE) {
+            @Override
+            long transfer(FileChannel in, long position, long count, FileChannel out) throws IOException {
+                if (transfers[0]++ > 0) throw new IOException("transferTo not supported");
+                return super.transfer(in, position, count, out);
+            }
+        };
+
+        assertEquals(FILE_SIZE, job.run(handle));
+
+        // transferTo isn't tried again after the fallback started
+        assertEquals(2, transfers[0]);
+        assertEquals(4, handle.progress.size());
+        assertTrue(Arrays.equals(content, readDestination()));
+    }
+
+    @Test
+    public void run_fallsBackWhenTransferToCopiesNothing() throws Exception {
+        ChannelCopyJob job = new ChannelCopyJob(source, destination, CHUNK_SIZE) {
+            @Override
+            long transfer(FileChannel in, long position, long count, FileChannel out) {
+                return 0;
+            }
+        };
+
+        assertEquals(FILE_SIZE, job.run(new RecordingHandle(-1)));
+        assertTrue(Arrays.equals(content, readDestination()));
+    }
+
+    @Test
+    public void run_failsWhenTheSourceIsTruncated() throws Exception {
+        // The source shrinks to one chunk after the first chunk was transferred
+        ChannelCopyJob job = new ChannelCopyJob(source, destination, CHUNK_SIZE) {
+            @Override
+            long transfer(FileChannel in, long position, long count, FileChannel out) throws IOException {
+                long copied = super.transfer(in, position, count, out);
+
+                RandomAccessFile file = new RandomAccessFile(source, "rw");
+                file.setLength(CHUNK_SIZE);
+                file.close();
+
+                return copied;
+            }
+        };
+
+        try {
+            job.run(new RecordingHandle(-1));
+            fail("Truncated source wasn't detected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("Source truncated"));
+        }
+
+        assertFalse(destination.exists());
+    }
+
+    @Test
+    public void run_deletesThePartialCopyWhenCancelled() throws Exception {
+        RecordingHandle handle = new RecordingHandle(2);
+
+        long copied = new ChannelCopyJob(source, destination, CHUNK_SIZE).run(handle);
+
+        assertEquals(2 * CHUNK_SIZE, copied);
+        assertEquals(2, handle.progress.size());
+        assertFalse(destination.exists());
+    }
+}
@@ -0,0 +1,202 @@
+package com.percom.percomdatacollector.storage;
+
+import com.percom.percomdatacollector.Files.ArffRecord;
+import com.percom.percomdatacollector.Files.ArffSchema;
+import com.percom.percomdatacollector.Files.BinaryCaptureFormat;
+import com.percom.percomdatacollector.Files.BinaryCaptureReader;
+import com.percom.percomdatacollector.Files.BinaryRecordEncoder;
+import com.percom.percomdatacollector.Files.CaptureConverter;
+import com.percom.percomdatacollector.Files.DropStatistics;
+import com.percom.percomdatacollector.Files.ExportFormat;
+import com.percom.percomdatacollector.features.MovementFeatureSchema;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Vector;
+
+import static org.junit.Assert.*;
+
+/**
+ * Rotates a capture into segments and converts them back into one file.
+ */
+public class SegmentedCaptureLogTest {
+
+    private File directory;
+
+    @Before
+    public void createDirectory() throws Exception {
+        directory = File.createTempFile("segments", "");
+        assertTrue(directory.delete() && directory.mkdir());
+    }
+
+    @After
+    public void deleteDirectory() {
+        File[] files = directory.listFiles();
+        if (files != null) for (File file : files) file.delete();
+        directory.delete();
+    }
+
+    @Test
+    public void append_rotatesAndConvertsAllRecords() throws Exception {
+        ArffSchema schema = MovementFeatureSchema.createMerged();
+        int headerSize = BinaryCaptureFormat.encodeHeader(schema).length;
+        int recordSize = BinaryCaptureFormat.getRecordSize(schema);
+        byte[] record = new byte[recordSize];
+
+        SegmentedCaptureLog.create(directory, "capture", schema);
+
+        // 3 records per segment, each segment ends with one block
+        SegmentedCaptureLog log = new SegmentedCaptureLog(directory, "capture", FsyncPolicy.NEVER,
+                headerSize + 4 * recordSize);
+        for (int i = 0; i < 6; i++) log.append(record, 0, recordSize);
+        log.close();
+
+        // The next session continues in the active segment
+        log = new SegmentedCaptureLog(directory, "capture", FsyncPolicy.NEVER, headerSize + 4 * recordSize);
+        for (int i = 0; i < 5; i++) log.append(record, 0, recordSize);
+
+        // The size is counted with the block overhead before the close re-syncs it
+        log.flush();
+        assertEquals(SegmentedCaptureLog.calcSize(directory, "capture"), log.getSize());
+        log.close();
+
+        List<File> segments = SegmentedCaptureLog.listSegments(directory, "capture");
+        assertEquals(4, segments.size());
+        assertEquals(4 * (headerSize + BinaryCaptureFormat.BLOCK_OVERHEAD) + 11 * recordSize,
+                SegmentedCaptureLog.calcSize(directory, "capture"));
+        assertEquals(SegmentedCaptureLog.calcSize(directory, "capture"), log.getSize());
+
+        Vector<InputStream> inputs = new Vector<InputStream>();
+        for (File segment : segments) inputs.add(new FileInputStream(segment));
+
+        assertEquals(11, CaptureConverter.convert(inputs.elements(), new ByteArrayOutputStream(), ExportFormat.CSV));
+    }
+
+    @Test
+    public void append_startsEverySegmentWithTheLabelSegment() throws Exception {
+        ArffSchema schema = MovementFeatureSchema.createRawSamples();
+        int headerSize = BinaryCaptureFormat.encodeHeader(schema).length;
+        int recordSize = BinaryCaptureFormat.getRecordSize(schema);
+        BinaryRecordEncoder encoder = new BinaryRecordEncoder(schema);
+        int[] labels = {0, 0, 0, 1, 1, 1, 1, 2};
+
+        SegmentedCaptureLog.create(directory, "capture", schema);
+
+        SegmentedCaptureLog log = new SegmentedCaptureLog(directory, "capture", FsyncPolicy.NEVER,
+                headerSize + BinaryCaptureFormat.BLOCK_OVERHEAD + 3 * recordSize);
+
+        for (int i = 0; i < labels.length; i++) {
+            encoder.beginRecord(i + 1);
+            encoder.numeric(i);
+            encoder.numeric(0);
+            encoder.numeric(0);
+            encoder.nominal(MovementFeatureSchema.SENSOR_ACCELEROMETER);
+            encoder.nominal(labels[i]);
+
+            if (encoder.isSegmentStart()) log.append(encoder.getSegmentMarker(), 0, encoder.getLength());
+            log.append(encoder.getBuffer(), 0, encoder.getLength());
+        }
+
+        // Also the segment markers repeated at the start of a segment are counted
+        log.flush();
+        assertEquals(SegmentedCaptureLog.calcSize(directory, "capture"), log.getSize());
+        log.close();
+
+        // The movement type isn't stored in the records
+        assertEquals(21, recordSize);
+
+        // Every segment can be read on its own
+        int index = 0;
+
+        for (File segment : SegmentedCaptureLog.listSegments(directory, "capture")) {
+            BinaryCaptureReader reader = new BinaryCaptureReader(new FileInputStream(segment));
+            ArffRecord record = new ArffRecord(reader.readHeader());
+
+            while (reader.next(record)) {
+                assertEquals(index + 1, record.getTimestamp());
+                assertEquals(labels[index], record.getNominal(1));
+                index++;
+            }
+
+            reader.close();
+        }
+
+        assertEquals(labels.length, index);
+    }
+
+    @Test
+    public void close_writesDropStatisticsPerSegment() throws Exception {
+        ArffSchema schema = MovementFeatureSchema.createMerged();
+        int headerSize = BinaryCaptureFormat.encodeHeader(schema).length;
+        int recordSize = BinaryCaptureFormat.getRecordSize(schema);
+        byte[] record = new byte[recordSize];
+
+        SegmentedCaptureLog.create(directory, "capture", schema);
+
+        // The counters of the source grow between the records
+        final long[] counters = new long[2];
+        DropStatisticsSource source = new DropStatisticsSource() {
+            @Override
+            public DropStatistics getDropStatistics() {
+                return new DropStatistics(3, counters[0], counters[1]);
+            }
+        };
+
+        SegmentedCaptureLog log = new SegmentedCaptureLog(directory, "capture", FsyncPolicy.NEVER,
+                headerSize + 4 * recordSize);
+        counters[0] = 5;
+        log.setDropStatisticsSource(source);
+        for (int i = 0; i < 3; i++) log.append(record, 0, recordSize);
+        counters[0] = 7;
+        counters[1] = 2;
+        log.append(record, 0, recordSize);
+        counters[1] = 3;
+        log.close();
+
+        List<File> segments = SegmentedCaptureLog.listSegments(directory, "capture");
+        assertEquals(2, segments.size());
+
+        DropStatistics first = readDropStatistics(segments.get(0));
+        DropStatistics second = readDropStatistics(segments.get(1));
+
+        assertEquals(3, first.getPolicyCode());
+        assertEquals(2, first.getDroppedSamples());
+        assertEquals(2, first.getDecimatedSamples());
+        assertEquals(0, second.getDroppedSamples());
+        assertEquals(1, second.getDecimatedSamples());
+    }
+
+    private static DropStatistics readDropStatistics(File segment) throws Exception {
+        BinaryCaptureReader reader = new BinaryCaptureReader(new FileInputStream(segment));
+
+        try {
+            reader.readHeader();
+            return reader.getDropStatistics();
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void moveSegments_freesTheName() throws Exception {
+        ArffSchema schema = MovementFeatureSchema.createMerged();
+        File trash = new File(directory, "deleted");
+
+        SegmentedCaptureLog.create(directory, "capture", schema);
+        SegmentedCaptureLog.moveSegments(directory, "capture", trash);
+
+        assertTrue(SegmentedCaptureLog.listSegments(directory, "capture").isEmpty());
+        SegmentedCaptureLog.create(directory, "capture", schema);
+        assertEquals(1, trash.list().length);
+
+        for (File file : trash.listFiles()) file.delete();
+        trash.delete();
+    }
+}
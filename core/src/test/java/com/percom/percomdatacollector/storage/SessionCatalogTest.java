@@ -0,0 +1,131 @@
+package com.percom.percomdatacollector.storage;
+
+import com.percom.percomdatacollector.Files.BinaryCaptureFormat;
+import com.percom.percomdatacollector.capture.RecordingMode;
+import com.percom.percomdatacollector.capture.SensorTypes;
+import com.percom.percomdatacollector.features.MovementFeatureSchema;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Stores the session metadata in the append-only catalog file.
+ */
+public class SessionCatalogTest {
+
+    private static final int[] SENSORS = {SensorTypes.ACCELEROMETER, SensorTypes.GYROSCOPE};
+
+    private File file;
+
+    @Before
+    public void createFile() throws Exception {
+        file = File.createTempFile("sessions", ".catalog");
+        file.delete();
+    }
+
+    @After
+    public void deleteFile() {
+        file.delete();
+    }
+
+    private static SessionInfo finished(String name, long startMillis, long walking, long jogging) {
+        return SessionInfo.started(name, RecordingMode.FEATURES, startMillis)
+                .finished(startMillis + 1000, 4096, new long[]{walking, jogging}, SENSORS, new long[]{walking * 10, jogging * 10});
+    }
+
+    @Test
+    public void reopen_restoresTheLastEntryOfEverySession() throws Exception {
+        SessionCatalog catalog = new SessionCatalog(file);
+        catalog.put(SessionInfo.started("b", RecordingMode.RAW_SAMPLES, 2000));
+        catalog.put(finished("a", 1000, 5, 0));
+        catalog.put(finished("c", 3000, 1, 1));
+        catalog.markExported("a", 9000);
+        catalog.remove("c");
+
+        List<SessionInfo> sessions = new SessionCatalog(file).list();
+
+        assertEquals(2, sessions.size());
+        assertEquals("a", sessions.get(0).getName());
+        assertEquals(9000, sessions.get(0).getExportedMillis());
+        assertEquals(50, sessions.get(0).getSampleCount(SensorTypes.ACCELEROMETER));
+        assertEquals("b", sessions.get(1).getName());
+        assertEquals(RecordingMode.RAW_SAMPLES, sessions.get(1).getMode());
+        assertTrue(sessions.get(1).isOpen());
+    }
+
+    @Test
+    public void open_rejectsACaptureByItsMagic() throws Exception {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(BinaryCaptureFormat.encodeHeader(MovementFeatureSchema.createRawSamples()));
+        out.close();
+
+        try {
+            new SessionCatalog(file);
+            fail("Capture opened as catalog");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("Not a session catalog"));
+        }
+    }
+
+    @Test
+    public void reopen_cutsOffATornEntry() throws Exception {
+        SessionCatalog catalog = new SessionCatalog(file);
+        catalog.put(finished("a", 1000, 5, 0));
+        long intact = file.length();
+        catalog.put(finished("b", 2000, 5, 0));
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.setLength(file.length() - 3);
+        randomAccessFile.close();
+
+        catalog = new SessionCatalog(file);
+
+        assertEquals(1, catalog.list().size());
+        assertEquals(intact, file.length());
+
+        // Appending continues behind the last intact entry
+        catalog.put(finished("c", 3000, 1, 0));
+        assertEquals(2, new SessionCatalog(file).list().size());
+    }
+
+    @Test
+    public void summarize_sumsTheFilteredSessions() throws Exception {
+        SessionCatalog catalog = new SessionCatalog(file);
+        catalog.put(finished("a", 1000, 5, 0));
+        catalog.put(finished("b", 2000, 2, 3));
+        catalog.put(SessionInfo.started("c", RecordingMode.FEATURES, 3000));
+        catalog.markExported("a", 9000);
+
+        SessionCatalog.Summary all = catalog.summarize(SessionCatalog.ALL);
+        SessionCatalog.Summary pending = catalog.summarize(SessionCatalog.NOT_EXPORTED);
+
+        assertEquals(3, all.getSessionCount());
+        assertEquals(1, all.getNotExportedCount());
+        assertEquals(2 * 4096, all.getSizeBytes());
+        assertEquals(7, all.getRecordCount(0));
+        assertEquals(70, all.getSampleCount(SensorTypes.ACCELEROMETER));
+        assertEquals(1, pending.getSessionCount());
+        assertEquals(3, pending.getRecordCount(1));
+    }
+
+    @Test
+    public void reopen_compactsOverwrittenEntries() throws Exception {
+        SessionCatalog catalog = new SessionCatalog(file);
+
+        for (int i = 0; i < 100; i++) catalog.put(finished("a", 1000, i, 0));
+
+        catalog = new SessionCatalog(file);
+
+        assertEquals(1, catalog.getEntryCount());
+        assertEquals(99, catalog.get("a").getRecordCount(0));
+    }
+}